@@ -0,0 +1,334 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shared executor for all background work of the explorer that talks to a location, such as listing directories and jobs,
+ * submitting jobs, prefetching and polling. SwingWorkers are run here too, instead of on the default SwingWorker pool.
+ * 
+ * Every task has a priority, and waiting tasks are started strictly in priority order, so prefetching and polling never delay a
+ * listing the user asked for. A few threads are reserved for interactive work, so even a refresh does not have to wait for
+ * long running background tasks to finish. Within a priority, locations take turns, so a slow or busy location cannot starve
+ * the others.
+ * 
+ * On a JDK with virtual threads each task gets its own virtual thread, as tasks mostly block on remote I/O. Otherwise a pool of
+ * daemon threads is used.
+ * 
+ * The number of tasks waiting, running and done, and how long they waited, is logged at debug level every metrics interval in
+ * which there was any work.
+ * 
+ * Thread safe.
+ */
+public final class BackgroundExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(BackgroundExecutor.class);
+
+    /**
+     * Priority of a task, from high to low.
+     */
+    public enum Priority {
+        /** Work the user is waiting for, such as a listing. */
+        INTERACTIVE,
+        /** Work the user asked for, but is not watching, such as a job submission. */
+        SUBMISSION,
+        /** Work nobody asked for, such as prefetching and polling. */
+        BACKGROUND
+    }
+
+    static final boolean DEFAULT_VIRTUAL_THREADS = Boolean.parseBoolean(System.getProperty(
+            "octopus.explorer.executor.virtual", "true"));
+
+    //tasks waiting longer than this are logged (in milliseconds)
+    private static final long SLOW_WAIT = 1000;
+
+    //interval of logging the metrics (in milliseconds)
+    static final long DEFAULT_METRICS_INTERVAL = Long.getLong("octopus.explorer.executor.metrics.interval", 60000);
+
+    private static final BackgroundExecutor INSTANCE = new BackgroundExecutor();
+
+    public static BackgroundExecutor get() {
+        return INSTANCE;
+    }
+
+    private static final class Task {
+        private final Priority priority;
+        private final Runnable runnable;
+        private final long queued = System.currentTimeMillis();
+
+        Task(Priority priority, Runnable runnable) {
+            this.priority = priority;
+            this.runnable = runnable;
+        }
+    }
+
+    private final ExecutorService runner;
+    private final boolean virtual;
+
+    //delays tasks scheduled for later, then hands them to the queue
+    private final ScheduledExecutorService timer;
+
+    private final int maxRunning;
+    private final int reserved;
+
+    //waiting tasks per priority, per location, locations in turn order
+    private final List<Map<String, Deque<Task>>> queues = new ArrayList<Map<String, Deque<Task>>>();
+
+    //metrics, per priority
+    private final int[] queued = new int[Priority.values().length];
+    private final int[] maxQueued = new int[Priority.values().length];
+    private final int[] running = new int[Priority.values().length];
+    private final long[] completed = new long[Priority.values().length];
+    private final long[] waited = new long[Priority.values().length];
+
+    private int totalRunning = 0;
+
+    //tasks done when the metrics were last logged
+    private long lastLoggedCompleted = 0;
+
+    private BackgroundExecutor() {
+        ExecutorService virtualRunner = DEFAULT_VIRTUAL_THREADS ? newVirtualThreadExecutor() : null;
+        virtual = virtualRunner != null;
+
+        if (virtual) {
+            runner = virtualRunner;
+        } else {
+            runner = Executors.newCachedThreadPool(new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "background worker " + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        //blocked virtual threads are cheap, so allow more of them
+        maxRunning = Math.max(2, Integer.getInteger("octopus.explorer.executor.threads", virtual ? 64 : 10));
+        reserved = Math.min(maxRunning - 1, Math.max(1, Integer.getInteger("octopus.explorer.executor.reserved", 2)));
+
+        timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "background scheduler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        for (int i = 0; i < Priority.values().length; i++) {
+            queues.add(new LinkedHashMap<String, Deque<Task>>());
+        }
+
+        logger.debug("background executor using {} threads, at most {} at a time, {} reserved for interactive work",
+                virtual ? "virtual" : "platform", maxRunning, reserved);
+
+        if (logger.isDebugEnabled() && DEFAULT_METRICS_INTERVAL > 0) {
+            timer.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    logMetrics();
+                }
+            }, DEFAULT_METRICS_INTERVAL, DEFAULT_METRICS_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Returns an executor creating a virtual thread per task, or null if this JDK does not have virtual threads.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Runs the given task in the background, once all waiting tasks with a higher priority have started. The location (which
+     * may be null) is only used to take turns with tasks for other locations.
+     */
+    public void execute(Priority priority, String location, Runnable task) {
+        String key = location == null ? "" : location;
+
+        synchronized (this) {
+            Map<String, Deque<Task>> queue = queues.get(priority.ordinal());
+            Deque<Task> tasks = queue.get(key);
+            if (tasks == null) {
+                tasks = new ArrayDeque<Task>();
+                queue.put(key, tasks);
+            }
+            tasks.addLast(new Task(priority, task));
+
+            int index = priority.ordinal();
+            queued[index]++;
+            maxQueued[index] = Math.max(maxQueued[index], queued[index]);
+        }
+
+        dispatch();
+    }
+
+    /**
+     * Runs the given task in the background after the given delay (in milliseconds).
+     */
+    public void schedule(final Priority priority, final String location, final Runnable task, long delay) {
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                execute(priority, location, task);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts waiting tasks, as long as there is room.
+     */
+    private void dispatch() {
+        while (true) {
+            final Task task;
+
+            synchronized (this) {
+                task = next();
+                if (task == null) {
+                    return;
+                }
+
+                int index = task.priority.ordinal();
+                queued[index]--;
+                running[index]++;
+                totalRunning++;
+
+                long wait = System.currentTimeMillis() - task.queued;
+                waited[index] += wait;
+                if (wait > SLOW_WAIT) {
+                    logger.debug("{} task waited {} ms to start, {}", task.priority, wait, this);
+                }
+            }
+
+            runner.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.runnable.run();
+                    } catch (Throwable e) {
+                        logger.error("Background task failed", e);
+                    } finally {
+                        finished(task);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Takes the next task to start, or returns null if none can be started now.
+     */
+    private Task next() {
+        for (Priority priority : Priority.values()) {
+            if (totalRunning >= maxRunning || (priority != Priority.INTERACTIVE && totalRunning >= maxRunning - reserved)) {
+                return null;
+            }
+
+            Iterator<Map.Entry<String, Deque<Task>>> locations = queues.get(priority.ordinal()).entrySet().iterator();
+            if (!locations.hasNext()) {
+                continue;
+            }
+
+            Map.Entry<String, Deque<Task>> first = locations.next();
+            Task result = first.getValue().pollFirst();
+
+            //this location had its turn, move it to the back
+            locations.remove();
+            if (!first.getValue().isEmpty()) {
+                queues.get(priority.ordinal()).put(first.getKey(), first.getValue());
+            }
+            return result;
+        }
+        return null;
+    }
+
+    private void finished(Task task) {
+        synchronized (this) {
+            int index = task.priority.ordinal();
+            running[index]--;
+            completed[index]++;
+            totalRunning--;
+        }
+        dispatch();
+    }
+
+    /**
+     * Logs the metrics, unless nothing was queued, running or done since they were last logged.
+     */
+    private synchronized void logMetrics() {
+        long done = 0;
+        int busy = totalRunning;
+        for (int index = 0; index < completed.length; index++) {
+            done += completed[index];
+            busy += queued[index];
+        }
+
+        if (done != lastLoggedCompleted || busy > 0) {
+            lastLoggedCompleted = done;
+            logger.debug("background executor {}", this);
+        }
+    }
+
+    /**
+     * Average time tasks of the given priority waited to start (in milliseconds).
+     */
+    private double getAverageWait(int index) {
+        long started = completed[index] + running[index];
+        return started == 0 ? 0 : (double) waited[index] / started;
+    }
+
+    public boolean usesVirtualThreads() {
+        return virtual;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder result = new StringBuilder();
+        for (Priority priority : Priority.values()) {
+            int index = priority.ordinal();
+            if (result.length() > 0) {
+                result.append(", ");
+            }
+            result.append(String.format("%s: %d queued (max %d), %d running, %d done, %.1f ms average wait",
+                    priority.name().toLowerCase(), queued[index], maxQueued[index], running[index], completed[index],
+                    getAverageWait(index)));
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,515 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer;
+
+import java.awt.EventQueue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Row sorter that sorts and filters in the background, so even tables with millions of rows can be sorted without blocking
+ * the event dispatch thread.
+ * 
+ * When the sort order or filter changes, the sort keys and filter texts of all rows are snapshotted (cheap, the model only
+ * copies some arrays), and the rows are sorted by a merge sort over an array of row indices on a background thread. Once
+ * done, the new order replaces the old one in a single step. Until then the table keeps showing the previous order.
+ * 
+ * Changes to the model are applied to the current order right away: deleted rows are dropped, and inserted rows are shown at
+ * the end if they pass the filter. If the table is sorted, the rows are then sorted again in the background. Requests to sort
+ * while sorting are coalesced into a single sort once the current one is done.
+ * 
+ * Only the primary sort key is used. Apart from the background sorting, all methods must be called on the event dispatch
+ * thread.
+ */
+public class BackgroundRowSorter extends RowSorter<SortableTableModel> {
+
+    private static final Logger logger = LoggerFactory.getLogger(BackgroundRowSorter.class);
+
+    //runs are sorted with an insertion sort first
+    private static final int RUN_LENGTH = 32;
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "table sorter");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        }
+    });
+
+    private final SortableTableModel model;
+
+    private List<SortKey> sortKeys = Collections.emptyList();
+
+    //lower case, empty if not filtering
+    private String filter = "";
+
+    //number of rows in the model, as far as we know
+    private int modelRowCount;
+
+    //null if the view is the same as the model
+    private int[] viewToModel = null;
+    private int viewRowCount;
+
+    //computed from viewToModel when first needed
+    private int[] modelToView = null;
+
+    //incremented whenever rows are inserted (other than at the end) or deleted, which invalidates a sort in progress
+    private int structureVersion = 0;
+
+    //incremented for every sort started, or abandoned, so sorts in progress can tell they are no longer needed
+    private final AtomicInteger generation = new AtomicInteger();
+
+    private boolean sorting = false;
+    private boolean sortPending = false;
+
+    public BackgroundRowSorter(SortableTableModel model) {
+        this.model = model;
+        modelRowCount = model.getRowCount();
+    }
+
+    @Override
+    public SortableTableModel getModel() {
+        return model;
+    }
+
+    private boolean isActive() {
+        return !sortKeys.isEmpty() || !filter.isEmpty();
+    }
+
+    @Override
+    public void toggleSortOrder(int column) {
+        if (!model.isSortable(column)) {
+            return;
+        }
+
+        SortOrder order = SortOrder.ASCENDING;
+        if (!sortKeys.isEmpty() && sortKeys.get(0).getColumn() == column
+                && sortKeys.get(0).getSortOrder() == SortOrder.ASCENDING) {
+            order = SortOrder.DESCENDING;
+        }
+        setSortKeys(Collections.singletonList(new SortKey(column, order)));
+    }
+
+    @Override
+    public List<? extends SortKey> getSortKeys() {
+        return sortKeys;
+    }
+
+    @Override
+    public void setSortKeys(List<? extends SortKey> keys) {
+        List<SortKey> newKeys = new ArrayList<SortKey>();
+        if (keys != null) {
+            for (SortKey key : keys) {
+                if (key.getSortOrder() != SortOrder.UNSORTED && model.isSortable(key.getColumn())) {
+                    newKeys.add(key);
+                }
+            }
+        }
+
+        if (newKeys.equals(sortKeys)) {
+            return;
+        }
+        sortKeys = Collections.unmodifiableList(newKeys);
+        fireSortOrderChanged();
+        sort();
+    }
+
+    /**
+     * Only shows rows whose filter text contains the given text, ignoring case. An empty text shows all rows.
+     */
+    public void setFilter(String text) {
+        text = text == null ? "" : text.trim().toLowerCase();
+        if (text.equals(filter)) {
+            return;
+        }
+        filter = text;
+        sort();
+    }
+
+    public String getFilter() {
+        return filter;
+    }
+
+    @Override
+    public int convertRowIndexToModel(int index) {
+        if (index < 0 || index >= getViewRowCount()) {
+            throw new IndexOutOfBoundsException("invalid view index " + index);
+        }
+        return viewToModel == null ? index : viewToModel[index];
+    }
+
+    @Override
+    public int convertRowIndexToView(int index) {
+        if (index < 0 || index >= modelRowCount) {
+            throw new IndexOutOfBoundsException("invalid model index " + index);
+        }
+        if (viewToModel == null) {
+            return index;
+        }
+        if (modelToView == null) {
+            modelToView = new int[modelRowCount];
+            Arrays.fill(modelToView, -1);
+            for (int i = 0; i < viewRowCount; i++) {
+                modelToView[viewToModel[i]] = i;
+            }
+        }
+        return modelToView[index];
+    }
+
+    @Override
+    public int getViewRowCount() {
+        return viewToModel == null ? modelRowCount : viewRowCount;
+    }
+
+    @Override
+    public int getModelRowCount() {
+        return model.getRowCount();
+    }
+
+    /**
+     * Sorts and filters again in the background, or shows the model as is if neither sorted nor filtered.
+     */
+    private void sort() {
+        if (!isActive()) {
+            //abandon any sort in progress
+            generation.incrementAndGet();
+            sorting = false;
+            sortPending = false;
+            if (viewToModel != null) {
+                int[] previous = Arrays.copyOf(viewToModel, viewRowCount);
+                viewToModel = null;
+                modelToView = null;
+                fireRowSorterChanged(previous);
+            }
+            return;
+        }
+
+        if (sorting) {
+            sortPending = true;
+            return;
+        }
+
+        startSort();
+    }
+
+    private void startSort() {
+        final int rowCount = model.getRowCount();
+        final SortKeys keys = sortKeys.isEmpty() ? null : model.getSortKeys(sortKeys.get(0).getColumn());
+        final boolean descending = !sortKeys.isEmpty() && sortKeys.get(0).getSortOrder() == SortOrder.DESCENDING;
+        final String query = filter;
+        final String[] texts = query.isEmpty() ? null : filterTexts(rowCount);
+        final int version = structureVersion;
+        final int sortGeneration = generation.incrementAndGet();
+
+        sorting = true;
+        sortPending = false;
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.currentTimeMillis();
+                int[] result = null;
+
+                try {
+                    result = sort(rowCount, keys, descending, query, texts, sortGeneration);
+                } catch (Throwable e) {
+                    logger.error("Could not sort table", e);
+                }
+
+                if (result != null) {
+                    logger.debug("sorted {} rows in {} ms", rowCount, System.currentTimeMillis() - start);
+                }
+
+                final int[] sorted = result;
+                EventQueue.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        sorted(sorted, rowCount, version, sortGeneration);
+                    }
+                });
+            }
+        });
+    }
+
+    private String[] filterTexts(int rowCount) {
+        String[] result = new String[rowCount];
+        for (int i = 0; i < rowCount; i++) {
+            result[i] = model.getFilterText(i);
+        }
+        return result;
+    }
+
+    /**
+     * Called on the event dispatch thread once a sort is done. The result is null if the sort was abandoned or failed.
+     */
+    private void sorted(int[] result, int rowCount, int version, int sortGeneration) {
+        if (sortGeneration != generation.get()) {
+            //abandoned, a newer sort (if any) will report itself
+            return;
+        }
+        sorting = false;
+
+        if (result != null && version == structureVersion) {
+            //rows added since the snapshot are shown at the end, and sorted in the next round
+            int[] view = Arrays.copyOf(result, result.length + (modelRowCount - rowCount));
+            int count = result.length;
+            for (int row = rowCount; row < modelRowCount; row++) {
+                if (matches(row)) {
+                    view[count++] = row;
+                }
+            }
+            if (modelRowCount > rowCount && !sortKeys.isEmpty()) {
+                sortPending = true;
+            }
+
+            int[] previous = viewToModel == null ? null : Arrays.copyOf(viewToModel, viewRowCount);
+            viewToModel = view;
+            viewRowCount = count;
+            modelToView = null;
+            fireRowSorterChanged(previous);
+        } else if (result != null) {
+            //rows were inserted or deleted while sorting, the result no longer applies
+            sortPending = true;
+        }
+
+        if (sortPending) {
+            startSort();
+        }
+    }
+
+    private boolean matches(int row) {
+        return filter.isEmpty() || containsIgnoreCase(model.getFilterText(row), filter);
+    }
+
+    /**
+     * Returns true if the text contains the given lower case query, ignoring case. Does not allocate anything.
+     */
+    static boolean containsIgnoreCase(String text, String query) {
+        if (text == null) {
+            return false;
+        }
+        int last = text.length() - query.length();
+        for (int i = 0; i <= last; i++) {
+            if (text.regionMatches(true, i, query, 0, query.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the indices of the rows passing the filter, in sorted order, or null if abandoned.
+     */
+    private int[] sort(int rowCount, SortKeys keys, boolean descending, String query, String[] texts, int sortGeneration) {
+        int[] index = new int[rowCount];
+        int count = 0;
+
+        for (int i = 0; i < rowCount; i++) {
+            if (texts == null || containsIgnoreCase(texts[i], query)) {
+                index[count++] = i;
+            }
+        }
+
+        if (generation.get() != sortGeneration) {
+            return null;
+        }
+
+        if (keys != null) {
+            keys.prepare();
+            if (!mergeSort(index, count, keys, descending, sortGeneration)) {
+                return null;
+            }
+        }
+
+        return count == rowCount ? index : Arrays.copyOf(index, count);
+    }
+
+    /**
+     * Stable merge sort of the first <code>count</code> indices by the given keys. Returns false if abandoned.
+     */
+    private boolean mergeSort(int[] index, int count, SortKeys keys, boolean descending, int sortGeneration) {
+        int sign = descending ? -1 : 1;
+
+        for (int start = 0; start < count; start += RUN_LENGTH) {
+            int end = Math.min(start + RUN_LENGTH, count);
+            for (int i = start + 1; i < end; i++) {
+                int row = index[i];
+                int j = i - 1;
+                while (j >= start && sign * keys.compare(index[j], row) > 0) {
+                    index[j + 1] = index[j];
+                    j--;
+                }
+                index[j + 1] = row;
+            }
+        }
+
+        int[] source = index;
+        int[] target = new int[count];
+
+        for (int width = RUN_LENGTH; width < count; width *= 2) {
+            if (generation.get() != sortGeneration) {
+                return false;
+            }
+
+            for (int start = 0; start < count; start += 2 * width) {
+                int middle = Math.min(start + width, count);
+                int end = Math.min(start + 2 * width, count);
+                int left = start;
+                int right = middle;
+
+                for (int i = start; i < end; i++) {
+                    if (left < middle && (right >= end || sign * keys.compare(source[left], source[right]) <= 0)) {
+                        target[i] = source[left++];
+                    } else {
+                        target[i] = source[right++];
+                    }
+                }
+            }
+
+            int[] swap = source;
+            source = target;
+            target = swap;
+        }
+
+        if (source != index) {
+            System.arraycopy(source, 0, index, 0, count);
+        }
+        return true;
+    }
+
+    @Override
+    public void modelStructureChanged() {
+        allRowsChanged();
+    }
+
+    @Override
+    public void allRowsChanged() {
+        modelRowCount = model.getRowCount();
+        structureVersion++;
+
+        if (isActive()) {
+            //show the rows in model order until sorted
+            int[] view = new int[modelRowCount];
+            int count = 0;
+            for (int row = 0; row < modelRowCount; row++) {
+                if (matches(row)) {
+                    view[count++] = row;
+                }
+            }
+            viewToModel = view;
+            viewRowCount = count;
+            modelToView = null;
+            sort();
+        }
+    }
+
+    @Override
+    public void rowsInserted(int firstRow, int endRow) {
+        int count = endRow - firstRow + 1;
+        boolean atEnd = firstRow >= modelRowCount;
+
+        if (!atEnd) {
+            structureVersion++;
+        }
+
+        if (viewToModel == null) {
+            modelRowCount += count;
+            if (isActive()) {
+                sort();
+            }
+            return;
+        }
+
+        if (!atEnd) {
+            for (int i = 0; i < viewRowCount; i++) {
+                if (viewToModel[i] >= firstRow) {
+                    viewToModel[i] += count;
+                }
+            }
+        }
+        modelRowCount += count;
+
+        if (viewRowCount + count > viewToModel.length) {
+            viewToModel = Arrays.copyOf(viewToModel, Math.max(viewRowCount + count, viewToModel.length * 3 / 2));
+        }
+        for (int row = firstRow; row <= endRow; row++) {
+            if (matches(row)) {
+                viewToModel[viewRowCount++] = row;
+            }
+        }
+        modelToView = null;
+
+        //only filtered rows stay in order when added at the end
+        if (!sortKeys.isEmpty() || !atEnd) {
+            sort();
+        }
+    }
+
+    @Override
+    public void rowsDeleted(int firstRow, int endRow) {
+        int count = endRow - firstRow + 1;
+        modelRowCount -= count;
+        structureVersion++;
+
+        if (sorting) {
+            sortPending = true;
+        }
+
+        if (viewToModel == null) {
+            return;
+        }
+
+        int kept = 0;
+        for (int i = 0; i < viewRowCount; i++) {
+            int row = viewToModel[i];
+            if (row > endRow) {
+                viewToModel[kept++] = row - count;
+            } else if (row < firstRow) {
+                viewToModel[kept++] = row;
+            }
+        }
+        viewRowCount = kept;
+        modelToView = null;
+    }
+
+    @Override
+    public void rowsUpdated(int firstRow, int endRow) {
+        if (isActive()) {
+            sort();
+        }
+    }
+
+    @Override
+    public void rowsUpdated(int firstRow, int endRow, int column) {
+        if (!filter.isEmpty() || (!sortKeys.isEmpty() && sortKeys.get(0).getColumn() == column)) {
+            sort();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import nl.esciencecenter.octopus.exceptions.OctopusIOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Deadline of a remote operation. Remote calls do not respond to interrupts, so if the operation is not done in time, the
+ * deadline runs an action that makes the call fail instead, usually aborting the session it is blocked on (see
+ * {@link SessionPool#startDeadline(String, nl.esciencecenter.octopus.files.FileSystem)}).
+ * 
+ * Operations that make progress in steps (such as reading a directory stream) call {@link #touch()} after every step, so the
+ * timeout applies to each step rather than the whole operation. A cancelled operation can be given a much shorter deadline
+ * with {@link #expireWithin(long)}, so it stops using the session (and bandwidth) right away if it does not stop by itself.
+ * 
+ * Thread safe.
+ */
+public final class Deadline {
+
+    private static final Logger logger = LoggerFactory.getLogger(Deadline.class);
+
+    //time any single remote call may take (in milliseconds)
+    public static final long DEFAULT_TIMEOUT = Long.getLong("octopus.explorer.remote.timeout", 60000);
+
+    private static final ScheduledExecutorService watchdog;
+
+    static {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "deadline watchdog");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        watchdog = Executors.unconfigurableScheduledExecutorService(executor);
+    }
+
+    private final long timeout;
+    private final Runnable onExpiry;
+
+    //System.nanoTime() at which this deadline expires
+    private volatile long expiresAt;
+
+    //once shortened, progress no longer pushes the deadline back
+    private volatile boolean shortened = false;
+
+    private volatile boolean done = false;
+    private boolean expired = false;
+
+    private Deadline(long timeout, Runnable onExpiry) {
+        this.timeout = timeout;
+        this.onExpiry = onExpiry;
+        expiresAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+    }
+
+    /**
+     * Starts a deadline, running the given action if {@link #done()} is not called within the given timeout (in
+     * milliseconds).
+     */
+    public static Deadline start(long timeout, Runnable onExpiry) {
+        Deadline result = new Deadline(timeout, onExpiry);
+        result.scheduleCheck(timeout);
+        return result;
+    }
+
+    private void scheduleCheck(long delay) {
+        try {
+            watchdog.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    check();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            logger.warn("Could not schedule deadline check", e);
+        }
+    }
+
+    private void check() {
+        if (done) {
+            return;
+        }
+
+        long remaining = expiresAt - System.nanoTime();
+        if (remaining > 0) {
+            //made progress since, check again later
+            scheduleCheck(TimeUnit.NANOSECONDS.toMillis(remaining) + 1);
+            return;
+        }
+
+        synchronized (this) {
+            if (expired || done) {
+                return;
+            }
+            expired = true;
+        }
+
+        try {
+            onExpiry.run();
+        } catch (RuntimeException e) {
+            logger.warn("Error on expiry of deadline", e);
+        }
+    }
+
+    /**
+     * The operation made progress, restart the timeout.
+     */
+    public void touch() {
+        if (!shortened) {
+            expiresAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        }
+    }
+
+    /**
+     * Makes this deadline expire within the given time (in milliseconds), for instance because the operation was cancelled.
+     */
+    public void expireWithin(long delay) {
+        shortened = true;
+        long at = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+        if (at < expiresAt) {
+            expiresAt = at;
+        }
+        scheduleCheck(delay);
+    }
+
+    /**
+     * The operation is done, the action will not run anymore (if it did not run already).
+     */
+    public synchronized void done() {
+        done = true;
+    }
+
+    /**
+     * Returns true if the deadline expired, and the action was run.
+     */
+    public synchronized boolean isExpired() {
+        return expired;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Returns the exception to throw when the given operation failed because this deadline expired.
+     */
+    public OctopusIOException timedOut(String operation, Throwable cause) {
+        return new OctopusIOException("explorer", operation + " did not finish within " + timeout + " ms", cause);
+    }
+}
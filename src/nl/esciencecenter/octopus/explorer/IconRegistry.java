@@ -0,0 +1,257 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer;
+
+import java.awt.Component;
+import java.awt.Container;
+import java.awt.Graphics;
+import java.awt.Image;
+import java.awt.MediaTracker;
+import java.awt.image.BufferedImage;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.imageio.ImageIO;
+import javax.swing.CellRendererPane;
+import javax.swing.ImageIcon;
+import javax.swing.SwingUtilities;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shared registry of all icons of the explorer. Each icon is loaded only once, no matter how often it is asked for, and
+ * decoded on a background thread. Asking for an icon only reads the size from the PNG header, so building the user interface
+ * never waits for images to decode. An icon painted before it is decoded is left blank, and repainted once it is.
+ *
+ * Thread safe.
+ */
+public final class IconRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(IconRegistry.class);
+
+    private static final IconRegistry INSTANCE = new IconRegistry();
+
+    private static final byte[] PNG_SIGNATURE = new byte[] { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' };
+
+    /**
+     * Icon decoded in the background. Extends ImageIcon so it can be used anywhere an ImageIcon was.
+     */
+    private final class LazyIcon extends ImageIcon {
+        private static final long serialVersionUID = 1L;
+
+        private final int width;
+        private final int height;
+
+        private final Future<Image> decoded;
+
+        //painted before the image was decoded, repainted once it is
+        private final List<Component> waiting = new ArrayList<Component>();
+
+        private volatile Image image = null;
+
+        LazyIcon(String description, int width, int height, Callable<Image> decoder) {
+            this.width = width;
+            this.height = height;
+            setDescription(description);
+
+            decoded = executor.submit(decoder);
+
+            //finish on the decoder thread, after the image is decoded
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    finish();
+                }
+            });
+        }
+
+        private void finish() {
+            List<Component> repaint;
+
+            synchronized (waiting) {
+                image = getDecodedImage();
+                repaint = new ArrayList<Component>(waiting);
+                waiting.clear();
+            }
+
+            for (Component component : repaint) {
+                component.repaint();
+            }
+        }
+
+        /**
+         * Wait for the image to be decoded. Returns null if it could not be.
+         */
+        private Image getDecodedImage() {
+            try {
+                return decoded.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException e) {
+                logger.error("Could not decode icon " + getDescription(), e.getCause());
+                return null;
+            }
+        }
+
+        @Override
+        public int getIconWidth() {
+            return width;
+        }
+
+        @Override
+        public int getIconHeight() {
+            return height;
+        }
+
+        @Override
+        public void paintIcon(Component component, Graphics g, int x, int y) {
+            Image current = image;
+
+            if (current == null) {
+                synchronized (waiting) {
+                    current = image;
+                    if (current == null) {
+                        Component owner = getOwner(component);
+                        if (owner != null && !waiting.contains(owner)) {
+                            waiting.add(owner);
+                        }
+                        return;
+                    }
+                }
+            }
+            g.drawImage(current, x, y, component);
+        }
+
+        /**
+         * Returns the component to repaint once decoded. A cell renderer of a table, list or tree is only painted as part of
+         * its owner, so repainting the renderer itself would not show the icon.
+         */
+        private Component getOwner(Component component) {
+            if (component == null) {
+                return null;
+            }
+            Container pane = SwingUtilities.getAncestorOfClass(CellRendererPane.class, component);
+            if (pane != null && pane.getParent() != null) {
+                return pane.getParent();
+            }
+            return component;
+        }
+
+        /**
+         * Returns the image, waiting for it to be decoded if needed.
+         */
+        @Override
+        public Image getImage() {
+            Image result = image;
+            if (result == null) {
+                result = getDecodedImage();
+            }
+            return result;
+        }
+
+        @Override
+        public int getImageLoadStatus() {
+            return image == null ? MediaTracker.LOADING : MediaTracker.COMPLETE;
+        }
+    }
+
+    private final ExecutorService executor;
+
+    //by path
+    private final ConcurrentMap<String, LazyIcon> icons = new ConcurrentHashMap<String, LazyIcon>();
+
+    private IconRegistry() {
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "icon decoder");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public static IconRegistry get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the icon at the given path, relative to the icons directory.
+     */
+    public ImageIcon getIcon(String path) throws Exception {
+        LazyIcon result = icons.get(path);
+        if (result != null) {
+            return result;
+        }
+
+        final URL url = IconRegistry.class.getClassLoader().getResource("icons/" + path);
+
+        if (url == null) {
+            throw new Exception("could not find icon: " + path);
+        }
+
+        int[] size = readSize(url);
+
+        result = new LazyIcon(url.toString(), size[0], size[1], new Callable<Image>() {
+            @Override
+            public Image call() throws Exception {
+                return ImageIO.read(url);
+            }
+        });
+
+        LazyIcon existing = icons.putIfAbsent(path, result);
+        return existing == null ? result : existing;
+    }
+
+    /**
+     * Reads the width and height from the header of a PNG image, decoding it completely if it is not a PNG.
+     */
+    private static int[] readSize(URL url) throws IOException {
+        try (DataInputStream in = new DataInputStream(url.openStream())) {
+            byte[] signature = new byte[PNG_SIGNATURE.length];
+            in.readFully(signature);
+
+            //the first chunk of a PNG image is the header, starting with the size
+            if (Arrays.equals(signature, PNG_SIGNATURE)) {
+                in.readInt();
+                if (in.readInt() == 0x49484452) {
+                    return new int[] { in.readInt(), in.readInt() };
+                }
+            }
+        }
+
+        BufferedImage image = ImageIO.read(url);
+        if (image == null) {
+            throw new IOException("cannot read image " + url);
+        }
+        return new int[] { image.getWidth(), image.getHeight() };
+    }
+}
@@ -18,13 +18,22 @@ package nl.esciencecenter.octopus.explorer;
 import nl.esciencecenter.octopus.Octopus;
 import nl.esciencecenter.octopus.OctopusFactory;
 import nl.esciencecenter.octopus.explorer.files.FileListingPanel;
+import nl.esciencecenter.octopus.explorer.files.MimeTypeIcons;
 import nl.esciencecenter.octopus.explorer.jobs.JobListingPanel;
+import nl.esciencecenter.octopus.explorer.transfers.TransferEngine;
+import nl.esciencecenter.octopus.explorer.transfers.TransfersPanel;
 
 import java.awt.BorderLayout;
 import java.awt.Component;
 import java.awt.EventQueue;
+import java.awt.Graphics;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.AbstractListModel;
 import javax.swing.BorderFactory;
@@ -39,6 +48,8 @@ import javax.swing.JScrollPane;
 import javax.swing.JSplitPane;
 import javax.swing.JTabbedPane;
 import javax.swing.ListCellRenderer;
+import javax.swing.SwingConstants;
+import javax.swing.SwingWorker;
 import javax.swing.border.EmptyBorder;
 
 import org.slf4j.Logger;
@@ -50,8 +61,83 @@ public class OctopusExplorer extends JFrame {
 
     private static final long serialVersionUID = 1L;
 
+    //startup phases, see StartupTimer
+    private static final String SHELL = "shell";
+    private static final String FIRST_PAINT = "first paint";
+    private static final String RESOURCES = "resources";
+    private static final String OCTOPUS = "octopus";
+    private static final String FILES = "files panel";
+    private static final String JOBS = "jobs panel";
+    private static final String TRANSFERS = "transfers panel";
+
+    private static final int FILES_TAB = 0;
+    private static final int JOBS_TAB = 1;
+    private static final int TRANSFERS_TAB = 2;
+
     final JList<String> locationList;
 
+    private final JTabbedPane tabbedPane;
+
+    private final StartupTimer startup;
+
+    //filled in once the octopus is ready, only used on the event dispatch thread
+    private SessionPool sessions;
+    private TransferEngine transfers;
+    private JobListingPanel jobListing;
+    private FileListingPanel fileListing;
+
+    /**
+     * Creates the octopus and everything that depends on it but not on Swing, in the background.
+     */
+    private static final class Connector extends SwingWorker<Void, Void> {
+        private final StartupTimer startup;
+
+        //set in the background, safe to read once done
+        private SessionPool sessions;
+        private TransferEngine transfers;
+
+        private Connector(StartupTimer startup) {
+            this.startup = startup;
+        }
+
+        @Override
+        protected Void doInBackground() throws Exception {
+            Octopus octopus = OctopusFactory.newOctopus(null);
+            sessions = new SessionPool(octopus);
+            transfers = new TransferEngine(sessions);
+            startup.phase(OCTOPUS);
+            return null;
+        }
+    }
+
+    /**
+     * Loads the resources needed by the first listing in the background, while the octopus is being created.
+     */
+    private static final class Preloader extends SwingWorker<Void, Void> {
+        private final StartupTimer startup;
+
+        private Preloader(StartupTimer startup) {
+            this.startup = startup;
+        }
+
+        @Override
+        protected Void doInBackground() throws Exception {
+            MimeTypeIcons.preload();
+            startup.phase(RESOURCES);
+            return null;
+        }
+
+        @Override
+        protected void done() {
+            try {
+                get();
+            } catch (InterruptedException | ExecutionException e) {
+                //not fatal, the panels load whatever they need themselves
+                logger.warn("Could not preload resources", e);
+            }
+        }
+    }
+
     /**
      * @author Niels Drost
      * 
@@ -90,17 +176,6 @@ public class OctopusExplorer extends JFrame {
      * 
      */
     private final class ListMouseAdapter extends MouseAdapter {
-        private final JobListingPanel jobListing;
-        private final FileListingPanel fileListing;
-
-        /**
-         * @param jobListing
-         * @param fileListing
-         */
-        private ListMouseAdapter(JobListingPanel jobListing, FileListingPanel fileListing) {
-            this.jobListing = jobListing;
-            this.fileListing = fileListing;
-        }
 
         @Override
         public void mouseClicked(MouseEvent e) {
@@ -110,10 +185,15 @@ public class OctopusExplorer extends JFrame {
                 logger.debug("Double clicked on Location item " + index + " which contains element "
                         + locationList.getModel().getElementAt(index));
 
-                fileListing.setCurrentLocation("" + locationList.getModel().getElementAt(index));
-                fileListing.triggerRefresh(true);
-                jobListing.setCurrentLocation("" + locationList.getModel().getElementAt(index));
-                jobListing.triggerRefresh(true);
+                //panels not created yet are pointed at the selected location when they are
+                if (fileListing != null) {
+                    fileListing.setCurrentLocation("" + locationList.getModel().getElementAt(index));
+                    fileListing.triggerRefresh(true);
+                }
+                if (jobListing != null) {
+                    jobListing.setCurrentLocation("" + locationList.getModel().getElementAt(index));
+                    jobListing.triggerRefresh(true);
+                }
             }
         }
     }
@@ -171,20 +251,50 @@ public class OctopusExplorer extends JFrame {
     }
 
     /**
-     * Create the frame.
+     * Create the frame. Only the shell is created here, the panels are filled in by {@link #connect(Connector)} once the
+     * octopus is ready.
      * 
      * @throws Exception
-     *             if the octopus could not be made
+     *             if the frame could not be made
      */
-    public OctopusExplorer() throws Exception {
+    private OctopusExplorer(StartupTimer startup) throws Exception {
         logger.debug("Initializing Octopus Explorer");
+        this.startup = startup;
         setTitle("Octopus Explorer [Technology Preview]");
-        Octopus octopus = OctopusFactory.newOctopus(null);
-        final JobListingPanel jobListing = new JobListingPanel(octopus, this);
-        final FileListingPanel fileListing = new FileListingPanel(octopus);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                //stop transfers first, they hold sessions
+                if (transfers != null) {
+                    transfers.close();
+                }
+                if (jobListing != null) {
+                    jobListing.close();
+                }
+                if (fileListing != null) {
+                    fileListing.close();
+                }
+                if (sessions != null) {
+                    sessions.close();
+                }
+            }
+        });
         setBounds(100, 100, 965, 735);
-        JPanel contentPane = new JPanel();
+        JPanel contentPane = new JPanel() {
+            private static final long serialVersionUID = 1L;
+
+            private boolean painted = false;
+
+            @Override
+            protected void paintComponent(Graphics g) {
+                super.paintComponent(g);
+                if (!painted) {
+                    painted = true;
+                    OctopusExplorer.this.startup.phase(FIRST_PAINT);
+                }
+            }
+        };
         contentPane.setBorder(new EmptyBorder(5, 5, 5, 5));
         contentPane.setLayout(new BorderLayout(0, 0));
         setContentPane(contentPane);
@@ -192,12 +302,14 @@ public class OctopusExplorer extends JFrame {
         JSplitPane splitPane = new JSplitPane();
         contentPane.add(splitPane, BorderLayout.CENTER);
 
-        final JTabbedPane tabbedPane = new JTabbedPane(JTabbedPane.TOP);
+        tabbedPane = new JTabbedPane(JTabbedPane.TOP);
         splitPane.setRightComponent(tabbedPane);
 
-        tabbedPane.addTab("Files", Utils.loadIcon("apps/system-file-manager.png"), fileListing, null);
+        tabbedPane.addTab("Files", Utils.loadIcon("apps/system-file-manager.png"), newPlaceholder(), null);
+
+        tabbedPane.addTab("Jobs", Utils.loadIcon("apps/accessories-calculator.png"), newPlaceholder(), null);
 
-        tabbedPane.addTab("Jobs", Utils.loadIcon("apps/accessories-calculator.png"), jobListing, null);
+        tabbedPane.addTab("Transfers", Utils.loadIcon("status/network-transmit-receive.png"), newPlaceholder(), null);
 
         JPanel panel = new JPanel();
         splitPane.setLeftComponent(panel);
@@ -208,7 +320,7 @@ public class OctopusExplorer extends JFrame {
 
         locationList = new JList<String>();
 
-        locationList.addMouseListener(new ListMouseAdapter(jobListing, fileListing));
+        locationList.addMouseListener(new ListMouseAdapter());
 
         //hide the renderer from windowsbuilder.
         //$hide$
@@ -231,17 +343,100 @@ public class OctopusExplorer extends JFrame {
         JLabel lblNlescLogo = new JLabel(Utils.loadIcon("nlesc-logo.png"));
         panel_1.add(lblNlescLogo);
 
+        startup.phase(SHELL);
+    }
+
+    private static JLabel newPlaceholder() {
+        return new JLabel("Starting...", SwingConstants.CENTER);
     }
 
     /**
-     * Launch the application.
+     * Fills in the panels once the given connector is done.
+     */
+    private void connect(final Connector connector) {
+        if (connector.isDone()) {
+            connected(connector);
+            return;
+        }
+
+        connector.addPropertyChangeListener(new PropertyChangeListener() {
+            @Override
+            public void propertyChange(PropertyChangeEvent event) {
+                if ("state".equals(event.getPropertyName()) && event.getNewValue() == SwingWorker.StateValue.DONE) {
+                    connected(connector);
+                }
+            }
+        });
+    }
+
+    private void connected(Connector connector) {
+        try {
+            connector.get();
+        } catch (InterruptedException | ExecutionException e) {
+            logger.error("Could not start Octopus", e);
+            Throwable cause = e.getCause() == null ? e : e.getCause();
+            for (int i = 0; i < tabbedPane.getTabCount(); i++) {
+                tabbedPane.setComponentAt(i, new JLabel("Could not start Octopus: " + cause.getMessage(), SwingConstants.CENTER));
+            }
+            return;
+        }
+
+        sessions = connector.sessions;
+        transfers = connector.transfers;
+
+        //one panel per event, so the frame can paint (and show the first listing) in between
+        EventQueue.invokeLater(new Runnable() {
+            public void run() {
+                try {
+                    fileListing = new FileListingPanel(sessions, transfers);
+                    tabbedPane.setComponentAt(FILES_TAB, fileListing);
+                    locationList.setSelectedValue(fileListing.getCurrentLocation(), true);
+                    startup.phase(FILES);
+                } catch (Exception e) {
+                    logger.error("Could not create file listing", e);
+                }
+                EventQueue.invokeLater(new Runnable() {
+                    public void run() {
+                        try {
+                            jobListing = new JobListingPanel(sessions, OctopusExplorer.this, locationList.getModel());
+                            tabbedPane.setComponentAt(JOBS_TAB, jobListing);
+                            startup.phase(JOBS);
+                        } catch (Exception e) {
+                            logger.error("Could not create job listing", e);
+                        }
+                        EventQueue.invokeLater(new Runnable() {
+                            public void run() {
+                                try {
+                                    tabbedPane.setComponentAt(TRANSFERS_TAB, new TransfersPanel(transfers));
+                                    startup.phase(TRANSFERS);
+                                } catch (Exception e) {
+                                    logger.error("Could not create transfers panel", e);
+                                }
+                            }
+                        });
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Launch the application. The octopus (and its adaptors) are created in the background while the frame is shown, and the
+     * panels are filled in as soon as it is ready.
      */
     public static void main(String[] args) {
+        final StartupTimer startup = new StartupTimer(FIRST_PAINT, FILES, JOBS, TRANSFERS);
+
+        final Connector connector = new Connector(startup);
+        BackgroundExecutor.get().execute(BackgroundExecutor.Priority.INTERACTIVE, null, connector);
+        BackgroundExecutor.get().execute(BackgroundExecutor.Priority.INTERACTIVE, null, new Preloader(startup));
+
         EventQueue.invokeLater(new Runnable() {
             public void run() {
                 try {
-                    OctopusExplorer frame = new OctopusExplorer();
+                    OctopusExplorer frame = new OctopusExplorer(startup);
                     frame.setVisible(true);
+                    frame.connect(connector);
                     logger.info("Octopus Explorer Initialized");
                 } catch (Exception e) {
                     e.printStackTrace();
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+import javax.swing.JTextField;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+
+/**
+ * Quick filter box for a table. Only the rows containing the text typed are shown, filtered in the background by a
+ * {@link BackgroundRowSorter}.
+ */
+public class QuickFilterField extends JTextField {
+
+    private static final long serialVersionUID = 1L;
+
+    //wait for the user to stop typing for this long before filtering (in milliseconds)
+    private static final int TYPING_DELAY = 100;
+
+    private final BackgroundRowSorter sorter;
+
+    private final Timer timer;
+
+    public QuickFilterField(BackgroundRowSorter sorter) {
+        super(10);
+        this.sorter = sorter;
+
+        setToolTipText("Only show rows containing this text");
+
+        timer = new Timer(TYPING_DELAY, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                filter();
+            }
+        });
+        timer.setRepeats(false);
+
+        getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                timer.restart();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                timer.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                //attributes only
+            }
+        });
+    }
+
+    private void filter() {
+        if (sorter == null) {
+            //still being constructed
+            return;
+        }
+        sorter.setFilter(isEnabled() ? getText() : "");
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        super.setEnabled(enabled);
+        filter();
+    }
+}
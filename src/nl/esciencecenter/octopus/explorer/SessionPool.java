@@ -0,0 +1,665 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import nl.esciencecenter.octopus.Octopus;
+import nl.esciencecenter.octopus.credentials.Credential;
+import nl.esciencecenter.octopus.exceptions.OctopusException;
+import nl.esciencecenter.octopus.exceptions.OctopusIOException;
+import nl.esciencecenter.octopus.files.FileSystem;
+import nl.esciencecenter.octopus.jobs.Scheduler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of FileSystem and Scheduler sessions, shared by all workers. Sessions are kept per location, so a refresh can borrow an
+ * already open (and authenticated) connection instead of doing a full handshake each time.
+ *
+ * Idle sessions are kept alive with a cheap call every keep-alive interval, and closed once they have not been used for the
+ * idle timeout. The number of sessions of each kind per host is capped; borrowers wait for a session to be released once the
+ * cap is reached, for at most the borrow timeout.
+ *
+ * A borrowed session can be aborted from another thread, for instance when the operation using it is cancelled or runs past
+ * its {@link Deadline}. The session is then closed right away, which makes any call blocked on it fail.
+ *
+ */
+public class SessionPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(SessionPool.class);
+
+    public static final String LOCAL_LOCATION = "Local";
+
+    public static final int DEFAULT_MAX_SESSIONS_PER_HOST = Integer.getInteger("octopus.explorer.sessions.max.per.host", 4);
+
+    public static final long DEFAULT_IDLE_TIMEOUT = Long.getLong("octopus.explorer.sessions.idle.timeout", 300000);
+
+    public static final long DEFAULT_KEEP_ALIVE_INTERVAL = Long.getLong("octopus.explorer.sessions.keep.alive", 60000);
+
+    //time a borrower waits for a session once the cap is reached (in milliseconds)
+    public static final long DEFAULT_BORROW_TIMEOUT = Long.getLong("octopus.explorer.sessions.borrow.timeout", 120000);
+
+    /**
+     * A session with the last time it was handed back to the pool.
+     */
+    private static final class Idle<T> {
+        final T session;
+        final long since;
+
+        Idle(T session, long since) {
+            this.session = session;
+            this.since = since;
+        }
+    }
+
+    /**
+     * Sessions of a single kind to a single host. All fields are guarded by the instance itself.
+     */
+    private static final class Host<T> {
+        final Deque<Idle<T>> idle = new ArrayDeque<Idle<T>>();
+        int open = 0;
+
+        //idle sessions taken out for a keep-alive call, borrowers wait for these rather than opening a new session
+        int pinging = 0;
+    }
+
+    /**
+     * Per-location pool of a single kind of session.
+     */
+    private abstract class Pool<T> {
+        private final String kind;
+        private final Map<String, Host<T>> hosts = new HashMap<String, Host<T>>();
+
+        //number of times each session was handed out and not handed back (or aborted) yet, by identity. Some adaptors (such as
+        //the local one) return the same session every time, so a session can be borrowed more than once at the same time.
+        private final Map<T, Integer> borrowed = new IdentityHashMap<T, Integer>();
+
+        //sessions opened outside the pool, by identity
+        private final Map<T, Boolean> unpooled = new IdentityHashMap<T, Boolean>();
+
+        Pool(String kind) {
+            this.kind = kind;
+        }
+
+        abstract T open(String location) throws OctopusException, OctopusIOException, URISyntaxException;
+
+        abstract void close(T session) throws OctopusException, OctopusIOException;
+
+        abstract boolean isAlive(T session);
+
+        abstract void keepAlive(T session) throws OctopusException, OctopusIOException;
+
+        private synchronized Host<T> host(String location) {
+            Host<T> result = hosts.get(location);
+            if (result == null) {
+                result = new Host<T>();
+                hosts.put(location, result);
+            }
+            return result;
+        }
+
+        T borrow(String location, long timeout) throws OctopusException, OctopusIOException, URISyntaxException,
+                InterruptedException {
+            Host<T> host = host(location);
+            long giveUpAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+
+            while (true) {
+                T candidate = null;
+
+                synchronized (host) {
+                    while (!closed && host.idle.isEmpty() && (host.open >= maxSessionsPerHost || host.pinging > 0)) {
+                        long remaining = giveUpAt - System.nanoTime();
+                        if (remaining <= 0) {
+                            throw new OctopusIOException("explorer", "no " + kind + " session to " + location
+                                    + " available within " + timeout + " ms, " + host.open + " in use");
+                        }
+                        logger.debug("waiting for a {} session to {}, {} in use", kind, location, host.open);
+                        host.wait(TimeUnit.NANOSECONDS.toMillis(remaining) + 1);
+                    }
+
+                    if (closed) {
+                        throw new OctopusException("explorer", "session pool closed");
+                    }
+
+                    if (host.idle.isEmpty()) {
+                        //reserve a slot, open the session outside of the lock
+                        host.open++;
+                    } else {
+                        candidate = host.idle.pollLast().session;
+                    }
+                }
+
+                if (candidate == null) {
+                    try {
+                        T session = open(location);
+                        logger.debug("opened new {} session to {}", kind, location);
+                        return borrowed(session);
+                    } catch (OctopusException | OctopusIOException | URISyntaxException | RuntimeException e) {
+                        freeSlot(host);
+                        throw e;
+                    }
+                }
+
+                if (isAlive(candidate)) {
+                    logger.debug("re-using {} session to {}", kind, location);
+                    return borrowed(candidate);
+                }
+
+                logger.debug("discarding dead {} session to {}", kind, location);
+                discard(host, candidate);
+            }
+        }
+
+        private synchronized T borrowed(T session) {
+            Integer count = borrowed.get(session);
+            borrowed.put(session, count == null ? 1 : count + 1);
+            return session;
+        }
+
+        /**
+         * Returns true if the given session was borrowed, and is handed back once. False if it was aborted in the mean time.
+         */
+        private synchronized boolean handedBack(T session) {
+            Integer count = borrowed.get(session);
+            if (count == null) {
+                return false;
+            }
+            if (count == 1) {
+                borrowed.remove(session);
+            } else {
+                borrowed.put(session, count - 1);
+            }
+            return true;
+        }
+
+        void release(String location, T session) {
+            if (session == null || !handedBack(session)) {
+                return;
+            }
+
+            Host<T> host = host(location);
+
+            //checked under the lock, so closeAll either sees the session in the idle queue or we see the pool closed
+            synchronized (host) {
+                if (!closed) {
+                    host.idle.addLast(new Idle<T>(session, System.currentTimeMillis()));
+                    host.notify();
+                    return;
+                }
+            }
+            discard(host, session);
+        }
+
+        void invalidate(String location, T session) {
+            if (session != null && handedBack(session)) {
+                discard(host(location), session);
+            }
+        }
+
+        /**
+         * Closes a borrowed session in the background. Handing it back afterwards does nothing.
+         */
+        void abort(final String location, final T session) {
+            if (session == null || !handedBack(session)) {
+                return;
+            }
+            logger.debug("aborting {} session to {}", kind, location);
+
+            closer.execute(new Runnable() {
+                @Override
+                public void run() {
+                    discard(host(location), session);
+                }
+            });
+        }
+
+        private void freeSlot(Host<T> host) {
+            synchronized (host) {
+                host.open--;
+                host.notify();
+            }
+        }
+
+        private void discard(Host<T> host, T session) {
+            freeSlot(host);
+            closeQuietly(session);
+        }
+
+        private void closeQuietly(T session) {
+            try {
+                close(session);
+            } catch (OctopusException | OctopusIOException | RuntimeException e) {
+                logger.debug("error on closing " + kind + " session", e);
+            }
+        }
+
+        T openUnpooled(String location) throws OctopusException, OctopusIOException, URISyntaxException {
+            if (closed) {
+                throw new OctopusException("explorer", "session pool closed");
+            }
+
+            T session = open(location);
+            synchronized (this) {
+                if (!closed) {
+                    unpooled.put(session, Boolean.TRUE);
+                    logger.debug("opened {} session to {} outside the pool", kind, location);
+                    return session;
+                }
+            }
+            closeQuietly(session);
+            throw new OctopusException("explorer", "session pool closed");
+        }
+
+        void closeUnpooled(T session) {
+            synchronized (this) {
+                if (unpooled.remove(session) == null) {
+                    return;
+                }
+            }
+            closeQuietly(session);
+        }
+
+        /**
+         * Closes sessions idle for longer than the idle timeout, and keeps the remaining idle sessions alive. Sessions are taken
+         * out of the idle queue one at a time for their keep-alive call, so the others can still be borrowed meanwhile.
+         */
+        void maintain() {
+            List<Map.Entry<String, Host<T>>> entries;
+            synchronized (this) {
+                entries = new ArrayList<Map.Entry<String, Host<T>>>(hosts.entrySet());
+            }
+
+            long now = System.currentTimeMillis();
+
+            for (Map.Entry<String, Host<T>> entry : entries) {
+                Host<T> host = entry.getValue();
+                List<T> expired = new ArrayList<T>();
+                List<Idle<T>> alive = new ArrayList<Idle<T>>();
+
+                synchronized (host) {
+                    for (Iterator<Idle<T>> iterator = host.idle.iterator(); iterator.hasNext();) {
+                        Idle<T> idle = iterator.next();
+                        if (now - idle.since > idleTimeout) {
+                            iterator.remove();
+                            expired.add(idle.session);
+                        } else {
+                            alive.add(idle);
+                        }
+                    }
+                }
+
+                for (T session : expired) {
+                    logger.debug("closing idle {} session to {}", kind, entry.getKey());
+                    discard(host, session);
+                }
+
+                if (entry.getKey().equals(LOCAL_LOCATION)) {
+                    continue;
+                }
+
+                //walk backwards, so the most recently used sessions end up at the end of the queue again
+                for (int i = alive.size() - 1; i >= 0; i--) {
+                    keepAlive(entry.getKey(), host, alive.get(i));
+                }
+            }
+        }
+
+        private void keepAlive(String location, Host<T> host, Idle<T> idle) {
+            synchronized (host) {
+                if (closed || !host.idle.remove(idle)) {
+                    //borrowed in the mean time
+                    return;
+                }
+                host.pinging++;
+            }
+
+            final T session = idle.session;
+            boolean alive = false;
+
+            //a keep-alive call on a dead connection may block for a long time, which borrowers would wait for
+            Deadline deadline = Deadline.start(Deadline.DEFAULT_TIMEOUT, new Runnable() {
+                @Override
+                public void run() {
+                    closeQuietly(session);
+                }
+            });
+            try {
+                keepAlive(session);
+                alive = true;
+            } catch (OctopusException | OctopusIOException | RuntimeException e) {
+                logger.debug("keep-alive of " + kind + " session to " + location + " failed", e);
+            } finally {
+                deadline.done();
+            }
+
+            synchronized (host) {
+                host.pinging--;
+                if (alive && !deadline.isExpired() && !closed) {
+                    host.idle.addFirst(idle);
+                    host.notify();
+                    return;
+                }
+            }
+            discard(host, session);
+        }
+
+        void closeAll() {
+            List<Map.Entry<String, Host<T>>> entries;
+            List<T> outside;
+            synchronized (this) {
+                entries = new ArrayList<Map.Entry<String, Host<T>>>(hosts.entrySet());
+                outside = new ArrayList<T>(unpooled.keySet());
+                unpooled.clear();
+            }
+
+            for (T session : outside) {
+                closeQuietly(session);
+            }
+
+            for (Map.Entry<String, Host<T>> entry : entries) {
+                Host<T> host = entry.getValue();
+                List<T> idle = new ArrayList<T>();
+                synchronized (host) {
+                    while (!host.idle.isEmpty()) {
+                        idle.add(host.idle.pollFirst().session);
+                    }
+                    //borrowers waiting for a session give up
+                    host.notifyAll();
+                }
+                for (T session : idle) {
+                    discard(host, session);
+                }
+            }
+        }
+    }
+
+    private final Octopus octopus;
+
+    private final int maxSessionsPerHost;
+
+    private final long idleTimeout;
+
+    private final long borrowTimeout;
+
+    private final Map<String, Credential> credentials = new ConcurrentHashMap<String, Credential>();
+
+    private final Pool<FileSystem> fileSystems;
+
+    private final Pool<Scheduler> schedulers;
+
+    private final ScheduledExecutorService maintainer;
+
+    //closes aborted sessions, which may take a while for remote ones
+    private final ExecutorService closer = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "session closer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private volatile boolean closed = false;
+
+    public SessionPool(Octopus octopus) {
+        this(octopus, DEFAULT_MAX_SESSIONS_PER_HOST, DEFAULT_IDLE_TIMEOUT, DEFAULT_KEEP_ALIVE_INTERVAL, DEFAULT_BORROW_TIMEOUT);
+    }
+
+    public SessionPool(final Octopus octopus, int maxSessionsPerHost, long idleTimeout, long keepAliveInterval,
+            long borrowTimeout) {
+        this.octopus = octopus;
+        this.maxSessionsPerHost = maxSessionsPerHost;
+        this.idleTimeout = idleTimeout;
+        this.borrowTimeout = borrowTimeout;
+
+        fileSystems = new Pool<FileSystem>("file system") {
+            @Override
+            FileSystem open(String location) throws OctopusException, OctopusIOException, URISyntaxException {
+                if (location.equals(LOCAL_LOCATION)) {
+                    return octopus.files().getLocalHomeFileSystem();
+                }
+                return octopus.files().newFileSystem(new URI("ssh://" + location), getCredential("ssh"), null);
+            }
+
+            @Override
+            void close(FileSystem session) throws OctopusException, OctopusIOException {
+                octopus.files().close(session);
+            }
+
+            @Override
+            boolean isAlive(FileSystem session) {
+                try {
+                    return octopus.files().isOpen(session);
+                } catch (OctopusException | OctopusIOException e) {
+                    return false;
+                }
+            }
+
+            @Override
+            void keepAlive(FileSystem session) throws OctopusException, OctopusIOException {
+                octopus.files().getAttributes(session.getEntryPath());
+            }
+        };
+
+        schedulers = new Pool<Scheduler>("scheduler") {
+            @Override
+            Scheduler open(String location) throws OctopusException, OctopusIOException, URISyntaxException {
+                if (location.equals(LOCAL_LOCATION)) {
+                    return octopus.jobs().getLocalScheduler();
+                }
+                return octopus.jobs().newScheduler(new URI("ge://" + location), getCredential("ssh"), null);
+            }
+
+            @Override
+            void close(Scheduler session) throws OctopusException, OctopusIOException {
+                octopus.jobs().close(session);
+            }
+
+            @Override
+            boolean isAlive(Scheduler session) {
+                try {
+                    return octopus.jobs().isOpen(session);
+                } catch (OctopusException | OctopusIOException e) {
+                    return false;
+                }
+            }
+
+            @Override
+            void keepAlive(Scheduler session) throws OctopusException, OctopusIOException {
+                //a status query of a single queue, which goes all the way to the scheduler
+                String queue = octopus.jobs().getDefaultQueueName(session);
+                if (queue == null) {
+                    String[] queues = session.getQueueNames();
+                    if (queues == null || queues.length == 0) {
+                        throw new OctopusException("explorer", "scheduler has no queues");
+                    }
+                    queue = queues[0];
+                }
+                octopus.jobs().getQueueStatus(session, queue);
+            }
+        };
+
+        maintainer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "session pool maintainer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        maintainer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                fileSystems.maintain();
+                schedulers.maintain();
+            }
+        }, keepAliveInterval, keepAliveInterval, TimeUnit.MILLISECONDS);
+    }
+
+    public Octopus getOctopus() {
+        return octopus;
+    }
+
+    /**
+     * Returns the default credential for the given scheme. Credentials are looked up only once per scheme.
+     */
+    public Credential getCredential(String scheme) throws OctopusException {
+        Credential result = credentials.get(scheme);
+
+        if (result == null) {
+            result = octopus.credentials().getDefaultCredential(scheme);
+            credentials.put(scheme, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Borrow a file system for the given location. Must be handed back with either
+     * {@link #releaseFileSystem(String, FileSystem)} or {@link #invalidateFileSystem(String, FileSystem)}. Fails if no file
+     * system becomes available within the borrow timeout, or once the pool is closed.
+     */
+    public FileSystem borrowFileSystem(String location) throws OctopusException, OctopusIOException, URISyntaxException,
+            InterruptedException {
+        return fileSystems.borrow(location, borrowTimeout);
+    }
+
+    public void releaseFileSystem(String location, FileSystem fileSystem) {
+        fileSystems.release(location, fileSystem);
+    }
+
+    /**
+     * Hand back a file system that had an error, closing it instead of keeping it for re-use.
+     */
+    public void invalidateFileSystem(String location, FileSystem fileSystem) {
+        fileSystems.invalidate(location, fileSystem);
+    }
+
+    /**
+     * Abort a borrowed file system from any thread, closing it in the background. Any call blocked on it will fail. The
+     * borrower may still hand it back afterwards, which then does nothing.
+     */
+    public void abortFileSystem(String location, FileSystem fileSystem) {
+        fileSystems.abort(location, fileSystem);
+    }
+
+    /**
+     * Open a file system for the given location outside the pool, for long running work, such as reading a whole file, that
+     * should not hold one of the sessions capped per host. Must be closed with {@link #closeUnpooledFileSystem(FileSystem)},
+     * or is closed along with the pool.
+     */
+    public FileSystem openUnpooledFileSystem(String location) throws OctopusException, OctopusIOException,
+            URISyntaxException {
+        return fileSystems.openUnpooled(location);
+    }
+
+    public void closeUnpooledFileSystem(FileSystem fileSystem) {
+        fileSystems.closeUnpooled(fileSystem);
+    }
+
+    /**
+     * Starts the deadline of a call on the given file system, aborting it if the call is not done in time.
+     */
+    public Deadline startDeadline(final String location, final FileSystem fileSystem) {
+        return Deadline.start(Deadline.DEFAULT_TIMEOUT, new Runnable() {
+            @Override
+            public void run() {
+                abortFileSystem(location, fileSystem);
+            }
+        });
+    }
+
+    /**
+     * Borrow a scheduler for the given location. Must be handed back with either {@link #releaseScheduler(String, Scheduler)}
+     * or {@link #invalidateScheduler(String, Scheduler)}.
+     */
+    public Scheduler borrowScheduler(String location) throws OctopusException, OctopusIOException, URISyntaxException,
+            InterruptedException {
+        return schedulers.borrow(location, borrowTimeout);
+    }
+
+    /**
+     * Borrow a scheduler for the given location, waiting at most the given time (in milliseconds) for one to become available.
+     */
+    public Scheduler borrowScheduler(String location, long timeout) throws OctopusException, OctopusIOException,
+            URISyntaxException, InterruptedException {
+        return schedulers.borrow(location, timeout);
+    }
+
+    public void releaseScheduler(String location, Scheduler scheduler) {
+        schedulers.release(location, scheduler);
+    }
+
+    public void invalidateScheduler(String location, Scheduler scheduler) {
+        schedulers.invalidate(location, scheduler);
+    }
+
+    /**
+     * Abort a borrowed scheduler from any thread, see {@link #abortFileSystem(String, FileSystem)}.
+     */
+    public void abortScheduler(String location, Scheduler scheduler) {
+        schedulers.abort(location, scheduler);
+    }
+
+    /**
+     * Starts the deadline of a call on the given scheduler, aborting it if the call is not done in time.
+     */
+    public Deadline startDeadline(String location, Scheduler scheduler) {
+        return startDeadline(location, scheduler, Deadline.DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Starts the deadline of a call on the given scheduler, aborting it if the call is not done within the given time (in
+     * milliseconds).
+     */
+    public Deadline startDeadline(final String location, final Scheduler scheduler, long timeout) {
+        return Deadline.start(timeout, new Runnable() {
+            @Override
+            public void run() {
+                abortScheduler(location, scheduler);
+            }
+        });
+    }
+
+    /**
+     * Close all idle sessions. Sessions still borrowed are closed when they are handed back, borrowers waiting for a session
+     * fail.
+     */
+    public void close() {
+        closed = true;
+        maintainer.shutdownNow();
+        fileSystems.closeAll();
+        schedulers.closeAll();
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer;
+
+/**
+ * Sort keys of all rows of a table for a single column, snapshotted so they can be sorted by in the background.
+ * 
+ * Every row has a primitive key, compared first. For numbers this is the value itself. For text it holds the first four
+ * characters (in lower case), so most comparisons do not have to touch the strings at all, and only rows with the same
+ * prefix are compared character by character.
+ */
+public final class SortKeys {
+
+    private final String[] texts;
+
+    //numbers, or the prefix of each text once prepared
+    private long[] keys;
+
+    private SortKeys(long[] keys, String[] texts) {
+        this.keys = keys;
+        this.texts = texts;
+    }
+
+    /**
+     * Sort keys for a numeric column. The array is used as is, and must not be changed afterwards.
+     */
+    public static SortKeys forNumbers(long[] values) {
+        return new SortKeys(values, null);
+    }
+
+    /**
+     * Sort keys for a text column, ignoring case. The array is used as is, and must not be changed afterwards. Null values
+     * sort as empty text.
+     */
+    public static SortKeys forText(String[] values) {
+        return new SortKeys(null, values);
+    }
+
+    int size() {
+        return texts == null ? keys.length : texts.length;
+    }
+
+    /**
+     * Computes the primitive keys of a text column. Called in the background before sorting.
+     */
+    void prepare() {
+        if (keys != null) {
+            return;
+        }
+        long[] prefixes = new long[texts.length];
+        for (int i = 0; i < texts.length; i++) {
+            prefixes[i] = prefix(texts[i]);
+        }
+        keys = prefixes;
+    }
+
+    private static long prefix(String text) {
+        long result = 0;
+        for (int i = 0; i < 4; i++) {
+            result <<= 16;
+            if (text != null && i < text.length()) {
+                result |= Character.toLowerCase(text.charAt(i));
+            }
+        }
+        //flip the sign bit, so a signed compare orders characters as unsigned
+        return result ^ Long.MIN_VALUE;
+    }
+
+    int compare(int a, int b) {
+        int result = Long.compare(keys[a], keys[b]);
+        if (result != 0 || texts == null) {
+            return result;
+        }
+        return compareText(texts[a], texts[b]);
+    }
+
+    /**
+     * Compares ignoring case first, in the same order as the prefixes, and only then by case.
+     */
+    private static int compareText(String a, String b) {
+        if (a == null || b == null) {
+            return (a == null ? 0 : 1) - (b == null ? 0 : 1);
+        }
+        int length = Math.min(a.length(), b.length());
+        for (int i = 4; i < length; i++) {
+            char x = Character.toLowerCase(a.charAt(i));
+            char y = Character.toLowerCase(b.charAt(i));
+            if (x != y) {
+                return x - y;
+            }
+        }
+        if (a.length() != b.length()) {
+            return a.length() - b.length();
+        }
+        return a.compareTo(b);
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer;
+
+import javax.swing.table.TableModel;
+
+/**
+ * Table model that can be sorted and filtered by a {@link BackgroundRowSorter}. All methods are called on the event dispatch
+ * thread, and should be cheap: anything expensive is done by the sorter in the background.
+ */
+public interface SortableTableModel extends TableModel {
+
+    /**
+     * Returns true if the table can be sorted by the given column.
+     */
+    boolean isSortable(int column);
+
+    /**
+     * Returns a snapshot of the sort keys of all rows for the given column, which must be sortable. The snapshot must not
+     * change afterwards, as the rows are sorted by it in the background.
+     */
+    SortKeys getSortKeys(int column);
+
+    /**
+     * Returns the text the quick filter is matched against for the given row.
+     */
+    String getFilterText(int row);
+}
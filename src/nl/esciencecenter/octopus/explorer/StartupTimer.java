@@ -0,0 +1,96 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records when each phase of startup finished, measured from the start of the JVM. Once all expected phases are done a
+ * summary is logged, so the time to first paint and the time until the application is usable can be compared between
+ * versions.
+ * 
+ * Thread safe, phases finish on the event dispatch thread as well as on background threads.
+ */
+class StartupTimer {
+
+    private static final Logger logger = LoggerFactory.getLogger(StartupTimer.class);
+
+    private final long start;
+
+    //time at which each phase finished, in milliseconds since the start, in the order they finished
+    private final Map<String, Long> phases = new LinkedHashMap<String, Long>();
+
+    private final Set<String> expected;
+
+    private boolean reported = false;
+
+    StartupTimer(String... expected) {
+        long jvmStart;
+        try {
+            jvmStart = ManagementFactory.getRuntimeMXBean().getStartTime();
+        } catch (Throwable e) {
+            //no management support, time from here instead
+            jvmStart = System.currentTimeMillis();
+        }
+        start = jvmStart;
+        this.expected = new HashSet<String>(Arrays.asList(expected));
+    }
+
+    /**
+     * Marks the end of the given phase. Only the first time a phase is marked counts.
+     */
+    synchronized void phase(String name) {
+        if (phases.containsKey(name)) {
+            return;
+        }
+        long time = System.currentTimeMillis() - start;
+        phases.put(name, time);
+        logger.debug("startup phase \"{}\" done after {} ms", name, time);
+
+        if (!reported && phases.keySet().containsAll(expected)) {
+            reported = true;
+            logger.info("Startup done: {}", this);
+        }
+    }
+
+    /**
+     * Returns the time the given phase finished, in milliseconds since the start of the JVM, or -1 if it did not finish yet.
+     */
+    synchronized long get(String name) {
+        Long result = phases.get(name);
+        return result == null ? -1 : result;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder result = new StringBuilder();
+        for (Map.Entry<String, Long> phase : phases.entrySet()) {
+            if (result.length() > 0) {
+                result.append(", ");
+            }
+            result.append(phase.getKey()).append(" ").append(phase.getValue()).append(" ms");
+        }
+        return result.toString();
+    }
+}
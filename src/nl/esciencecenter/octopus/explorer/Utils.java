@@ -1,17 +1,27 @@
 package nl.esciencecenter.octopus.explorer;
 
-import java.net.URL;
+import java.io.File;
 
 import javax.swing.ImageIcon;
 
 public class Utils {
-    public static ImageIcon loadIcon(String path) throws Exception {
-        URL imgURL = Utils.class.getClassLoader().getResource("icons/" + path);
 
-        if (imgURL == null) {
-            throw new Exception("could not find icon: " + path);
+    /**
+     * Directory where the explorer keeps its state between runs.
+     */
+    public static File getStateDirectory() {
+        String directory = System.getProperty("octopus.explorer.state.dir");
+        if (directory == null) {
+            return new File(System.getProperty("user.home"), ".octopus-explorer");
         }
+        return new File(directory);
+    }
 
-        return new ImageIcon(imgURL);
+    /**
+     * Returns the icon at the given path, relative to the icons directory. Shared, and decoded in the background, see
+     * {@link IconRegistry}.
+     */
+    public static ImageIcon loadIcon(String path) throws Exception {
+        return IconRegistry.get().getIcon(path);
     }
 }
@@ -0,0 +1,332 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer.files;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.swing.SwingUtilities;
+
+import nl.esciencecenter.octopus.Octopus;
+import nl.esciencecenter.octopus.explorer.BackgroundExecutor;
+import nl.esciencecenter.octopus.explorer.Deadline;
+import nl.esciencecenter.octopus.explorer.SessionPool;
+import nl.esciencecenter.octopus.files.FileSystem;
+import nl.esciencecenter.octopus.files.RelativePath;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tells when a directory changed, so it can be listed again only when needed.
+ *
+ * Local directories are watched with a {@link WatchService}. Remote directories are polled for their modification time,
+ * which changes when entries are added, removed or renamed (but not when a file in it grows). The poll interval doubles every
+ * time nothing changed, up to a maximum, and drops back to the minimum after a change. Polls to a single host are spaced by
+ * at least a fixed interval, no matter how many directories on it are watched. Polls run as background work on the
+ * {@link BackgroundExecutor}.
+ *
+ * Thread safe.
+ */
+class DirectoryWatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(DirectoryWatcher.class);
+
+    static final long DEFAULT_MIN_INTERVAL = Long.getLong("octopus.explorer.watch.min.interval", 2000);
+
+    static final long DEFAULT_MAX_INTERVAL = Long.getLong("octopus.explorer.watch.max.interval", 60000);
+
+    //minimum time between two polls to the same host (in milliseconds)
+    static final long DEFAULT_HOST_INTERVAL = Long.getLong("octopus.explorer.watch.host.interval", 1000);
+
+    //local changes usually come in bursts, wait for it to settle before telling (in milliseconds)
+    private static final long SETTLE_DELAY = 250;
+
+    /**
+     * A directory being watched.
+     */
+    class Watch implements Runnable {
+        private final String location;
+        private final RelativePath path;
+        private final Runnable listener;
+
+        private volatile boolean cancelled = false;
+
+        //local only
+        private WatchKey key = null;
+        private boolean notifying = false;
+
+        //remote only
+        private long interval = minInterval;
+        private long lastModified = -1;
+
+        Watch(String location, RelativePath path, Runnable listener) {
+            this.location = location;
+            this.path = path;
+            this.listener = listener;
+        }
+
+        String getLocation() {
+            return location;
+        }
+
+        RelativePath getPath() {
+            return path;
+        }
+
+        /**
+         * Stop watching.
+         */
+        void cancel() {
+            cancelled = true;
+            synchronized (keys) {
+                if (key != null) {
+                    keys.remove(key);
+                    key.cancel();
+                }
+            }
+        }
+
+        /**
+         * Tell the listener on the event dispatch thread, after letting a burst of local changes settle.
+         */
+        private synchronized void changed(long delay) {
+            if (notifying || cancelled) {
+                return;
+            }
+            notifying = true;
+
+            schedule(location, new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (Watch.this) {
+                        notifying = false;
+                    }
+                    notifyListener();
+                }
+            }, delay);
+        }
+
+        private void notifyListener() {
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    if (!cancelled && !closed) {
+                        listener.run();
+                    }
+                }
+            });
+        }
+
+        /**
+         * Poll a remote directory.
+         */
+        @Override
+        public void run() {
+            if (cancelled || closed) {
+                return;
+            }
+
+            long wait = reserveHost(location);
+            if (wait > 0) {
+                //over the poll budget of this host, try again once there is room
+                schedule(location, this, wait);
+                return;
+            }
+
+            try {
+                long modified = poll();
+
+                if (lastModified != -1 && modified != lastModified) {
+                    logger.debug("{} at {} changed", path, location);
+                    interval = minInterval;
+                    notifyListener();
+                } else {
+                    interval = Math.min(maxInterval, interval * 2);
+                }
+                lastModified = modified;
+            } catch (Exception e) {
+                logger.debug("could not poll " + path + " at " + location, e);
+                interval = maxInterval;
+            }
+
+            if (!cancelled) {
+                schedule(location, this, interval);
+            }
+        }
+
+        private long poll() throws Exception {
+            Octopus octopus = sessions.getOctopus();
+            FileSystem fileSystem = sessions.borrowFileSystem(location);
+            Deadline deadline = sessions.startDeadline(location, fileSystem);
+
+            try {
+                long result = octopus.files().getAttributes(octopus.files().newPath(fileSystem, path)).lastModifiedTime();
+                sessions.releaseFileSystem(location, fileSystem);
+                return result;
+            } catch (Exception e) {
+                sessions.invalidateFileSystem(location, fileSystem);
+                throw e;
+            } finally {
+                deadline.done();
+            }
+        }
+    }
+
+    private final SessionPool sessions;
+    private final long minInterval;
+    private final long maxInterval;
+    private final long hostInterval;
+
+    private volatile boolean closed = false;
+
+    //created when the first local directory is watched
+    private WatchService watchService = null;
+    private final Map<WatchKey, Watch> keys = new HashMap<WatchKey, Watch>();
+
+    //earliest time of the next poll, per host. Only hosts polled in the last host interval are kept.
+    private final Map<String, Long> nextHostPoll = new HashMap<String, Long>();
+
+    DirectoryWatcher(SessionPool sessions) {
+        this(sessions, DEFAULT_MIN_INTERVAL, DEFAULT_MAX_INTERVAL, DEFAULT_HOST_INTERVAL);
+    }
+
+    DirectoryWatcher(SessionPool sessions, long minInterval, long maxInterval, long hostInterval) {
+        this.sessions = sessions;
+        this.minInterval = minInterval;
+        this.maxInterval = Math.max(minInterval, maxInterval);
+        this.hostInterval = hostInterval;
+    }
+
+    private static void schedule(String location, Runnable task, long delay) {
+        BackgroundExecutor.get().schedule(BackgroundExecutor.Priority.BACKGROUND, location, task, delay);
+    }
+
+    /**
+     * Start watching the given directory. The listener is called on the event dispatch thread whenever it changed, until the
+     * returned watch is cancelled.
+     */
+    Watch watch(String location, RelativePath path, Runnable listener) {
+        Watch watch = new Watch(location, path, listener);
+
+        if (location.equals(SessionPool.LOCAL_LOCATION)) {
+            try {
+                watchLocal(watch);
+            } catch (IOException e) {
+                logger.warn("Cannot watch " + path + ", polling it instead", e);
+                schedule(location, watch, minInterval);
+            }
+        } else {
+            //poll right away, to know the current modification time
+            BackgroundExecutor.get().execute(BackgroundExecutor.Priority.BACKGROUND, location, watch);
+        }
+
+        logger.debug("watching {} at {}", path, location);
+        return watch;
+    }
+
+    private void watchLocal(Watch watch) throws IOException {
+        synchronized (keys) {
+            if (watchService == null) {
+                watchService = FileSystems.getDefault().newWatchService();
+
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        takeEvents();
+                    }
+                }, "local directory watcher");
+                thread.setDaemon(true);
+                thread.start();
+            }
+
+            Path directory = Paths.get(watch.getPath().getPath());
+            watch.key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            keys.put(watch.key, watch);
+        }
+    }
+
+    private void takeEvents() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+
+                //we do not care what changed, the directory is listed again anyway
+                key.pollEvents();
+                key.reset();
+
+                Watch watch;
+                synchronized (keys) {
+                    watch = keys.get(key);
+                }
+                if (watch != null) {
+                    watch.changed(SETTLE_DELAY);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            //closed
+        }
+    }
+
+    /**
+     * Reserve a poll to the given host. Returns 0 if the poll can go ahead, or the time to wait (in milliseconds) if not.
+     */
+    private synchronized long reserveHost(String location) {
+        long now = System.currentTimeMillis();
+        Long next = nextHostPoll.get(location);
+
+        if (next != null && next > now) {
+            return next - now;
+        }
+
+        if (next == null) {
+            //a host not polled recently, forget the others that were not either
+            for (Iterator<Long> iterator = nextHostPoll.values().iterator(); iterator.hasNext();) {
+                if (iterator.next() <= now) {
+                    iterator.remove();
+                }
+            }
+        }
+        nextHostPoll.put(location, now + hostInterval);
+        return 0;
+    }
+
+    /**
+     * Stop watching all directories. Polls already scheduled do nothing once they run.
+     */
+    void close() {
+        closed = true;
+        synchronized (keys) {
+            if (watchService != null) {
+                try {
+                    watchService.close();
+                } catch (IOException e) {
+                    //IGNORE
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer.files;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nl.esciencecenter.octopus.files.RelativePath;
+
+/**
+ * Disk usage of a directory and everything below it, as found so far by a {@link DiskUsageWalker}. Totals are added to a
+ * directory and all its ancestors as soon as a directory has been listed, so they can be shown while the walk is still running.
+ *
+ * Thread safe.
+ */
+class DiskUsage {
+
+    private final DiskUsage parent;
+    private final String name;
+    private final RelativePath path;
+
+    private final AtomicLong size = new AtomicLong();
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong directories = new AtomicLong();
+
+    //sub directories, in the order found
+    private final List<DiskUsage> children = new ArrayList<DiskUsage>();
+
+    DiskUsage(DiskUsage parent, String name, RelativePath path) {
+        this.parent = parent;
+        this.name = name;
+        this.path = path;
+    }
+
+    DiskUsage getParent() {
+        return parent;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    RelativePath getPath() {
+        return path;
+    }
+
+    long getSize() {
+        return size.get();
+    }
+
+    long getFiles() {
+        return files.get();
+    }
+
+    long getDirectories() {
+        return directories.get();
+    }
+
+    DiskUsage addChild(String name) {
+        DiskUsage child = new DiskUsage(this, name, path.resolve(new RelativePath(name)));
+        synchronized (children) {
+            children.add(child);
+        }
+        return child;
+    }
+
+    /**
+     * Returns a copy of the sub directories found so far.
+     */
+    List<DiskUsage> getChildren() {
+        synchronized (children) {
+            return new ArrayList<DiskUsage>(children);
+        }
+    }
+
+    /**
+     * Add the totals of a single listed directory to this directory and all its ancestors.
+     */
+    void add(long size, long files, long directories) {
+        for (DiskUsage current = this; current != null; current = current.parent) {
+            current.size.addAndGet(size);
+            current.files.addAndGet(files);
+            current.directories.addAndGet(directories);
+        }
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer.files;
+
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.awt.Window;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.swing.AbstractAction;
+import javax.swing.Action;
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.Timer;
+import javax.swing.border.EmptyBorder;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Shows the disk usage of a directory tree while it is being walked, as a largest-first breakdown of the sub directories of the
+ * directory shown. Double-click a sub directory to show its breakdown instead.
+ */
+class DiskUsageDialog extends JDialog {
+
+    private static final long serialVersionUID = 1L;
+
+    //how often the partial results are shown (in milliseconds)
+    private static final int UPDATE_INTERVAL = 250;
+
+    /**
+     * Sizes are copied when the breakdown is updated, as they keep changing while the walk runs.
+     */
+    private static final class Row {
+        private final DiskUsage usage;
+        private final long size;
+        private final long files;
+        private final long directories;
+
+        Row(DiskUsage usage) {
+            this.usage = usage;
+            this.size = usage.getSize();
+            this.files = usage.getFiles();
+            this.directories = usage.getDirectories();
+        }
+    }
+
+    private static final Comparator<Row> LARGEST_FIRST = new Comparator<Row>() {
+        @Override
+        public int compare(Row one, Row other) {
+            return Long.compare(other.size, one.size);
+        }
+    };
+
+    private static final class BreakdownTableModel extends AbstractTableModel {
+        private static final long serialVersionUID = 1L;
+
+        private static final String[] COLUMN_NAMES = new String[] { "Name", "Size", "Share", "Files", "Folders" };
+
+        private List<Row> rows = new ArrayList<Row>();
+        private long total = 0;
+
+        void update(DiskUsage directory) {
+            List<Row> updated = new ArrayList<Row>();
+            for (DiskUsage child : directory.getChildren()) {
+                updated.add(new Row(child));
+            }
+            Collections.sort(updated, LARGEST_FIRST);
+
+            rows = updated;
+            total = directory.getSize();
+            fireTableDataChanged();
+        }
+
+        DiskUsage getUsage(int row) {
+            return rows.get(row).usage;
+        }
+
+        @Override
+        public int getRowCount() {
+            return rows.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMN_NAMES.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMN_NAMES[column];
+        }
+
+        @Override
+        public Object getValueAt(int rowIndex, int column) {
+            Row row = rows.get(rowIndex);
+
+            switch (column) {
+            case 0:
+                return row.usage.getName();
+            case 1:
+                return FileListing.formatSize(row.size);
+            case 2:
+                return total == 0 ? "" : String.format("%.1f %%", (100.0 * row.size) / total);
+            case 3:
+                return row.files;
+            case 4:
+                return row.directories;
+            default:
+                throw new IndexOutOfBoundsException("no column " + column);
+            }
+        }
+    }
+
+    private final DiskUsageWalker.Walk walk;
+
+    private final BreakdownTableModel model = new BreakdownTableModel();
+
+    private final JLabel directoryLabel = new JLabel();
+    private final JLabel statusLabel = new JLabel();
+
+    private final Action upAction;
+    private final Action cancelAction;
+
+    private final Timer timer;
+
+    //directory currently broken down
+    private DiskUsage shown;
+
+    DiskUsageDialog(Window owner, DiskUsageWalker.Walk walk) {
+        super(owner, "Disk usage");
+        this.walk = walk;
+        this.shown = walk.getRoot();
+
+        upAction = new UpAction();
+        cancelAction = new CancelAction();
+
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+        setBounds(100, 100, 600, 450);
+        getContentPane().setLayout(new BorderLayout());
+
+        JPanel topPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 5));
+        topPanel.add(new JButton(upAction));
+        topPanel.add(directoryLabel);
+        getContentPane().add(topPanel, BorderLayout.NORTH);
+
+        final JTable table = new JTable(model);
+        table.getColumnModel().getColumn(0).setPreferredWidth(250);
+        table.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2) {
+                    int row = table.rowAtPoint(e.getPoint());
+                    if (row != -1) {
+                        showDirectory(model.getUsage(table.convertRowIndexToModel(row)));
+                    }
+                }
+            }
+        });
+        getContentPane().add(new JScrollPane(table), BorderLayout.CENTER);
+
+        JPanel buttonPane = new JPanel(new BorderLayout());
+        buttonPane.setBorder(new EmptyBorder(5, 5, 5, 5));
+        buttonPane.add(statusLabel, BorderLayout.CENTER);
+        buttonPane.add(new JButton(cancelAction), BorderLayout.EAST);
+        getContentPane().add(buttonPane, BorderLayout.SOUTH);
+
+        timer = new Timer(UPDATE_INTERVAL, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                update();
+            }
+        });
+
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                timer.stop();
+                DiskUsageDialog.this.walk.cancel();
+            }
+        });
+
+        showDirectory(shown);
+        timer.start();
+    }
+
+    private void showDirectory(DiskUsage directory) {
+        shown = directory;
+        directoryLabel.setText(walk.getLocation() + ": " + directory.getPath().getPath());
+        upAction.setEnabled(directory.getParent() != null);
+        update();
+    }
+
+    private void update() {
+        model.update(shown);
+
+        DiskUsage root = walk.getRoot();
+        String state;
+        if (!walk.isDone()) {
+            state = "scanning...";
+        } else if (walk.isCancelled()) {
+            state = "cancelled";
+        } else {
+            state = "done";
+        }
+
+        String status = String.format("%s in %d files, %d folders (%s, %.1f s)", FileListing.formatSize(root.getSize()),
+                root.getFiles(), root.getDirectories(), state, walk.getElapsed() / 1000.0);
+        if (walk.getErrors() > 0) {
+            status += ", " + walk.getErrors() + " folders could not be read";
+        }
+        statusLabel.setText(status);
+
+        if (walk.isDone()) {
+            timer.stop();
+            cancelAction.putValue(Action.NAME, "Close");
+        }
+    }
+
+    private class UpAction extends AbstractAction {
+        private static final long serialVersionUID = 1L;
+
+        public UpAction() {
+            putValue(NAME, "Up");
+            putValue(SHORT_DESCRIPTION, "Show the parent folder");
+        }
+
+        public void actionPerformed(ActionEvent e) {
+            if (shown.getParent() != null) {
+                showDirectory(shown.getParent());
+            }
+        }
+    }
+
+    private class CancelAction extends AbstractAction {
+        private static final long serialVersionUID = 1L;
+
+        public CancelAction() {
+            putValue(NAME, "Cancel");
+            putValue(SHORT_DESCRIPTION, "Stop scanning, or close when done");
+        }
+
+        public void actionPerformed(ActionEvent e) {
+            if (walk.isDone()) {
+                dispose();
+            } else {
+                walk.cancel();
+            }
+        }
+    }
+}
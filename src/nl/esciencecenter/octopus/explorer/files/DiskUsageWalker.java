@@ -0,0 +1,337 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer.files;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nl.esciencecenter.octopus.Octopus;
+import nl.esciencecenter.octopus.exceptions.AttributeNotSupportedException;
+import nl.esciencecenter.octopus.explorer.BackgroundExecutor;
+import nl.esciencecenter.octopus.explorer.SessionPool;
+import nl.esciencecenter.octopus.files.AbsolutePath;
+import nl.esciencecenter.octopus.files.DirectoryStream;
+import nl.esciencecenter.octopus.files.FileAttributes;
+import nl.esciencecenter.octopus.files.FileSystem;
+import nl.esciencecenter.octopus.files.PathAttributesPair;
+import nl.esciencecenter.octopus.files.RelativePath;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Computes the disk usage of a directory tree, listing directories in parallel. Each directory is a task which lists the
+ * directory and adds a task for every sub directory.
+ *
+ * Directories are listed as submission work on the {@link BackgroundExecutor}, below interactive work. All walks of a location
+ * share a fixed number of concurrent listings, so the number of directories listed at the same time on a host is bounded no
+ * matter how many walks are running. Directories waiting to be listed are taken depth first, which keeps the number waiting
+ * small. Remote directories are listed on a file system borrowed from the session pool for each directory. By default a walk
+ * uses at most half the sessions per host, so listings the user asks for still get one. The local adaptor keeps no state per
+ * file system, so a local walk shares a single one between all its directories.
+ *
+ * Symbolic links are counted as files, but never followed.
+ */
+class DiskUsageWalker {
+
+    private static final Logger logger = LoggerFactory.getLogger(DiskUsageWalker.class);
+
+    static final int DEFAULT_LOCAL_THREADS = Integer.getInteger("octopus.explorer.usage.local.threads", Runtime.getRuntime()
+            .availableProcessors());
+
+    static final int DEFAULT_REMOTE_THREADS = Integer.getInteger("octopus.explorer.usage.remote.threads",
+            Math.max(1, SessionPool.DEFAULT_MAX_SESSIONS_PER_HOST / 2));
+
+    /**
+     * A single running (or finished) walk.
+     */
+    class Walk {
+        private final String location;
+        private final DiskUsage root;
+        private final long start = System.currentTimeMillis();
+
+        private final AtomicLong errors = new AtomicLong();
+
+        //directories listed or waiting to be listed
+        private final AtomicInteger pending = new AtomicInteger(1);
+
+        private volatile boolean cancelled = false;
+        private volatile boolean done = false;
+        private volatile long end = 0;
+
+        //only set for local walks, by the task listing the root
+        private volatile FileSystem shared;
+
+        private Walk(String location, RelativePath path) {
+            this.location = location;
+            this.root = new DiskUsage(null, path.isEmpty() ? "/" : path.getFileName(), path);
+        }
+
+        String getLocation() {
+            return location;
+        }
+
+        DiskUsage getRoot() {
+            return root;
+        }
+
+        /**
+         * Number of directories that could not be listed.
+         */
+        long getErrors() {
+            return errors.get();
+        }
+
+        boolean isDone() {
+            return done;
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+
+        void cancel() {
+            cancelled = true;
+        }
+
+        /**
+         * Time spent walking so far, in milliseconds.
+         */
+        long getElapsed() {
+            long finished = end;
+            return (finished == 0 ? System.currentTimeMillis() : finished) - start;
+        }
+
+        /**
+         * A directory was listed, or dropped.
+         */
+        private void directoryDone() {
+            if (pending.decrementAndGet() > 0) {
+                return;
+            }
+
+            if (shared != null) {
+                sessions.releaseFileSystem(location, shared);
+            }
+            end = System.currentTimeMillis();
+            done = true;
+            logger.debug("disk usage of {} at {}: {} bytes in {} files, {} directories, {} errors, {} ms", root.getPath(),
+                    location, root.getSize(), root.getFiles(), root.getDirectories(), errors.get(), getElapsed());
+        }
+    }
+
+    private final class DirectoryTask implements Runnable {
+        private final Walk walk;
+        private final DiskUsage directory;
+
+        DirectoryTask(Walk walk, DiskUsage directory) {
+            this.walk = walk;
+            this.directory = directory;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (walk.cancelled || closed) {
+                    return;
+                }
+                if (directory == walk.root && walk.location.equals(SessionPool.LOCAL_LOCATION)) {
+                    walk.shared = sessions.borrowFileSystem(walk.location);
+                }
+
+                List<DirectoryTask> subtasks = new ArrayList<DirectoryTask>();
+                try {
+                    list(walk, directory, subtasks);
+                } finally {
+                    //also the directories found before listing failed
+                    walk.pending.addAndGet(subtasks.size());
+                    for (DirectoryTask subtask : subtasks) {
+                        submit(subtask);
+                    }
+                }
+            } catch (Exception e) {
+                logger.debug("could not list " + directory.getPath() + " at " + walk.location, e);
+                walk.errors.incrementAndGet();
+            } finally {
+                walk.directoryDone();
+            }
+        }
+    }
+
+    /**
+     * Directories of all walks of a single location, listed a bounded number at a time. Guarded by the walker.
+     */
+    private static final class Lane {
+        private final int maxRunning;
+        private final Deque<DirectoryTask> waiting = new ArrayDeque<DirectoryTask>();
+        private int running = 0;
+
+        Lane(int maxRunning) {
+            this.maxRunning = Math.max(1, maxRunning);
+        }
+    }
+
+    private final SessionPool sessions;
+
+    private final Map<String, Lane> lanes = new HashMap<String, Lane>();
+
+    private volatile boolean closed = false;
+
+    DiskUsageWalker(SessionPool sessions) {
+        this.sessions = sessions;
+    }
+
+    /**
+     * Start walking the given directory.
+     */
+    Walk start(String location, RelativePath path) {
+        Walk walk = new Walk(location, path);
+        submit(new DirectoryTask(walk, walk.root));
+        return walk;
+    }
+
+    private void submit(DirectoryTask task) {
+        String location = task.walk.location;
+        Lane lane;
+
+        synchronized (this) {
+            lane = lanes.get(location);
+            if (lane == null) {
+                lane = new Lane(location.equals(SessionPool.LOCAL_LOCATION) ? DEFAULT_LOCAL_THREADS : DEFAULT_REMOTE_THREADS);
+                lanes.put(location, lane);
+            }
+            if (lane.running >= lane.maxRunning) {
+                lane.waiting.addLast(task);
+                return;
+            }
+            lane.running++;
+        }
+        execute(lane, task);
+    }
+
+    private void execute(final Lane lane, final DirectoryTask task) {
+        BackgroundExecutor.get().execute(BackgroundExecutor.Priority.SUBMISSION, task.walk.location, new Runnable() {
+            @Override
+            public void run() {
+                task.run();
+
+                DirectoryTask next;
+                synchronized (DiskUsageWalker.this) {
+                    //depth first
+                    next = lane.waiting.pollLast();
+                    if (next == null) {
+                        lane.running--;
+                        return;
+                    }
+                }
+                //queue again, so other work gets its turn in between
+                execute(lane, next);
+            }
+        });
+    }
+
+    private void list(Walk walk, DiskUsage directory, List<DirectoryTask> subtasks) throws Exception {
+        Octopus octopus = sessions.getOctopus();
+
+        FileSystem fileSystem = walk.shared;
+        boolean borrowed = fileSystem == null;
+        if (borrowed) {
+            fileSystem = sessions.borrowFileSystem(walk.location);
+        }
+        boolean failed = true;
+
+        long size = 0;
+        long files = 0;
+        long directories = 0;
+
+        try {
+            AbsolutePath target = octopus.files().newPath(fileSystem, directory.getPath());
+            DirectoryStream<PathAttributesPair> stream = octopus.files().newAttributesDirectoryStream(target);
+
+            try {
+                for (PathAttributesPair pair : stream) {
+                    if (walk.cancelled) {
+                        break;
+                    }
+
+                    FileAttributes attributes = pair.attributes();
+
+                    if (isDirectory(attributes)) {
+                        directories++;
+                        subtasks.add(new DirectoryTask(walk, directory.addChild(pair.path().getFileName())));
+                    } else {
+                        files++;
+                        size += size(attributes);
+                    }
+                }
+            } finally {
+                stream.close();
+            }
+            failed = false;
+        } finally {
+            //count whatever we found, even if listing failed halfway
+            directory.add(size, files, directories);
+
+            if (borrowed) {
+                if (failed) {
+                    sessions.invalidateFileSystem(walk.location, fileSystem);
+                } else {
+                    sessions.releaseFileSystem(walk.location, fileSystem);
+                }
+            }
+        }
+    }
+
+    private static boolean isDirectory(FileAttributes attributes) {
+        try {
+            return attributes.isDirectory() && !attributes.isSymbolicLink();
+        } catch (AttributeNotSupportedException e) {
+            return false;
+        }
+    }
+
+    private static long size(FileAttributes attributes) {
+        try {
+            return attributes.size();
+        } catch (AttributeNotSupportedException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Stop all walks. Directories being listed are finished, those waiting are dropped.
+     */
+    void close() {
+        closed = true;
+
+        List<DirectoryTask> dropped = new ArrayList<DirectoryTask>();
+        synchronized (this) {
+            for (Lane lane : lanes.values()) {
+                dropped.addAll(lane.waiting);
+                lane.waiting.clear();
+            }
+        }
+        for (DirectoryTask task : dropped) {
+            task.walk.directoryDone();
+        }
+    }
+}
@@ -0,0 +1,348 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer.files;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+
+import nl.esciencecenter.octopus.exceptions.AttributeNotSupportedException;
+import nl.esciencecenter.octopus.files.AbsolutePath;
+import nl.esciencecenter.octopus.files.FileAttributes;
+import nl.esciencecenter.octopus.files.PathAttributesPair;
+
+/**
+ * Compact, column oriented list of directory entries. Each entry is stored as an (interned) name, a size, a modification time
+ * and a set of flags, instead of as a PathAttributesPair with all its attributes.
+ *
+ * Entries can be materialized in the background: their icon is resolved and the text of the size and date columns is
+ * formatted, so nothing but copying is left to do on the event dispatch thread.
+ *
+ * Not thread safe.
+ */
+class FileListing {
+
+    static final byte DIRECTORY = 1;
+    static final byte HIDDEN = 2;
+
+    //icon of an entry not resolved yet
+    static final byte UNRESOLVED = -1;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private AbsolutePath directory;
+
+    private String[] names;
+    private long[] sizes;
+    private long[] modified;
+    private byte[] flags;
+    private byte[] icons;
+    private String[] sizeTexts;
+    private String[] modifiedTexts;
+
+    private int size = 0;
+
+    FileListing(AbsolutePath directory) {
+        this(directory, INITIAL_CAPACITY);
+    }
+
+    FileListing(AbsolutePath directory, int capacity) {
+        this.directory = directory;
+        capacity = Math.max(capacity, 1);
+        names = new String[capacity];
+        sizes = new long[capacity];
+        modified = new long[capacity];
+        flags = new byte[capacity];
+        icons = new byte[capacity];
+        sizeTexts = new String[capacity];
+        modifiedTexts = new String[capacity];
+    }
+
+    /**
+     * Returns a format giving the same result as {@link Date#toString()}, which is what the listing has always shown.
+     */
+    static DateFormat newDateFormat() {
+        return new SimpleDateFormat("EEE MMM dd HH:mm:ss zzz yyyy", Locale.US);
+    }
+
+    static String formatSize(long size) {
+        return String.format("%.3f Mb", (size / 1000000f));
+    }
+
+    /**
+     * The directory listed, used to resolve the full path of an entry.
+     */
+    AbsolutePath getDirectory() {
+        return directory;
+    }
+
+    void setDirectory(AbsolutePath directory) {
+        this.directory = directory;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= names.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, names.length + (names.length >> 1));
+        names = Arrays.copyOf(names, newCapacity);
+        sizes = Arrays.copyOf(sizes, newCapacity);
+        modified = Arrays.copyOf(modified, newCapacity);
+        flags = Arrays.copyOf(flags, newCapacity);
+        icons = Arrays.copyOf(icons, newCapacity);
+        sizeTexts = Arrays.copyOf(sizeTexts, newCapacity);
+        modifiedTexts = Arrays.copyOf(modifiedTexts, newCapacity);
+    }
+
+    void add(String name, long size, long modified, byte flags) {
+        ensureCapacity(this.size + 1);
+        this.names[this.size] = name;
+        this.sizes[this.size] = size;
+        this.modified[this.size] = modified;
+        this.flags[this.size] = flags;
+        this.icons[this.size] = UNRESOLVED;
+        this.sizeTexts[this.size] = null;
+        this.modifiedTexts[this.size] = null;
+        this.size++;
+    }
+
+    /**
+     * Add an entry from a directory stream. Attributes not supported by the adaptor are left at 0.
+     */
+    void add(PathAttributesPair pair) {
+        FileAttributes attributes = pair.attributes();
+        byte flags = 0;
+        long size = 0;
+        long modified = 0;
+
+        try {
+            if (attributes.isDirectory()) {
+                flags |= DIRECTORY;
+            } else {
+                size = attributes.size();
+            }
+        } catch (AttributeNotSupportedException e) {
+            //leave as a plain file of unknown size
+        }
+
+        try {
+            if (attributes.isHidden()) {
+                flags |= HIDDEN;
+            }
+        } catch (AttributeNotSupportedException e) {
+            //not hidden
+        }
+
+        try {
+            modified = attributes.lastModifiedTime();
+        } catch (AttributeNotSupportedException e) {
+            //unknown
+        }
+
+        add(pair.path().getFileName().intern(), size, modified, flags);
+    }
+
+    /**
+     * Add entry <code>index</code> of another listing.
+     */
+    void add(FileListing other, int index) {
+        ensureCapacity(size + 1);
+        names[size] = other.names[index];
+        sizes[size] = other.sizes[index];
+        modified[size] = other.modified[index];
+        flags[size] = other.flags[index];
+        icons[size] = other.icons[index];
+        sizeTexts[size] = other.sizeTexts[index];
+        modifiedTexts[size] = other.modifiedTexts[index];
+        size++;
+    }
+
+    void addAll(FileListing other) {
+        ensureCapacity(size + other.size);
+        System.arraycopy(other.names, 0, names, size, other.size);
+        System.arraycopy(other.sizes, 0, sizes, size, other.size);
+        System.arraycopy(other.modified, 0, modified, size, other.size);
+        System.arraycopy(other.flags, 0, flags, size, other.size);
+        System.arraycopy(other.icons, 0, icons, size, other.size);
+        System.arraycopy(other.sizeTexts, 0, sizeTexts, size, other.size);
+        System.arraycopy(other.modifiedTexts, 0, modifiedTexts, size, other.size);
+        size += other.size;
+    }
+
+    void set(int index, FileListing other, int otherIndex) {
+        names[index] = other.names[otherIndex];
+        sizes[index] = other.sizes[otherIndex];
+        modified[index] = other.modified[otherIndex];
+        flags[index] = other.flags[otherIndex];
+        icons[index] = other.icons[otherIndex];
+        sizeTexts[index] = other.sizeTexts[otherIndex];
+        modifiedTexts[index] = other.modifiedTexts[otherIndex];
+    }
+
+    void remove(int index) {
+        remove(index, index + 1);
+    }
+
+    /**
+     * Remove entries <code>from</code> up to (but not including) <code>to</code>.
+     */
+    void remove(int from, int to) {
+        int tail = size - to;
+        System.arraycopy(names, to, names, from, tail);
+        System.arraycopy(sizes, to, sizes, from, tail);
+        System.arraycopy(modified, to, modified, from, tail);
+        System.arraycopy(flags, to, flags, from, tail);
+        System.arraycopy(icons, to, icons, from, tail);
+        System.arraycopy(sizeTexts, to, sizeTexts, from, tail);
+        System.arraycopy(modifiedTexts, to, modifiedTexts, from, tail);
+        int newSize = size - (to - from);
+        Arrays.fill(names, newSize, size, null);
+        Arrays.fill(sizeTexts, newSize, size, null);
+        Arrays.fill(modifiedTexts, newSize, size, null);
+        size = newSize;
+    }
+
+    void removeLast() {
+        remove(size - 1);
+    }
+
+    void clear() {
+        Arrays.fill(names, 0, size, null);
+        Arrays.fill(sizeTexts, 0, size, null);
+        Arrays.fill(modifiedTexts, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * Resolve the icon and format the size and date text of the given entry.
+     */
+    void materialize(int index, MimeTypeIcons mimeTypeIcons, DateFormat dateFormat) {
+        resolveIcon(index, mimeTypeIcons);
+        sizeTexts[index] = isDirectory(index) ? "" : formatSize(sizes[index]);
+        modifiedTexts[index] = dateFormat.format(new Date(modified[index]));
+    }
+
+    void resolveIcon(int index, MimeTypeIcons mimeTypeIcons) {
+        icons[index] = mimeTypeIcons.getIconIndexFor(names[index], isDirectory(index));
+    }
+
+    boolean isMaterialized(int index) {
+        return modifiedTexts[index] != null;
+    }
+
+    /**
+     * Returns a copy of this listing, without any spare capacity.
+     */
+    FileListing copy() {
+        FileListing result = new FileListing(directory, size);
+        result.addAll(this);
+        return result;
+    }
+
+    /**
+     * Returns a copy of the names of all entries.
+     */
+    String[] copyNames() {
+        return Arrays.copyOf(names, size);
+    }
+
+    /**
+     * Returns a copy of the sizes of all entries.
+     */
+    long[] copySizes() {
+        return Arrays.copyOf(sizes, size);
+    }
+
+    /**
+     * Returns a copy of the modification times of all entries.
+     */
+    long[] copyModified() {
+        return Arrays.copyOf(modified, size);
+    }
+
+    /**
+     * Returns true if entry <code>index</code> looks the same as entry <code>otherIndex</code> of the other listing.
+     */
+    boolean sameAs(int index, FileListing other, int otherIndex) {
+        return names[index].equals(other.names[otherIndex]) && sizes[index] == other.sizes[otherIndex]
+                && modified[index] == other.modified[otherIndex] && flags[index] == other.flags[otherIndex];
+    }
+
+    String getName(int index) {
+        return names[index];
+    }
+
+    long getSize(int index) {
+        return sizes[index];
+    }
+
+    long getModified(int index) {
+        return modified[index];
+    }
+
+    byte getFlags(int index) {
+        return flags[index];
+    }
+
+    /**
+     * Index of the icon of this entry, see {@link MimeTypeIcons#getIconIndexFor(String, boolean)}, or {@link #UNRESOLVED}.
+     */
+    byte getIcon(int index) {
+        return icons[index];
+    }
+
+    void setIcon(int index, byte icon) {
+        icons[index] = icon;
+    }
+
+    /**
+     * Text for the size column, formatted now if the entry was not materialized.
+     */
+    String getSizeText(int index) {
+        if (sizeTexts[index] == null) {
+            sizeTexts[index] = isDirectory(index) ? "" : formatSize(sizes[index]);
+        }
+        return sizeTexts[index];
+    }
+
+    /**
+     * Text for the date column, formatted now if the entry was not materialized.
+     */
+    String getModifiedText(int index) {
+        if (modifiedTexts[index] == null) {
+            modifiedTexts[index] = new Date(modified[index]).toString();
+        }
+        return modifiedTexts[index];
+    }
+
+    boolean isDirectory(int index) {
+        return (flags[index] & DIRECTORY) != 0;
+    }
+
+    boolean isHidden(int index) {
+        return (flags[index] & HIDDEN) != 0;
+    }
+}
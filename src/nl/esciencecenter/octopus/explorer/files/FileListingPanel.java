@@ -21,32 +21,57 @@ import java.awt.Component;
 import java.awt.Desktop;
 import java.awt.FlowLayout;
 import java.awt.Font;
+import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 import javax.swing.AbstractAction;
 import javax.swing.Action;
-import javax.swing.Icon;
-import javax.swing.ImageIcon;
 import javax.swing.JButton;
+import javax.swing.JFileChooser;
 import javax.swing.JLabel;
+import javax.swing.JMenuItem;
 import javax.swing.JPanel;
+import javax.swing.JPopupMenu;
 import javax.swing.JScrollPane;
 import javax.swing.JTable;
+import javax.swing.JToggleButton;
 import javax.swing.ScrollPaneConstants;
 import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
 import javax.swing.UIManager;
+import javax.swing.border.Border;
 import javax.swing.border.EmptyBorder;
+import javax.swing.event.RowSorterEvent;
+import javax.swing.event.RowSorterListener;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+import javax.swing.plaf.basic.BasicHTML;
 import javax.swing.table.DefaultTableCellRenderer;
-import javax.swing.table.DefaultTableModel;
 import javax.swing.table.JTableHeader;
 
-import nl.esciencecenter.octopus.Octopus;
-import nl.esciencecenter.octopus.exceptions.AttributeNotSupportedException;
+import nl.esciencecenter.octopus.explorer.BackgroundExecutor;
+import nl.esciencecenter.octopus.explorer.BackgroundRowSorter;
+import nl.esciencecenter.octopus.explorer.QuickFilterField;
+import nl.esciencecenter.octopus.explorer.SessionPool;
 import nl.esciencecenter.octopus.explorer.Utils;
-import nl.esciencecenter.octopus.files.PathAttributesPair;
+import nl.esciencecenter.octopus.explorer.transfers.TransferEngine;
+import nl.esciencecenter.octopus.explorer.viewer.FileViewer;
+import nl.esciencecenter.octopus.files.AbsolutePath;
 import nl.esciencecenter.octopus.files.RelativePath;
 
 import org.slf4j.Logger;
@@ -56,19 +81,63 @@ public class FileListingPanel extends JPanel {
     private static final Logger logger = LoggerFactory.getLogger(FileListingPanel.class);
 
     private static final long serialVersionUID = 1L;
+
+    //listings started closer together than this are coalesced, only the last one runs (in milliseconds)
+    static final int REFRESH_SPACING = Integer.getInteger("octopus.explorer.refresh.spacing", 150);
+
+    //time a cancelled listing gets to stop by itself, before its file system is aborted (in milliseconds)
+    static final long CANCEL_GRACE = Long.getLong("octopus.explorer.cancel.grace", 50);
+
     private JTable table;
-    private final DefaultTableModel theModel;
-    private UpdateFileListWorker currentTask = null;
+    private final FileListingTableModel theModel;
+    private final WindowedFileListingTableModel windowedModel;
+    private final RowAppender appender;
+    private final MimeTypeIcons mimeTypeIcons;
+    private ListingWorker<?> currentTask = null;
+
+    //start of the last listing, and the timer starting the next one if refreshes come in too fast
+    private long lastTaskStart = 0;
+    private final Timer taskTimer;
+    private final JLabel countLabel;
+
+    //sorts and filters the rows in the background, not used in large directory mode
+    private final BackgroundRowSorter sorter;
+    private final QuickFilterField filterField;
+
+    //list directories into a spill file on disk, instead of keeping them in memory
+    private boolean largeDirectoryMode = false;
+
+    private final ListingCache listingCache = new ListingCache();
+    private final SubdirectoryPrefetcher prefetcher;
+    private final DiskUsageWalker diskUsageWalker;
+    private final FilenameIndexer filenameIndexer;
+    private final DirectoryWatcher directoryWatcher;
+
+    //directory watched for changes, if auto refresh is on
+    private boolean autoRefresh = false;
+    private DirectoryWatcher.Watch watch = null;
+    private final ListingSnapshot listingSnapshot = new ListingSnapshot();
 
     private String currentLocation = "Local";
 
     private RelativePath currentPath = new RelativePath();
 
-    private final Octopus octopus;
+    //directory currently shown in the table, if any
+    private String shownLocation = null;
+    private RelativePath shownPath = null;
+
+    private final SessionPool sessions;
+    private final TransferEngine transfers;
 
     private final Action refreshAction;
     private final Action upAction;
-    
+    private final Action largeDirectoryAction;
+    private final Action autoRefreshAction;
+    private final Action diskUsageAction;
+    private final Action uploadAction;
+    private final Action downloadAction;
+    private final Action viewAction;
+    private final Action openAction;
 
     /**
      * @author Niels Drost
@@ -81,23 +150,25 @@ public class FileListingPanel extends JPanel {
                 try {
                     int row = table.rowAtPoint(e.getPoint());
 
-                    Object value = theModel.getValueAt(row, 0);
+                    if (row == -1) {
+                        return;
+                    }
+                    row = table.convertRowIndexToModel(row);
+
+                    FileRowModel model = (FileRowModel) table.getModel();
 
-                    PathAttributesPair pa = (PathAttributesPair) value;
+                    String fileName = model.getName(row);
 
-                    logger.debug("double-click on file: " + pa.path().getFileName());
+                    logger.debug("double-click on file: " + fileName);
 
-                    if (pa.attributes().isDirectory()) {
-                        toChildDirectory(pa.path().getFileName());
+                    if (model.isDirectory(row)) {
+                        toChildDirectory(fileName);
                         triggerRefresh(false);
-                    } else if (pa.path().isLocal()) {
-                        Desktop dt = Desktop.getDesktop();
-                        dt.open(new java.io.File(pa.path().getPath()));
                     } else {
-                        logger.warn("Cannot open non-local files");
+                        view(fileName);
                     }
 
-                } catch (ClassCastException | IOException exception) {
+                } catch (Exception exception) {
                     logger.error("Error on viewing file / going into directory", exception);
                 }
             }
@@ -105,52 +176,52 @@ public class FileListingPanel extends JPanel {
     }
 
     /**
-     * @author Niels Drost
-     * 
+     * Displays plain text. The "text" property change is only needed to render html, which none of the listing columns are.
+     * Skipping it saves an event object per painted cell.
      */
-    private final static class FileListingTableModel extends DefaultTableModel {
-        private static final long serialVersionUID = 1L;
-
-        private static final Class[] COLUMN_TYPES = new Class[] { PathAttributesPair.class, String.class, String.class,
-                String.class };
+    static class PlainTextRenderer extends DefaultTableCellRenderer {
 
-        private static final String[] COLUMN_NAMES = new String[] { "Name", "Size", "Type", "Date Modified" };
-
-        /**
-         * @param columnNames
-         * @param rowCount
-         */
-        private FileListingTableModel() {
-            super(COLUMN_NAMES, 0);
-        }
+        private static final long serialVersionUID = 1L;
 
         @Override
-        public Class getColumnClass(int columnIndex) {
-            return COLUMN_TYPES[columnIndex];
+        protected void firePropertyChange(String propertyName, Object oldValue, Object newValue) {
+            if ("text".equals(propertyName) && !isHTML(oldValue) && !isHTML(newValue)) {
+                return;
+            }
+            super.firePropertyChange(propertyName, oldValue, newValue);
         }
 
-        @Override
-        public boolean isCellEditable(int row, int column) {
-            return false;
+        private static boolean isHTML(Object text) {
+            return text instanceof String && BasicHTML.isHTMLString((String) text);
         }
     }
 
     /**
-     * Displays Strings as JLabels
+     * Displays file names with their icon. A single label is re-used for all cells, and the icon is taken from the model, where
+     * it was resolved when the row was added, so painting a cell does not allocate anything.
      */
-    private class LabelRenderer extends DefaultTableCellRenderer {
+    static class LabelRenderer extends PlainTextRenderer {
 
         private static final long serialVersionUID = 2l;
 
-        private final ImageIcon folderIcon;
+        private static final Border NO_FOCUS_BORDER = new EmptyBorder(1, 1, 1, 1);
+
+        private Border focusBorder;
 
-        private final MimeTypeIcons mimeTypeIcons;
+        LabelRenderer() {
+            setHorizontalAlignment(SwingConstants.LEFT);
 
-        LabelRenderer() throws Exception {
-            folderIcon = Utils.loadIcon("places/folder.png");
-            mimeTypeIcons = new MimeTypeIcons();
+            //make the label draw its entire content (including background)
+            setOpaque(true);
         }
 
+        @Override
+        public void updateUI() {
+            super.updateUI();
+            focusBorder = UIManager.getBorder("Table.focusCellHighlightBorder");
+        }
+
+
         /* 
          * (non-Javadoc) 
          *  
@@ -160,45 +231,25 @@ public class FileListingPanel extends JPanel {
          */
         public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, boolean hasFocus, int row,
                 int column) {
-            PathAttributesPair pa = (PathAttributesPair) value;
-
-            String fileName = pa.path().getFileName();
-            boolean isFolder;
-            try {
-                isFolder = pa.attributes().isDirectory();
-            } catch (AttributeNotSupportedException e) {
-                isFolder = false;
-            }
-
-            Icon icon;
-            if (isFolder) {
-                icon = folderIcon;
-            } else {
-                icon = mimeTypeIcons.getIconFor(fileName);
-            }
-
-            JLabel label = new JLabel(fileName, icon, SwingConstants.LEFT);
-            label.setBorder(new EmptyBorder(1, 1, 1, 1));
+            FileRowModel model = (FileRowModel) table.getModel();
 
-            //make the label draw its entire content (including background)
-            label.setOpaque(true);
+            setText((String) value);
+            setIcon(model.getIcon(table.convertRowIndexToModel(row)));
 
             if (isSelected) {
-                label.setBackground(table.getSelectionBackground());
-                label.setForeground(table.getSelectionForeground());
+                setBackground(table.getSelectionBackground());
+                setForeground(table.getSelectionForeground());
             } else {
-                label.setBackground(table.getBackground());
-                label.setForeground(table.getForeground());
+                setBackground(table.getBackground());
+                setForeground(table.getForeground());
             }
 
-            if (hasFocus) {
-                label.setBorder(UIManager.getBorder("Table.focusCellHighlightBorder"));
-            }
+            setBorder(hasFocus ? focusBorder : NO_FOCUS_BORDER);
 
             setEnabled(table.isEnabled());
             setFont(table.getFont());
 
-            return label;
+            return this;
         }
 
     }
@@ -207,13 +258,30 @@ public class FileListingPanel extends JPanel {
      * Create the panel.
      * @throws IOException 
      */
-    public FileListingPanel(Octopus octopus) throws Exception {
+    public FileListingPanel(SessionPool sessions, TransferEngine transfers) throws Exception {
         refreshAction = new RefreshAction();
         upAction = new UpAction();
-
-        
-        
-        this.octopus = octopus;
+        largeDirectoryAction = new LargeDirectoryAction();
+        autoRefreshAction = new AutoRefreshAction();
+        diskUsageAction = new DiskUsageAction();
+        uploadAction = new UploadAction();
+        downloadAction = new DownloadAction();
+        viewAction = new ViewAction();
+        openAction = new OpenAction();
+
+        this.sessions = sessions;
+        this.transfers = transfers;
+        diskUsageWalker = new DiskUsageWalker(sessions);
+        filenameIndexer = new FilenameIndexer(sessions);
+        directoryWatcher = new DirectoryWatcher(sessions);
+
+        taskTimer = new Timer(REFRESH_SPACING, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                executeCurrentTask();
+            }
+        });
+        taskTimer.setRepeats(false);
         setLayout(new BorderLayout(0, 0));
 
         JPanel panel = new JPanel();
@@ -223,10 +291,28 @@ public class FileListingPanel extends JPanel {
         JButton btnRefresh = new JButton(refreshAction);
         panel.add(btnRefresh);
 
+        JToggleButton btnAutoRefresh = new JToggleButton(autoRefreshAction);
+        panel.add(btnAutoRefresh);
+
         JButton btnUp = new JButton("Up");
         btnUp.setAction(upAction);
         panel.add(btnUp);
 
+        JToggleButton btnLargeDirectory = new JToggleButton(largeDirectoryAction);
+        panel.add(btnLargeDirectory);
+
+        JButton btnDiskUsage = new JButton(diskUsageAction);
+        panel.add(btnDiskUsage);
+
+        JButton btnUpload = new JButton(uploadAction);
+        panel.add(btnUpload);
+
+        JButton btnDownload = new JButton(downloadAction);
+        panel.add(btnDownload);
+
+        countLabel = new JLabel();
+        panel.add(countLabel);
+
         JScrollPane scrollPane = new JScrollPane();
         scrollPane.setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
         add(scrollPane);
@@ -241,29 +327,355 @@ public class FileListingPanel extends JPanel {
 
         table.addMouseListener(new FileTableMouseListener());
 
-        theModel = new FileListingTableModel();
+        JPopupMenu popupMenu = new JPopupMenu();
+        popupMenu.add(new JMenuItem(viewAction));
+        popupMenu.add(new JMenuItem(openAction));
+        popupMenu.addSeparator();
+        popupMenu.add(new JMenuItem(downloadAction));
+        popupMenu.add(new JMenuItem(uploadAction));
+        table.setComponentPopupMenu(popupMenu);
+
+        table.setDragEnabled(true);
+        table.setTransferHandler(new FileTransferHandler(this));
+
+        mimeTypeIcons = new MimeTypeIcons();
+
+        panel.add(new JLabel("Search"));
+        panel.add(new FilenameSearchField(filenameIndexer, mimeTypeIcons, this));
+        theModel = new FileListingTableModel(mimeTypeIcons);
+        sorter = new BackgroundRowSorter(theModel);
+        filterField = new QuickFilterField(sorter);
+        panel.add(new JLabel("Filter"));
+        panel.add(filterField);
+        appender = new RowAppender(theModel);
+        prefetcher = new SubdirectoryPrefetcher(sessions, listingCache, mimeTypeIcons);
+        windowedModel = new WindowedFileListingTableModel(mimeTypeIcons);
+
+        TableModelListener countListener = new TableModelListener() {
+            @Override
+            public void tableChanged(TableModelEvent e) {
+                updateCount();
+            }
+        };
+        theModel.addTableModelListener(countListener);
+        windowedModel.addTableModelListener(countListener);
 
-        table.setDefaultRenderer(PathAttributesPair.class, new LabelRenderer());
+        table.setDefaultRenderer(String.class, new PlainTextRenderer());
+        table.setRowHeight(30);
 
         table.setModel(theModel);
+        table.setRowSorter(sorter);
+        configureColumns();
+
+        sorter.addRowSorterListener(new RowSorterListener() {
+            @Override
+            public void sorterChanged(RowSorterEvent e) {
+                updateCount();
+            }
+        });
+
+        //show whatever was shown last time right away, and revalidate it once connected
+        ListingSnapshot.Snapshot snapshot = listingSnapshot.load();
+        if (snapshot != null) {
+            currentLocation = snapshot.getLocation();
+            currentPath = snapshot.getPath();
+            listingCache.put(currentLocation, currentPath, snapshot.getListing());
+            triggerRefresh(false);
+        } else {
+            //trigger refresh, set path
+            triggerRefresh(true);
+        }
+    }
+
+    /**
+     * Sets the renderer and width of each column. Needed again whenever the model is replaced, as the columns are re-created.
+     */
+    private void configureColumns() {
+        table.getColumnModel().getColumn(FileRowModel.NAME_COLUMN).setCellRenderer(new LabelRenderer());
 
-        table.setRowHeight(30);
         table.getColumnModel().getColumn(0).setPreferredWidth(200);
         table.getColumnModel().getColumn(1).setPreferredWidth(50);
         table.getColumnModel().getColumn(2).setPreferredWidth(50);
         table.getColumnModel().getColumn(3).setPreferredWidth(200);
+    }
 
-        //trigger refresh, set path
-        triggerRefresh(true);
+    private void updateCount() {
+        int count = table.getRowCount();
+        int total = table.getModel().getRowCount();
+        String text = count == 1 ? "1 item" : count + " items";
+        if (count != total) {
+            text = count + " of " + total + " items";
+        }
+
+        if (currentTask != null && !currentTask.isDone()) {
+            text += " (listing...)";
+        }
+        countLabel.setText(text);
+    }
+
+    void setLargeDirectoryMode(boolean enabled) {
+        if (enabled == largeDirectoryMode) {
+            return;
+        }
+        largeDirectoryMode = enabled;
+
+        if (currentTask != null) {
+            currentTask.abort(CANCEL_GRACE);
+            currentTask = null;
+        }
+        appender.clear();
+        theModel.clear();
+        windowedModel.setSpillFile(null);
+        shownLocation = null;
+        shownPath = null;
+
+        //the sorter needs all rows in memory, so large directories are shown unsorted
+        if (enabled) {
+            table.setRowSorter(null);
+            table.setModel(windowedModel);
+        } else {
+            table.setModel(theModel);
+            sorter.allRowsChanged();
+            table.setRowSorter(sorter);
+        }
+        filterField.setEnabled(!enabled);
+        configureColumns();
+
+        triggerRefresh(false);
+    }
+
+    /**
+     * Turn auto refresh on or off. When on, the directory shown is listed again whenever it changes.
+     */
+    void setAutoRefresh(boolean enabled) {
+        autoRefresh = enabled;
+
+        if (enabled) {
+            watchDirectory(currentLocation, currentPath);
+        } else if (watch != null) {
+            watch.cancel();
+            watch = null;
+        }
+    }
+
+    private void watchDirectory(final String location, final RelativePath path) {
+        if (watch != null) {
+            if (watch.getLocation().equals(location) && watch.getPath().equals(path)) {
+                return;
+            }
+            watch.cancel();
+        }
+
+        watch = directoryWatcher.watch(location, path, new Runnable() {
+            @Override
+            public void run() {
+                //ignore changes to a directory we just left, and huge directories, which are not worth listing again
+                if (!largeDirectoryMode && location.equals(currentLocation) && path.equals(currentPath)) {
+                    logger.debug("{} at {} changed, refreshing", path, location);
+                    triggerRefresh(false);
+                }
+            }
+        });
     }
 
     public void triggerRefresh(boolean setPathToFSEntry) {
         if (currentTask != null) {
-            currentTask.cancel(false);
+            currentTask.abort(CANCEL_GRACE);
+        }
+        appender.clear();
+        prefetcher.navigated();
+
+        if (largeDirectoryMode) {
+            startWindowedListing(setPathToFSEntry);
+            return;
+        }
+
+        boolean revalidate;
+        if (!setPathToFSEntry && currentLocation.equals(shownLocation) && currentPath.equals(shownPath)) {
+            //refresh of the directory already shown, only update what changed
+            revalidate = true;
+        } else {
+            theModel.clear();
+
+            //show the cached listing right away, and revalidate it in the background
+            FileListing cached = null;
+            if (!setPathToFSEntry) {
+                cached = listingCache.get(currentLocation, currentPath);
+            }
+            if (cached != null) {
+                logger.debug("showing cached listing of {} at {}", currentPath, currentLocation);
+                theModel.append(cached);
+            }
+            revalidate = cached != null;
         }
-        theModel.setRowCount(0);
-        currentTask = new UpdateFileListWorker(theModel, currentLocation, currentPath, setPathToFSEntry, octopus, this);
-        currentTask.execute();
+
+        shownLocation = setPathToFSEntry ? null : currentLocation;
+        shownPath = currentPath;
+
+        startTask(new UpdateFileListWorker(theModel, appender, mimeTypeIcons, currentLocation, currentPath, setPathToFSEntry,
+                revalidate, sessions, listingCache, this));
+    }
+
+    private void startWindowedListing(boolean setPathToFSEntry) {
+        ListingSpillFile spillFile;
+        try {
+            spillFile = new ListingSpillFile();
+        } catch (IOException e) {
+            logger.error("Cannot create temporary file for listing", e);
+            return;
+        }
+        windowedModel.setSpillFile(spillFile);
+
+        shownLocation = null;
+        shownPath = null;
+
+        startTask(new UpdateWindowedListWorker(windowedModel, spillFile, mimeTypeIcons, currentLocation, currentPath,
+                setPathToFSEntry, sessions, this));
+    }
+
+    private void startTask(ListingWorker<?> task) {
+        currentTask = task;
+        currentTask.addPropertyChangeListener(new PropertyChangeListener() {
+            @Override
+            public void propertyChange(PropertyChangeEvent event) {
+                if ("state".equals(event.getPropertyName())) {
+                    updateCount();
+                }
+            }
+        });
+
+        long wait = lastTaskStart + REFRESH_SPACING - System.currentTimeMillis();
+        if (wait <= 0) {
+            executeCurrentTask();
+        } else {
+            //the last listing just started, wait a bit in case even more refreshes are coming
+            taskTimer.setInitialDelay((int) wait);
+            taskTimer.restart();
+        }
+        updateCount();
+    }
+
+    private void executeCurrentTask() {
+        if (currentTask == null || currentTask.isCancelled() || currentTask.getState() != SwingWorker.StateValue.PENDING) {
+            return;
+        }
+        lastTaskStart = System.currentTimeMillis();
+        BackgroundExecutor.get().execute(BackgroundExecutor.Priority.INTERACTIVE, currentLocation, currentTask);
+    }
+
+    /**
+     * Called when a directory was listed. Starts prefetching its subdirectories, those currently visible first.
+     */
+    void listed(String location, RelativePath path, FileListing listing) {
+        filenameIndexer.listed(location, path, listing);
+        listingSnapshot.save(location, path, listing);
+
+        if (autoRefresh) {
+            watchDirectory(location, path);
+        }
+
+        //only the first few are prefetched
+        int max = prefetcher.getMaxDirectories();
+        Set<String> subdirectories = new LinkedHashSet<String>();
+
+        Rectangle visible = table.getVisibleRect();
+        int first = table.rowAtPoint(visible.getLocation());
+        int last = table.rowAtPoint(new Point(visible.x, visible.y + visible.height - 1));
+
+        if (first >= 0) {
+            if (last < 0) {
+                last = table.getRowCount() - 1;
+            }
+            for (int row = first; row <= last && subdirectories.size() < max; row++) {
+                int index = table.convertRowIndexToModel(row);
+                if (theModel.isDirectory(index)) {
+                    subdirectories.add(theModel.getName(index));
+                }
+            }
+        }
+
+        for (int i = 0; i < listing.size() && subdirectories.size() < max; i++) {
+            if (listing.isDirectory(i)) {
+                subdirectories.add(listing.getName(i));
+            }
+        }
+
+        prefetcher.prefetch(location, path, subdirectories);
+    }
+
+    /**
+     * Queue an upload of the given local files (or directories) to the directory shown.
+     */
+    void upload(List<File> files) {
+        for (File file : files) {
+            transfers.add(SessionPool.LOCAL_LOCATION, new RelativePath(file.getAbsolutePath()), currentLocation,
+                    currentPath.resolve(new RelativePath(file.getName())));
+        }
+        logger.debug("queued upload of {} files to {} at {}", files.size(), currentPath, currentLocation);
+    }
+
+    /**
+     * Queue a download of the selected files (or directories) to the given local directory.
+     */
+    void download(File directory) {
+        FileRowModel model = (FileRowModel) table.getModel();
+        RelativePath target = new RelativePath(directory.getAbsolutePath());
+
+        for (int row : table.getSelectedRows()) {
+            String name = model.getName(table.convertRowIndexToModel(row));
+            transfers.add(currentLocation, currentPath.resolve(new RelativePath(name)), SessionPool.LOCAL_LOCATION,
+                    target.resolve(new RelativePath(name)));
+        }
+    }
+
+    /**
+     * Show the contents of the given file in the current directory.
+     */
+    void view(String name) throws Exception {
+        RelativePath path = currentPath.resolve(new RelativePath(name));
+        logger.debug("viewing {} at {}", path, currentLocation);
+        new FileViewer(SwingUtilities.getWindowAncestor(this), sessions, currentLocation, path).setVisible(true);
+    }
+
+    /**
+     * Returns the selected files, if they are local, or null if they are not.
+     */
+    List<File> getSelectedLocalFiles() {
+        if (!currentLocation.equals(SessionPool.LOCAL_LOCATION)) {
+            return null;
+        }
+
+        FileRowModel model = (FileRowModel) table.getModel();
+        List<File> result = new ArrayList<File>();
+
+        for (int row : table.getSelectedRows()) {
+            String name = model.getName(table.convertRowIndexToModel(row));
+            result.add(new File(currentPath.resolve(new RelativePath(name)).getPath()));
+        }
+        return result;
+    }
+
+    /**
+     * Stops all work done in the background on behalf of this panel, and deletes the spill files of a virtualized listing.
+     */
+    public void close() {
+        filenameIndexer.close();
+        diskUsageWalker.close();
+        directoryWatcher.close();
+        windowedModel.setSpillFile(null);
+    }
+
+    public String getCurrentLocation() {
+        return currentLocation;
+    }
+
+    /**
+     * Show the given directory.
+     */
+    void goTo(RelativePath path) {
+        currentPath = path == null ? new RelativePath() : path;
+        logger.debug("current location: " + currentLocation + " current path(go to): " + currentPath);
+        triggerRefresh(false);
     }
 
     public void setCurrentLocation(String location) {
@@ -278,6 +690,8 @@ public class FileListingPanel extends JPanel {
      */
     void setCurrentPath(RelativePath path) {
         this.currentPath = path;
+        this.shownLocation = currentLocation;
+        this.shownPath = path;
         logger.debug("current location: " + currentLocation + " current path(updated): " + currentPath);
     }
 
@@ -319,6 +733,159 @@ public class FileListingPanel extends JPanel {
         }
     }
 
+    private class LargeDirectoryAction extends AbstractAction {
+        private static final long serialVersionUID = 1L;
+
+        public LargeDirectoryAction() throws Exception {
+            putValue(NAME, "Large directory");
+            putValue(SHORT_DESCRIPTION, "Keep listings on disk and only load the part being looked at, for huge directories");
+            putValue(SELECTED_KEY, Boolean.FALSE);
+        }
+
+        public void actionPerformed(ActionEvent e) {
+            setLargeDirectoryMode(Boolean.TRUE.equals(getValue(SELECTED_KEY)));
+        }
+    }
+
+    private class AutoRefreshAction extends AbstractAction {
+        private static final long serialVersionUID = 1L;
+
+        public AutoRefreshAction() throws Exception {
+            putValue(NAME, "Auto refresh");
+            putValue(SHORT_DESCRIPTION, "Refresh the listing whenever the directory changes");
+            putValue(SELECTED_KEY, Boolean.FALSE);
+
+            putValue(SMALL_ICON, Utils.loadIcon("status/folder-visiting.png"));
+        }
+
+        public void actionPerformed(ActionEvent e) {
+            setAutoRefresh(Boolean.TRUE.equals(getValue(SELECTED_KEY)));
+        }
+    }
+
+    private class DiskUsageAction extends AbstractAction {
+        private static final long serialVersionUID = 1L;
+
+        public DiskUsageAction() throws Exception {
+            putValue(NAME, "Disk usage");
+            putValue(SHORT_DESCRIPTION, "Show what takes up space in this directory and everything below it");
+
+            putValue(SMALL_ICON, Utils.loadIcon("devices/drive-harddisk.png"));
+        }
+
+        public void actionPerformed(ActionEvent e) {
+            logger.debug("disk usage of {} at {}", currentPath, currentLocation);
+            DiskUsageWalker.Walk walk = diskUsageWalker.start(currentLocation, currentPath);
+            new DiskUsageDialog(SwingUtilities.getWindowAncestor(FileListingPanel.this), walk).setVisible(true);
+        }
+    }
+
+    private class UploadAction extends AbstractAction {
+        private static final long serialVersionUID = 1L;
+
+        public UploadAction() throws Exception {
+            putValue(NAME, "Upload");
+            putValue(SHORT_DESCRIPTION, "Copy local files into this directory");
+
+            putValue(SMALL_ICON, Utils.loadIcon("status/network-transmit.png"));
+        }
+
+        public void actionPerformed(ActionEvent e) {
+            JFileChooser chooser = new JFileChooser();
+            chooser.setDialogTitle("Upload");
+            chooser.setMultiSelectionEnabled(true);
+            chooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
+
+            if (chooser.showDialog(FileListingPanel.this, "Upload") == JFileChooser.APPROVE_OPTION) {
+                upload(Arrays.asList(chooser.getSelectedFiles()));
+            }
+        }
+    }
+
+    private class DownloadAction extends AbstractAction {
+        private static final long serialVersionUID = 1L;
+
+        public DownloadAction() throws Exception {
+            putValue(NAME, "Download");
+            putValue(SHORT_DESCRIPTION, "Copy the selected files to a local directory");
+
+            putValue(SMALL_ICON, Utils.loadIcon("status/network-receive.png"));
+        }
+
+        public void actionPerformed(ActionEvent e) {
+            if (table.getSelectedRowCount() == 0) {
+                return;
+            }
+
+            JFileChooser chooser = new JFileChooser();
+            chooser.setDialogTitle("Download to");
+            chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+
+            if (chooser.showDialog(FileListingPanel.this, "Download") == JFileChooser.APPROVE_OPTION) {
+                download(chooser.getSelectedFile());
+            }
+        }
+    }
+
+    private class ViewAction extends AbstractAction {
+        private static final long serialVersionUID = 1L;
+
+        public ViewAction() throws Exception {
+            putValue(NAME, "View");
+            putValue(SHORT_DESCRIPTION, "Show the contents of the selected file, of any size");
+
+            putValue(SMALL_ICON, Utils.loadIcon("actions/document-print-preview.png"));
+        }
+
+        public void actionPerformed(ActionEvent e) {
+            int row = table.getSelectedRow();
+            if (row == -1) {
+                return;
+            }
+
+            FileRowModel model = (FileRowModel) table.getModel();
+            row = table.convertRowIndexToModel(row);
+
+            if (model.isDirectory(row)) {
+                return;
+            }
+
+            try {
+                view(model.getName(row));
+            } catch (Exception exception) {
+                logger.error("Error on viewing file", exception);
+            }
+        }
+    }
+
+    private class OpenAction extends AbstractAction {
+        private static final long serialVersionUID = 1L;
+
+        public OpenAction() throws Exception {
+            putValue(NAME, "Open");
+            putValue(SHORT_DESCRIPTION, "Open the selected local files in their default application");
+
+            putValue(SMALL_ICON, Utils.loadIcon("actions/document-open.png"));
+        }
+
+        public void actionPerformed(ActionEvent e) {
+            List<File> files = getSelectedLocalFiles();
+
+            if (files == null) {
+                logger.warn("Cannot open non-local files");
+                return;
+            }
+
+            try {
+                for (File file : files) {
+                    Desktop.getDesktop().open(file);
+                }
+            } catch (IOException exception) {
+                logger.error("Error on opening file", exception);
+            }
+        }
+    }
+
     private class UpAction extends AbstractAction {
         private static final long serialVersionUID = 1L;
 
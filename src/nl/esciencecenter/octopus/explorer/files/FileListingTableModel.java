@@ -0,0 +1,254 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer.files;
+
+import javax.swing.Icon;
+import javax.swing.table.AbstractTableModel;
+
+import nl.esciencecenter.octopus.explorer.SortKeys;
+import nl.esciencecenter.octopus.explorer.SortableTableModel;
+import nl.esciencecenter.octopus.files.AbsolutePath;
+import nl.esciencecenter.octopus.files.RelativePath;
+
+/**
+ * Table model for a directory listing. Rows are kept in a compact {@link FileListing}, and are added in bulk, with a single
+ * event per chunk. Rows are normally materialized in the background before they are added. For any row that is not, such as
+ * the rows of a listing snapshot, the icon and the text of the size and date columns are resolved when it is first painted.
+ *
+ * Hidden entries are never shown. Rows can be sorted by any column, folders sort before files by type.
+ */
+class FileListingTableModel extends AbstractTableModel implements FileRowModel, SortableTableModel {
+
+    private static final long serialVersionUID = 1L;
+
+    static final Class<?>[] COLUMN_TYPES = new Class<?>[] { String.class, String.class, String.class, String.class };
+
+    static final String[] COLUMN_NAMES = new String[] { "Name", "Size", "Type", "Date Modified" };
+
+    private final MimeTypeIcons mimeTypeIcons;
+
+    private final FileListing rows = new FileListing(null);
+
+    //incremented on every change, to tell if a diff computed in the background still applies
+    private int modCount = 0;
+
+    FileListingTableModel(MimeTypeIcons mimeTypeIcons) {
+        this.mimeTypeIcons = mimeTypeIcons;
+    }
+
+    @Override
+    public int getRowCount() {
+        return rows.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int columnIndex) {
+        return COLUMN_TYPES[columnIndex];
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        return false;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        switch (column) {
+        case NAME_COLUMN:
+            return rows.getName(row);
+        case SIZE_COLUMN:
+            return rows.getSizeText(row);
+        case TYPE_COLUMN:
+            return rows.isDirectory(row) ? "folder" : "file";
+        case MODIFIED_COLUMN:
+            return rows.getModifiedText(row);
+        default:
+            throw new IndexOutOfBoundsException("no column " + column);
+        }
+    }
+
+    @Override
+    public String getName(int row) {
+        return rows.getName(row);
+    }
+
+    @Override
+    public boolean isDirectory(int row) {
+        return rows.isDirectory(row);
+    }
+
+    @Override
+    public Icon getIcon(int row) {
+        byte icon = rows.getIcon(row);
+        if (icon == FileListing.UNRESOLVED) {
+            icon = mimeTypeIcons.getIconIndexFor(rows.getName(row), rows.isDirectory(row));
+            rows.setIcon(row, icon);
+        }
+        return mimeTypeIcons.getIcon(icon);
+    }
+
+    long getSize(int row) {
+        return rows.getSize(row);
+    }
+
+    long getModified(int row) {
+        return rows.getModified(row);
+    }
+
+    @Override
+    public AbsolutePath getPath(int row) {
+        if (rows.getDirectory() == null) {
+            return null;
+        }
+        return rows.getDirectory().resolve(new RelativePath(rows.getName(row)));
+    }
+
+    @Override
+    public boolean isSortable(int column) {
+        return true;
+    }
+
+    @Override
+    public SortKeys getSortKeys(int column) {
+        switch (column) {
+        case NAME_COLUMN:
+            return SortKeys.forText(rows.copyNames());
+        case SIZE_COLUMN:
+            return SortKeys.forNumbers(rows.copySizes());
+        case TYPE_COLUMN:
+            long[] types = new long[rows.size()];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = rows.isDirectory(i) ? 0 : 1;
+            }
+            return SortKeys.forNumbers(types);
+        case MODIFIED_COLUMN:
+            return SortKeys.forNumbers(rows.copyModified());
+        default:
+            throw new IndexOutOfBoundsException("no column " + column);
+        }
+    }
+
+    @Override
+    public String getFilterText(int row) {
+        return rows.getName(row);
+    }
+
+    /**
+     * Returns a copy of the rows currently in this model.
+     */
+    FileListing getListing() {
+        return rows.copy();
+    }
+
+    int getModCount() {
+        return modCount;
+    }
+
+    void clear() {
+        int count = rows.size();
+        rows.clear();
+        modCount++;
+        if (count > 0) {
+            fireTableRowsDeleted(0, count - 1);
+        }
+    }
+
+    /**
+     * Adds all visible entries in the given chunk, firing a single event.
+     */
+    void append(FileListing chunk) {
+        if (chunk.getDirectory() != null) {
+            rows.setDirectory(chunk.getDirectory());
+        }
+
+        int first = rows.size();
+
+        for (int i = 0; i < chunk.size(); i++) {
+            if (!chunk.isHidden(i)) {
+                rows.add(chunk, i);
+            }
+        }
+
+        int last = rows.size() - 1;
+
+        if (last >= first) {
+            modCount++;
+            fireTableRowsInserted(first, last);
+        }
+    }
+
+    /**
+     * Updates the rows in this model to match the given listing, only firing events for rows that actually changed.
+     */
+    void update(FileListing listing) {
+        apply(ListingDiff.compute(rows, modCount, listing));
+    }
+
+    /**
+     * Applies a diff computed in the background, with a single event per run of adjacent rows. Returns false, without
+     * changing anything, if the rows changed since the diff was computed.
+     */
+    boolean apply(ListingDiff diff) {
+        if (diff.getBase() != modCount) {
+            return false;
+        }
+
+        if (diff.getListing().getDirectory() != null) {
+            rows.setDirectory(diff.getListing().getDirectory());
+        }
+
+        if (diff.isEmpty()) {
+            return true;
+        }
+        modCount++;
+
+        int index = 0;
+        while (index < diff.getRemovedCount()) {
+            int last = diff.getRemoved(index++);
+            int first = last;
+            while (index < diff.getRemovedCount() && diff.getRemoved(index) == first - 1) {
+                first = diff.getRemoved(index++);
+            }
+            rows.remove(first, last + 1);
+            fireTableRowsDeleted(first, last);
+        }
+
+        index = 0;
+        while (index < diff.getChangedCount()) {
+            int first = diff.getChanged(index);
+            int last = first - 1;
+            while (index < diff.getChangedCount() && diff.getChanged(index) == last + 1) {
+                last = diff.getChanged(index);
+                rows.set(last, diff.getListing(), diff.getChangedFrom(index));
+                index++;
+            }
+            fireTableRowsUpdated(first, last);
+        }
+
+        append(diff.getAdded());
+        return true;
+    }
+}
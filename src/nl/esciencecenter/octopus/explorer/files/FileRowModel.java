@@ -0,0 +1,43 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer.files;
+
+import javax.swing.Icon;
+import javax.swing.table.TableModel;
+
+import nl.esciencecenter.octopus.files.AbsolutePath;
+
+/**
+ * A table model with one directory entry per row, as needed by the renderers and listeners of the file table.
+ */
+interface FileRowModel extends TableModel {
+
+    static final int NAME_COLUMN = 0;
+    static final int SIZE_COLUMN = 1;
+    static final int TYPE_COLUMN = 2;
+    static final int MODIFIED_COLUMN = 3;
+
+    String getName(int row);
+
+    boolean isDirectory(int row);
+
+    Icon getIcon(int row);
+
+    /**
+     * Returns the full path of the given row, or null if the listed directory is not known.
+     */
+    AbsolutePath getPath(int row);
+}
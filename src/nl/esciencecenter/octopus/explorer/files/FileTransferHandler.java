@@ -0,0 +1,117 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer.files;
+
+import java.awt.datatransfer.DataFlavor;
+import java.awt.datatransfer.Transferable;
+import java.awt.datatransfer.UnsupportedFlavorException;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import javax.swing.JComponent;
+import javax.swing.TransferHandler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drag and drop for the file table. Files dropped on the table are uploaded to the directory shown. Local files can be dragged
+ * out of the table to other applications.
+ */
+class FileTransferHandler extends TransferHandler {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger logger = LoggerFactory.getLogger(FileTransferHandler.class);
+
+    private static final class FileListTransferable implements Transferable {
+        private final List<File> files;
+
+        FileListTransferable(List<File> files) {
+            this.files = files;
+        }
+
+        @Override
+        public DataFlavor[] getTransferDataFlavors() {
+            return new DataFlavor[] { DataFlavor.javaFileListFlavor };
+        }
+
+        @Override
+        public boolean isDataFlavorSupported(DataFlavor flavor) {
+            return DataFlavor.javaFileListFlavor.equals(flavor);
+        }
+
+        @Override
+        public Object getTransferData(DataFlavor flavor) throws UnsupportedFlavorException {
+            if (!isDataFlavorSupported(flavor)) {
+                throw new UnsupportedFlavorException(flavor);
+            }
+            return files;
+        }
+    }
+
+    private final FileListingPanel fileListing;
+
+    //set while dragging out of our own table, so we do not copy files onto themselves
+    private boolean exporting = false;
+
+    FileTransferHandler(FileListingPanel fileListing) {
+        this.fileListing = fileListing;
+    }
+
+    @Override
+    public int getSourceActions(JComponent component) {
+        return COPY;
+    }
+
+    @Override
+    protected Transferable createTransferable(JComponent component) {
+        List<File> files = fileListing.getSelectedLocalFiles();
+        if (files == null || files.isEmpty()) {
+            return null;
+        }
+        exporting = true;
+        return new FileListTransferable(files);
+    }
+
+    @Override
+    protected void exportDone(JComponent source, Transferable data, int action) {
+        exporting = false;
+    }
+
+    @Override
+    public boolean canImport(TransferSupport support) {
+        return !exporting && support.isDataFlavorSupported(DataFlavor.javaFileListFlavor);
+    }
+
+    @Override
+    public boolean importData(TransferSupport support) {
+        if (!canImport(support)) {
+            return false;
+        }
+
+        try {
+            @SuppressWarnings("unchecked")
+            List<File> files = (List<File>) support.getTransferable().getTransferData(DataFlavor.javaFileListFlavor);
+            fileListing.upload(files);
+            return true;
+        } catch (UnsupportedFlavorException | IOException e) {
+            logger.error("Could not get dropped files", e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,589 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer.files;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import nl.esciencecenter.octopus.files.RelativePath;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Index of all file names found at a single location, answering (case insensitive) substring queries.
+ *
+ * Names are kept in a single character array, with the directory they are in as an int. For every trigram (three consecutive
+ * characters) there is a posting list of the names it occurs in, delta encoded as variable length integers. A query is
+ * answered by intersecting the posting lists of its trigrams, and checking the few candidates left.
+ *
+ * The index is updated a directory at a time. Re-indexing a directory marks its previous entries as deleted (and anything
+ * below a sub directory that is gone), and the index is compacted once too many entries are deleted. Once the estimated memory
+ * use exceeds the budget, no new directories are added.
+ *
+ * Thread safe.
+ */
+class FilenameIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(FilenameIndex.class);
+
+    static final long DEFAULT_MEMORY_BUDGET = Long.getLong("octopus.explorer.index.budget", 128L * 1024 * 1024);
+
+    private static final byte DIRECTORY = 1;
+    private static final byte DELETED = 2;
+
+    //rough per object overhead of a posting list, including its map entry and key
+    private static final int POSTING_OVERHEAD = 96;
+
+    //rough per object overhead of a directory, including its map entry and path
+    private static final int DIRECTORY_OVERHEAD = 128;
+
+    //compact once this many entries are deleted, and at least a quarter of all entries
+    private static final int MIN_DELETED_FOR_COMPACTION = 10000;
+
+    /**
+     * Append-only list of increasing ints, delta encoded as variable length integers.
+     */
+    private static final class Posting {
+        private byte[] data = new byte[4];
+        private int length = 0;
+        private int last = -1;
+        private int count = 0;
+
+        /**
+         * Add an id, larger than any id added before. Returns the number of bytes used.
+         */
+        int add(int id) {
+            if (id == last) {
+                return 0;
+            }
+            if (length + 5 > data.length) {
+                data = Arrays.copyOf(data, Math.max(length + 5, data.length * 2));
+            }
+
+            int before = length;
+            int delta = id - last;
+            while ((delta & ~0x7F) != 0) {
+                data[length++] = (byte) ((delta & 0x7F) | 0x80);
+                delta >>>= 7;
+            }
+            data[length++] = (byte) delta;
+
+            last = id;
+            count++;
+            return length - before;
+        }
+
+        int[] decode() {
+            int[] result = new int[count];
+            int position = 0;
+            int id = -1;
+            for (int i = 0; i < count; i++) {
+                int delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[position++];
+                    delta |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while ((b & 0x80) != 0);
+                id += delta;
+                result[i] = id;
+            }
+            return result;
+        }
+
+        /**
+         * Returns the ids in both this list and the given sorted ids.
+         */
+        int[] intersect(int[] ids, int idCount) {
+            int[] result = new int[Math.min(idCount, count)];
+            int found = 0;
+            int position = 0;
+            int id = -1;
+            int decoded = 0;
+            int i = 0;
+
+            while (i < idCount) {
+                if (id < ids[i]) {
+                    if (decoded == count) {
+                        break;
+                    }
+                    int delta = 0;
+                    int shift = 0;
+                    byte b;
+                    do {
+                        b = data[position++];
+                        delta |= (b & 0x7F) << shift;
+                        shift += 7;
+                    } while ((b & 0x80) != 0);
+                    id += delta;
+                    decoded++;
+                }
+
+                if (id == ids[i]) {
+                    result[found++] = id;
+                    i++;
+                } else if (id > ids[i]) {
+                    i++;
+                }
+            }
+
+            return Arrays.copyOf(result, found);
+        }
+
+        int memory() {
+            return data.length + POSTING_OVERHEAD;
+        }
+    }
+
+    /**
+     * A single file found by a query.
+     */
+    static final class Match {
+        private final RelativePath path;
+        private final boolean directory;
+
+        Match(RelativePath path, boolean directory) {
+            this.path = path;
+            this.directory = directory;
+        }
+
+        RelativePath getPath() {
+            return path;
+        }
+
+        boolean isDirectory() {
+            return directory;
+        }
+    }
+
+    /**
+     * Result of a query: the first few matches, and the total number of matches.
+     */
+    static final class Result {
+        private final List<Match> matches;
+        private final int total;
+        private final long nanos;
+
+        Result(List<Match> matches, int total, long nanos) {
+            this.matches = matches;
+            this.total = total;
+            this.nanos = nanos;
+        }
+
+        List<Match> getMatches() {
+            return matches;
+        }
+
+        int getTotal() {
+            return total;
+        }
+
+        /**
+         * Time it took to answer the query, in nanoseconds.
+         */
+        long getNanos() {
+            return nanos;
+        }
+    }
+
+    private final String location;
+    private final long memoryBudget;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    //all names, one after the other
+    private char[] names = new char[1024];
+    private int namesLength = 0;
+
+    //per entry: start of its name, the directory it is in, and flags
+    private int[] nameOffsets = new int[1024];
+    private int[] parents = new int[1024];
+    private byte[] flags = new byte[1024];
+    private int entries = 0;
+    private int deleted = 0;
+
+    //per directory: its path, and the range of entries listed in it (-1 if not listed)
+    private final Map<String, Integer> directoryIds = new HashMap<String, Integer>();
+    private String[] directoryPaths = new String[256];
+    private int[] firstChildren = new int[256];
+    private int[] childCounts = new int[256];
+    private int directories = 0;
+
+    private Map<Long, Posting> postings = new HashMap<Long, Posting>();
+    private long postingMemory = 0;
+
+    //used outside the index on its behalf, such as the directories the crawler still has to visit
+    private long reservedMemory = 0;
+
+    FilenameIndex(String location) {
+        this(location, DEFAULT_MEMORY_BUDGET);
+    }
+
+    FilenameIndex(String location, long memoryBudget) {
+        this.location = location;
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Number of (live) entries in this index.
+     */
+    int size() {
+        lock.readLock().lock();
+        try {
+            return entries - deleted;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Estimated memory used by this index, in bytes.
+     */
+    long getMemoryUsage() {
+        lock.readLock().lock();
+        try {
+            return memoryUsage();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private long memoryUsage() {
+        return 2L * names.length + 9L * nameOffsets.length + (long) DIRECTORY_OVERHEAD * directories + postingMemory
+                + reservedMemory;
+    }
+
+    /**
+     * Sets the memory used outside the index on its behalf, which counts against the budget as well.
+     */
+    void setReservedMemory(long bytes) {
+        lock.writeLock().lock();
+        try {
+            reservedMemory = bytes;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    boolean isFull() {
+        return getMemoryUsage() >= memoryBudget;
+    }
+
+    /**
+     * Replace the entries of the given directory with those in the listing. Returns false if the directory was not indexed
+     * before, and is not added as the index is full.
+     */
+    boolean update(RelativePath directory, FileListing listing) {
+        String key = directory.getPath();
+
+        lock.writeLock().lock();
+        try {
+            Integer id = directoryIds.get(key);
+
+            if (id != null && firstChildren[id] >= 0) {
+                Set<String> remaining = new HashSet<String>();
+                for (int i = 0; i < listing.size(); i++) {
+                    if (listing.isDirectory(i)) {
+                        remaining.add(listing.getName(i));
+                    }
+                }
+                deleteChildren(id, remaining);
+            } else if (memoryUsage() >= memoryBudget) {
+                return false;
+            }
+
+            if (id == null) {
+                id = addDirectory(key);
+            }
+
+            firstChildren[id] = entries;
+            childCounts[id] = 0;
+
+            for (int i = 0; i < listing.size(); i++) {
+                if (!listing.isHidden(i)) {
+                    addEntry(id, listing.getName(i), listing.isDirectory(i));
+                    childCounts[id]++;
+                }
+            }
+
+            if (deleted >= MIN_DELETED_FOR_COMPACTION && deleted * 4 >= entries) {
+                compact();
+            }
+
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns true if the given directory was indexed.
+     */
+    boolean contains(RelativePath directory) {
+        lock.readLock().lock();
+        try {
+            Integer id = directoryIds.get(directory.getPath());
+            return id != null && firstChildren[id] >= 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int addDirectory(String path) {
+        if (directories == directoryPaths.length) {
+            int capacity = directories * 2;
+            directoryPaths = Arrays.copyOf(directoryPaths, capacity);
+            firstChildren = Arrays.copyOf(firstChildren, capacity);
+            childCounts = Arrays.copyOf(childCounts, capacity);
+        }
+        int id = directories++;
+        directoryPaths[id] = path;
+        firstChildren[id] = -1;
+        childCounts[id] = 0;
+        directoryIds.put(path, id);
+        return id;
+    }
+
+    private void addEntry(int parent, String name, boolean directory) {
+        if (entries == nameOffsets.length) {
+            int capacity = entries + (entries >> 1);
+            nameOffsets = Arrays.copyOf(nameOffsets, capacity);
+            parents = Arrays.copyOf(parents, capacity);
+            flags = Arrays.copyOf(flags, capacity);
+        }
+        if (namesLength + name.length() > names.length) {
+            names = Arrays.copyOf(names, Math.max(namesLength + name.length(), names.length + (names.length >> 1)));
+        }
+
+        int id = entries++;
+        nameOffsets[id] = namesLength;
+        parents[id] = parent;
+        flags[id] = directory ? DIRECTORY : 0;
+
+        name.getChars(0, name.length(), names, namesLength);
+        namesLength += name.length();
+
+        for (int i = 0; i + 3 <= name.length(); i++) {
+            long trigram = trigram(name.charAt(i), name.charAt(i + 1), name.charAt(i + 2));
+            Posting posting = postings.get(trigram);
+            if (posting == null) {
+                posting = new Posting();
+                postings.put(trigram, posting);
+                postingMemory += posting.memory();
+            }
+            int before = posting.data.length;
+            posting.add(id);
+            postingMemory += posting.data.length - before;
+        }
+    }
+
+    private int nameLength(int entry) {
+        int end = entry + 1 < entries ? nameOffsets[entry + 1] : namesLength;
+        return end - nameOffsets[entry];
+    }
+
+    private String name(int entry) {
+        return new String(names, nameOffsets[entry], nameLength(entry));
+    }
+
+    /**
+     * Mark all entries of a directory as deleted, and everything below any sub directory not in the given set.
+     */
+    private void deleteChildren(int directory, Set<String> remaining) {
+        int first = firstChildren[directory];
+        int end = first + childCounts[directory];
+
+        for (int entry = first; entry < end; entry++) {
+            if ((flags[entry] & DELETED) != 0) {
+                continue;
+            }
+            flags[entry] |= DELETED;
+            deleted++;
+
+            if ((flags[entry] & DIRECTORY) != 0) {
+                String name = name(entry);
+                if (remaining == null || !remaining.contains(name)) {
+                    Integer child = directoryIds.remove(childPath(directoryPaths[directory], name));
+                    if (child != null && firstChildren[child] >= 0) {
+                        deleteChildren(child, null);
+                        firstChildren[child] = -1;
+                    }
+                }
+            }
+        }
+    }
+
+    private static String childPath(String directory, String name) {
+        return new RelativePath(directory).resolve(new RelativePath(name)).getPath();
+    }
+
+    /**
+     * Rebuild the index without the deleted entries.
+     */
+    private void compact() {
+        long start = System.currentTimeMillis();
+        int before = entries;
+
+        char[] oldNames = names;
+        int[] oldOffsets = nameOffsets;
+        int[] oldParents = parents;
+        byte[] oldFlags = flags;
+        int oldEntries = entries;
+        int oldNamesLength = namesLength;
+
+        int live = entries - deleted;
+        names = new char[Math.max(1024, oldNamesLength)];
+        nameOffsets = new int[Math.max(1024, live)];
+        parents = new int[nameOffsets.length];
+        flags = new byte[nameOffsets.length];
+        namesLength = 0;
+        entries = 0;
+        deleted = 0;
+        postings = new HashMap<Long, Posting>();
+        postingMemory = 0;
+
+        int[] newFirstChildren = new int[firstChildren.length];
+        Arrays.fill(newFirstChildren, -1);
+        int[] newChildCounts = new int[childCounts.length];
+
+        //entries of a directory are contiguous, and there is only a single live range per directory
+        for (int entry = 0; entry < oldEntries; entry++) {
+            if ((oldFlags[entry] & DELETED) != 0) {
+                continue;
+            }
+            int parent = oldParents[entry];
+            if (newFirstChildren[parent] < 0) {
+                newFirstChildren[parent] = entries;
+            }
+            newChildCounts[parent]++;
+
+            int end = entry + 1 < oldEntries ? oldOffsets[entry + 1] : oldNamesLength;
+            String name = new String(oldNames, oldOffsets[entry], end - oldOffsets[entry]);
+            addEntry(parent, name, (oldFlags[entry] & DIRECTORY) != 0);
+        }
+
+        for (int directory = 0; directory < directories; directory++) {
+            if (firstChildren[directory] >= 0 && newFirstChildren[directory] < 0) {
+                //listed, but empty
+                newFirstChildren[directory] = entries;
+            }
+        }
+        firstChildren = newFirstChildren;
+        childCounts = newChildCounts;
+
+        logger.debug("compacted index of {} from {} to {} entries in {} ms", location, before, entries,
+                System.currentTimeMillis() - start);
+    }
+
+    private static long trigram(char first, char second, char third) {
+        return ((long) Character.toLowerCase(first) << 32) | ((long) Character.toLowerCase(second) << 16)
+                | Character.toLowerCase(third);
+    }
+
+    /**
+     * Returns true if the name of the given entry contains the given (lower case) text, ignoring case.
+     */
+    private boolean nameContains(int entry, char[] query) {
+        int offset = nameOffsets[entry];
+        int last = offset + nameLength(entry) - query.length;
+
+        for (int start = offset; start <= last; start++) {
+            int i = 0;
+            while (i < query.length && Character.toLowerCase(names[start + i]) == query[i]) {
+                i++;
+            }
+            if (i == query.length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Find all names containing the given text, ignoring case. Returns at most <code>max</code> matches, but counts all of them.
+     */
+    Result search(String text, int max) {
+        long start = System.nanoTime();
+
+        char[] query = text.toLowerCase().toCharArray();
+
+        lock.readLock().lock();
+        try {
+            int[] candidates;
+            int candidateCount;
+
+            if (query.length < 3) {
+                //no trigrams to go by, check everything
+                candidates = null;
+                candidateCount = entries;
+            } else {
+                List<Posting> lists = new ArrayList<Posting>();
+                for (int i = 0; i + 3 <= query.length; i++) {
+                    Posting posting = postings.get(trigram(query[i], query[i + 1], query[i + 2]));
+                    if (posting == null) {
+                        return new Result(new ArrayList<Match>(), 0, System.nanoTime() - start);
+                    }
+                    lists.add(posting);
+                }
+
+                //start with the shortest list, so every intersection is as cheap as possible
+                Posting shortest = lists.get(0);
+                for (Posting posting : lists) {
+                    if (posting.count < shortest.count) {
+                        shortest = posting;
+                    }
+                }
+                candidates = shortest.decode();
+                for (Posting posting : lists) {
+                    if (posting != shortest && candidates.length > 0) {
+                        candidates = posting.intersect(candidates, candidates.length);
+                    }
+                }
+                candidateCount = candidates.length;
+            }
+
+            List<Match> matches = new ArrayList<Match>();
+            int total = 0;
+
+            for (int i = 0; i < candidateCount; i++) {
+                int entry = candidates == null ? i : candidates[i];
+
+                if ((flags[entry] & DELETED) != 0 || !nameContains(entry, query)) {
+                    continue;
+                }
+
+                total++;
+                if (matches.size() < max) {
+                    RelativePath path = new RelativePath(directoryPaths[parents[entry]]).resolve(new RelativePath(name(entry)));
+                    matches.add(new Match(path, (flags[entry] & DIRECTORY) != 0));
+                }
+            }
+
+            return new Result(matches, total, System.nanoTime() - start);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
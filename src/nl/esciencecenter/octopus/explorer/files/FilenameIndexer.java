@@ -0,0 +1,232 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer.files;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+import nl.esciencecenter.octopus.Octopus;
+import nl.esciencecenter.octopus.exceptions.AttributeNotSupportedException;
+import nl.esciencecenter.octopus.explorer.BackgroundExecutor;
+import nl.esciencecenter.octopus.explorer.Deadline;
+import nl.esciencecenter.octopus.explorer.SessionPool;
+import nl.esciencecenter.octopus.files.AbsolutePath;
+import nl.esciencecenter.octopus.files.DirectoryStream;
+import nl.esciencecenter.octopus.files.FileSystem;
+import nl.esciencecenter.octopus.files.PathAttributesPair;
+import nl.esciencecenter.octopus.files.RelativePath;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a {@link FilenameIndex} per location. Indexes are fed by the listings the user looks at anyway, and by a background
+ * crawler which walks the tree below the entry path of the location, one directory at a time, until the tree is done or the
+ * index is full.
+ *
+ * The crawler runs as background work on the {@link BackgroundExecutor}, one directory at a time per location, and pauses
+ * between directories, so it never gets in the way of interactive use. The directories it still has to visit count against
+ * the memory budget of the index. Listings are indexed as background work too.
+ *
+ * Thread safe.
+ */
+class FilenameIndexer {
+
+    private static final Logger logger = LoggerFactory.getLogger(FilenameIndexer.class);
+
+    //pause between two directories crawled (in milliseconds)
+    static final long DEFAULT_CRAWL_DELAY = Long.getLong("octopus.explorer.index.crawl.delay", 20);
+
+    //rough per object overhead of a directory still to be crawled, including its path and deque slot
+    private static final int PENDING_OVERHEAD = 96;
+
+    private class Crawl implements Runnable {
+        private final String location;
+        private final FilenameIndex index;
+
+        //directories still to be crawled, null if the entry path is not known yet
+        private Deque<RelativePath> pending = null;
+
+        //estimated memory used by the pending directories
+        private long pendingMemory = 0;
+
+        private volatile boolean done = false;
+
+        private int crawled = 0;
+
+        Crawl(String location, FilenameIndex index) {
+            this.location = location;
+            this.index = index;
+        }
+
+        @Override
+        public void run() {
+            if (closed) {
+                return;
+            }
+
+            try {
+                step();
+            } catch (Exception e) {
+                logger.debug("crawler could not list directory at " + location, e);
+            }
+
+            if (pending == null || pending.isEmpty() || index.isFull()) {
+                done = true;
+                logger.debug("done crawling {}: {} directories, {} entries indexed, full: {}", location, crawled,
+                        index.size(), index.isFull());
+            } else {
+                BackgroundExecutor.get().schedule(BackgroundExecutor.Priority.BACKGROUND, location, this, crawlDelay);
+            }
+        }
+
+        private void step() throws Exception {
+            Octopus octopus = sessions.getOctopus();
+            FileSystem fileSystem = sessions.borrowFileSystem(location);
+            boolean failed = true;
+            Deadline deadline = sessions.startDeadline(location, fileSystem);
+
+            try {
+                if (pending == null) {
+                    pending = new ArrayDeque<RelativePath>();
+                    addPending(fileSystem.getEntryPath().getRelativePath());
+                }
+
+                RelativePath directory = pending.pollFirst();
+                pendingMemory -= memory(directory);
+                AbsolutePath target = octopus.files().newPath(fileSystem, directory);
+                FileListing listing = new FileListing(target);
+
+                DirectoryStream<PathAttributesPair> stream = octopus.files().newAttributesDirectoryStream(target);
+                try {
+                    for (PathAttributesPair pair : stream) {
+                        deadline.touch();
+                        listing.add(pair);
+                        int last = listing.size() - 1;
+
+                        if (listing.isHidden(last)) {
+                            listing.removeLast();
+                        } else if (listing.isDirectory(last) && !isSymbolicLink(pair)) {
+                            addPending(directory.resolve(new RelativePath(listing.getName(last))));
+                        }
+                    }
+                } finally {
+                    stream.close();
+                }
+
+                crawled++;
+                index.update(directory, listing);
+                failed = false;
+            } finally {
+                deadline.done();
+                index.setReservedMemory(pendingMemory);
+                if (failed) {
+                    sessions.invalidateFileSystem(location, fileSystem);
+                } else {
+                    sessions.releaseFileSystem(location, fileSystem);
+                }
+            }
+        }
+
+        private void addPending(RelativePath directory) {
+            pending.addLast(directory);
+            pendingMemory += memory(directory);
+        }
+    }
+
+    private static long memory(RelativePath directory) {
+        String name = directory.getFileName();
+        return PENDING_OVERHEAD + 16L * directory.getNameCount() + (name == null ? 0 : 2L * name.length());
+    }
+
+    private final SessionPool sessions;
+    private final long crawlDelay;
+
+    private final Map<String, FilenameIndex> indexes = new HashMap<String, FilenameIndex>();
+    private final Map<String, Crawl> crawls = new HashMap<String, Crawl>();
+
+    private volatile boolean closed = false;
+
+    FilenameIndexer(SessionPool sessions) {
+        this(sessions, DEFAULT_CRAWL_DELAY);
+    }
+
+    FilenameIndexer(SessionPool sessions, long crawlDelay) {
+        this.sessions = sessions;
+        this.crawlDelay = crawlDelay;
+    }
+
+    private static boolean isSymbolicLink(PathAttributesPair pair) {
+        try {
+            return pair.attributes().isSymbolicLink();
+        } catch (AttributeNotSupportedException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the index of the given location, starting to crawl it if this was not done yet.
+     */
+    synchronized FilenameIndex getIndex(String location) {
+        FilenameIndex index = indexes.get(location);
+        if (index == null) {
+            index = new FilenameIndex(location);
+            indexes.put(location, index);
+
+            Crawl crawl = new Crawl(location, index);
+            crawls.put(location, crawl);
+            BackgroundExecutor.get().execute(BackgroundExecutor.Priority.BACKGROUND, location, crawl);
+        }
+        return index;
+    }
+
+    /**
+     * Returns true if the index of the given location is still being built by the crawler.
+     */
+    synchronized boolean isCrawling(String location) {
+        Crawl crawl = crawls.get(location);
+        return crawl != null && !crawl.done;
+    }
+
+    /**
+     * Called for every listing of a directory, to keep the index up to date. The index is updated in the background, so the
+     * listing should no longer change.
+     */
+    void listed(String location, final RelativePath directory, final FileListing listing) {
+        if (closed) {
+            return;
+        }
+
+        final FilenameIndex index = getIndex(location);
+        BackgroundExecutor.get().execute(BackgroundExecutor.Priority.BACKGROUND, location, new Runnable() {
+            @Override
+            public void run() {
+                if (!closed) {
+                    index.update(directory, listing);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops crawling, and indexing listings.
+     */
+    void close() {
+        closed = true;
+    }
+}
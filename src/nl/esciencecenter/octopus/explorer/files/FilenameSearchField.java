@@ -0,0 +1,178 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer.files;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.AbstractAction;
+import javax.swing.JMenuItem;
+import javax.swing.JPopupMenu;
+import javax.swing.JTextField;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+
+import nl.esciencecenter.octopus.explorer.BackgroundExecutor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Search box for file names at the current location. Queries the {@link FilenameIndex} of the location while typing, and shows
+ * the first matches in a popup. Selecting a match shows the directory it is in (or the directory itself).
+ */
+class FilenameSearchField extends JTextField {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger logger = LoggerFactory.getLogger(FilenameSearchField.class);
+
+    //wait for the user to stop typing for this long before searching (in milliseconds)
+    private static final int TYPING_DELAY = 150;
+
+    private static final int MAX_MATCHES = 20;
+
+    private class SearchWorker extends SwingWorker<FilenameIndex.Result, Void> {
+        private final String location;
+        private final String query;
+
+        SearchWorker(String location, String query) {
+            this.location = location;
+            this.query = query;
+        }
+
+        @Override
+        protected FilenameIndex.Result doInBackground() {
+            return indexer.getIndex(location).search(query, MAX_MATCHES);
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled()) {
+                return;
+            }
+            try {
+                show(location, get());
+            } catch (InterruptedException | ExecutionException e) {
+                logger.error("Search failed", e);
+            }
+        }
+    }
+
+    private class MatchAction extends AbstractAction {
+        private static final long serialVersionUID = 1L;
+
+        private final FilenameIndex.Match match;
+
+        MatchAction(FilenameIndex.Match match) {
+            this.match = match;
+            putValue(NAME, match.getPath().getPath() + (match.isDirectory() ? "/" : ""));
+            putValue(SMALL_ICON, mimeTypeIcons.getIcon(mimeTypeIcons.getIconIndexFor(match.getPath().getFileName(),
+                    match.isDirectory())));
+        }
+
+        public void actionPerformed(ActionEvent e) {
+            popup.setVisible(false);
+            fileListing.goTo(match.isDirectory() ? match.getPath() : match.getPath().getParent());
+        }
+    }
+
+    private final FilenameIndexer indexer;
+    private final MimeTypeIcons mimeTypeIcons;
+    private final FileListingPanel fileListing;
+
+    private final JPopupMenu popup = new JPopupMenu();
+    private final Timer timer;
+
+    private SearchWorker currentSearch = null;
+
+    FilenameSearchField(FilenameIndexer indexer, MimeTypeIcons mimeTypeIcons, FileListingPanel fileListing) {
+        super(15);
+        this.indexer = indexer;
+        this.mimeTypeIcons = mimeTypeIcons;
+        this.fileListing = fileListing;
+
+        setToolTipText("Search file names at this location");
+
+        //keep typing while the popup is shown
+        popup.setFocusable(false);
+
+        timer = new Timer(TYPING_DELAY, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                search();
+            }
+        });
+        timer.setRepeats(false);
+
+        getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                timer.restart();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                timer.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                //attributes only
+            }
+        });
+    }
+
+    private void search() {
+        if (currentSearch != null) {
+            currentSearch.cancel(false);
+        }
+
+        String query = getText().trim();
+        if (query.isEmpty()) {
+            popup.setVisible(false);
+            return;
+        }
+
+        currentSearch = new SearchWorker(fileListing.getCurrentLocation(), query);
+        BackgroundExecutor.get().execute(BackgroundExecutor.Priority.INTERACTIVE, fileListing.getCurrentLocation(),
+                currentSearch);
+    }
+
+    private void show(String location, FilenameIndex.Result result) {
+        popup.removeAll();
+
+        String status = String.format("%d matches in %.1f ms", result.getTotal(), result.getNanos() / 1000000.0);
+        if (indexer.isCrawling(location)) {
+            status += " (still indexing)";
+        }
+        JMenuItem statusItem = new JMenuItem(status);
+        statusItem.setEnabled(false);
+        popup.add(statusItem);
+
+        for (FilenameIndex.Match match : result.getMatches()) {
+            popup.add(new JMenuItem(new MatchAction(match)));
+        }
+
+        popup.pack();
+        if (isShowing()) {
+            popup.show(this, 0, getHeight());
+        }
+    }
+}
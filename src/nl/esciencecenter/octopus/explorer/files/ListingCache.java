@@ -0,0 +1,150 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer.files;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import nl.esciencecenter.octopus.files.RelativePath;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded LRU cache of directory listings, keyed by location and path. Entries expire after a fixed time to live. The cache is
+ * bounded both in the number of listings and in the total number of entries in all listings.
+ *
+ * Thread safe, listings may be added from background workers. Cached listings must not be modified.
+ */
+class ListingCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ListingCache.class);
+
+    static final int DEFAULT_MAX_LISTINGS = Integer.getInteger("octopus.explorer.listing.cache.size", 64);
+
+    static final int DEFAULT_MAX_ENTRIES = Integer.getInteger("octopus.explorer.listing.cache.entries", 250000);
+
+    static final long DEFAULT_TIME_TO_LIVE = Long.getLong("octopus.explorer.listing.cache.ttl", 600000);
+
+    private static final class Key {
+        private final String location;
+        private final RelativePath path;
+
+        Key(String location, RelativePath path) {
+            this.location = location;
+            this.path = path;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * location.hashCode() + path.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key that = (Key) other;
+            return location.equals(that.location) && path.equals(that.path);
+        }
+    }
+
+    private static final class Entry {
+        private final FileListing listing;
+        private final long time;
+
+        Entry(FileListing listing, long time) {
+            this.listing = listing;
+            this.time = time;
+        }
+    }
+
+    private final int maxListings;
+    private final int maxEntries;
+    private final long timeToLive;
+
+    private final LinkedHashMap<Key, Entry> listings = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+
+    //total number of entries in all cached listings
+    private int entries = 0;
+
+    ListingCache() {
+        this(DEFAULT_MAX_LISTINGS, DEFAULT_MAX_ENTRIES, DEFAULT_TIME_TO_LIVE);
+    }
+
+    ListingCache(int maxListings, int maxEntries, long timeToLive) {
+        this.maxListings = maxListings;
+        this.maxEntries = maxEntries;
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * Returns the cached listing of the given directory, or null if it is not cached or expired.
+     */
+    synchronized FileListing get(String location, RelativePath path) {
+        Key key = new Key(location, path);
+        Entry entry = listings.get(key);
+
+        if (entry == null) {
+            return null;
+        }
+
+        if (System.currentTimeMillis() - entry.time > timeToLive) {
+            listings.remove(key);
+            entries -= entry.listing.size();
+            return null;
+        }
+
+        return entry.listing;
+    }
+
+    synchronized void put(String location, RelativePath path, FileListing listing) {
+        Key key = new Key(location, path);
+
+        Entry previous = listings.remove(key);
+        if (previous != null) {
+            entries -= previous.listing.size();
+        }
+
+        if (listing.size() > maxEntries) {
+            logger.debug("not caching listing of {} at {}, {} entries is too large", path, location, listing.size());
+            return;
+        }
+
+        listings.put(key, new Entry(listing, System.currentTimeMillis()));
+        entries += listing.size();
+
+        //evict least recently used listings until we are within bounds again
+        Iterator<Map.Entry<Key, Entry>> iterator = listings.entrySet().iterator();
+        while ((listings.size() > maxListings || entries > maxEntries) && iterator.hasNext()) {
+            Map.Entry<Key, Entry> eldest = iterator.next();
+            if (eldest.getKey().equals(key)) {
+                continue;
+            }
+            iterator.remove();
+            entries -= eldest.getValue().listing.size();
+        }
+    }
+
+    synchronized void invalidate(String location, RelativePath path) {
+        Entry previous = listings.remove(new Key(location, path));
+        if (previous != null) {
+            entries -= previous.listing.size();
+        }
+    }
+}
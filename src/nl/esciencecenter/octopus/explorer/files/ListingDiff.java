@@ -0,0 +1,142 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer.files;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Difference between the rows shown and a fresh listing of the same directory, keyed by name. Computed in the background, so
+ * all that is left for the event dispatch thread is to apply it, with one event per run of adjacent rows. A listing that did
+ * not change gives an empty diff, and no events at all.
+ *
+ * Rows that are kept stay where they are, so the selection and scroll position survive a refresh. New entries are added at
+ * the end, in listing order.
+ */
+class ListingDiff {
+
+    //modification count of the rows this diff was computed against
+    private final int base;
+
+    //rows to remove, in descending order
+    private final int[] removed;
+
+    //rows to replace, counted after the removals, in ascending order, and the index of their replacement in the listing
+    private final int[] changed;
+    private final int[] changedFrom;
+
+    private final FileListing listing;
+    private final FileListing added;
+
+    private ListingDiff(int base, int[] removed, int[] changed, int[] changedFrom, FileListing listing, FileListing added) {
+        this.base = base;
+        this.removed = removed;
+        this.changed = changed;
+        this.changedFrom = changedFrom;
+        this.listing = listing;
+        this.added = added;
+    }
+
+    /**
+     * Compute the changes needed to turn <code>shown</code> into <code>listing</code>. Hidden entries in the listing are
+     * ignored.
+     *
+     * @param base
+     *            modification count of the model <code>shown</code> was copied from.
+     */
+    static ListingDiff compute(FileListing shown, int base, FileListing listing) {
+        Map<String, Integer> updated = new HashMap<String, Integer>(listing.size() * 2);
+        for (int i = 0; i < listing.size(); i++) {
+            if (!listing.isHidden(i)) {
+                updated.put(listing.getName(i), i);
+            }
+        }
+
+        int[] removed = new int[shown.size()];
+        int removedCount = 0;
+        int[] changed = new int[shown.size()];
+        int[] changedFrom = new int[shown.size()];
+        int changedCount = 0;
+
+        for (int row = 0; row < shown.size(); row++) {
+            Integer index = updated.remove(shown.getName(row));
+
+            if (index == null) {
+                removed[removedCount++] = row;
+            } else if (!shown.sameAs(row, listing, index)) {
+                changed[changedCount] = row - removedCount;
+                changedFrom[changedCount] = index;
+                changedCount++;
+            }
+        }
+
+        //whatever is left is new
+        FileListing added = new FileListing(listing.getDirectory(), updated.size());
+        if (!updated.isEmpty()) {
+            for (int i = 0; i < listing.size(); i++) {
+                if (updated.containsKey(listing.getName(i))) {
+                    added.add(listing, i);
+                }
+            }
+        }
+
+        //descending, so removing a row does not shift the rows still to be removed
+        int[] descending = new int[removedCount];
+        for (int i = 0; i < removedCount; i++) {
+            descending[i] = removed[removedCount - 1 - i];
+        }
+
+        return new ListingDiff(base, descending, Arrays.copyOf(changed, changedCount), Arrays.copyOf(changedFrom,
+                changedCount), listing, added);
+    }
+
+    int getBase() {
+        return base;
+    }
+
+    FileListing getListing() {
+        return listing;
+    }
+
+    boolean isEmpty() {
+        return removed.length == 0 && changed.length == 0 && added.isEmpty();
+    }
+
+    int getRemovedCount() {
+        return removed.length;
+    }
+
+    int getRemoved(int index) {
+        return removed[index];
+    }
+
+    int getChangedCount() {
+        return changed.length;
+    }
+
+    int getChanged(int index) {
+        return changed[index];
+    }
+
+    int getChangedFrom(int index) {
+        return changedFrom[index];
+    }
+
+    FileListing getAdded() {
+        return added;
+    }
+}
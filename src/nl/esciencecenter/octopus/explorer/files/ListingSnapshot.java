@@ -0,0 +1,282 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer.files;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+import nl.esciencecenter.octopus.explorer.Utils;
+import nl.esciencecenter.octopus.files.RelativePath;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * On-disk snapshot of the last listing shown, with its location and path, so it can be shown right away on the next start,
+ * before any connection is made.
+ *
+ * The snapshot is a single file with a small header followed by the listing in columns: sizes, modification times, flags, name
+ * lengths and finally all names. It is memory mapped when loaded, so reading it is little more than a few bulk copies. Saving
+ * is done in the background, only the most recent listing is written if several are saved in quick succession, and the file is
+ * replaced atomically, so a crash never leaves half a snapshot. Icons are not part of the snapshot, they are resolved when the
+ * rows are painted.
+ *
+ * Listings with more entries than the maximum are not saved, as they would take too long to load on every start. Saving one
+ * removes the previous snapshot instead, so the next start does not open a directory other than the last one shown.
+ *
+ * Thread safe.
+ */
+class ListingSnapshot {
+
+    private static final Logger logger = LoggerFactory.getLogger(ListingSnapshot.class);
+
+    private static final String FILE_NAME = "listing.snapshot";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int MAGIC = 0x4f584c53;
+    private static final int VERSION = 1;
+
+    static final int DEFAULT_MAX_ENTRIES = Integer.getInteger("octopus.explorer.snapshot.max.entries", 50000);
+
+    /**
+     * Contents of a snapshot.
+     */
+    static final class Snapshot {
+        private final String location;
+        private final RelativePath path;
+        private final FileListing listing;
+
+        Snapshot(String location, RelativePath path, FileListing listing) {
+            this.location = location;
+            this.path = path;
+            this.listing = listing;
+        }
+
+        String getLocation() {
+            return location;
+        }
+
+        RelativePath getPath() {
+            return path;
+        }
+
+        FileListing getListing() {
+            return listing;
+        }
+    }
+
+    private final File file;
+
+    private final int maxEntries;
+
+    private final ExecutorService writer;
+
+    //most recent snapshot not yet written
+    private final AtomicReference<Snapshot> pending = new AtomicReference<Snapshot>();
+
+    ListingSnapshot() {
+        this(new File(Utils.getStateDirectory(), FILE_NAME), DEFAULT_MAX_ENTRIES);
+    }
+
+    ListingSnapshot(File file, int maxEntries) {
+        this.file = file;
+        this.maxEntries = maxEntries;
+
+        writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "listing snapshot writer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Returns the snapshot saved last, or null if there is none (or it cannot be read).
+     */
+    Snapshot load() {
+        if (!file.isFile()) {
+            return null;
+        }
+
+        long start = System.nanoTime();
+
+        try (RandomAccessFile input = new RandomAccessFile(file, "r"); FileChannel channel = input.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                logger.warn("Ignoring listing snapshot {} of unknown format", file);
+                return null;
+            }
+
+            int count = buffer.getInt();
+            String location = readString(buffer);
+            RelativePath path = new RelativePath(readString(buffer));
+
+            long[] sizes = new long[count];
+            long[] modified = new long[count];
+            byte[] flags = new byte[count];
+            int[] nameLengths = new int[count];
+
+            buffer.asLongBuffer().get(sizes);
+            buffer.position(buffer.position() + 8 * count);
+            buffer.asLongBuffer().get(modified);
+            buffer.position(buffer.position() + 8 * count);
+            buffer.get(flags);
+            buffer.asIntBuffer().get(nameLengths);
+            buffer.position(buffer.position() + 4 * count);
+
+            byte[] names = new byte[buffer.remaining()];
+            buffer.get(names);
+
+            FileListing listing = new FileListing(null, count);
+            int offset = 0;
+            for (int i = 0; i < count; i++) {
+                listing.add(new String(names, offset, nameLengths[i], UTF8), sizes[i], modified[i], flags[i]);
+                offset += nameLengths[i];
+            }
+
+            logger.debug("loaded snapshot of {} at {} with {} entries in {} us", path, location, count,
+                    (System.nanoTime() - start) / 1000);
+
+            return new Snapshot(location, path, listing);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Could not read listing snapshot " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Save the given listing in the background. The listing must not be modified afterwards. A listing with more entries than
+     * the maximum removes the previous snapshot instead.
+     */
+    void save(String location, RelativePath path, FileListing listing) {
+        if (listing.size() > maxEntries) {
+            listing = null;
+        }
+
+        if (pending.getAndSet(new Snapshot(location, path, listing)) != null) {
+            //a write is already queued, it will pick up this snapshot instead
+            return;
+        }
+
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                Snapshot snapshot = pending.getAndSet(null);
+                if (snapshot != null) {
+                    try {
+                        write(snapshot);
+                    } catch (IOException | RuntimeException e) {
+                        logger.warn("Could not write listing snapshot " + file, e);
+                    }
+                }
+            }
+        });
+    }
+
+    private void write(Snapshot snapshot) throws IOException {
+        FileListing listing = snapshot.listing;
+
+        if (listing == null) {
+            Files.deleteIfExists(file.toPath());
+            logger.debug("listing of {} at {} too large to save, removed snapshot", snapshot.path, snapshot.location);
+            return;
+        }
+
+        int count = listing.size();
+
+        byte[] location = snapshot.location.getBytes(UTF8);
+        byte[] path = snapshot.path.getPath().getBytes(UTF8);
+
+        byte[][] names = new byte[count][];
+        int namesLength = 0;
+        for (int i = 0; i < count; i++) {
+            names[i] = listing.getName(i).getBytes(UTF8);
+            namesLength += names[i].length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(12 + 4 + location.length + 4 + path.length + count * (8 + 8 + 1 + 4) + namesLength);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(count);
+        writeString(buffer, location);
+        writeString(buffer, path);
+
+        for (int i = 0; i < count; i++) {
+            buffer.putLong(listing.getSize(i));
+        }
+        for (int i = 0; i < count; i++) {
+            buffer.putLong(listing.getModified(i));
+        }
+        for (int i = 0; i < count; i++) {
+            buffer.put(listing.getFlags(i));
+        }
+        for (int i = 0; i < count; i++) {
+            buffer.putInt(names[i].length);
+        }
+        for (int i = 0; i < count; i++) {
+            buffer.put(names[i]);
+        }
+        buffer.flip();
+
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("cannot create " + directory);
+        }
+
+        File temporary = new File(directory, file.getName() + ".tmp");
+        try (RandomAccessFile output = new RandomAccessFile(temporary, "rw"); FileChannel channel = output.getChannel()) {
+            channel.truncate(0);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        try {
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        logger.debug("saved snapshot of {} at {} with {} entries", snapshot.path, snapshot.location, count);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    private static void writeString(ByteBuffer buffer, byte[] bytes) {
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+}
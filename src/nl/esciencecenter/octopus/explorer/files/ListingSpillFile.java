@@ -0,0 +1,196 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer.files;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import nl.esciencecenter.octopus.files.AbsolutePath;
+
+/**
+ * Temporary on-disk store of a (possibly huge) directory listing. Entries are appended as fixed size records, with the names
+ * in a separate file, so any window of entries can be read back with two positional reads. Only the entries currently needed
+ * are kept in memory, no matter how large the directory is.
+ *
+ * The files are deleted when the store is closed, so it should always be closed.
+ *
+ * Thread safe: entries are appended by a background worker while windows are read. Reads do not wait for appends, they only
+ * read entries that were completely written, as the size is published last.
+ */
+class ListingSpillFile {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    //size, modified, name offset, name length, flags, icon, padding
+    static final int RECORD_SIZE = 8 + 8 + 8 + 4 + 1 + 1 + 2;
+
+    //not known until the file system is opened
+    private volatile AbsolutePath directory;
+
+    private final File recordFile;
+    private final File nameFile;
+
+    private final RandomAccessFile records;
+    private final RandomAccessFile names;
+
+    private long namesLength = 0;
+
+    private volatile int size = 0;
+
+    ListingSpillFile() throws IOException {
+        recordFile = File.createTempFile("octopus-explorer-listing", ".records");
+        nameFile = File.createTempFile("octopus-explorer-listing", ".names");
+
+        try {
+            records = new RandomAccessFile(recordFile, "rw");
+            names = new RandomAccessFile(nameFile, "rw");
+        } catch (IOException e) {
+            recordFile.delete();
+            nameFile.delete();
+            throw e;
+        }
+    }
+
+    AbsolutePath getDirectory() {
+        return directory;
+    }
+
+    void setDirectory(AbsolutePath directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Number of entries appended so far.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Appends all entries of the given chunk.
+     */
+    synchronized void append(FileListing chunk) throws IOException {
+        ByteBuffer recordBuffer = ByteBuffer.allocate(chunk.size() * RECORD_SIZE);
+        byte[][] encoded = new byte[chunk.size()][];
+        int encodedLength = 0;
+
+        for (int i = 0; i < chunk.size(); i++) {
+            encoded[i] = chunk.getName(i).getBytes(UTF8);
+            encodedLength += encoded[i].length;
+        }
+
+        ByteBuffer nameBuffer = ByteBuffer.allocate(encodedLength);
+        long nameOffset = namesLength;
+
+        for (int i = 0; i < chunk.size(); i++) {
+            recordBuffer.putLong(chunk.getSize(i));
+            recordBuffer.putLong(chunk.getModified(i));
+            recordBuffer.putLong(nameOffset);
+            recordBuffer.putInt(encoded[i].length);
+            recordBuffer.put(chunk.getFlags(i));
+            recordBuffer.put(chunk.getIcon(i));
+            recordBuffer.putShort((short) 0);
+
+            nameBuffer.put(encoded[i]);
+            nameOffset += encoded[i].length;
+        }
+
+        recordBuffer.flip();
+        nameBuffer.flip();
+
+        write(names.getChannel(), nameBuffer, namesLength);
+        write(records.getChannel(), recordBuffer, (long) size * RECORD_SIZE);
+
+        namesLength = nameOffset;
+        size += chunk.size();
+    }
+
+    /**
+     * Reads entries <code>first</code> up to (but not including) <code>first + count</code>, as far as appended already.
+     */
+    FileListing read(int first, int count) throws IOException {
+        count = Math.min(count, size - first);
+
+        FileListing result = new FileListing(directory, count);
+
+        if (count <= 0) {
+            return result;
+        }
+
+        ByteBuffer recordBuffer = ByteBuffer.allocate(count * RECORD_SIZE);
+        read(records.getChannel(), recordBuffer, (long) first * RECORD_SIZE);
+        recordBuffer.flip();
+
+        long namesStart = recordBuffer.getLong(16);
+        long namesEnd = recordBuffer.getLong((count - 1) * RECORD_SIZE + 16)
+                + recordBuffer.getInt((count - 1) * RECORD_SIZE + 24);
+
+        ByteBuffer nameBuffer = ByteBuffer.allocate((int) (namesEnd - namesStart));
+        read(names.getChannel(), nameBuffer, namesStart);
+        byte[] nameBytes = nameBuffer.array();
+
+        for (int i = 0; i < count; i++) {
+            long size = recordBuffer.getLong();
+            long modified = recordBuffer.getLong();
+            long nameOffset = recordBuffer.getLong();
+            int nameLength = recordBuffer.getInt();
+            byte flags = recordBuffer.get();
+            byte icon = recordBuffer.get();
+            recordBuffer.getShort();
+
+            String name = new String(nameBytes, (int) (nameOffset - namesStart), nameLength, UTF8);
+
+            result.add(name, size, modified, flags);
+            result.setIcon(i, icon);
+        }
+
+        return result;
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("unexpected end of listing file");
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * Closes and deletes this store.
+     */
+    synchronized void close() {
+        try {
+            records.close();
+            names.close();
+        } catch (IOException e) {
+            //IGNORE
+        }
+        recordFile.delete();
+        nameFile.delete();
+    }
+}
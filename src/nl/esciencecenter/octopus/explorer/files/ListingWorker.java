@@ -0,0 +1,58 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer.files;
+
+import javax.swing.SwingWorker;
+
+import nl.esciencecenter.octopus.explorer.Deadline;
+import nl.esciencecenter.octopus.explorer.SessionPool;
+import nl.esciencecenter.octopus.files.FileSystem;
+import nl.esciencecenter.octopus.files.RelativePath;
+
+/**
+ * Worker listing a directory on a borrowed file system. Returns the entry path of the file system as result.
+ * 
+ * Listing workers check for cancellation after every entry, and stop listing and hand back their file system right away when
+ * cancelled. A worker blocked on a remote call cannot notice it was cancelled though, so {@link #abort(long)} also shortens
+ * the deadline of the call in progress, aborting the file system if the worker does not stop by itself in time.
+ */
+abstract class ListingWorker<V> extends SwingWorker<RelativePath, V> {
+
+    //deadline of the remote call in progress, if any
+    private volatile Deadline deadline;
+
+    /**
+     * Starts the deadline of the calls on the given (just borrowed) file system. The worker must check for cancellation
+     * afterwards, as an abort before this point does not affect the file system.
+     */
+    protected Deadline startDeadline(SessionPool sessions, String location, FileSystem fileSystem) {
+        Deadline result = sessions.startDeadline(location, fileSystem);
+        deadline = result;
+        return result;
+    }
+
+    /**
+     * Cancels this worker, making sure it stops using its file system within the given time (in milliseconds).
+     */
+    void abort(long grace) {
+        cancel(false);
+
+        Deadline current = deadline;
+        if (current != null) {
+            current.expireWithin(grace);
+        }
+    }
+}
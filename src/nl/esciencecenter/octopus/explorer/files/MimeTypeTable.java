@@ -0,0 +1,235 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer.files;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compact, read-only table from file extension to icon, generated from mime.types at build time by
+ * {@link MimeTypeTableBuilder}. Extensions are placed with a perfect hash (hash and displace): the first hash of an
+ * extension selects a bucket, and the displacement stored for that bucket seeds a second hash which gives a slot no other
+ * extension uses. A lookup is two hashes and a single compare, ignoring case, straight from the file name, without
+ * allocating anything.
+ *
+ * Loaded once, on first use.
+ */
+final class MimeTypeTable {
+
+    private static final Logger logger = LoggerFactory.getLogger(MimeTypeTable.class);
+
+    static final String RESOURCE = "mime.table";
+
+    static final int MAGIC = 0x4f584d54;
+    static final int VERSION = 1;
+
+    //icons, in the order of MimeTypeIcons
+    static final byte FOLDER = 0;
+    static final byte TEXT = 1;
+    static final byte EXECUTABLE = 2;
+    static final byte AUDIO = 3;
+    static final byte FONT = 4;
+    static final byte IMAGE = 5;
+    static final byte ARCHIVE = 6;
+    static final byte HTML = 7;
+    static final byte SCRIPT = 8;
+    static final byte VIDEO = 9;
+    static final byte CALENDAR = 10;
+    static final byte DOCUMENT = 11;
+    static final byte DRAWING = 12;
+    static final byte PRESENTATION = 13;
+    static final byte SPREADSHEET = 14;
+
+    private static final class Holder {
+        private static final MimeTypeTable TABLE = load();
+    }
+
+    //per bucket
+    private final int[] displacements;
+
+    //per slot, offset is -1 for an empty slot
+    private final int[] offsets;
+    private final byte[] lengths;
+    private final byte[] icons;
+
+    //all extensions, in lower case
+    private final char[] names;
+
+    private final int size;
+
+    MimeTypeTable(int[] displacements, int[] offsets, byte[] lengths, byte[] icons, char[] names, int size) {
+        this.displacements = displacements;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.icons = icons;
+        this.names = names;
+        this.size = size;
+    }
+
+    /**
+     * Returns the table generated at build time.
+     */
+    static MimeTypeTable get() {
+        return Holder.TABLE;
+    }
+
+    private static MimeTypeTable load() {
+        long start = System.nanoTime();
+
+        try {
+            InputStream in = MimeTypeTable.class.getClassLoader().getResourceAsStream(RESOURCE);
+
+            MimeTypeTable result;
+            if (in != null) {
+                try (DataInputStream data = new DataInputStream(new BufferedInputStream(in))) {
+                    result = read(data);
+                }
+            } else {
+                //not built with ant, build it from the source now
+                logger.warn("{} not found on the classpath, building icon table from mime.types", RESOURCE);
+                result = MimeTypeTableBuilder.fromClasspath();
+            }
+
+            logger.debug("icon table contains {} extensions, took {} us to load", result.size(),
+                    (System.nanoTime() - start) / 1000);
+            return result;
+        } catch (IOException e) {
+            logger.error("Could not load icon table, all files will get the same icon", e);
+            return new MimeTypeTable(new int[1], new int[] { -1 }, new byte[1], new byte[1], new char[0], 0);
+        }
+    }
+
+    static MimeTypeTable read(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("not a (current) icon table");
+        }
+
+        int size = in.readInt();
+        int[] displacements = new int[in.readInt()];
+        int slots = in.readInt();
+        char[] names = new char[in.readInt()];
+
+        for (int i = 0; i < displacements.length; i++) {
+            displacements[i] = in.readInt();
+        }
+
+        int[] offsets = new int[slots];
+        byte[] lengths = new byte[slots];
+        byte[] icons = new byte[slots];
+
+        for (int i = 0; i < slots; i++) {
+            offsets[i] = in.readInt();
+        }
+        in.readFully(lengths);
+        in.readFully(icons);
+        for (int i = 0; i < names.length; i++) {
+            names[i] = in.readChar();
+        }
+
+        return new MimeTypeTable(displacements, offsets, lengths, icons, names, size);
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(size);
+        out.writeInt(displacements.length);
+        out.writeInt(offsets.length);
+        out.writeInt(names.length);
+
+        for (int displacement : displacements) {
+            out.writeInt(displacement);
+        }
+        for (int offset : offsets) {
+            out.writeInt(offset);
+        }
+        out.write(lengths);
+        out.write(icons);
+        for (char c : names) {
+            out.writeChar(c);
+        }
+    }
+
+    /**
+     * Number of extensions in this table.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the icon of the extension starting at <code>from</code> in the given file name, or -1 if it is unknown. Case
+     * is ignored.
+     */
+    byte lookup(String fileName, int from) {
+        int length = fileName.length() - from;
+
+        if (length <= 0 || length > Byte.MAX_VALUE) {
+            return -1;
+        }
+
+        int bucket = bucket(hash(fileName, from, 0), displacements.length);
+        int slot = hash(fileName, from, displacements[bucket]) & (offsets.length - 1);
+
+        int offset = offsets[slot];
+        if (offset == -1 || lengths[slot] != length) {
+            return -1;
+        }
+
+        for (int i = 0; i < length; i++) {
+            if (toLowerCase(fileName.charAt(from + i)) != names[offset + i]) {
+                return -1;
+            }
+        }
+        return icons[slot];
+    }
+
+    static int bucket(int hash, int buckets) {
+        return (hash & 0x7fffffff) % buckets;
+    }
+
+    /**
+     * FNV-1a hash of the lower case version of <code>text</code> from <code>from</code> onwards, with the given seed mixed
+     * in.
+     */
+    static int hash(CharSequence text, int from, int seed) {
+        int hash = 0x811c9dc5 ^ (seed * 0x9e3779b9);
+        for (int i = from; i < text.length(); i++) {
+            hash ^= toLowerCase(text.charAt(i));
+            hash *= 0x01000193;
+        }
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        return hash;
+    }
+
+    static char toLowerCase(char c) {
+        if (c >= 'A' && c <= 'Z') {
+            return (char) (c + ('a' - 'A'));
+        }
+        if (c < 128) {
+            return c;
+        }
+        return Character.toLowerCase(c);
+    }
+}
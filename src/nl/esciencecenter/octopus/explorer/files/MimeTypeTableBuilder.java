@@ -0,0 +1,298 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer.files;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Builds the {@link MimeTypeTable} from a mime.types file, which comes standard with most linux distributions, and is included
+ * in octopus-explorer. Each mime type is mapped to one of our icons, so all that is left in the table is extensions and icons.
+ *
+ * Run by the build, to put the table next to the classes:
+ *
+ * <pre>
+ * MimeTypeTableBuilder &lt;mime.types&gt; &lt;output file&gt;
+ * </pre>
+ *
+ * MimeTypeTableTest checks the table made it into the jar, and is populated.
+ *
+ * @author Niels Drost
+ */
+public class MimeTypeTableBuilder {
+
+    //mime.types has over 500 extensions, anything much less means something went wrong
+    static final int MIN_EXTENSIONS = 100;
+
+    /**
+     * Function that maps MimeTypes to an icon. Returns -1 for types we don't recognize.
+     */
+    static byte determineIcon(String mimeType) {
+        //catch-all for whole categories of the mimetypes
+        String category = mimeType.substring(0, mimeType.indexOf("/"));
+        switch (category) {
+        case "audio":
+            return MimeTypeTable.AUDIO;
+        case "image":
+            return MimeTypeTable.IMAGE;
+        case "video":
+            return MimeTypeTable.VIDEO;
+        case "text":
+            if (mimeType.equals("text/html")) {
+                return MimeTypeTable.HTML;
+            } else if (mimeType.equals("text/calendar")) {
+                return MimeTypeTable.CALENDAR;
+            } else if (mimeType.startsWith("text/x")) {
+                return MimeTypeTable.SCRIPT;
+            } else {
+                return MimeTypeTable.TEXT;
+            }
+        case "inode":
+        case "chemical":
+        case "message":
+        case "model":
+        case "multipart":
+            return -1;
+        }
+
+        //handle the "application" category
+        if (mimeType.contains("java") || mimeType.contains("octet-stream") || mimeType.contains("x-msdos-program")
+                | mimeType.contains("python")) {
+            return MimeTypeTable.EXECUTABLE;
+        }
+
+        if (mimeType.contains("archive") || mimeType.contains("compressed") || mimeType.contains("zip")
+                || mimeType.contains("gz") || mimeType.contains("tar") || mimeType.contains("deb")
+                || mimeType.contains("stuffit")) {
+            return MimeTypeTable.ARCHIVE;
+        }
+
+        if (mimeType.contains("presentation") || mimeType.contains("powerpoint")) {
+            return MimeTypeTable.PRESENTATION;
+        }
+
+        if (mimeType.contains("spreadsheet") || mimeType.contains("excel") || mimeType.contains("calc")) {
+            return MimeTypeTable.SPREADSHEET;
+        }
+
+        if (mimeType.contains("font")) {
+            return MimeTypeTable.FONT;
+        }
+
+        if (mimeType.contains("x-shockwave-flash")) {
+            return MimeTypeTable.VIDEO;
+        }
+
+        if (mimeType.contains("tex") || mimeType.contains("xml")) {
+            return MimeTypeTable.TEXT;
+        }
+
+        if (mimeType.contains("xcf") | mimeType.contains("fig")) {
+            return MimeTypeTable.IMAGE;
+        }
+
+        //keep these towards the end, as they are a bit generic
+
+        if (mimeType.contains("graphics") || mimeType.contains("draw")) {
+            return MimeTypeTable.DRAWING;
+        }
+
+        if (mimeType.contains("word") || mimeType.contains("document") || mimeType.contains("postscript")
+                || mimeType.contains("pdf")) {
+            return MimeTypeTable.DOCUMENT;
+        }
+
+        //we don't recognize this type
+        return -1;
+    }
+
+    /**
+     * Reads a mime.types file, returning the icon of each extension (in lower case).
+     */
+    static Map<String, Byte> parse(Reader in) throws IOException {
+        Map<String, Byte> result = new LinkedHashMap<String, Byte>();
+
+        BufferedReader reader = new BufferedReader(in);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.startsWith("#") || line.isEmpty()) {
+                continue;
+            }
+
+            String[] tokens = line.split("\\s+");
+            byte icon = determineIcon(tokens[0]);
+
+            if (icon != -1) {
+                for (int i = 1; i < tokens.length; i++) {
+                    result.put(tokens[i].toLowerCase(Locale.ROOT), icon);
+                }
+            }
+        }
+
+        //add a few extensions explicitly, as they are not listed in the mime.types file
+        result.put("gz", MimeTypeTable.ARCHIVE);
+        result.put("wiki", MimeTypeTable.TEXT);
+        result.put("f90", MimeTypeTable.SCRIPT);
+
+        return result;
+    }
+
+    /**
+     * Places all extensions with hash and displace: buckets are placed largest first, each with the first displacement that
+     * puts all its extensions in free slots.
+     */
+    static MimeTypeTable build(Map<String, Byte> extensions) {
+        final List<String> keys = new ArrayList<String>(extensions.keySet());
+
+        int buckets = Math.max(1, keys.size() / 4);
+        int slots = Integer.highestOneBit(Math.max(1, keys.size() + keys.size() / 4) * 2 - 1);
+
+        final List<List<String>> bucketKeys = new ArrayList<List<String>>();
+        for (int i = 0; i < buckets; i++) {
+            bucketKeys.add(new ArrayList<String>());
+        }
+        for (String key : keys) {
+            bucketKeys.get(MimeTypeTable.bucket(MimeTypeTable.hash(key, 0, 0), buckets)).add(key);
+        }
+
+        List<Integer> order = new ArrayList<Integer>();
+        for (int i = 0; i < buckets; i++) {
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer one, Integer other) {
+                return Integer.compare(bucketKeys.get(other).size(), bucketKeys.get(one).size());
+            }
+        });
+
+        int[] displacements = new int[buckets];
+        String[] placed = new String[slots];
+
+        for (int bucket : order) {
+            List<String> members = bucketKeys.get(bucket);
+            if (members.isEmpty()) {
+                continue;
+            }
+
+            for (int displacement = 1;; displacement++) {
+                int[] candidates = new int[members.size()];
+                boolean free = true;
+
+                for (int i = 0; i < members.size() && free; i++) {
+                    candidates[i] = MimeTypeTable.hash(members.get(i), 0, displacement) & (slots - 1);
+                    free = placed[candidates[i]] == null;
+                    for (int j = 0; j < i && free; j++) {
+                        free = candidates[j] != candidates[i];
+                    }
+                }
+
+                if (free) {
+                    displacements[bucket] = displacement;
+                    for (int i = 0; i < members.size(); i++) {
+                        placed[candidates[i]] = members.get(i);
+                    }
+                    break;
+                }
+            }
+        }
+
+        int[] offsets = new int[slots];
+        byte[] lengths = new byte[slots];
+        byte[] icons = new byte[slots];
+        StringBuilder names = new StringBuilder();
+
+        Arrays.fill(offsets, -1);
+        for (int slot = 0; slot < slots; slot++) {
+            String key = placed[slot];
+            if (key != null && key.length() <= Byte.MAX_VALUE) {
+                offsets[slot] = names.length();
+                lengths[slot] = (byte) key.length();
+                icons[slot] = extensions.get(key);
+                names.append(key);
+            }
+        }
+
+        char[] nameChars = new char[names.length()];
+        names.getChars(0, names.length(), nameChars, 0);
+
+        return new MimeTypeTable(displacements, offsets, lengths, icons, nameChars, keys.size());
+    }
+
+    /**
+     * Builds the table from the mime.types on the classpath. Only used when the table was not built beforehand.
+     */
+    static MimeTypeTable fromClasspath() throws IOException {
+        InputStream in = MimeTypeTableBuilder.class.getClassLoader().getResourceAsStream("mime.types");
+
+        if (in == null) {
+            throw new IOException("cannot get mime type list from classpath");
+        }
+
+        try (Reader reader = new InputStreamReader(in, "UTF-8")) {
+            return build(parse(reader));
+        }
+    }
+
+    public static void main(String[] arguments) throws IOException {
+        if (arguments.length != 2) {
+            System.err.println("usage: MimeTypeTableBuilder <mime.types> <output file>");
+            System.exit(1);
+        }
+
+        Map<String, Byte> extensions;
+        try (Reader reader = new InputStreamReader(new FileInputStream(new File(arguments[0])), "UTF-8")) {
+            extensions = parse(reader);
+        }
+
+        if (extensions.size() < MIN_EXTENSIONS) {
+            throw new IOException("only found " + extensions.size() + " extensions in " + arguments[0]);
+        }
+
+        MimeTypeTable table = build(extensions);
+
+        //check every extension can be found again
+        for (Map.Entry<String, Byte> entry : extensions.entrySet()) {
+            if (table.lookup(entry.getKey(), 0) != entry.getValue()) {
+                throw new IOException("extension " + entry.getKey() + " not found in table");
+            }
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(
+                arguments[1]))))) {
+            table.write(out);
+        }
+
+        System.out.println("wrote " + table.size() + " extensions to " + arguments[1]);
+    }
+}
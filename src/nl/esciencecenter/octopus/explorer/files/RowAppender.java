@@ -0,0 +1,144 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer.files;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import javax.swing.Timer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Appends materialized chunks of a listing to the table model, at most once per frame. The number of rows added per frame is
+ * adjusted to the time it took to add (and lay out) the rows in the previous frame, so the event dispatch thread stays within a
+ * fixed time budget per frame, no matter how fast rows arrive.
+ *
+ * Must only be used from the event dispatch thread.
+ */
+class RowAppender implements ActionListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(RowAppender.class);
+
+    //a frame at 60 fps
+    private static final int FRAME_MILLIS = 16;
+
+    //part of each frame we are allowed to spend on adding rows
+    private static final long BUDGET_NANOS = 6000000;
+
+    private static final int MIN_ROWS_PER_FRAME = 100;
+    private static final int MAX_ROWS_PER_FRAME = 50000;
+
+    private final FileListingTableModel tableModel;
+
+    private final Timer timer;
+
+    private final Deque<FileListing> pending = new ArrayDeque<FileListing>();
+
+    //rows added in a single frame, re-used to add them with a single event
+    private final FileListing batch = new FileListing(null);
+
+    //position in the first pending chunk
+    private int position = 0;
+
+    private int rowsPerFrame = 2000;
+
+    RowAppender(FileListingTableModel tableModel) {
+        this.tableModel = tableModel;
+        timer = new Timer(FRAME_MILLIS, this);
+        timer.setCoalesce(true);
+    }
+
+    /**
+     * Queue a chunk to be added to the model. The first rows are added right away, so the first screen does not wait a frame.
+     */
+    void add(FileListing chunk) {
+        boolean idle = pending.isEmpty();
+
+        pending.addLast(chunk);
+
+        if (idle) {
+            appendFrame();
+        }
+
+        if (!pending.isEmpty() && !timer.isRunning()) {
+            timer.start();
+        }
+    }
+
+    /**
+     * Drop all chunks not yet added to the model.
+     */
+    void clear() {
+        pending.clear();
+        position = 0;
+        timer.stop();
+    }
+
+    boolean isIdle() {
+        return pending.isEmpty();
+    }
+
+    @Override
+    public void actionPerformed(ActionEvent event) {
+        appendFrame();
+
+        if (pending.isEmpty()) {
+            timer.stop();
+        }
+    }
+
+    private void appendFrame() {
+        long start = System.nanoTime();
+        int budget = rowsPerFrame;
+        int added = 0;
+
+        while (added < budget && !pending.isEmpty()) {
+            FileListing chunk = pending.peekFirst();
+            int end = Math.min(chunk.size(), position + (budget - added));
+
+            batch.setDirectory(chunk.getDirectory());
+            for (int i = position; i < end; i++) {
+                batch.add(chunk, i);
+            }
+            added += end - position;
+            position = end;
+
+            if (position >= chunk.size()) {
+                pending.pollFirst();
+                position = 0;
+            }
+        }
+
+        tableModel.append(batch);
+        batch.clear();
+
+        long elapsed = System.nanoTime() - start;
+
+        //aim for the budget next frame, but do not swing too wildly on a single measurement
+        if (added >= budget && elapsed > 0) {
+            long target = (rowsPerFrame * BUDGET_NANOS) / elapsed;
+            rowsPerFrame = (int) Math.max(MIN_ROWS_PER_FRAME, Math.min(MAX_ROWS_PER_FRAME, (rowsPerFrame + target) / 2));
+        }
+
+        if (logger.isTraceEnabled()) {
+            logger.trace("added {} rows in {} us, now adding {} rows per frame", added, elapsed / 1000, rowsPerFrame);
+        }
+    }
+}
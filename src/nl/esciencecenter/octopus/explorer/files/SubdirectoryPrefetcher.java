@@ -0,0 +1,229 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer.files;
+
+import java.text.DateFormat;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nl.esciencecenter.octopus.Octopus;
+import nl.esciencecenter.octopus.explorer.BackgroundExecutor;
+import nl.esciencecenter.octopus.explorer.Deadline;
+import nl.esciencecenter.octopus.explorer.SessionPool;
+import nl.esciencecenter.octopus.files.AbsolutePath;
+import nl.esciencecenter.octopus.files.DirectoryStream;
+import nl.esciencecenter.octopus.files.FileSystem;
+import nl.esciencecenter.octopus.files.PathAttributesPair;
+import nl.esciencecenter.octopus.files.RelativePath;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Lists subdirectories of the directory just shown into the {@link ListingCache}, before the user asks for them, so going into
+ * a directory is usually a cache hit.
+ *
+ * Prefetching is strictly best effort and stays out of the way of the user: it runs as background work on the
+ * {@link BackgroundExecutor}, with at most a few listings per location at the same time, and only once the user has stopped navigating for a while. Whenever the user
+ * navigates, all pending prefetches are dropped and listings in progress are abandoned.
+ *
+ * Thread safe.
+ */
+class SubdirectoryPrefetcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(SubdirectoryPrefetcher.class);
+
+    static final int DEFAULT_MAX_PER_LOCATION = Integer.getInteger("octopus.explorer.prefetch.per.location", 1);
+
+    static final int DEFAULT_MAX_DIRECTORIES = Integer.getInteger("octopus.explorer.prefetch.directories", 32);
+
+    //time the user needs to stay put before we start prefetching (in milliseconds)
+    static final long DEFAULT_QUIET_PERIOD = Long.getLong("octopus.explorer.prefetch.quiet", 750);
+
+    //do not prefetch directories that are too large to be cached anyway
+    private static final int MAX_ENTRIES = 10000;
+
+    private class Prefetch implements Runnable {
+        private final String location;
+        private final RelativePath path;
+        private final int generation;
+
+        Prefetch(String location, RelativePath path, int generation) {
+            this.location = location;
+            this.path = path;
+            this.generation = generation;
+        }
+
+        @Override
+        public void run() {
+            if (isStale(generation) || cache.get(location, path) != null) {
+                return;
+            }
+
+            //back off while the user is navigating, or while this location is busy with other prefetches
+            long quiet = System.currentTimeMillis() - lastNavigation;
+            if (quiet < quietPeriod) {
+                schedule(this, quietPeriod - quiet);
+                return;
+            }
+
+            Semaphore permits = getPermits(location);
+            if (!permits.tryAcquire()) {
+                schedule(this, quietPeriod);
+                return;
+            }
+
+            try {
+                FileListing listing = list(location, path, generation);
+                if (listing != null && !isStale(generation)) {
+                    logger.debug("prefetched {} entries of {} at {}", listing.size(), path, location);
+                    cache.put(location, path, listing);
+                }
+            } catch (Exception e) {
+                //not worth bothering the user with, the directory will simply be listed when needed
+                logger.debug("could not prefetch " + path + " at " + location, e);
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    private final SessionPool sessions;
+    private final ListingCache cache;
+    private final MimeTypeIcons mimeTypeIcons;
+
+    private final int maxPerLocation;
+    private final int maxDirectories;
+    private final long quietPeriod;
+
+    private final Map<String, Semaphore> permits = new HashMap<String, Semaphore>();
+
+    //bumped on every navigation, prefetches of an older generation are dropped
+    private final AtomicInteger generation = new AtomicInteger();
+
+    private volatile long lastNavigation = 0;
+
+    SubdirectoryPrefetcher(SessionPool sessions, ListingCache cache, MimeTypeIcons mimeTypeIcons) {
+        this(sessions, cache, mimeTypeIcons, DEFAULT_MAX_PER_LOCATION, DEFAULT_MAX_DIRECTORIES, DEFAULT_QUIET_PERIOD);
+    }
+
+    SubdirectoryPrefetcher(SessionPool sessions, ListingCache cache, MimeTypeIcons mimeTypeIcons, int maxPerLocation,
+            int maxDirectories, long quietPeriod) {
+        this.sessions = sessions;
+        this.cache = cache;
+        this.mimeTypeIcons = mimeTypeIcons;
+        this.maxPerLocation = maxPerLocation;
+        this.maxDirectories = maxDirectories;
+        this.quietPeriod = quietPeriod;
+    }
+
+    private static void schedule(Prefetch prefetch, long delay) {
+        BackgroundExecutor.get().schedule(BackgroundExecutor.Priority.BACKGROUND, prefetch.location, prefetch, delay);
+    }
+
+    private synchronized Semaphore getPermits(String location) {
+        Semaphore result = permits.get(location);
+        if (result == null) {
+            result = new Semaphore(maxPerLocation);
+            permits.put(location, result);
+        }
+        return result;
+    }
+
+    private boolean isStale(int generation) {
+        return generation != this.generation.get();
+    }
+
+    /**
+     * The user is navigating: drop everything queued, and wait for things to settle down before prefetching again.
+     */
+    void navigated() {
+        lastNavigation = System.currentTimeMillis();
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Prefetch the given subdirectories of a directory, in the given order.
+     */
+    void prefetch(String location, RelativePath directory, Collection<String> subdirectories) {
+        int current = generation.get();
+        int count = 0;
+
+        for (String subdirectory : subdirectories) {
+            if (count++ == maxDirectories) {
+                break;
+            }
+            RelativePath path = directory.resolve(new RelativePath(subdirectory));
+            schedule(new Prefetch(location, path, current), quietPeriod);
+        }
+    }
+
+    /**
+     * Most subdirectories prefetched per directory, any more passed to {@link #prefetch} are ignored.
+     */
+    int getMaxDirectories() {
+        return maxDirectories;
+    }
+
+    private FileListing list(String location, RelativePath path, int generation) throws Exception {
+        Octopus octopus = sessions.getOctopus();
+        FileSystem fileSystem = sessions.borrowFileSystem(location);
+        boolean failed = true;
+        Deadline deadline = sessions.startDeadline(location, fileSystem);
+
+        try {
+            AbsolutePath target = octopus.files().newPath(fileSystem, path);
+            FileListing listing = new FileListing(target);
+
+            DirectoryStream<PathAttributesPair> stream = octopus.files().newAttributesDirectoryStream(target);
+
+            try {
+                DateFormat dateFormat = FileListing.newDateFormat();
+
+                for (PathAttributesPair pair : stream) {
+                    if (isStale(generation) || listing.size() >= MAX_ENTRIES) {
+                        //abandon, the file system is still fine
+                        failed = false;
+                        return null;
+                    }
+                    deadline.touch();
+
+                    listing.add(pair);
+                    if (listing.isHidden(listing.size() - 1)) {
+                        listing.removeLast();
+                    } else {
+                        listing.materialize(listing.size() - 1, mimeTypeIcons, dateFormat);
+                    }
+                }
+            } finally {
+                stream.close();
+            }
+
+            failed = false;
+            return listing;
+        } finally {
+            deadline.done();
+            if (failed) {
+                sessions.invalidateFileSystem(location, fileSystem);
+            } else {
+                sessions.releaseFileSystem(location, fileSystem);
+            }
+        }
+    }
+}
@@ -1,19 +1,16 @@
 package nl.esciencecenter.octopus.explorer.files;
 
-import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.Date;
+import java.text.DateFormat;
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 
-import javax.swing.SwingWorker;
-import javax.swing.table.DefaultTableModel;
-
 import nl.esciencecenter.octopus.Octopus;
-import nl.esciencecenter.octopus.credentials.Credential;
-import nl.esciencecenter.octopus.exceptions.AttributeNotSupportedException;
 import nl.esciencecenter.octopus.exceptions.OctopusException;
 import nl.esciencecenter.octopus.exceptions.OctopusIOException;
+import nl.esciencecenter.octopus.explorer.Deadline;
+import nl.esciencecenter.octopus.explorer.SessionPool;
 import nl.esciencecenter.octopus.files.AbsolutePath;
 import nl.esciencecenter.octopus.files.DirectoryStream;
 import nl.esciencecenter.octopus.files.FileSystem;
@@ -24,106 +21,204 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Returns a RelativePath as result, and produces a RelativePath per File found at the given location+path
+ * Returns a RelativePath as result, and produces chunks of the listing of the directory at the given location+path
+ * 
+ * Entries are materialized in the background: hidden entries are dropped, icons are resolved and all text is formatted before
+ * they are published. Chunks are handed to a {@link RowAppender}, which adds them to the table within a per-frame time budget. If a (possibly stale) listing of the directory
+ * was already shown, the worker only revalidates it: nothing is published while listing, the difference with the rows shown
+ * is computed in the background, and once done only the rows that changed are updated.
  * 
  * @author Niels Drost
  * 
  */
-class UpdateFileListWorker extends SwingWorker<RelativePath, PathAttributesPair> {
+class UpdateFileListWorker extends ListingWorker<FileListing> {
 
     private static final Logger logger = LoggerFactory.getLogger(UpdateFileListWorker.class);
 
-    private final DefaultTableModel tableModel;
+    //publish a chunk once it has this many entries, or is this old (in milliseconds)
+    private static final int MAX_CHUNK_SIZE = 1000;
+    private static final long MAX_CHUNK_DELAY = 100;
+
+    private final FileListingTableModel tableModel;
+    private final RowAppender appender;
+    private final MimeTypeIcons mimeTypeIcons;
     private final String location;
     private final RelativePath path;
     private final boolean setPathToFSEntry;
-    private final Octopus octopus;
+    private final boolean revalidate;
+    private final SessionPool sessions;
+    private final ListingCache cache;
     private final FileListingPanel fileListing;
 
-    UpdateFileListWorker(DefaultTableModel tableModel, String location, RelativePath path, boolean setPathToFSEntry,
-            Octopus octopus, FileListingPanel fileListing) {
+    //rows shown when started, and the modification count of the model at that time, only set when revalidating
+    private final FileListing shown;
+    private final int shownModCount;
+
+    //complete listing, handed to the cache when done
+    private FileListing listing;
+
+    //changes to the rows shown, computed in the background when revalidating
+    private ListingDiff diff;
+
+    //path actually listed, set in the background
+    private volatile RelativePath listedPath;
+
+    UpdateFileListWorker(FileListingTableModel tableModel, RowAppender appender, MimeTypeIcons mimeTypeIcons, String location,
+            RelativePath path, boolean setPathToFSEntry, boolean revalidate, SessionPool sessions, ListingCache cache,
+            FileListingPanel fileListing) {
         this.tableModel = tableModel;
+        this.appender = appender;
+        this.mimeTypeIcons = mimeTypeIcons;
         this.location = location;
         this.path = path;
         this.setPathToFSEntry = setPathToFSEntry;
-        this.octopus = octopus;
+        this.revalidate = revalidate;
+        this.sessions = sessions;
+        this.cache = cache;
         this.fileListing = fileListing;
+
+        if (revalidate) {
+            shown = tableModel.getListing();
+            shownModCount = tableModel.getModCount();
+        } else {
+            shown = null;
+            shownModCount = -1;
+        }
     }
 
     @Override
-    public RelativePath doInBackground() throws OctopusIOException, OctopusException, URISyntaxException {
-        FileSystem fileSystem;
+    public RelativePath doInBackground() throws OctopusIOException, OctopusException, URISyntaxException,
+            InterruptedException {
+        Octopus octopus = sessions.getOctopus();
         logger.debug("getting file list at {}", location);
 
-        if (location.equals("Local")) {
-            fileSystem = octopus.files().getLocalHomeFileSystem();
-        } else {
-            Credential credential = octopus.credentials().getDefaultCredential("ssh");
+        FileSystem fileSystem = sessions.borrowFileSystem(location);
+        boolean failed = true;
+        Deadline deadline = startDeadline(sessions, location, fileSystem);
 
-            fileSystem = octopus.files().newFileSystem(new URI("ssh://" + location), credential, null);
-        }
+        try {
+            if (isCancelled()) {
+                failed = false;
+                return null;
+            }
+            logger.debug("got filesystem {}", fileSystem);
+
+            AbsolutePath entryPath = fileSystem.getEntryPath();
+            AbsolutePath target;
+            if (setPathToFSEntry) {
+                target = entryPath;
+            } else {
+                target = octopus.files().newPath(fileSystem, path);
+            }
+            listedPath = target.getRelativePath();
+            listing = new FileListing(target);
 
-        logger.debug("got filesystem {}", fileSystem);
+            DirectoryStream<PathAttributesPair> stream = octopus.files().newAttributesDirectoryStream(target);
 
-        AbsolutePath entryPath = fileSystem.getEntryPath();
-        AbsolutePath target;
-        if (setPathToFSEntry) {
-            target = entryPath;
-        } else {
-            target = octopus.files().newPath(fileSystem, path);
-        }
+            try {
+                DateFormat dateFormat = FileListing.newDateFormat();
+                FileListing chunk = new FileListing(target);
+                long chunkStart = System.currentTimeMillis();
+
+                Iterator<PathAttributesPair> entries = stream.iterator();
+
+                while (entries.hasNext()) {
+                    if (isCancelled()) {
+                        //stop right away, the file system is still fine
+                        failed = false;
+                        return null;
+                    }
+                    deadline.touch();
+
+                    listing.add(entries.next());
+
+                    if (listing.isHidden(listing.size() - 1)) {
+                        listing.removeLast();
+                        continue;
+                    }
+                    listing.materialize(listing.size() - 1, mimeTypeIcons, dateFormat);
+
+                    if (revalidate) {
+                        continue;
+                    }
+
+                    chunk.add(listing, listing.size() - 1);
+
+                    if (chunk.size() >= MAX_CHUNK_SIZE || System.currentTimeMillis() - chunkStart >= MAX_CHUNK_DELAY) {
+                        publish(chunk);
+                        chunk = new FileListing(target);
+                        chunkStart = System.currentTimeMillis();
+                    }
+                }
 
-        DirectoryStream<PathAttributesPair> stream = octopus.files().newAttributesDirectoryStream(target);
+                if (!chunk.isEmpty()) {
+                    publish(chunk);
+                }
+            } finally {
+                //the file system is re-used, so the stream needs to be closed explicitly
+                stream.close();
+            }
 
-        while (stream.iterator().hasNext()) {
-            PathAttributesPair pair = stream.iterator().next();
-            logger.debug("got file {}", pair.path());
-            publish(pair);
+            logger.debug("listed {} at {}, {} entries shown", target, location, listing.size());
+
+            if (revalidate) {
+                diff = ListingDiff.compute(shown, shownModCount, listing);
+            }
+
+            failed = false;
+            return entryPath.getRelativePath();
+        } catch (OctopusIOException | OctopusException | RuntimeException e) {
+            if (deadline.isExpired() && !isCancelled()) {
+                throw deadline.timedOut("listing " + path + " at " + location, e);
+            }
+            throw e;
+        } finally {
+            deadline.done();
+            if (failed) {
+                sessions.invalidateFileSystem(location, fileSystem);
+            } else {
+                sessions.releaseFileSystem(location, fileSystem);
+            }
         }
+    }
 
-        octopus.files().close(fileSystem);
+    @Override
+    protected void process(List<FileListing> chunks) {
+        //chunks published before we were cancelled may still arrive
+        if (isCancelled()) {
+            return;
+        }
 
-        return entryPath.getRelativePath();
+        for (FileListing chunk : chunks) {
+            appender.add(chunk);
+        }
     }
 
     @Override
-    protected void process(List<PathAttributesPair> chunks) {
-        for (PathAttributesPair pair : chunks) {
+    protected void done() {
+        if (isCancelled()) {
+            return;
+        }
 
-            try {
-                String size;
-                String type;
-
-                if (pair.attributes().isDirectory()) {
-                    size = "";
-                    type = "folder";
-                } else {
-                    size = String.format("%.3f Mb", (pair.attributes().size() / 1000000f));
-                    type = "file";
-                }
+        try {
+            RelativePath entryPath = get();
 
-                String modified = new Date(pair.attributes().lastModifiedTime()).toString();
+            cache.put(location, listedPath, listing);
 
-                if (!pair.attributes().isHidden()) {
-                    tableModel.addRow(new Object[] { pair, size, type, modified });
-                }
-            } catch (AttributeNotSupportedException e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
+            //unless the rows changed after all, only apply what changed
+            if (revalidate && !tableModel.apply(diff)) {
+                tableModel.update(listing);
             }
 
-        }
-    }
+            //get a head start on the directory the user is likely to go into next
+            fileListing.listed(location, listedPath, listing);
 
-    @Override
-    protected void done() {
-        //update path in main class / swing thread. 
-        if (!isCancelled() && setPathToFSEntry) {
-            try {
-                fileListing.setCurrentPath(get());
-            } catch (InterruptedException | ExecutionException e) {
-                logger.error("Got error updating file listing", e);
+            //update path in main class / swing thread.
+            if (setPathToFSEntry) {
+                fileListing.setCurrentPath(entryPath);
             }
+        } catch (InterruptedException | ExecutionException e) {
+            logger.error("Got error updating file listing", e);
         }
     }
-}
\ No newline at end of file
+}
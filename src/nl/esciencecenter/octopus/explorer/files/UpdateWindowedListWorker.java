@@ -0,0 +1,208 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer.files;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import nl.esciencecenter.octopus.Octopus;
+import nl.esciencecenter.octopus.exceptions.OctopusException;
+import nl.esciencecenter.octopus.exceptions.OctopusIOException;
+import nl.esciencecenter.octopus.explorer.Deadline;
+import nl.esciencecenter.octopus.explorer.SessionPool;
+import nl.esciencecenter.octopus.files.AbsolutePath;
+import nl.esciencecenter.octopus.files.DirectoryStream;
+import nl.esciencecenter.octopus.files.FileSystem;
+import nl.esciencecenter.octopus.files.PathAttributesPair;
+import nl.esciencecenter.octopus.files.RelativePath;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Lists a directory into a {@link ListingSpillFile}, for the virtualized listing mode. Only a single window of entries is in
+ * memory at any time, and the number of entries available so far is published after each window, so the first screen is shown
+ * as soon as the first window is written.
+ * 
+ */
+class UpdateWindowedListWorker extends ListingWorker<Integer> {
+
+    private static final Logger logger = LoggerFactory.getLogger(UpdateWindowedListWorker.class);
+
+    //write a window once it is full, or this old (in milliseconds)
+    private static final long MAX_WINDOW_DELAY = 100;
+
+    private final WindowedFileListingTableModel tableModel;
+    private final ListingSpillFile spillFile;
+    private final MimeTypeIcons mimeTypeIcons;
+    private final String location;
+    private final RelativePath path;
+    private final boolean setPathToFSEntry;
+    private final SessionPool sessions;
+    private final FileListingPanel fileListing;
+
+    UpdateWindowedListWorker(WindowedFileListingTableModel tableModel, ListingSpillFile spillFile, MimeTypeIcons mimeTypeIcons,
+            String location, RelativePath path, boolean setPathToFSEntry, SessionPool sessions, FileListingPanel fileListing) {
+        this.tableModel = tableModel;
+        this.spillFile = spillFile;
+        this.mimeTypeIcons = mimeTypeIcons;
+        this.location = location;
+        this.path = path;
+        this.setPathToFSEntry = setPathToFSEntry;
+        this.sessions = sessions;
+        this.fileListing = fileListing;
+    }
+
+    @Override
+    public RelativePath doInBackground() throws IOException, OctopusException, URISyntaxException, InterruptedException {
+        Octopus octopus = sessions.getOctopus();
+        logger.debug("getting windowed file list at {}", location);
+
+        FileSystem fileSystem = sessions.borrowFileSystem(location);
+        boolean failed = true;
+        Deadline deadline = startDeadline(sessions, location, fileSystem);
+
+        try {
+            if (isCancelled()) {
+                failed = false;
+                return null;
+            }
+
+            AbsolutePath entryPath = fileSystem.getEntryPath();
+            AbsolutePath target;
+            if (setPathToFSEntry) {
+                target = entryPath;
+            } else {
+                target = octopus.files().newPath(fileSystem, path);
+            }
+            spillFile.setDirectory(target);
+
+            DirectoryStream<PathAttributesPair> stream = octopus.files().newAttributesDirectoryStream(target);
+
+            try {
+                FileListing window = new FileListing(target, WindowedFileListingTableModel.WINDOW_SIZE);
+                long windowStart = System.currentTimeMillis();
+
+                Iterator<PathAttributesPair> entries = stream.iterator();
+
+                while (entries.hasNext()) {
+                    if (isCancelled()) {
+                        //stop right away, the file system is still fine
+                        failed = false;
+                        return null;
+                    }
+                    deadline.touch();
+
+                    PathAttributesPair pair = entries.next();
+                    window.add(pair);
+
+                    if (window.isHidden(window.size() - 1)) {
+                        window.removeLast();
+                        continue;
+                    }
+                    window.resolveIcon(window.size() - 1, mimeTypeIcons);
+
+                    if (window.size() >= WindowedFileListingTableModel.WINDOW_SIZE
+                            || System.currentTimeMillis() - windowStart >= MAX_WINDOW_DELAY) {
+                        spill(window);
+                        window.clear();
+                        windowStart = System.currentTimeMillis();
+                    }
+                }
+
+                if (!window.isEmpty()) {
+                    spill(window);
+                }
+            } finally {
+                stream.close();
+            }
+
+            failed = false;
+            return entryPath.getRelativePath();
+        } catch (SpillException e) {
+            //a local problem, such as a full disk, the file system is still fine
+            failed = false;
+            throw e.getCause();
+        } catch (OctopusIOException | OctopusException | RuntimeException e) {
+            if (deadline.isExpired() && !isCancelled()) {
+                throw deadline.timedOut("listing " + path + " at " + location, e);
+            }
+            throw e;
+        } finally {
+            deadline.done();
+            if (failed) {
+                sessions.invalidateFileSystem(location, fileSystem);
+            } else {
+                sessions.releaseFileSystem(location, fileSystem);
+            }
+        }
+    }
+
+    /**
+     * Thrown when writing to the spill file fails, to tell it apart from a failing file system.
+     */
+    private static final class SpillException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        SpillException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+
+    private void spill(FileListing window) throws SpillException {
+        try {
+            spillFile.append(window);
+        } catch (IOException e) {
+            throw new SpillException(e);
+        }
+        publish(spillFile.size());
+    }
+
+    @Override
+    protected void process(List<Integer> counts) {
+        if (isCancelled()) {
+            return;
+        }
+        tableModel.rowsAvailable(counts.get(counts.size() - 1));
+    }
+
+    @Override
+    protected void done() {
+        if (isCancelled()) {
+            return;
+        }
+
+        try {
+            RelativePath entryPath = get();
+
+            logger.debug("windowed listing of {} done, {} entries", location, spillFile.size());
+
+            if (setPathToFSEntry) {
+                fileListing.setCurrentPath(entryPath);
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            logger.error("Got error updating file listing", e);
+        }
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer.files;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.swing.Icon;
+import javax.swing.SwingUtilities;
+import javax.swing.table.AbstractTableModel;
+
+import nl.esciencecenter.octopus.explorer.BackgroundExecutor;
+import nl.esciencecenter.octopus.files.AbsolutePath;
+import nl.esciencecenter.octopus.files.RelativePath;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Table model for the virtualized listing mode. The listing itself lives in a {@link ListingSpillFile}; only a bounded number
+ * of windows of rows around what is being looked at are kept in memory, read back from disk when the table needs them.
+ *
+ * Painting never waits for the disk: a window that is not in memory is read in the background, and its rows are shown empty
+ * until it is. Only actions on a row, such as opening it, read its window right away.
+ */
+class WindowedFileListingTableModel extends AbstractTableModel implements FileRowModel {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger logger = LoggerFactory.getLogger(WindowedFileListingTableModel.class);
+
+    static final int WINDOW_SIZE = 1024;
+
+    static final int MAX_RESIDENT_WINDOWS = Integer.getInteger("octopus.explorer.listing.windows", 16);
+
+    private final MimeTypeIcons mimeTypeIcons;
+
+    private ListingSpillFile spillFile = null;
+
+    private int rowCount = 0;
+
+    //resident windows, least recently used first
+    private final LinkedHashMap<Integer, FileListing> windows = new LinkedHashMap<Integer, FileListing>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, FileListing> eldest) {
+            return size() > MAX_RESIDENT_WINDOWS;
+        }
+    };
+
+    //last window used, saves a map lookup for every cell painted
+    private int lastWindowIndex = -1;
+    private FileListing lastWindow = null;
+
+    //windows being read in the background
+    private final Set<Integer> loading = new HashSet<Integer>();
+
+    WindowedFileListingTableModel(MimeTypeIcons mimeTypeIcons) {
+        this.mimeTypeIcons = mimeTypeIcons;
+    }
+
+    /**
+     * Start showing a new listing, closing the previous one.
+     */
+    void setSpillFile(ListingSpillFile spillFile) {
+        if (this.spillFile != null) {
+            this.spillFile.close();
+        }
+        this.spillFile = spillFile;
+
+        windows.clear();
+        loading.clear();
+        lastWindowIndex = -1;
+        lastWindow = null;
+
+        int count = rowCount;
+        rowCount = 0;
+        if (count > 0) {
+            fireTableRowsDeleted(0, count - 1);
+        }
+    }
+
+    /**
+     * Called when more rows were appended to the spill file.
+     */
+    void rowsAvailable(int count) {
+        if (count <= rowCount) {
+            return;
+        }
+
+        //the last window may have been read while it was still partially filled
+        int partial = rowCount / WINDOW_SIZE;
+        windows.remove(partial);
+        if (lastWindowIndex == partial) {
+            lastWindowIndex = -1;
+            lastWindow = null;
+        }
+
+        int first = rowCount;
+        rowCount = count;
+        fireTableRowsInserted(first, count - 1);
+    }
+
+    /**
+     * Returns the window of the given row, reading it right away if needed.
+     */
+    private FileListing window(int row) {
+        int index = row / WINDOW_SIZE;
+
+        if (index == lastWindowIndex) {
+            return lastWindow;
+        }
+
+        FileListing window = windows.get(index);
+
+        if (window == null) {
+            try {
+                window = spillFile.read(index * WINDOW_SIZE, WINDOW_SIZE);
+            } catch (IOException e) {
+                logger.error("Could not read listing window " + index, e);
+                window = new FileListing(spillFile.getDirectory(), 0);
+            }
+            windows.put(index, window);
+        }
+
+        lastWindowIndex = index;
+        lastWindow = window;
+        return window;
+    }
+
+    /**
+     * Returns the window of the given row if in memory. Otherwise starts reading it in the background, and returns an empty
+     * window for now.
+     */
+    private FileListing paintedWindow(int row) {
+        int index = row / WINDOW_SIZE;
+
+        if (index == lastWindowIndex) {
+            return lastWindow;
+        }
+
+        FileListing window = windows.get(index);
+
+        if (window == null) {
+            load(index);
+            return new FileListing(spillFile.getDirectory(), 0);
+        }
+
+        lastWindowIndex = index;
+        lastWindow = window;
+        return window;
+    }
+
+    private void load(final int index) {
+        if (!loading.add(index)) {
+            return;
+        }
+
+        final ListingSpillFile file = spillFile;
+        BackgroundExecutor.get().execute(BackgroundExecutor.Priority.INTERACTIVE, null, new Runnable() {
+            @Override
+            public void run() {
+                FileListing result;
+                try {
+                    result = file.read(index * WINDOW_SIZE, WINDOW_SIZE);
+                } catch (IOException e) {
+                    //also when the listing was closed in the mean time
+                    logger.debug("Could not read listing window " + index, e);
+                    result = new FileListing(file.getDirectory(), 0);
+                }
+
+                final FileListing window = result;
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        loaded(file, index, window);
+                    }
+                });
+            }
+        });
+    }
+
+    private void loaded(ListingSpillFile file, int index, FileListing window) {
+        if (file != spillFile) {
+            //another listing is shown by now
+            return;
+        }
+        loading.remove(index);
+
+        int first = index * WINDOW_SIZE;
+        int available = Math.min(WINDOW_SIZE, rowCount - first);
+        if (available <= 0) {
+            return;
+        }
+        if (window.size() > 0 && window.size() < available) {
+            //more rows were appended while reading
+            load(index);
+            return;
+        }
+
+        windows.put(index, window);
+        fireTableRowsUpdated(first, first + available - 1);
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return FileListingTableModel.COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return FileListingTableModel.COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int columnIndex) {
+        return FileListingTableModel.COLUMN_TYPES[columnIndex];
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        return false;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        FileListing window = paintedWindow(row);
+        int index = row % WINDOW_SIZE;
+
+        if (index >= window.size()) {
+            return "";
+        }
+
+        switch (column) {
+        case NAME_COLUMN:
+            return window.getName(index);
+        case SIZE_COLUMN:
+            return window.getSizeText(index);
+        case TYPE_COLUMN:
+            return window.isDirectory(index) ? "folder" : "file";
+        case MODIFIED_COLUMN:
+            return window.getModifiedText(index);
+        default:
+            throw new IndexOutOfBoundsException("no column " + column);
+        }
+    }
+
+    @Override
+    public String getName(int row) {
+        FileListing window = window(row);
+        int index = row % WINDOW_SIZE;
+        return index < window.size() ? window.getName(index) : "";
+    }
+
+    @Override
+    public boolean isDirectory(int row) {
+        FileListing window = window(row);
+        int index = row % WINDOW_SIZE;
+        return index < window.size() && window.isDirectory(index);
+    }
+
+    @Override
+    public Icon getIcon(int row) {
+        FileListing window = paintedWindow(row);
+        int index = row % WINDOW_SIZE;
+        return mimeTypeIcons.getIcon(index < window.size() ? window.getIcon(index) : 0);
+    }
+
+    @Override
+    public AbsolutePath getPath(int row) {
+        if (spillFile == null || spillFile.getDirectory() == null) {
+            return null;
+        }
+        return spillFile.getDirectory().resolve(new RelativePath(getName(row)));
+    }
+}
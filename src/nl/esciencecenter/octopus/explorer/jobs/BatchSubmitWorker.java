@@ -0,0 +1,366 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer.jobs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+import javax.swing.SwingWorker;
+
+import nl.esciencecenter.octopus.Octopus;
+import nl.esciencecenter.octopus.exceptions.OctopusIOException;
+import nl.esciencecenter.octopus.explorer.BackgroundExecutor;
+import nl.esciencecenter.octopus.explorer.Deadline;
+import nl.esciencecenter.octopus.explorer.SessionPool;
+import nl.esciencecenter.octopus.jobs.JobDescription;
+import nl.esciencecenter.octopus.jobs.Scheduler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Submits all jobs of a parameter sweep to a single location. All submissions share a single scheduler session, and are
+ * pipelined: up to a fixed number are in flight at the same time, each as submission work on the {@link BackgroundExecutor}.
+ * Job descriptions are expanded only when they are about to be submitted, so the number of jobs is not limited by memory.
+ * 
+ * Progress is published regularly, and once more when done. A failed submission does not stop the others, but the batch is
+ * given up after a number of failures in a row, as the scheduler is most likely unreachable by then. A submission that does not
+ * finish in time aborts the shared scheduler, which makes all other submissions fail too, so the batch is stopped right away
+ * then. Stopping a batch stops submitting new jobs, jobs in flight still finish.
+ * 
+ * The worker itself only hands out and waits for submissions, so it should be run with {@link #execute()}, not on the
+ * {@link BackgroundExecutor}, where it could take the place of its own submissions.
+ */
+class BatchSubmitWorker extends SwingWorker<BatchSubmitWorker.Progress, BatchSubmitWorker.Progress> {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchSubmitWorker.class);
+
+    //maximum number of submissions in flight
+    static final int DEFAULT_IN_FLIGHT = Integer.getInteger("octopus.explorer.submit.in.flight", 8);
+
+    //give up after this many failures in a row
+    static final int MAX_FAILURES_IN_A_ROW = Integer.getInteger("octopus.explorer.submit.max.failures", 20);
+
+    //number of failure messages kept
+    private static final int MAX_ERRORS = 10;
+
+    //minimum time between two progress updates (in milliseconds)
+    private static final long PROGRESS_INTERVAL = 100;
+
+    /**
+     * Told about the progress of a batch, on the event dispatch thread.
+     */
+    interface Listener {
+        void progressed(BatchSubmitWorker worker, Progress progress);
+    }
+
+    /**
+     * Progress of a batch at some point in time.
+     */
+    static final class Progress {
+        private final long total;
+        private final long submitted;
+        private final long failed;
+        private final long elapsed;
+        private final boolean done;
+        private final boolean stopped;
+        private final List<String> errors;
+
+        Progress(long total, long submitted, long failed, long elapsed, boolean done, boolean stopped, List<String> errors) {
+            this.total = total;
+            this.submitted = submitted;
+            this.failed = failed;
+            this.elapsed = elapsed;
+            this.done = done;
+            this.stopped = stopped;
+            this.errors = errors;
+        }
+
+        long getTotal() {
+            return total;
+        }
+
+        long getSubmitted() {
+            return submitted;
+        }
+
+        long getFailed() {
+            return failed;
+        }
+
+        /**
+         * Time since the batch started (in milliseconds).
+         */
+        long getElapsed() {
+            return elapsed;
+        }
+
+        boolean isDone() {
+            return done;
+        }
+
+        /**
+         * True if the batch was stopped, or given up, before all jobs were submitted.
+         */
+        boolean isStopped() {
+            return stopped;
+        }
+
+        /**
+         * Submissions per second so far.
+         */
+        double getRate() {
+            return elapsed == 0 ? 0 : (submitted * 1000.0) / elapsed;
+        }
+
+        /**
+         * Messages of the first few failures.
+         */
+        List<String> getErrors() {
+            return errors;
+        }
+    }
+
+    private final ParameterSweep sweep;
+    private final String executable;
+    private final String queue;
+    private final String location;
+    private final SessionPool sessions;
+    private final Listener listener;
+    private final int maxInFlight;
+
+    private final Semaphore inFlight;
+
+    private volatile boolean stopped = false;
+
+    //all guarded by this
+    private long submitted = 0;
+    private long failed = 0;
+    private int failuresInARow = 0;
+    private boolean sessionFailed = false;
+    private long lastPublished = 0;
+    private final List<String> errors = new ArrayList<String>();
+
+    private long start;
+
+    BatchSubmitWorker(String executable, ParameterSweep sweep, String location, SessionPool sessions, Listener listener) {
+        this(executable, sweep, location, sessions, listener, DEFAULT_IN_FLIGHT);
+    }
+
+    BatchSubmitWorker(String executable, ParameterSweep sweep, String location, SessionPool sessions, Listener listener,
+            int maxInFlight) {
+        this.executable = executable;
+        this.sweep = sweep;
+        this.location = location;
+        this.sessions = sessions;
+        this.listener = listener;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.inFlight = new Semaphore(this.maxInFlight);
+
+        if (location.equals(SessionPool.LOCAL_LOCATION)) {
+            queue = "multiq";
+        } else {
+            queue = "all.q";
+        }
+    }
+
+    String getLocation() {
+        return location;
+    }
+
+    long getTotal() {
+        return sweep.size();
+    }
+
+    /**
+     * Stop submitting jobs. Jobs in flight still finish.
+     */
+    void stop() {
+        stopped = true;
+    }
+
+    @Override
+    public Progress doInBackground() throws Exception {
+        start = System.currentTimeMillis();
+        final Octopus octopus = sessions.getOctopus();
+
+        logger.debug("submitting {} jobs to {}", sweep.size(), location);
+
+        final Scheduler scheduler = sessions.borrowScheduler(location);
+
+        try {
+            for (long index = 0; index < sweep.size(); index++) {
+                inFlight.acquire();
+
+                if (stopped || givenUp()) {
+                    inFlight.release();
+                    stopped = true;
+                    break;
+                }
+
+                final JobDescription description;
+                try {
+                    description = describe(index);
+                } catch (IllegalArgumentException e) {
+                    inFlight.release();
+                    failed(e);
+                    continue;
+                }
+
+                BackgroundExecutor.get().execute(BackgroundExecutor.Priority.SUBMISSION, location, new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            submit(octopus, scheduler, description);
+                        } finally {
+                            inFlight.release();
+                        }
+                    }
+                });
+            }
+
+            //wait for the submissions in flight
+            inFlight.acquire(maxInFlight);
+            inFlight.release(maxInFlight);
+        } finally {
+            if (sessionFailed()) {
+                sessions.invalidateScheduler(location, scheduler);
+            } else {
+                sessions.releaseScheduler(location, scheduler);
+            }
+        }
+
+        Progress result = progress(true);
+        logger.info("submitted {} of {} jobs to {} in {} ms ({} per second), {} failed", result.getSubmitted(),
+                result.getTotal(), location, result.getElapsed(), String.format("%.1f", result.getRate()), result.getFailed());
+        return result;
+    }
+
+    private JobDescription describe(long index) {
+        String[] arguments = JobArguments.split(sweep.get(index));
+
+        JobDescription result = new JobDescription();
+        result.setExecutable(executable);
+        result.setArguments(arguments);
+        result.setQueueName(queue);
+        return result;
+    }
+
+    private void submit(Octopus octopus, Scheduler scheduler, JobDescription description) {
+        Deadline deadline = sessions.startDeadline(location, scheduler);
+
+        try {
+            octopus.jobs().submitJob(scheduler, description);
+            submitted();
+        } catch (Exception e) {
+            if (deadline.isExpired()) {
+                failed(deadline.timedOut("submitting a job to " + location, e));
+            } else {
+                failed(e);
+            }
+            if (deadline.isExpired() || e instanceof OctopusIOException) {
+                synchronized (this) {
+                    //the connection, do not hand the session back as if nothing happened
+                    sessionFailed = true;
+                }
+            }
+            if (deadline.isExpired()) {
+                //the scheduler shared by all submissions was aborted, the rest would only fail
+                stopped = true;
+            }
+        } finally {
+            deadline.done();
+        }
+    }
+
+    private void submitted() {
+        synchronized (this) {
+            submitted++;
+            failuresInARow = 0;
+        }
+        publishProgress();
+    }
+
+    private void failed(Exception e) {
+        logger.warn("Could not submit job to " + location, e);
+
+        synchronized (this) {
+            failed++;
+            failuresInARow++;
+            if (errors.size() < MAX_ERRORS) {
+                errors.add(e.getMessage());
+            }
+        }
+        publishProgress();
+    }
+
+    private synchronized boolean givenUp() {
+        return failuresInARow >= MAX_FAILURES_IN_A_ROW;
+    }
+
+    private synchronized boolean sessionFailed() {
+        return sessionFailed;
+    }
+
+    private void publishProgress() {
+        long now = System.currentTimeMillis();
+
+        synchronized (this) {
+            if (now - lastPublished < PROGRESS_INTERVAL) {
+                return;
+            }
+            lastPublished = now;
+        }
+        publish(progress(false));
+    }
+
+    private synchronized Progress progress(boolean done) {
+        return new Progress(sweep.size(), submitted, failed, System.currentTimeMillis() - start, done, done && stopped,
+                Collections.unmodifiableList(new ArrayList<String>(errors)));
+    }
+
+    @Override
+    protected void process(List<Progress> chunks) {
+        //progress published just before the end arrives after it, done() reports the final progress
+        if (isDone()) {
+            return;
+        }
+
+        //only the latest counts
+        listener.progressed(this, chunks.get(chunks.size() - 1));
+    }
+
+    @Override
+    protected void done() {
+        Progress result;
+        try {
+            result = get();
+        } catch (Exception e) {
+            //could not get a scheduler at all
+            logger.error("Could not submit jobs to " + location, e);
+            synchronized (this) {
+                if (errors.size() < MAX_ERRORS) {
+                    errors.add(e.getCause() == null ? e.getMessage() : e.getCause().getMessage());
+                }
+            }
+            stopped = true;
+            result = progress(true);
+        }
+        listener.progressed(this, result);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer.jobs;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a command line into arguments, the way a shell would: arguments are separated by white space, text in single
+ * quotes is taken literally, text in double quotes may contain escaped double quotes and backslashes, and a backslash
+ * outside quotes escapes the next character. Nothing is expanded.
+ */
+final class JobArguments {
+
+    private JobArguments() {
+        //utility class
+    }
+
+    /**
+     * Returns the arguments in the given text.
+     * 
+     * @throws IllegalArgumentException
+     *             if a quote is not closed, or the text ends with a backslash.
+     */
+    static String[] split(String text) {
+        List<String> result = new ArrayList<String>();
+
+        if (text == null) {
+            return new String[0];
+        }
+
+        StringBuilder current = new StringBuilder();
+        //also true for an empty quoted argument
+        boolean inArgument = false;
+        int i = 0;
+
+        while (i < text.length()) {
+            char c = text.charAt(i);
+
+            if (Character.isWhitespace(c)) {
+                if (inArgument) {
+                    result.add(current.toString());
+                    current.setLength(0);
+                    inArgument = false;
+                }
+                i++;
+            } else if (c == '\'') {
+                int end = text.indexOf('\'', i + 1);
+                if (end == -1) {
+                    throw new IllegalArgumentException("Single quote at position " + (i + 1) + " is not closed");
+                }
+                current.append(text, i + 1, end);
+                inArgument = true;
+                i = end + 1;
+            } else if (c == '"') {
+                i = doubleQuoted(text, i, current);
+                inArgument = true;
+            } else if (c == '\\') {
+                if (i + 1 == text.length()) {
+                    throw new IllegalArgumentException("Backslash at the end of the arguments");
+                }
+                current.append(text.charAt(i + 1));
+                inArgument = true;
+                i += 2;
+            } else {
+                current.append(c);
+                inArgument = true;
+                i++;
+            }
+        }
+
+        if (inArgument) {
+            result.add(current.toString());
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    /**
+     * Appends the content of the double quoted text starting at the given position, and returns the position after it.
+     */
+    private static int doubleQuoted(String text, int start, StringBuilder current) {
+        int i = start + 1;
+
+        while (i < text.length()) {
+            char c = text.charAt(i);
+
+            if (c == '"') {
+                return i + 1;
+            }
+            if (c == '\\' && i + 1 < text.length() && (text.charAt(i + 1) == '"' || text.charAt(i + 1) == '\\')) {
+                current.append(text.charAt(i + 1));
+                i += 2;
+            } else {
+                current.append(c);
+                i++;
+            }
+        }
+        throw new IllegalArgumentException("Double quote at position " + (start + 1) + " is not closed");
+    }
+}
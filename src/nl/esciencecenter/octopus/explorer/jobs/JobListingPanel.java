@@ -20,64 +20,305 @@ import java.awt.Color;
 import java.awt.FlowLayout;
 import java.awt.Font;
 import java.awt.event.ActionEvent;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
 
 import javax.swing.AbstractAction;
+import javax.swing.AbstractButton;
 import javax.swing.Action;
 import javax.swing.JButton;
 import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTable;
+import javax.swing.JToggleButton;
+import javax.swing.ListModel;
+import javax.swing.ListSelectionModel;
 import javax.swing.ScrollPaneConstants;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
 import javax.swing.table.JTableHeader;
+import javax.swing.table.TableColumn;
+import javax.swing.table.TableColumnModel;
 
-import nl.esciencecenter.octopus.Octopus;
+import nl.esciencecenter.octopus.explorer.BackgroundRowSorter;
+import nl.esciencecenter.octopus.explorer.QuickFilterField;
+import nl.esciencecenter.octopus.explorer.SessionPool;
 import nl.esciencecenter.octopus.explorer.Utils;
+import nl.esciencecenter.octopus.jobs.Job;
 
+/**
+ * Shows the jobs at the current location, or at all locations at once. Jobs are kept up to date by a {@link JobMonitor} per
+ * location, which polls in the background and only hands over the jobs that changed. When showing all locations, every
+ * location is polled in parallel, with its own timeout, and its jobs are merged into the table as soon as it answers. The
+ * latency of the last poll of each location, or why it failed, is shown above the table.
+ *
+ * Monitors of locations no longer shown are stopped, but keep what they know, so going back to a location shows its jobs
+ * right away.
+ *
+ * The output of the selected job can be followed live, see {@link JobOutputTail}.
+ */
 public class JobListingPanel extends JPanel {
     private static final long serialVersionUID = 1L;
+
+    //time a poll of a location no longer shown gets to finish, before its scheduler is aborted (in milliseconds)
+    static final long CANCEL_GRACE = Long.getLong("octopus.explorer.cancel.grace", 50);
+
     private JTable table;
-    private final DefaultTableModel theModel;
-    private UpdateJobListWorker currentTask = null;
+    private final JobTableModel theModel;
 
     private String currentLocation = "Local";
-    private final Octopus octopus;
+
+    //show the jobs at all locations, instead of only the current one
+    private boolean showAll = false;
+
+    private final ListModel<String> locations;
+
+    //monitors of the locations shown, by location
+    private final Map<String, JobMonitor> shown = new LinkedHashMap<String, JobMonitor>();
+
+    //all monitors ever started
+    private final Map<String, JobMonitor> monitors = new HashMap<String, JobMonitor>();
+
+    private final Map<String, JLabel> statusLabels = new HashMap<String, JLabel>();
+
+    //output followed so far, by location and job id
+    private final Map<String, JobOutputTail> tails = new HashMap<String, JobOutputTail>();
+
+    private final JPanel statusPanel;
+
+    private final TableColumn locationColumn;
+
+    private final JobMonitor.Listener monitorListener = new JobMonitor.Listener() {
+        @Override
+        public void jobsChanged(JobMonitor monitor, JobMonitor.Delta delta) {
+            if (shown.get(monitor.getLocation()) == monitor) {
+                theModel.apply(monitor.getLocation(), delta);
+                dropTailsOfUnlistedJobs();
+            }
+        }
+
+        @Override
+        public void polled(JobMonitor monitor, long latency, Exception error) {
+            if (shown.get(monitor.getLocation()) == monitor) {
+                showStatus(monitor.getLocation(), latency, error);
+            }
+        }
+    };
+
+    private final SessionPool sessions;
     private final Action refreshAction;
     private final Action submitJobAction;
+    private final Action showOutputAction;
 
     private final SubmitJobDialog dialog;
 
+    private final SubmissionsPanel submissions;
+
     private final JFrame frame;
 
     public void setCurrentLocation(String location) {
         this.currentLocation = location;
     }
 
+    /**
+     * Shows the jobs at the current location (or all locations), and fetches the status of all of them right away.
+     */
     public void triggerRefresh(boolean setPathToFSEntry) {
-        if (currentTask != null) {
-            currentTask.cancel(false);
+        Set<String> wanted = new LinkedHashSet<String>();
+        if (showAll) {
+            for (int i = 0; i < locations.getSize(); i++) {
+                wanted.add(locations.getElementAt(i));
+            }
+        } else {
+            wanted.add(currentLocation);
+        }
+
+        Iterator<Map.Entry<String, JobMonitor>> iterator = shown.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, JobMonitor> entry = iterator.next();
+            if (!wanted.contains(entry.getKey())) {
+                entry.getValue().stop(CANCEL_GRACE);
+                theModel.removeLocation(entry.getKey());
+                dropTailsOfUnlistedJobs();
+                statusPanel.remove(statusLabels.remove(entry.getKey()));
+                iterator.remove();
+            }
+        }
+
+        for (String location : wanted) {
+            JobMonitor monitor = shown.get(location);
+
+            if (monitor != null) {
+                //the monitor coalesces this with a poll in progress
+                monitor.refresh();
+                continue;
+            }
+
+            monitor = monitors.get(location);
+            if (monitor == null) {
+                monitor = new JobMonitor(location, sessions);
+                monitors.put(location, monitor);
+            }
+            shown.put(location, monitor);
+
+            JLabel label = new JLabel(location + ": polling...");
+            statusLabels.put(location, label);
+            statusPanel.add(label);
+
+            monitor.start(monitorListener);
+        }
+
+        setLocationColumnVisible(showAll);
+        statusPanel.revalidate();
+        statusPanel.repaint();
+    }
+
+    private void showStatus(String location, long latency, Exception error) {
+        JLabel label = statusLabels.get(location);
+        if (label == null) {
+            return;
+        }
+
+        if (error == null) {
+            label.setText(location + ": " + latency + " ms");
+            label.setForeground(Color.DARK_GRAY);
+            label.setToolTipText("Last poll of " + location + " took " + latency + " ms");
+        } else {
+            label.setText(location + ": failed");
+            label.setForeground(Color.RED);
+            label.setToolTipText(error.getMessage());
+        }
+    }
+
+    private void setLocationColumnVisible(boolean visible) {
+        TableColumnModel columns = table.getColumnModel();
+        boolean present = false;
+        for (int i = 0; i < columns.getColumnCount(); i++) {
+            present |= columns.getColumn(i) == locationColumn;
+        }
+
+        if (visible && !present) {
+            columns.addColumn(locationColumn);
+        } else if (!visible && present) {
+            columns.removeColumn(locationColumn);
+        }
+    }
+
+    /**
+     * Opens a window following the output of the selected job.
+     */
+    private void showOutput() {
+        int viewRow = table.getSelectedRow();
+        if (viewRow == -1) {
+            return;
+        }
+        int row = table.convertRowIndexToModel(viewRow);
+        String location = theModel.getLocation(row);
+        String id = theModel.getJobId(row);
+
+        JobMonitor monitor = monitors.get(location);
+        Job job = monitor == null ? null : monitor.getJob(id);
+        if (job == null) {
+            JOptionPane.showMessageDialog(frame, "Job " + id + " at " + location + " is no longer known", "Show Output",
+                    JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+
+        final String key = location + '\n' + id;
+        JobOutputTail tail = tails.get(key);
+        if (tail == null || tail.getJob() != job) {
+            if (tail != null) {
+                tail.shutdown();
+            }
+            tail = new JobOutputTail(location, job, monitor.getJobName(id), sessions);
+            tails.put(key, tail);
+        }
+
+        final JobOutputTail shownTail = tail;
+        JobOutputDialog outputDialog = new JobOutputDialog(frame, tail, new Runnable() {
+            @Override
+            public void run() {
+                //octopus hands out the streams of an interactive job only once, so those are kept while the job is listed
+                if (!shownTail.isViewed() && !shownTail.getJob().isInteractive()) {
+                    dropTail(key, shownTail);
+                }
+            }
+        });
+        outputDialog.setLocationRelativeTo(frame);
+        outputDialog.setVisible(true);
+    }
+
+    private void dropTail(String key, JobOutputTail tail) {
+        if (tails.get(key) == tail) {
+            tails.remove(key);
+        }
+        tail.shutdown();
+    }
+
+    /**
+     * Stops following the output of jobs no longer in the table.
+     */
+    private void dropTailsOfUnlistedJobs() {
+        Iterator<JobOutputTail> iterator = tails.values().iterator();
+        while (iterator.hasNext()) {
+            JobOutputTail tail = iterator.next();
+            if (theModel.indexOf(tail.getLocation(), tail.getJob().getIdentifier()) == -1) {
+                tail.shutdown();
+                iterator.remove();
+            }
         }
-        theModel.setRowCount(0);
-        currentTask = new UpdateJobListWorker(theModel, currentLocation, octopus);
-        currentTask.execute();
+    }
+
+    /**
+     * Stops monitoring all locations, and following output.
+     */
+    public void close() {
+        for (JobMonitor monitor : monitors.values()) {
+            monitor.stop(0);
+        }
+        shown.clear();
+
+        for (JobOutputTail tail : tails.values()) {
+            tail.shutdown();
+        }
+        tails.clear();
     }
 
     /**
      * Create the panel.
      */
-    public JobListingPanel(Octopus octopus, JFrame frame) throws Exception {
-        this.octopus = octopus;
+    public JobListingPanel(SessionPool sessions, JFrame frame, ListModel<String> locations) throws Exception {
+        this.sessions = sessions;
         this.frame = frame;
+        this.locations = locations;
 
         refreshAction = new RefreshAction();
         submitJobAction = new SubmitJobAction();
-        dialog = new SubmitJobDialog(frame, currentLocation, octopus);
+        showOutputAction = new ShowOutputAction();
+        showOutputAction.setEnabled(false);
+        submissions = new SubmissionsPanel(new Runnable() {
+            @Override
+            public void run() {
+                //show the jobs of the batch right away
+                triggerRefresh(false);
+            }
+        });
+        dialog = new SubmitJobDialog(frame, currentLocation, sessions, submissions);
 
         setLayout(new BorderLayout(0, 0));
 
+        JPanel top = new JPanel(new BorderLayout(0, 0));
+        add(top, BorderLayout.NORTH);
+
         JPanel panel = new JPanel();
-        add(panel, BorderLayout.NORTH);
+        top.add(panel, BorderLayout.NORTH);
         panel.setLayout(new FlowLayout(FlowLayout.LEFT, 5, 5));
 
         JButton btnRefresh = new JButton(refreshAction);
@@ -86,6 +327,17 @@ public class JobListingPanel extends JPanel {
         JButton btnSubmitJob = new JButton(submitJobAction);
         panel.add(btnSubmitJob);
 
+        JButton btnShowOutput = new JButton(showOutputAction);
+        panel.add(btnShowOutput);
+
+        JToggleButton btnAllLocations = new JToggleButton(new AllLocationsAction());
+        panel.add(btnAllLocations);
+
+        statusPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 15, 2));
+        top.add(statusPanel, BorderLayout.SOUTH);
+
+        add(submissions, BorderLayout.SOUTH);
+
         JScrollPane scrollPane = new JScrollPane();
         scrollPane.setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
         add(scrollPane);
@@ -98,14 +350,62 @@ public class JobListingPanel extends JPanel {
         table.setFillsViewportHeight(true);
         scrollPane.setViewportView(table);
 
-        theModel = new DefaultTableModel(new String[] { "Job ID", "State", "Owner", "Slots" }, 0);
+        theModel = new JobTableModel();
+        BackgroundRowSorter sorter = new BackgroundRowSorter(theModel);
 
         table.setModel(theModel);
+        table.setRowSorter(sorter);
+        table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        table.getSelectionModel().addListSelectionListener(new ListSelectionListener() {
+            @Override
+            public void valueChanged(ListSelectionEvent e) {
+                showOutputAction.setEnabled(table.getSelectedRow() != -1);
+            }
+        });
+
+        panel.add(new JLabel("Filter"));
+        panel.add(new QuickFilterField(sorter));
 
         table.getColumnModel().getColumn(0).setPreferredWidth(100);
         table.getColumnModel().getColumn(1).setPreferredWidth(100);
         table.getColumnModel().getColumn(2).setPreferredWidth(100);
         table.getColumnModel().getColumn(3).setPreferredWidth(100);
+
+        //only shown with all locations
+        locationColumn = table.getColumnModel().getColumn(JobTableModel.LOCATION_COLUMN);
+        locationColumn.setPreferredWidth(150);
+        setLocationColumnVisible(false);
+    }
+
+    private class ShowOutputAction extends AbstractAction {
+        private static final long serialVersionUID = 1L;
+
+        public ShowOutputAction() throws Exception {
+            putValue(NAME, "Show Output");
+            putValue(SHORT_DESCRIPTION, "Follow the output of the selected job");
+
+            putValue(SMALL_ICON, Utils.loadIcon("apps/utilities-terminal.png"));
+        }
+
+        public void actionPerformed(ActionEvent e) {
+            showOutput();
+        }
+    }
+
+    private class AllLocationsAction extends AbstractAction {
+        private static final long serialVersionUID = 1L;
+
+        public AllLocationsAction() throws Exception {
+            putValue(NAME, "All locations");
+            putValue(SHORT_DESCRIPTION, "Show the jobs at all locations");
+
+            putValue(SMALL_ICON, Utils.loadIcon("places/network-workgroup.png"));
+        }
+
+        public void actionPerformed(ActionEvent e) {
+            showAll = ((AbstractButton) e.getSource()).isSelected();
+            triggerRefresh(false);
+        }
     }
 
     private class RefreshAction extends AbstractAction {
@@ -119,12 +419,7 @@ public class JobListingPanel extends JPanel {
         }
 
         public void actionPerformed(ActionEvent e) {
-            if (currentTask != null) {
-                currentTask.cancel(true);
-            }
-            theModel.setRowCount(0);
-            currentTask = new UpdateJobListWorker(theModel, currentLocation, octopus);
-            currentTask.execute();
+            triggerRefresh(false);
         }
     }
 
@@ -0,0 +1,566 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer.jobs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.swing.SwingUtilities;
+
+import nl.esciencecenter.octopus.Octopus;
+import nl.esciencecenter.octopus.exceptions.OctopusIOException;
+import nl.esciencecenter.octopus.explorer.BackgroundExecutor;
+import nl.esciencecenter.octopus.explorer.Deadline;
+import nl.esciencecenter.octopus.explorer.SessionPool;
+import nl.esciencecenter.octopus.jobs.Job;
+import nl.esciencecenter.octopus.jobs.JobStatus;
+import nl.esciencecenter.octopus.jobs.Scheduler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps track of the jobs at a single location, by polling its scheduler on a schedule. The last known row of every job is
+ * kept, and only jobs that were added, changed or removed since the last poll are handed to the listener.
+ *
+ * Every poll lists the ids of the jobs in the queue, but only fetches the status of new jobs, plus a bounded batch of known
+ * jobs that are not done yet, taken round-robin. Finished jobs are never asked for again. A refresh fetches the status of
+ * all jobs right away. Like the {@link nl.esciencecenter.octopus.explorer.files.DirectoryWatcher}, the poll interval doubles
+ * every time nothing changed, up to a maximum, and drops back to the minimum after a change.
+ *
+ * Every poll must be done within a timeout, or its scheduler is aborted. The listener is told how long every poll took, or
+ * why it failed, and is told about a poll that runs past its timeout right away, even if it is still waiting for a session.
+ *
+ * Polls run as background work on the {@link BackgroundExecutor}, a refresh as interactive work. Thread safe.
+ */
+class JobMonitor {
+
+    private static final Logger logger = LoggerFactory.getLogger(JobMonitor.class);
+
+    static final long DEFAULT_MIN_INTERVAL = Long.getLong("octopus.explorer.jobs.poll.min.interval", 5000);
+
+    static final long DEFAULT_MAX_INTERVAL = Long.getLong("octopus.explorer.jobs.poll.max.interval", 60000);
+
+    //time a poll may take, including getting a session, before it is given up (in milliseconds)
+    static final long DEFAULT_TIMEOUT = Long.getLong("octopus.explorer.jobs.timeout", 30000);
+
+    //maximum number of known jobs to fetch the status of in a single poll
+    static final int DEFAULT_STATUS_BATCH = Integer.getInteger("octopus.explorer.jobs.poll.batch", 500);
+
+    /**
+     * Told about the jobs that changed, on the event dispatch thread.
+     */
+    interface Listener {
+        void jobsChanged(JobMonitor monitor, Delta delta);
+
+        /**
+         * A poll took the given time (in milliseconds), and failed with the given error if it is not null.
+         */
+        void polled(JobMonitor monitor, long latency, Exception error);
+    }
+
+    /**
+     * Jobs that changed in a poll: rows of new jobs in scheduler order, new rows of jobs that changed, and ids of jobs that
+     * left the queue. A snapshot has all known jobs as added, and should replace whatever is shown of this location.
+     */
+    static final class Delta {
+        private final int session;
+        private final boolean snapshot;
+        private final List<String[]> added;
+        private final List<String[]> changed;
+        private final List<String> removed;
+
+        Delta(int session, boolean snapshot, List<String[]> added, List<String[]> changed, List<String> removed) {
+            this.session = session;
+            this.snapshot = snapshot;
+            this.added = added;
+            this.changed = changed;
+            this.removed = removed;
+        }
+
+        boolean isSnapshot() {
+            return snapshot;
+        }
+
+        List<String[]> getAdded() {
+            return added;
+        }
+
+        List<String[]> getChanged() {
+            return changed;
+        }
+
+        List<String> getRemoved() {
+            return removed;
+        }
+
+        boolean isEmpty() {
+            return !snapshot && added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+        }
+    }
+
+    /**
+     * Last known state of a job.
+     */
+    private static final class Entry {
+        private final Job job;
+        private String[] row;
+        private boolean done;
+
+        //name given to the job by the scheduler, if any
+        private String name;
+
+        Entry(Job job) {
+            this.job = job;
+        }
+    }
+
+    private final String location;
+    private final String queue;
+    private final SessionPool sessions;
+    private final long minInterval;
+    private final long maxInterval;
+    private final int statusBatch;
+    private final long timeout;
+
+    //all guarded by this
+
+    //known jobs by id, in scheduler order
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+    private Listener listener = null;
+
+    //incremented on every start and stop, changes from an earlier session are not delivered
+    private int session = 0;
+
+    //a poll is running, and another one was asked for while it did
+    private boolean polling = false;
+    private boolean pollAgain = false;
+    private boolean fullAgain = false;
+
+    //scheduled polls with another generation are stale
+    private int generation = 0;
+
+    private long interval;
+
+    //position of the next batch of statuses to fetch, in the job list
+    private int cursor = 0;
+
+    //deadline of the poll in progress, if any
+    private Deadline deadline = null;
+
+    JobMonitor(String location, SessionPool sessions) {
+        this(location, sessions, DEFAULT_MIN_INTERVAL, DEFAULT_MAX_INTERVAL, DEFAULT_STATUS_BATCH, DEFAULT_TIMEOUT);
+    }
+
+    JobMonitor(String location, SessionPool sessions, long minInterval, long maxInterval, int statusBatch, long timeout) {
+        this.location = location;
+        this.sessions = sessions;
+        this.minInterval = minInterval;
+        this.maxInterval = Math.max(minInterval, maxInterval);
+        this.statusBatch = Math.max(1, statusBatch);
+        this.interval = minInterval;
+        this.timeout = timeout;
+
+        if (location.equals(SessionPool.LOCAL_LOCATION)) {
+            queue = "multiq";
+        } else {
+            queue = "all.q";
+        }
+    }
+
+    String getLocation() {
+        return location;
+    }
+
+    /**
+     * Returns the job with the given id, or null if it is not known (anymore).
+     */
+    synchronized Job getJob(String id) {
+        Entry entry = entries.get(id);
+        return entry == null ? null : entry.job;
+    }
+
+    /**
+     * Returns the name the scheduler gave the job with the given id, or null if it is not known.
+     */
+    synchronized String getJobName(String id) {
+        Entry entry = entries.get(id);
+        return entry == null ? null : entry.name;
+    }
+
+    /**
+     * Start polling, telling the given listener about changes. The listener first gets a snapshot of the jobs known so far
+     * (if any), then a full poll is done right away.
+     */
+    synchronized void start(Listener listener) {
+        this.listener = listener;
+        session++;
+        generation++;
+        interval = minInterval;
+
+        if (!entries.isEmpty()) {
+            List<String[]> rows = new ArrayList<String[]>(entries.size());
+            for (Entry entry : entries.values()) {
+                rows.add(entry.row);
+            }
+            deliver(new Delta(session, true, rows, Collections.<String[]> emptyList(), Collections.<String> emptyList()));
+        }
+        requestPoll(BackgroundExecutor.Priority.INTERACTIVE, true, 0);
+    }
+
+    /**
+     * Fetch the status of all jobs right away, instead of waiting for the next poll.
+     */
+    synchronized void refresh() {
+        if (listener == null) {
+            return;
+        }
+        generation++;
+        interval = minInterval;
+        requestPoll(BackgroundExecutor.Priority.INTERACTIVE, true, 0);
+    }
+
+    /**
+     * Stop polling and telling the listener. The jobs known so far are kept, so a later start can show them right away. A
+     * poll still in progress gets the given time (in milliseconds) to finish, before its scheduler is aborted.
+     */
+    synchronized void stop(long grace) {
+        listener = null;
+        session++;
+        generation++;
+        pollAgain = false;
+        fullAgain = false;
+
+        if (deadline != null) {
+            deadline.expireWithin(grace);
+        }
+    }
+
+    /**
+     * Run a poll of the current generation, or remember to do so once the poll in progress is done. Must hold the lock.
+     */
+    private void requestPoll(BackgroundExecutor.Priority priority, final boolean full, long delay) {
+        if (polling) {
+            pollAgain = true;
+            fullAgain |= full;
+            return;
+        }
+
+        final int scheduled = generation;
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                poll(scheduled, full);
+            }
+        };
+
+        if (delay > 0) {
+            BackgroundExecutor.get().schedule(priority, location, task, delay);
+        } else {
+            BackgroundExecutor.get().execute(priority, location, task);
+        }
+    }
+
+    private void poll(int scheduled, boolean full) {
+        synchronized (this) {
+            if (scheduled != generation || listener == null) {
+                //stale, or stopped
+                return;
+            }
+            if (polling) {
+                pollAgain = true;
+                fullAgain |= full;
+                return;
+            }
+            polling = true;
+        }
+
+        //cleared along with scheduling the next poll, or in the finally block below if something unexpected went wrong
+        boolean cleared = false;
+        try {
+            cleared = pollAndReschedule(full);
+        } finally {
+            if (!cleared) {
+                synchronized (this) {
+                    polling = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Poll, report the result and schedule the next poll. Returns true once polling is cleared again.
+     */
+    private boolean pollAndReschedule(boolean full) {
+        final long start = System.currentTimeMillis();
+        final int polled;
+        synchronized (this) {
+            polled = session;
+        }
+
+        //tells the listener right away, borrowing a session cannot be aborted (it gives up after the timeout by itself)
+        Deadline overdue = Deadline.start(timeout, new Runnable() {
+            @Override
+            public void run() {
+                synchronized (JobMonitor.this) {
+                    report(polled, System.currentTimeMillis() - start, new OctopusIOException("explorer", "polling jobs at "
+                            + location + " did not finish within " + timeout + " ms"));
+                }
+            }
+        });
+
+        Delta delta = null;
+        Exception error = null;
+        try {
+            delta = doPoll(full);
+        } catch (Exception e) {
+            logger.warn("Could not poll jobs at " + location, e);
+            error = e;
+        } finally {
+            overdue.done();
+        }
+
+        synchronized (this) {
+            polling = false;
+
+            if (listener == null) {
+                return true;
+            }
+            report(polled, System.currentTimeMillis() - start, error);
+
+            if (delta == null) {
+                interval = maxInterval;
+            } else if (delta.isEmpty()) {
+                interval = Math.min(maxInterval, interval * 2);
+            } else {
+                interval = minInterval;
+                deliver(delta);
+            }
+
+            if (pollAgain) {
+                boolean again = fullAgain;
+                pollAgain = false;
+                fullAgain = false;
+                requestPoll(BackgroundExecutor.Priority.INTERACTIVE, again, 0);
+            } else {
+                requestPoll(BackgroundExecutor.Priority.BACKGROUND, false, interval);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Poll the scheduler, and update the known jobs. Returns the jobs that changed.
+     */
+    private Delta doPoll(boolean full) throws Exception {
+        long start = System.currentTimeMillis();
+        Octopus octopus = sessions.getOctopus();
+        Scheduler scheduler = sessions.borrowScheduler(location, timeout);
+        Deadline current = sessions.startDeadline(location, scheduler, timeout);
+
+        synchronized (this) {
+            deadline = current;
+        }
+
+        Job[] jobs;
+        JobStatus[] statuses;
+        try {
+            jobs = octopus.jobs().getJobs(scheduler, queue);
+
+            Job[] wanted = select(jobs, full);
+            current.touch();
+
+            statuses = octopus.jobs().getJobStatuses(wanted);
+        } catch (Exception e) {
+            sessions.invalidateScheduler(location, scheduler);
+            if (current.isExpired()) {
+                throw current.timedOut("listing jobs at " + location, e);
+            }
+            throw e;
+        } finally {
+            current.done();
+            synchronized (this) {
+                deadline = null;
+            }
+        }
+        sessions.releaseScheduler(location, scheduler);
+
+        Delta result = update(jobs, statuses);
+
+        logger.debug("polled {} jobs at {}, {} statuses, {} added, {} changed, {} removed, took {} ms", jobs.length,
+                location, statuses.length, result.getAdded().size(), result.getChanged().size(), result.getRemoved().size(),
+                System.currentTimeMillis() - start);
+        return result;
+    }
+
+    /**
+     * Select the jobs to fetch the status of: all new jobs, and a batch of known jobs that are not done yet (or all of them
+     * if a full poll was asked for).
+     */
+    private synchronized Job[] select(Job[] jobs, boolean full) {
+        List<Job> result = new ArrayList<Job>();
+        int batch = 0;
+
+        if (jobs.length == 0) {
+            return new Job[0];
+        }
+        cursor = cursor % jobs.length;
+
+        for (int i = 0; i < jobs.length; i++) {
+            Job job = jobs[(cursor + i) % jobs.length];
+            Entry entry = entries.get(job.getIdentifier());
+
+            if (entry == null) {
+                result.add(job);
+            } else if (!entry.done && (full || batch < statusBatch)) {
+                result.add(job);
+                batch++;
+                if (!full && batch == statusBatch) {
+                    cursor = (cursor + i + 1) % jobs.length;
+                }
+            }
+        }
+        return result.toArray(new Job[result.size()]);
+    }
+
+    /**
+     * Update the known jobs with the result of a poll, and return what changed.
+     */
+    private synchronized Delta update(Job[] jobs, JobStatus[] statuses) {
+        List<String[]> added = new ArrayList<String[]>();
+        List<String[]> changed = new ArrayList<String[]>();
+        List<String> removed = new ArrayList<String>();
+
+        Set<String> present = new HashSet<String>(jobs.length * 2);
+        Map<String, Entry> fresh = new HashMap<String, Entry>();
+
+        for (Job job : jobs) {
+            String id = job.getIdentifier();
+            present.add(id);
+
+            if (!entries.containsKey(id) && !fresh.containsKey(id)) {
+                fresh.put(id, new Entry(job));
+            }
+        }
+
+        //jobs that left the queue
+        Iterator<Map.Entry<String, Entry>> known = entries.entrySet().iterator();
+        while (known.hasNext()) {
+            String id = known.next().getKey();
+            if (!present.contains(id)) {
+                known.remove();
+                removed.add(id);
+            }
+        }
+
+        for (JobStatus status : statuses) {
+            if (status == null) {
+                continue;
+            }
+            String id = status.getJob().getIdentifier();
+            Map<String, String> info = status.getSchedulerSpecficInformation();
+            String[] row = new String[] { id, status.getState(), info == null ? null : info.get("JB_owner"),
+                    info == null ? null : info.get("slots") };
+
+            Entry entry = fresh.get(id);
+            if (entry != null) {
+                entry.row = row;
+                entry.done = status.isDone();
+                entry.name = info == null ? null : info.get("JB_name");
+                continue;
+            }
+
+            entry = entries.get(id);
+            if (entry != null) {
+                entry.done = status.isDone();
+                if (info != null && info.get("JB_name") != null) {
+                    entry.name = info.get("JB_name");
+                }
+                if (!Arrays.equals(entry.row, row)) {
+                    entry.row = row;
+                    changed.add(row);
+                }
+            }
+        }
+
+        //new jobs, in scheduler order, once their status is known
+        for (Job job : jobs) {
+            Entry entry = fresh.remove(job.getIdentifier());
+            if (entry != null && entry.row != null) {
+                entries.put(job.getIdentifier(), entry);
+                added.add(entry.row);
+            }
+        }
+
+        //a session started after this point gets these changes in its snapshot
+        return new Delta(session, false, added, changed, removed);
+    }
+
+    /**
+     * Tell the listener about a poll on the event dispatch thread, unless the monitor was stopped or restarted by then. Must
+     * hold the lock.
+     */
+    private void report(final int polled, final long latency, final Exception error) {
+        final Listener target = listener;
+        if (polled != session || target == null) {
+            return;
+        }
+
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (JobMonitor.this) {
+                    if (polled != session) {
+                        return;
+                    }
+                }
+                target.polled(JobMonitor.this, latency, error);
+            }
+        });
+    }
+
+    /**
+     * Hand the given changes to the listener on the event dispatch thread, unless they are from an earlier session, or the
+     * monitor was stopped or restarted by then. Must hold the lock.
+     */
+    private void deliver(final Delta delta) {
+        if (delta.session != session) {
+            return;
+        }
+        final Listener target = listener;
+
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (JobMonitor.this) {
+                    if (delta.session != session) {
+                        return;
+                    }
+                }
+                target.jobsChanged(JobMonitor.this, delta);
+            }
+        });
+    }
+}
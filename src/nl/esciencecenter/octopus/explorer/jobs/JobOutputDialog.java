@@ -0,0 +1,165 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer.jobs;
+
+import java.awt.BorderLayout;
+import java.awt.Font;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+
+import javax.swing.JCheckBox;
+import javax.swing.JDialog;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTabbedPane;
+import javax.swing.JTextArea;
+import javax.swing.Timer;
+import javax.swing.border.EmptyBorder;
+import javax.swing.text.DefaultCaret;
+
+/**
+ * Shows the stdout and stderr of a job as it is produced, as followed by a {@link JobOutputTail}. New output is taken from
+ * the tail once per frame, and appended to the view with a single edit, up to a fixed number of characters per frame. The
+ * text shown is capped at the capacity of the buffers, dropping the oldest output first.
+ */
+class JobOutputDialog extends JDialog {
+
+    private static final long serialVersionUID = 1L;
+
+    //a frame at 60 fps
+    private static final int FRAME_MILLIS = 16;
+
+    //most characters appended to a view in a single frame
+    private static final int MAX_CHARS_PER_FRAME = 64 * 1024;
+
+    /**
+     * Text area showing a single output buffer.
+     */
+    private final class View {
+        private final OutputBuffer buffer;
+        private final JTextArea area = new JTextArea();
+
+        //position in the buffer shown up to
+        private long position = 0;
+
+        View(OutputBuffer buffer) {
+            this.buffer = buffer;
+            area.setEditable(false);
+            area.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+            //we scroll ourselves, only when following
+            ((DefaultCaret) area.getCaret()).setUpdatePolicy(DefaultCaret.NEVER_UPDATE);
+        }
+
+        void update() {
+            long start = buffer.getStart();
+            StringBuilder text = new StringBuilder();
+
+            if (position < start) {
+                text.append("\n[").append(start - position).append(" characters dropped]\n");
+                position = start;
+            }
+
+            String added = buffer.read(position, MAX_CHARS_PER_FRAME);
+            position += added.length();
+            text.append(added);
+
+            if (text.length() == 0) {
+                return;
+            }
+
+            area.append(text.toString());
+
+            int excess = area.getDocument().getLength() - buffer.getCapacity();
+            if (excess > 0) {
+                area.replaceRange(null, 0, excess);
+            }
+
+            if (follow.isSelected()) {
+                area.setCaretPosition(area.getDocument().getLength());
+            }
+        }
+    }
+
+    private final JobOutputTail tail;
+    private final View stdout;
+    private final View stderr;
+    private final JLabel status = new JLabel();
+    private final JCheckBox follow = new JCheckBox("Follow", true);
+    private final Timer timer;
+
+    /**
+     * @param onClosed
+     *            run on the event dispatch thread once the dialog is closed, and no longer looking at the output.
+     */
+    JobOutputDialog(JFrame parent, JobOutputTail tail, final Runnable onClosed) {
+        super(parent, "Output of job " + tail.getJob().getIdentifier() + " at " + tail.getLocation(), false);
+        this.tail = tail;
+
+        stdout = new View(tail.getStdout());
+        stderr = new View(tail.getStderr());
+
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+        setBounds(150, 150, 800, 500);
+
+        JTabbedPane tabs = new JTabbedPane();
+        tabs.addTab("stdout", new JScrollPane(stdout.area));
+        tabs.addTab("stderr", new JScrollPane(stderr.area));
+        getContentPane().add(tabs, BorderLayout.CENTER);
+
+        JPanel bottom = new JPanel(new BorderLayout(5, 0));
+        bottom.setBorder(new EmptyBorder(2, 5, 2, 5));
+        bottom.add(status, BorderLayout.CENTER);
+        bottom.add(follow, BorderLayout.EAST);
+        getContentPane().add(bottom, BorderLayout.SOUTH);
+
+        timer = new Timer(FRAME_MILLIS, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                update();
+            }
+        });
+        timer.setCoalesce(true);
+
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowOpened(WindowEvent e) {
+                JobOutputDialog.this.tail.open();
+                timer.start();
+            }
+
+            @Override
+            public void windowClosed(WindowEvent e) {
+                timer.stop();
+                JobOutputDialog.this.tail.close();
+                onClosed.run();
+            }
+        });
+    }
+
+    private void update() {
+        stdout.update();
+        stderr.update();
+
+        String text = tail.getStatus();
+        if (!text.equals(status.getText())) {
+            status.setText(text);
+        }
+    }
+}
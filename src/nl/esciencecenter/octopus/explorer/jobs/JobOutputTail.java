@@ -0,0 +1,413 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer.jobs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import nl.esciencecenter.octopus.Octopus;
+import nl.esciencecenter.octopus.explorer.BackgroundExecutor;
+import nl.esciencecenter.octopus.explorer.Deadline;
+import nl.esciencecenter.octopus.explorer.SessionPool;
+import nl.esciencecenter.octopus.files.AbsolutePath;
+import nl.esciencecenter.octopus.files.FileSystem;
+import nl.esciencecenter.octopus.files.RelativePath;
+import nl.esciencecenter.octopus.jobs.Job;
+import nl.esciencecenter.octopus.jobs.JobDescription;
+import nl.esciencecenter.octopus.jobs.Streams;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Follows the stdout and stderr of a single job, into a bounded {@link OutputBuffer} each.
+ * 
+ * The output of an interactive job is read from its Octopus {@link Streams}, by a thread per stream. These keep reading until
+ * the job closes them, even if no one is looking, so the job never blocks on a full pipe. Such streams can only be had once,
+ * so a tail of an interactive job should be kept for as long as the job is shown.
+ * 
+ * The output files of a batch job are polled while the output is shown. Every poll only reads what was added to a file since
+ * the last one, starting at the offset read up to. If more was added than fits in the buffer, only the last part is read. The
+ * files are taken from the job description, or else from the default names grid engine uses
+ * (<code>name.o&lt;id&gt;</code> and <code>name.e&lt;id&gt;</code>). Octopus has no positional reads, so the offset is
+ * reached by skipping the start of the stream.
+ */
+class JobOutputTail {
+
+    private static final Logger logger = LoggerFactory.getLogger(JobOutputTail.class);
+
+    //time between two polls of the output files of a batch job (in milliseconds)
+    static final long DEFAULT_POLL_INTERVAL = Long.getLong("octopus.explorer.output.poll.interval", 2000);
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * An output file of a batch job, and how far it was read.
+     */
+    private static final class OutputFile {
+        private final String name;
+        private final OutputBuffer target;
+
+        //resolved on the first poll, relative to the root. An absolute path belongs to a single session, so it is made
+        //again on every poll, with the session borrowed for that poll
+        private RelativePath path = null;
+
+        private long offset = 0;
+
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        //bytes of a character split over two reads are kept here
+        private final ByteBuffer bytes = ByteBuffer.allocate(CHUNK_SIZE + 16);
+        private final CharBuffer chars = CharBuffer.allocate(CHUNK_SIZE + 16);
+
+        OutputFile(String name, OutputBuffer target) {
+            this.name = name;
+            this.target = target;
+        }
+
+        /**
+         * Reads whatever was added since the last read.
+         */
+        void read(Octopus octopus, FileSystem fileSystem, Deadline deadline) throws Exception {
+            AbsolutePath path = octopus.files().newPath(fileSystem, this.path);
+
+            if (!octopus.files().exists(path)) {
+                //not created yet
+                return;
+            }
+
+            long size = octopus.files().getAttributes(path).size();
+
+            if (size < offset) {
+                target.append("\n[output file was truncated]\n");
+                offset = 0;
+                decoder.reset();
+                bytes.clear();
+            }
+            if (size - offset > target.getCapacity()) {
+                long skipped = size - target.getCapacity() - offset;
+                target.append("\n[skipped " + skipped + " bytes]\n");
+                offset += skipped;
+                decoder.reset();
+                bytes.clear();
+            }
+            if (size == offset) {
+                return;
+            }
+
+            InputStream in = octopus.files().newInputStream(path);
+            try {
+                long skip = offset;
+                while (skip > 0) {
+                    long skipped = in.skip(skip);
+                    if (skipped <= 0) {
+                        throw new IOException("could not skip to offset " + offset + " in " + path);
+                    }
+                    skip -= skipped;
+                }
+
+                byte[] chunk = new byte[CHUNK_SIZE];
+                long remaining = size - offset;
+                while (remaining > 0) {
+                    int read = in.read(chunk, 0, (int) Math.min(chunk.length, remaining));
+                    if (read == -1) {
+                        break;
+                    }
+                    decode(chunk, read);
+                    offset += read;
+                    remaining -= read;
+                    deadline.touch();
+                }
+            } finally {
+                in.close();
+            }
+        }
+
+        private void decode(byte[] chunk, int length) {
+            bytes.put(chunk, 0, length);
+            bytes.flip();
+            chars.clear();
+            decoder.decode(bytes, chars, false);
+            chars.flip();
+            target.append(chars.array(), 0, chars.limit());
+            bytes.compact();
+        }
+    }
+
+    private final String location;
+    private final Job job;
+    private final String jobName;
+    private final SessionPool sessions;
+    private final long pollInterval;
+
+    private final OutputBuffer stdout = new OutputBuffer();
+    private final OutputBuffer stderr = new OutputBuffer();
+
+    private volatile String status = "Waiting for output";
+
+    //all guarded by this
+    private int views = 0;
+    private boolean polling = false;
+    private boolean readersStarted = false;
+    private boolean shutdown = false;
+
+    //batch jobs only, set on the first poll
+    private OutputFile[] files = null;
+
+    JobOutputTail(String location, Job job, String jobName, SessionPool sessions) {
+        this(location, job, jobName, sessions, DEFAULT_POLL_INTERVAL);
+    }
+
+    JobOutputTail(String location, Job job, String jobName, SessionPool sessions, long pollInterval) {
+        this.location = location;
+        this.job = job;
+        this.jobName = jobName;
+        this.sessions = sessions;
+        this.pollInterval = pollInterval;
+    }
+
+    String getLocation() {
+        return location;
+    }
+
+    Job getJob() {
+        return job;
+    }
+
+    OutputBuffer getStdout() {
+        return stdout;
+    }
+
+    OutputBuffer getStderr() {
+        return stderr;
+    }
+
+    /**
+     * Describes what is being followed, or what went wrong.
+     */
+    String getStatus() {
+        return status;
+    }
+
+    /**
+     * Someone started looking at the output. Starts following it, if not done already.
+     */
+    synchronized void open() {
+        if (shutdown) {
+            return;
+        }
+        views++;
+
+        if (job.isInteractive()) {
+            if (!readersStarted) {
+                readersStarted = true;
+                startReaders();
+            }
+        } else if (!polling) {
+            polling = true;
+            BackgroundExecutor.get().execute(BackgroundExecutor.Priority.INTERACTIVE, location, new Runnable() {
+                @Override
+                public void run() {
+                    poll();
+                }
+            });
+        }
+    }
+
+    /**
+     * Someone stopped looking at the output. Output files are no longer polled once no one is.
+     */
+    synchronized void close() {
+        views = Math.max(0, views - 1);
+    }
+
+    /**
+     * Returns true if anyone is looking at the output.
+     */
+    synchronized boolean isViewed() {
+        return views > 0;
+    }
+
+    /**
+     * Stop following the output for good. Streams of interactive jobs are still read until the job closes them.
+     */
+    synchronized void shutdown() {
+        shutdown = true;
+        views = 0;
+        if (!job.isInteractive()) {
+            status = "No longer following the output";
+        }
+    }
+
+    private void startReaders() {
+        Streams streams;
+        try {
+            streams = sessions.getOctopus().jobs().getStreams(job);
+        } catch (Exception e) {
+            logger.warn("Could not get streams of job " + job.getIdentifier(), e);
+            status = "Could not get output of job " + job.getIdentifier() + ": " + e.getMessage();
+            return;
+        }
+
+        status = "Following the output of interactive job " + job.getIdentifier();
+        startReader(streams.getStdout(), stdout, "stdout");
+        startReader(streams.getStderr(), stderr, "stderr");
+    }
+
+    private void startReader(final InputStream in, final OutputBuffer target, final String name) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                char[] chunk = new char[8192];
+                try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+                    int read;
+                    while ((read = reader.read(chunk)) != -1) {
+                        target.append(chunk, 0, read);
+                    }
+                } catch (IOException e) {
+                    logger.debug("Could not read " + name + " of job " + job.getIdentifier(), e);
+                    target.append("\n[could not read " + name + ": " + e.getMessage() + "]\n");
+                }
+            }
+        }, "job output reader " + job.getIdentifier() + " " + name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void poll() {
+        synchronized (this) {
+            if (views == 0 || shutdown) {
+                polling = false;
+                return;
+            }
+        }
+
+        try {
+            if (readFiles()) {
+                status = "Following " + describeFiles();
+            } else {
+                synchronized (this) {
+                    polling = false;
+                }
+                return;
+            }
+        } catch (Exception e) {
+            logger.debug("Could not read output of job " + job.getIdentifier() + " at " + location, e);
+            status = "Could not read output: " + e.getMessage();
+        }
+
+        BackgroundExecutor.get().schedule(BackgroundExecutor.Priority.BACKGROUND, location, new Runnable() {
+            @Override
+            public void run() {
+                poll();
+            }
+        }, pollInterval);
+    }
+
+    private String describeFiles() {
+        StringBuilder result = new StringBuilder();
+        for (OutputFile file : files) {
+            if (result.length() > 0) {
+                result.append(" and ");
+            }
+            result.append(file.path.getPath());
+        }
+        return result.toString();
+    }
+
+    /**
+     * Reads what was added to the output files. Returns false if the output files of the job are not known.
+     */
+    private boolean readFiles() throws Exception {
+        Octopus octopus = sessions.getOctopus();
+        FileSystem fileSystem = sessions.borrowFileSystem(location);
+        Deadline deadline = sessions.startDeadline(location, fileSystem);
+
+        try {
+            if (files == null) {
+                files = resolve(fileSystem);
+            }
+            for (OutputFile file : files) {
+                file.read(octopus, fileSystem, deadline);
+            }
+        } catch (Exception e) {
+            sessions.invalidateFileSystem(location, fileSystem);
+            if (deadline.isExpired()) {
+                throw deadline.timedOut("reading output of job " + job.getIdentifier() + " at " + location, e);
+            }
+            throw e;
+        } finally {
+            deadline.done();
+        }
+        sessions.releaseFileSystem(location, fileSystem);
+
+        if (files.length == 0) {
+            status = "The output files of job " + job.getIdentifier() + " are not known";
+            return false;
+        }
+        return true;
+    }
+
+    private OutputFile[] resolve(FileSystem fileSystem) {
+        JobDescription description = job.getJobDescription();
+
+        String out = description == null ? null : description.getStdout();
+        String err = description == null ? null : description.getStderr();
+        String workingDirectory = description == null ? null : description.getWorkingDirectory();
+
+        if (out == null && jobName != null) {
+            out = jobName + ".o" + job.getIdentifier();
+        }
+        if (err == null && jobName != null) {
+            err = jobName + ".e" + job.getIdentifier();
+        }
+
+        RelativePath base = fileSystem.getEntryPath().getRelativePath();
+        if (workingDirectory != null) {
+            base = resolve(base, workingDirectory);
+        }
+
+        List<OutputFile> result = new ArrayList<OutputFile>();
+        if (out != null && !out.equals("/dev/null")) {
+            result.add(new OutputFile(out, stdout));
+        }
+        if (err != null && !err.equals("/dev/null")) {
+            result.add(new OutputFile(err, stderr));
+        }
+
+        for (OutputFile file : result) {
+            file.path = resolve(base, file.name);
+        }
+        return result.toArray(new OutputFile[result.size()]);
+    }
+
+    private static RelativePath resolve(RelativePath base, String path) {
+        if (path.startsWith("/")) {
+            return new RelativePath(path);
+        }
+        return base.resolve(new RelativePath(path));
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer.jobs;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * State of a job, independent of the scheduler it runs on. States are declared in the order of a job's life, so sorting by
+ * ordinal puts waiting jobs first and finished jobs last.
+ */
+enum JobState {
+    PENDING, RUNNING, SUSPENDED, DONE, KILLED, FAILED, UNKNOWN;
+
+    private static final JobState[] VALUES = values();
+
+    //full state names, as used by the local and slurm adaptors, in lower case
+    private static final Map<String, JobState> NAMES = new HashMap<String, JobState>();
+
+    static {
+        NAMES.put("pending", PENDING);
+        NAMES.put("configuring", PENDING);
+        NAMES.put("running", RUNNING);
+        NAMES.put("completing", RUNNING);
+        NAMES.put("suspended", SUSPENDED);
+        NAMES.put("done", DONE);
+        NAMES.put("completed", DONE);
+        NAMES.put("killed", KILLED);
+        NAMES.put("cancelled", KILLED);
+        NAMES.put("preempted", KILLED);
+        NAMES.put("failed", FAILED);
+        NAMES.put("error", FAILED);
+        NAMES.put("timeout", FAILED);
+        NAMES.put("node_fail", FAILED);
+    }
+
+    static JobState get(int ordinal) {
+        return VALUES[ordinal];
+    }
+
+    /**
+     * Returns the state described by the given text, as returned by a scheduler. Understands full state names, and the state
+     * codes of grid engine (such as "qw" or "Eqw"). Returns {@link #UNKNOWN} for anything else.
+     */
+    static JobState fromText(String text) {
+        if (text == null) {
+            return UNKNOWN;
+        }
+
+        JobState result = NAMES.get(text.trim().toLowerCase(Locale.ROOT));
+        if (result != null) {
+            return result;
+        }
+        return fromCode(text.trim());
+    }
+
+    /**
+     * Grid engine state codes are a few letters, each a flag. The most telling flag wins.
+     */
+    private static JobState fromCode(String code) {
+        if (code.isEmpty() || code.length() > 5) {
+            return UNKNOWN;
+        }
+        for (int i = 0; i < code.length(); i++) {
+            if ("EdhqrRsStTw".indexOf(code.charAt(i)) == -1) {
+                return UNKNOWN;
+            }
+        }
+
+        if (code.indexOf('E') != -1) {
+            return FAILED;
+        }
+        if (code.indexOf('d') != -1) {
+            return KILLED;
+        }
+        if (code.indexOf('s') != -1 || code.indexOf('S') != -1 || code.indexOf('T') != -1) {
+            return SUSPENDED;
+        }
+        if (code.indexOf('r') != -1 || code.indexOf('t') != -1) {
+            return RUNNING;
+        }
+        return PENDING;
+    }
+}
@@ -0,0 +1,421 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer.jobs;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.table.AbstractTableModel;
+
+import nl.esciencecenter.octopus.explorer.SortKeys;
+import nl.esciencecenter.octopus.explorer.SortableTableModel;
+
+/**
+ * Table model for the job list, keyed by location and job id, so jobs of several locations can be shown together. Rows are
+ * kept in parallel arrays, with a map from location and job id to row. Updating or removing a single job is a map lookup, and
+ * fires an event for that one row only: a removed row is replaced by the last row, instead of moving all rows after it.
+ *
+ * The state is shown as the scheduler reported it, so scheduler specific states stay visible. Next to it the ordinal of its
+ * {@link JobState} is kept, which is only used for sorting. Likewise the job id and slots are kept as numbers as well, parsed
+ * once when a row is set, so sorting never parses text.
+ *
+ * Changes found by a {@link JobMonitor} are applied with {@link #apply(JobMonitor.Delta)}. Columns holding only numbers (such
+ * as the job id and slots) are sorted numerically, states in the order of a job's life, all other columns as text, ignoring
+ * case.
+ */
+class JobTableModel extends AbstractTableModel implements SortableTableModel {
+
+    private static final long serialVersionUID = 1L;
+
+    static final String[] COLUMN_NAMES = new String[] { "Job ID", "State", "Owner", "Slots", "Location" };
+
+    static final int ID_COLUMN = 0;
+    static final int STATE_COLUMN = 1;
+    static final int OWNER_COLUMN = 2;
+    static final int SLOTS_COLUMN = 3;
+    static final int LOCATION_COLUMN = 4;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    //numeric value of a job id or slots that is not a number
+    private static final long NOT_A_NUMBER = Long.MIN_VALUE;
+
+    private String[] ids = new String[INITIAL_CAPACITY];
+    private String[] stateTexts = new String[INITIAL_CAPACITY];
+    private byte[] states = new byte[INITIAL_CAPACITY];
+    private String[] owners = new String[INITIAL_CAPACITY];
+    private String[] slots = new String[INITIAL_CAPACITY];
+    private String[] locations = new String[INITIAL_CAPACITY];
+
+    //job ids and slots as numbers, only used for sorting, with the number of rows for which they are not a number
+    private long[] idNumbers = new long[INITIAL_CAPACITY];
+    private long[] slotNumbers = new long[INITIAL_CAPACITY];
+    private int idsNotNumbers = 0;
+    private int slotsNotNumbers = 0;
+
+    //text of each row to filter on, built when first asked for, cleared when the row changes
+    private String[] filterTexts = new String[INITIAL_CAPACITY];
+
+    private int size = 0;
+
+    //row of every job, by key
+    private final Map<String, Integer> rows = new HashMap<String, Integer>();
+
+    @Override
+    public int getRowCount() {
+        return size;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return String.class;
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        return false;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        switch (column) {
+        case ID_COLUMN:
+            return ids[row];
+        case STATE_COLUMN:
+            return stateTexts[row];
+        case OWNER_COLUMN:
+            return owners[row];
+        case SLOTS_COLUMN:
+            return slots[row];
+        case LOCATION_COLUMN:
+            return locations[row];
+        default:
+            throw new IndexOutOfBoundsException("no column " + column);
+        }
+    }
+
+    String getJobId(int row) {
+        return ids[row];
+    }
+
+    String getLocation(int row) {
+        return locations[row];
+    }
+
+    private static String key(String location, String id) {
+        return location + '\n' + id;
+    }
+
+    JobState getState(int row) {
+        return JobState.get(states[row]);
+    }
+
+    /**
+     * Returns the row of the job with the given id at the given location, or -1 if it is not in this model.
+     */
+    int indexOf(String location, String id) {
+        Integer row = rows.get(key(location, id));
+        return row == null ? -1 : row;
+    }
+
+    @Override
+    public boolean isSortable(int column) {
+        return true;
+    }
+
+    @Override
+    public SortKeys getSortKeys(int column) {
+        if (column == STATE_COLUMN) {
+            long[] ordinals = new long[size];
+            for (int row = 0; row < size; row++) {
+                ordinals[row] = states[row];
+            }
+            return SortKeys.forNumbers(ordinals);
+        }
+
+        if (column == ID_COLUMN && idsNotNumbers == 0) {
+            return SortKeys.forNumbers(Arrays.copyOf(idNumbers, size));
+        }
+
+        if (column == SLOTS_COLUMN && slotsNotNumbers == 0) {
+            return SortKeys.forNumbers(Arrays.copyOf(slotNumbers, size));
+        }
+
+        String[] texts = new String[size];
+        for (int row = 0; row < size; row++) {
+            texts[row] = (String) getValueAt(row, column);
+        }
+        return SortKeys.forText(texts);
+    }
+
+    private static long toNumber(String text) {
+        if (text == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(text.trim());
+        } catch (NumberFormatException e) {
+            return NOT_A_NUMBER;
+        }
+    }
+
+    @Override
+    public String getFilterText(int row) {
+        if (filterTexts[row] == null) {
+            StringBuilder result = new StringBuilder();
+            for (int column = 0; column < COLUMN_NAMES.length; column++) {
+                Object cell = getValueAt(row, column);
+                if (cell != null) {
+                    result.append(cell).append(' ');
+                }
+            }
+            filterTexts[row] = result.toString();
+        }
+        return filterTexts[row];
+    }
+
+    /**
+     * Applies the changes of a single poll of the given location. A snapshot replaces all rows of that location.
+     */
+    void apply(String location, JobMonitor.Delta delta) {
+        if (delta.isSnapshot()) {
+            removeLocation(location);
+        }
+
+        for (String id : delta.getRemoved()) {
+            remove(location, id);
+        }
+
+        for (String[] row : delta.getChanged()) {
+            update(location, row);
+        }
+
+        add(location, delta.getAdded());
+    }
+
+    void clear() {
+        int count = size;
+        if (count == 0) {
+            return;
+        }
+
+        clearRows(0, size);
+        size = 0;
+        idsNotNumbers = 0;
+        slotsNotNumbers = 0;
+        rows.clear();
+        fireTableRowsDeleted(0, count - 1);
+    }
+
+    /**
+     * Removes all rows of the given location, keeping the order of the others. Fires a single event, as this is done rarely.
+     */
+    void removeLocation(String location) {
+        int kept = 0;
+
+        for (int row = 0; row < size; row++) {
+            if (location.equals(locations[row])) {
+                rows.remove(key(locations[row], ids[row]));
+                forgetNumbers(row);
+                continue;
+            }
+            if (kept != row) {
+                move(row, kept);
+                rows.put(key(locations[kept], ids[kept]), kept);
+            }
+            kept++;
+        }
+
+        if (kept == size) {
+            return;
+        }
+        clearRows(kept, size);
+        size = kept;
+        fireTableDataChanged();
+    }
+
+    /**
+     * Adds the given rows (id, state, owner and slots) of the given location at the end, firing a single event. Rows of jobs
+     * already in this model are updated instead.
+     */
+    void add(String location, List<String[]> added) {
+        int first = size;
+
+        for (String[] row : added) {
+            String key = key(location, row[ID_COLUMN]);
+            if (rows.containsKey(key)) {
+                update(location, row);
+                continue;
+            }
+            ensureCapacity(size + 1);
+            rows.put(key, size);
+            ids[size] = row[ID_COLUMN];
+            idNumbers[size] = toNumber(row[ID_COLUMN]);
+            if (idNumbers[size] == NOT_A_NUMBER) {
+                idsNotNumbers++;
+            }
+            locations[size] = location;
+            stateTexts[size] = row[STATE_COLUMN];
+            states[size] = (byte) JobState.fromText(row[STATE_COLUMN]).ordinal();
+            owners[size] = row[OWNER_COLUMN];
+            setSlots(size, row[SLOTS_COLUMN]);
+            filterTexts[size] = null;
+            size++;
+        }
+
+        if (size > first) {
+            fireTableRowsInserted(first, size - 1);
+        }
+    }
+
+    /**
+     * Updates the row of the job at the given location with the same id as the given row, firing an event for that row only if
+     * anything changed. Returns false if the job is not in this model.
+     */
+    boolean update(String location, String[] row) {
+        int index = indexOf(location, row[ID_COLUMN]);
+        if (index == -1) {
+            return false;
+        }
+
+        if (set(index, row)) {
+            fireTableRowsUpdated(index, index);
+        }
+        return true;
+    }
+
+    /**
+     * Removes the job with the given id at the given location by moving the last row into its place. Returns false if the job
+     * is not in this model.
+     */
+    boolean remove(String location, String id) {
+        Integer index = rows.remove(key(location, id));
+        if (index == null) {
+            return false;
+        }
+
+        int last = size - 1;
+        forgetNumbers(index);
+        if (index != last) {
+            move(last, index);
+            rows.put(key(locations[index], ids[index]), index);
+        }
+        clearRows(last, last + 1);
+        size--;
+
+        fireTableRowsDeleted(last, last);
+        if (index != last) {
+            fireTableRowsUpdated(index, index);
+        }
+        return true;
+    }
+
+    private void move(int from, int to) {
+        ids[to] = ids[from];
+        stateTexts[to] = stateTexts[from];
+        states[to] = states[from];
+        owners[to] = owners[from];
+        slots[to] = slots[from];
+        locations[to] = locations[from];
+        filterTexts[to] = filterTexts[from];
+        idNumbers[to] = idNumbers[from];
+        slotNumbers[to] = slotNumbers[from];
+    }
+
+    /**
+     * Drops the numbers of the given row, which is about to be removed or overwritten, from the counts of rows that are not
+     * numbers.
+     */
+    private void forgetNumbers(int row) {
+        if (idNumbers[row] == NOT_A_NUMBER) {
+            idsNotNumbers--;
+        }
+        if (slotNumbers[row] == NOT_A_NUMBER) {
+            slotsNotNumbers--;
+        }
+    }
+
+    /**
+     * Drops the references held by the given rows, which are no longer in use.
+     */
+    private void clearRows(int from, int to) {
+        Arrays.fill(ids, from, to, null);
+        Arrays.fill(stateTexts, from, to, null);
+        Arrays.fill(owners, from, to, null);
+        Arrays.fill(slots, from, to, null);
+        Arrays.fill(locations, from, to, null);
+        Arrays.fill(filterTexts, from, to, null);
+    }
+
+    /**
+     * Sets all but the id and location of the given row. Returns true if anything changed.
+     */
+    private boolean set(int index, String[] row) {
+        if (equals(stateTexts[index], row[STATE_COLUMN]) && equals(owners[index], row[OWNER_COLUMN])
+                && equals(slots[index], row[SLOTS_COLUMN])) {
+            return false;
+        }
+
+        stateTexts[index] = row[STATE_COLUMN];
+        states[index] = (byte) JobState.fromText(row[STATE_COLUMN]).ordinal();
+        owners[index] = row[OWNER_COLUMN];
+        if (slotNumbers[index] == NOT_A_NUMBER) {
+            slotsNotNumbers--;
+        }
+        setSlots(index, row[SLOTS_COLUMN]);
+        filterTexts[index] = null;
+        return true;
+    }
+
+    private void setSlots(int index, String text) {
+        slots[index] = text;
+        slotNumbers[index] = toNumber(text);
+        if (slotNumbers[index] == NOT_A_NUMBER) {
+            slotsNotNumbers++;
+        }
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > ids.length) {
+            int length = Math.max(capacity, ids.length * 2);
+            ids = Arrays.copyOf(ids, length);
+            stateTexts = Arrays.copyOf(stateTexts, length);
+            states = Arrays.copyOf(states, length);
+            owners = Arrays.copyOf(owners, length);
+            slots = Arrays.copyOf(slots, length);
+            locations = Arrays.copyOf(locations, length);
+            filterTexts = Arrays.copyOf(filterTexts, length);
+            idNumbers = Arrays.copyOf(idNumbers, length);
+            slotNumbers = Arrays.copyOf(slotNumbers, length);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer.jobs;
+
+/**
+ * Bounded ring buffer holding the latest output of a job. Characters are numbered in the order they were appended, from 0
+ * onwards. Once full, the oldest characters are overwritten, so a job producing a lot of output takes no more memory than the
+ * capacity of the buffer. Readers keep track of the position they read up to, and are told when they fell behind so far that
+ * output was overwritten before they read it.
+ *
+ * Thread safe.
+ */
+class OutputBuffer {
+
+    //default capacity (in characters) of each buffer
+    static final int DEFAULT_CAPACITY = Integer.getInteger("octopus.explorer.output.buffer", 1024 * 1024);
+
+    private final char[] buffer;
+
+    //number of characters ever appended, the position of the next character
+    private long end = 0;
+
+    OutputBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    OutputBuffer(int capacity) {
+        buffer = new char[Math.max(1, capacity)];
+    }
+
+    int getCapacity() {
+        return buffer.length;
+    }
+
+    /**
+     * Position after the last character appended.
+     */
+    synchronized long getEnd() {
+        return end;
+    }
+
+    /**
+     * Position of the oldest character still in this buffer.
+     */
+    synchronized long getStart() {
+        return Math.max(0, end - buffer.length);
+    }
+
+    synchronized void append(CharSequence text) {
+        int length = text.length();
+        int from = 0;
+
+        if (length > buffer.length) {
+            //only the tail survives anyway
+            from = length - buffer.length;
+            end += from;
+        }
+
+        for (int i = from; i < length; i++) {
+            buffer[(int) (end++ % buffer.length)] = text.charAt(i);
+        }
+    }
+
+    synchronized void append(char[] text, int offset, int length) {
+        if (length > buffer.length) {
+            offset += length - buffer.length;
+            end += length - buffer.length;
+            length = buffer.length;
+        }
+
+        while (length > 0) {
+            int index = (int) (end % buffer.length);
+            int count = Math.min(length, buffer.length - index);
+            System.arraycopy(text, offset, buffer, index, count);
+            offset += count;
+            length -= count;
+            end += count;
+        }
+    }
+
+    /**
+     * Returns at most the given number of characters starting at the given position, or at the oldest character still in
+     * this buffer if the position was overwritten already. The position of the first character returned is
+     * {@link #getStart()} or the given position, whichever is larger.
+     */
+    synchronized String read(long position, int max) {
+        long from = Math.max(position, getStart());
+        int length = (int) Math.min(max, end - from);
+
+        if (length <= 0) {
+            return "";
+        }
+
+        char[] result = new char[length];
+        int index = (int) (from % buffer.length);
+        int first = Math.min(length, buffer.length - index);
+        System.arraycopy(buffer, index, result, 0, first);
+        System.arraycopy(buffer, 0, result, first, length - first);
+        return new String(result);
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer.jobs;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A text with parameters to sweep, written as in a shell: <code>{a,b,c}</code> is replaced by each of the values in turn, and
+ * <code>{1..100}</code> or <code>{0..100..10}</code> by each number in the range. A range where either end has a leading zero
+ * is zero padded to the same width. Every combination of values is a separate expansion, the last parameter changes fastest.
+ * 
+ * Braces without a comma or range in them, in quotes, or escaped with a backslash are left as they are. Quotes and escapes are
+ * kept, so the expansion can be split into arguments with {@link JobArguments} afterwards.
+ * 
+ * Expansions are not stored, but generated by index, so a sweep over millions of combinations takes no more memory than one
+ * over a few.
+ */
+final class ParameterSweep {
+
+    /**
+     * Values of a single parameter.
+     */
+    private interface Values {
+        long size();
+
+        String get(long index);
+    }
+
+    private static final class ListValues implements Values {
+        private final String[] values;
+
+        ListValues(String[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public long size() {
+            return values.length;
+        }
+
+        @Override
+        public String get(long index) {
+            return values[(int) index];
+        }
+    }
+
+    private static final class RangeValues implements Values {
+        private final long first;
+        private final long step;
+        private final long size;
+        private final int width;
+
+        RangeValues(long first, long last, long step, int width) {
+            this.first = first;
+            this.step = first <= last ? Math.abs(step) : -Math.abs(step);
+            this.size = Math.abs(last - first) / Math.abs(step) + 1;
+            this.width = width;
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public String get(long index) {
+            long value = first + index * step;
+            String result = Long.toString(Math.abs(value));
+
+            StringBuilder padded = new StringBuilder();
+            if (value < 0) {
+                padded.append('-');
+            }
+            for (int i = result.length() + padded.length(); i < width; i++) {
+                padded.append('0');
+            }
+            return padded.append(result).toString();
+        }
+    }
+
+    //literal text around the parameters, one more than there are parameters
+    private final List<String> literals = new ArrayList<String>();
+    private final List<Values> parameters = new ArrayList<Values>();
+    private final long size;
+
+    /**
+     * Parses the given text.
+     * 
+     * @throws IllegalArgumentException
+     *             if a range is invalid.
+     */
+    ParameterSweep(String text) {
+        StringBuilder literal = new StringBuilder();
+        char quote = 0;
+        int i = 0;
+
+        while (i < text.length()) {
+            char c = text.charAt(i);
+
+            if (c == '\\' && quote != '\'' && i + 1 < text.length()) {
+                literal.append(c).append(text.charAt(i + 1));
+                i += 2;
+                continue;
+            }
+
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == '{') {
+                int end = closingBrace(text, i);
+                Values values = end == -1 ? null : parse(text.substring(i + 1, end));
+
+                if (values != null) {
+                    literals.add(literal.toString());
+                    literal.setLength(0);
+                    parameters.add(values);
+                    i = end + 1;
+                    continue;
+                }
+            }
+
+            literal.append(c);
+            i++;
+        }
+        literals.add(literal.toString());
+
+        long result = 1;
+        for (Values values : parameters) {
+            if (values.size() == 0) {
+                result = 0;
+            } else if (result > Long.MAX_VALUE / values.size()) {
+                result = Long.MAX_VALUE;
+            } else {
+                result *= values.size();
+            }
+        }
+        size = result;
+    }
+
+    /**
+     * Returns the position of the brace closing the one at the given position, or -1 if there is none. Quoted text and
+     * escaped characters are skipped.
+     */
+    private static int closingBrace(String text, int start) {
+        char quote = 0;
+
+        for (int i = start + 1; i < text.length(); i++) {
+            char c = text.charAt(i);
+
+            if (c == '\\' && quote != '\'') {
+                i++;
+            } else if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == '{') {
+                //no nesting
+                return -1;
+            } else if (c == '}') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the values of the parameter with the given content, or null if it is not a parameter.
+     */
+    private static Values parse(String content) {
+        List<String> items = new ArrayList<String>();
+        StringBuilder item = new StringBuilder();
+        char quote = 0;
+
+        for (int i = 0; i < content.length(); i++) {
+            char c = content.charAt(i);
+
+            if (c == '\\' && quote != '\'' && i + 1 < content.length()) {
+                item.append(c).append(content.charAt(++i));
+                continue;
+            }
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == ',') {
+                items.add(item.toString());
+                item.setLength(0);
+                continue;
+            }
+            item.append(c);
+        }
+        items.add(item.toString());
+
+        if (items.size() > 1) {
+            return new ListValues(items.toArray(new String[items.size()]));
+        }
+        return parseRange(content);
+    }
+
+    private static Values parseRange(String content) {
+        String[] parts = content.split("\\.\\.", -1);
+
+        if (parts.length < 2 || parts.length > 3) {
+            return null;
+        }
+
+        try {
+            long first = Long.parseLong(parts[0].trim());
+            long last = Long.parseLong(parts[1].trim());
+            long step = parts.length == 3 ? Long.parseLong(parts[2].trim()) : 1;
+
+            if (step == 0) {
+                throw new IllegalArgumentException("Step of range {" + content + "} cannot be zero");
+            }
+
+            int width = 0;
+            if (isPadded(parts[0].trim()) || isPadded(parts[1].trim())) {
+                width = Math.max(parts[0].trim().length(), parts[1].trim().length());
+            }
+            return new RangeValues(first, last, step, width);
+        } catch (NumberFormatException e) {
+            //not a range after all
+            return null;
+        }
+    }
+
+    private static boolean isPadded(String number) {
+        String digits = number.startsWith("-") ? number.substring(1) : number;
+        return digits.length() > 1 && digits.charAt(0) == '0';
+    }
+
+    /**
+     * Number of expansions, or {@link Long#MAX_VALUE} if there are more than that.
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * Number of parameters in the text.
+     */
+    int getParameterCount() {
+        return parameters.size();
+    }
+
+    /**
+     * Returns the expansion with the given index, which must be smaller than {@link #size()}.
+     */
+    String get(long index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("no expansion " + index + " of " + size);
+        }
+
+        String[] values = new String[parameters.size()];
+        for (int i = parameters.size() - 1; i >= 0; i--) {
+            Values parameter = parameters.get(i);
+            values[i] = parameter.get(index % parameter.size());
+            index /= parameter.size();
+        }
+
+        StringBuilder result = new StringBuilder(literals.get(0));
+        for (int i = 0; i < values.length; i++) {
+            result.append(values[i]).append(literals.get(i + 1));
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer.jobs;
+
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.awt.event.ActionEvent;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.swing.AbstractAction;
+import javax.swing.BoxLayout;
+import javax.swing.JButton;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+
+/**
+ * Shows the progress of the job batches being submitted, one row each, with the number of jobs submitted and failed, and the
+ * number of submissions per second. A batch can be stopped while it runs, and its row closed once it is done.
+ */
+class SubmissionsPanel extends JPanel implements BatchSubmitWorker.Listener {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Progress of a single batch.
+     */
+    private class Row extends JPanel {
+        private static final long serialVersionUID = 1L;
+
+        private final JLabel label = new JLabel();
+        private final JProgressBar progressBar = new JProgressBar(0, 1000);
+        private final JButton button;
+
+        //once the final progress is shown, progress published before it may still arrive
+        private boolean done = false;
+
+        Row(final BatchSubmitWorker worker) {
+            super(new BorderLayout(5, 0));
+
+            progressBar.setStringPainted(true);
+            button = new JButton(new AbstractAction("Stop") {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    if (worker.isDone()) {
+                        close(worker);
+                    } else {
+                        worker.stop();
+                        setEnabled(false);
+                    }
+                }
+            });
+            button.setToolTipText("Stop submitting jobs");
+
+            JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT, 0, 0));
+            buttons.add(button);
+
+            add(label, BorderLayout.WEST);
+            add(progressBar, BorderLayout.CENTER);
+            add(buttons, BorderLayout.EAST);
+
+            label.setText("Submitting " + worker.getTotal() + " jobs to " + worker.getLocation());
+        }
+
+        void update(BatchSubmitWorker worker, BatchSubmitWorker.Progress progress) {
+            if (done) {
+                return;
+            }
+            done = progress.isDone();
+
+            long finished = progress.getSubmitted() + progress.getFailed();
+            progressBar.setValue((int) (progress.getTotal() == 0 ? 1000 : finished * 1000 / progress.getTotal()));
+            progressBar.setString(finished + " of " + progress.getTotal());
+
+            StringBuilder text = new StringBuilder();
+            if (progress.isDone()) {
+                text.append(progress.isStopped() ? "Stopped: submitted " : "Submitted ");
+            } else {
+                text.append("Submitting: ");
+            }
+            text.append(progress.getSubmitted()).append(" jobs to ").append(worker.getLocation());
+            if (progress.getFailed() > 0) {
+                text.append(", ").append(progress.getFailed()).append(" failed");
+            }
+            text.append(String.format(" (%.1f per second)", progress.getRate()));
+            label.setText(text.toString());
+
+            if (!progress.getErrors().isEmpty()) {
+                StringBuilder errors = new StringBuilder("<html>");
+                for (String error : progress.getErrors()) {
+                    errors.append(error).append("<br>");
+                }
+                label.setToolTipText(errors.append("</html>").toString());
+            }
+
+            if (progress.isDone()) {
+                button.setText("Close");
+                button.setToolTipText("Remove this batch from the list");
+                button.setEnabled(true);
+            }
+        }
+    }
+
+    private final Runnable onDone;
+
+    private final Map<BatchSubmitWorker, Row> rows = new HashMap<BatchSubmitWorker, Row>();
+
+    /**
+     * @param onDone
+     *            run on the event dispatch thread whenever a batch is done.
+     */
+    SubmissionsPanel(Runnable onDone) {
+        this.onDone = onDone;
+        setLayout(new BoxLayout(this, BoxLayout.Y_AXIS));
+    }
+
+    /**
+     * Shows the progress of the given batch, and starts it.
+     */
+    void submit(BatchSubmitWorker worker) {
+        Row row = new Row(worker);
+        rows.put(worker, row);
+        add(row);
+        revalidate();
+
+        worker.execute();
+    }
+
+    private void close(BatchSubmitWorker worker) {
+        Row row = rows.remove(worker);
+        if (row != null) {
+            remove(row);
+        }
+        revalidate();
+        repaint();
+    }
+
+    @Override
+    public void progressed(BatchSubmitWorker worker, BatchSubmitWorker.Progress progress) {
+        Row row = rows.get(worker);
+        if (row != null) {
+            row.update(worker, progress);
+        }
+
+        if (progress.isDone()) {
+            onDone.run();
+        }
+    }
+}
@@ -17,28 +17,42 @@ import javax.swing.JTextField;
 import javax.swing.AbstractAction;
 import java.awt.event.ActionEvent;
 import javax.swing.Action;
+import javax.swing.JOptionPane;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 
-import nl.esciencecenter.octopus.Octopus;
-import nl.esciencecenter.octopus.jobs.JobDescription;
+import nl.esciencecenter.octopus.explorer.SessionPool;
 
+/**
+ * Dialog to submit a job, or a whole parameter sweep of them. Arguments are split as in a shell, and may contain parameters
+ * such as <code>{1..100}</code> or <code>{a,b,c}</code>, see {@link ParameterSweep}. A job is submitted for every combination
+ * of values, as a single batch.
+ */
 public class SubmitJobDialog extends JDialog {
 
     private static final long serialVersionUID = 1L;
+
+    //maximum number of jobs in a single sweep, to catch typos such as {1..1000000}
+    static final long MAX_JOBS = Long.getLong("octopus.explorer.submit.max.jobs", 100000);
+
     private final JPanel contentPanel = new JPanel();
     private JTextField executable;
     private JTextField arguments;
+    private JLabel jobCount;
     private final Action okAction;
     private final Action cancelAction;
     private String location;
-    private final Octopus octopus;
+    private final SessionPool sessions;
+    private final SubmissionsPanel submissions;
 
     /**
      * Create the dialog.
      */
-    public SubmitJobDialog(JFrame parent, String location, Octopus octopus) {
+    SubmitJobDialog(JFrame parent, String location, SessionPool sessions, SubmissionsPanel submissions) {
         super(parent, true);
         this.location = location;
-        this.octopus = octopus;
+        this.sessions = sessions;
+        this.submissions = submissions;
         okAction = new OKAction(this);
         cancelAction = new CancelAction(this);
         setBounds(100, 100, 450, 300);
@@ -48,7 +62,7 @@ public class SubmitJobDialog extends JDialog {
         contentPanel.setLayout(new FormLayout(new ColumnSpec[] { FormFactory.RELATED_GAP_COLSPEC, FormFactory.DEFAULT_COLSPEC,
                 FormFactory.RELATED_GAP_COLSPEC, ColumnSpec.decode("default:grow"), }, new RowSpec[] {
                 FormFactory.RELATED_GAP_ROWSPEC, FormFactory.DEFAULT_ROWSPEC, FormFactory.RELATED_GAP_ROWSPEC,
-                FormFactory.DEFAULT_ROWSPEC, }));
+                FormFactory.DEFAULT_ROWSPEC, FormFactory.RELATED_GAP_ROWSPEC, FormFactory.DEFAULT_ROWSPEC, }));
         {
             JLabel lblExecutable = new JLabel("Executable");
             contentPanel.add(lblExecutable, "2, 2, right, default");
@@ -66,6 +80,27 @@ public class SubmitJobDialog extends JDialog {
             arguments = new JTextField();
             contentPanel.add(arguments, "4, 4, fill, default");
             arguments.setColumns(10);
+            arguments.setToolTipText("Arguments, {1..10} or {a,b,c} submits a job for each value");
+            arguments.getDocument().addDocumentListener(new DocumentListener() {
+                @Override
+                public void insertUpdate(DocumentEvent e) {
+                    updateJobCount();
+                }
+
+                @Override
+                public void removeUpdate(DocumentEvent e) {
+                    updateJobCount();
+                }
+
+                @Override
+                public void changedUpdate(DocumentEvent e) {
+                    updateJobCount();
+                }
+            });
+        }
+        {
+            jobCount = new JLabel("1 job");
+            contentPanel.add(jobCount, "4, 6, left, default");
         }
         {
             JPanel buttonPane = new JPanel();
@@ -92,6 +127,38 @@ public class SubmitJobDialog extends JDialog {
         arguments.setText(null);
     }
 
+    private void updateJobCount() {
+        try {
+            long count = new ParameterSweep(arguments.getText()).size();
+            jobCount.setText(count == 1 ? "1 job" : (count == Long.MAX_VALUE ? "too many" : count) + " jobs");
+        } catch (IllegalArgumentException e) {
+            jobCount.setText(e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the sweep in the arguments, after telling the user what is wrong with it, if anything.
+     */
+    private ParameterSweep parseSweep() {
+        try {
+            ParameterSweep result = new ParameterSweep(arguments.getText());
+
+            if (result.size() == 0) {
+                throw new IllegalArgumentException("The arguments expand to no jobs at all");
+            }
+            if (result.size() > MAX_JOBS) {
+                throw new IllegalArgumentException("The arguments expand to more than " + MAX_JOBS + " jobs");
+            }
+            //catch unbalanced quotes before submitting anything
+            JobArguments.split(result.get(0));
+
+            return result;
+        } catch (IllegalArgumentException e) {
+            JOptionPane.showMessageDialog(this, e.getMessage(), "Invalid arguments", JOptionPane.ERROR_MESSAGE);
+            return null;
+        }
+    }
+
     void setLocation(String location) {
         this.location = location;
     }
@@ -104,16 +171,16 @@ public class SubmitJobDialog extends JDialog {
         public OKAction(SubmitJobDialog dialog) {
             this.dialog = dialog;
             putValue(NAME, "OK");
-            putValue(SHORT_DESCRIPTION, "Submit this job");
+            putValue(SHORT_DESCRIPTION, "Submit the job(s)");
         }
 
         public void actionPerformed(ActionEvent e) {
-            JobDescription description = new JobDescription();
-            description.setExecutable(executable.getText());
-            description.setArguments(arguments.getText().split(" "));
+            ParameterSweep sweep = parseSweep();
+            if (sweep == null) {
+                return;
+            }
 
-            SubmitJobWorker worker = new SubmitJobWorker(description, location, octopus);
-            worker.execute();
+            submissions.submit(new BatchSubmitWorker(executable.getText(), sweep, location, sessions, submissions));
 
             dialog.clear();
             dialog.setVisible(false);
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer.transfers;
+
+import nl.esciencecenter.octopus.files.Copy;
+import nl.esciencecenter.octopus.files.FileSystem;
+import nl.esciencecenter.octopus.files.RelativePath;
+
+/**
+ * A single file (or directory) to be copied by the {@link TransferEngine}. All progress information can be read from any
+ * thread; everything else is only touched by the engine.
+ */
+public class Transfer {
+
+    public enum State {
+        QUEUED, RUNNING, PAUSED, DONE, FAILED, CANCELLED;
+    }
+
+    private final String sourceLocation;
+    private final RelativePath source;
+    private final String targetLocation;
+    private final RelativePath target;
+
+    private volatile State state;
+    private volatile long bytesToCopy = -1;
+    private volatile long bytesCopied = 0;
+    private volatile String error = null;
+
+    //requested by the user, acted upon by the engine
+    volatile boolean pauseRequested = false;
+    volatile boolean cancelRequested = false;
+
+    //continue where a previous attempt left off
+    boolean resume;
+
+    //being started in the background, guarded by the engine
+    boolean starting = false;
+
+    //set while starting, then only used by the engine thread while running
+    Copy copy;
+    FileSystem sourceFileSystem;
+    FileSystem targetFileSystem;
+    long lastBytesCopied;
+
+    Transfer(String sourceLocation, RelativePath source, String targetLocation, RelativePath target, State state, boolean resume) {
+        this.sourceLocation = sourceLocation;
+        this.source = source;
+        this.targetLocation = targetLocation;
+        this.target = target;
+        this.state = state;
+        this.resume = resume;
+    }
+
+    public String getSourceLocation() {
+        return sourceLocation;
+    }
+
+    public RelativePath getSource() {
+        return source;
+    }
+
+    public String getTargetLocation() {
+        return targetLocation;
+    }
+
+    public RelativePath getTarget() {
+        return target;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    void setState(State state) {
+        this.state = state;
+    }
+
+    /**
+     * Size of the file, or -1 if not known yet.
+     */
+    public long getBytesToCopy() {
+        return bytesToCopy;
+    }
+
+    void setBytesToCopy(long bytesToCopy) {
+        this.bytesToCopy = bytesToCopy;
+    }
+
+    public long getBytesCopied() {
+        return bytesCopied;
+    }
+
+    void setBytesCopied(long bytesCopied) {
+        this.bytesCopied = bytesCopied;
+    }
+
+    /**
+     * Why this transfer failed, if it did.
+     */
+    public String getError() {
+        return error;
+    }
+
+    void setError(String error) {
+        this.error = error;
+    }
+
+    /**
+     * Returns true if this transfer will not make any more progress by itself.
+     */
+    public boolean isFinished() {
+        State current = state;
+        return current == State.DONE || current == State.FAILED || current == State.CANCELLED;
+    }
+
+    @Override
+    public String toString() {
+        return sourceLocation + ":" + source.getPath() + " -> " + targetLocation + ":" + target.getPath() + " (" + state + ")";
+    }
+}
@@ -0,0 +1,646 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer.transfers;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import nl.esciencecenter.octopus.Octopus;
+import nl.esciencecenter.octopus.exceptions.AttributeNotSupportedException;
+import nl.esciencecenter.octopus.explorer.BackgroundExecutor;
+import nl.esciencecenter.octopus.explorer.SessionPool;
+import nl.esciencecenter.octopus.explorer.Utils;
+import nl.esciencecenter.octopus.files.AbsolutePath;
+import nl.esciencecenter.octopus.files.CopyOption;
+import nl.esciencecenter.octopus.files.CopyStatus;
+import nl.esciencecenter.octopus.files.DirectoryStream;
+import nl.esciencecenter.octopus.files.FileAttributes;
+import nl.esciencecenter.octopus.files.PathAttributesPair;
+import nl.esciencecenter.octopus.files.RelativePath;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Copies files between locations, using the asynchronous copies of Octopus. A single engine thread polls the status of all
+ * copies, so any number of transfers can be in progress without a thread per file. Starting a transfer (and expanding a
+ * directory into a transfer per entry) needs remote calls that may block for a long time, so that is done as submission work on
+ * the {@link BackgroundExecutor}; the engine thread itself never waits for a host.
+ *
+ * The number of transfers running at the same time is limited per host. Each running transfer holds a session to its source
+ * and target host, so keep the limit below the session limit of the {@link SessionPool} to leave room for browsing.
+ *
+ * Transfers can be paused (the copy is cancelled, and resumed from where it stopped later on) and cancelled. The queue of
+ * unfinished transfers is saved in the state directory, and picked up again on the next start.
+ *
+ * Thread safe.
+ */
+public class TransferEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(TransferEngine.class);
+
+    public static final int DEFAULT_TRANSFERS_PER_HOST = Integer.getInteger("octopus.explorer.transfers.per.host", 2);
+
+    public static final int DEFAULT_LOCAL_TRANSFERS = Integer.getInteger("octopus.explorer.transfers.local", 4);
+
+    //how often the status of running copies is polled (in milliseconds)
+    private static final long POLL_INTERVAL = 250;
+
+    //weight of the latest measurement in the throughput estimate
+    private static final double THROUGHPUT_SMOOTHING = 0.2;
+
+    private static final String QUEUE_FILE_NAME = "transfers.queue";
+
+    private final SessionPool sessions;
+    private final int transfersPerHost;
+    private final int localTransfers;
+    private final File queueFile;
+
+    private final ScheduledExecutorService engine;
+
+    //all transfers, in the order added
+    private final List<Transfer> transfers = new ArrayList<Transfer>();
+
+    //queue needs to be saved
+    private boolean dirty = false;
+
+    private volatile double throughput = 0;
+    private long lastPoll = System.nanoTime();
+
+    private volatile boolean closed = false;
+
+    public TransferEngine(SessionPool sessions) {
+        this(sessions, DEFAULT_TRANSFERS_PER_HOST, DEFAULT_LOCAL_TRANSFERS, new File(Utils.getStateDirectory(), QUEUE_FILE_NAME));
+    }
+
+    public TransferEngine(SessionPool sessions, int transfersPerHost, int localTransfers, File queueFile) {
+        this.sessions = sessions;
+        this.transfersPerHost = transfersPerHost;
+        this.localTransfers = localTransfers;
+        this.queueFile = queueFile;
+
+        load();
+
+        engine = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "transfer engine");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        engine.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    poll();
+                } catch (RuntimeException e) {
+                    logger.error("Error in transfer engine", e);
+                }
+            }
+        }, 0, POLL_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queue a copy of a file or directory. Directories are copied recursively.
+     */
+    public synchronized Transfer add(String sourceLocation, RelativePath source, String targetLocation, RelativePath target) {
+        Transfer transfer = new Transfer(sourceLocation, source, targetLocation, target, Transfer.State.QUEUED, false);
+        transfers.add(transfer);
+        dirty = true;
+        logger.debug("queued transfer {}", transfer);
+        return transfer;
+    }
+
+    /**
+     * Returns a copy of the list of all transfers, in the order they were added.
+     */
+    public synchronized List<Transfer> getTransfers() {
+        return new ArrayList<Transfer>(transfers);
+    }
+
+    public synchronized void pause(Transfer transfer) {
+        if (transfer.getState() == Transfer.State.QUEUED) {
+            transfer.setState(Transfer.State.PAUSED);
+            dirty = true;
+        } else if (transfer.getState() == Transfer.State.RUNNING) {
+            transfer.pauseRequested = true;
+        }
+    }
+
+    public synchronized void resume(Transfer transfer) {
+        if (transfer.getState() == Transfer.State.PAUSED || transfer.getState() == Transfer.State.FAILED) {
+            transfer.setError(null);
+            transfer.setState(Transfer.State.QUEUED);
+            dirty = true;
+        }
+    }
+
+    public synchronized void cancel(Transfer transfer) {
+        if (transfer.getState() == Transfer.State.QUEUED || transfer.getState() == Transfer.State.PAUSED) {
+            transfer.setState(Transfer.State.CANCELLED);
+            dirty = true;
+        } else if (transfer.getState() == Transfer.State.RUNNING) {
+            transfer.cancelRequested = true;
+        }
+    }
+
+    public synchronized void pauseAll() {
+        for (Transfer transfer : transfers) {
+            pause(transfer);
+        }
+    }
+
+    public synchronized void resumeAll() {
+        for (Transfer transfer : transfers) {
+            if (transfer.getState() == Transfer.State.PAUSED) {
+                resume(transfer);
+            }
+        }
+    }
+
+    /**
+     * Forget about all finished transfers.
+     */
+    public synchronized void clearFinished() {
+        Iterator<Transfer> iterator = transfers.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isFinished()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Current throughput of all transfers together, in bytes per second.
+     */
+    public double getThroughput() {
+        return throughput;
+    }
+
+    /**
+     * Bytes left to copy by all unfinished transfers of which the size is known.
+     */
+    public synchronized long getRemainingBytes() {
+        long result = 0;
+        for (Transfer transfer : transfers) {
+            if (!transfer.isFinished() && transfer.getBytesToCopy() > 0) {
+                result += transfer.getBytesToCopy() - transfer.getBytesCopied();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Estimated time until all transfers are done at the current throughput, in seconds, or -1 if unknown.
+     */
+    public long getEstimatedTimeLeft() {
+        double current = throughput;
+        if (current <= 0) {
+            return -1;
+        }
+        return (long) (getRemainingBytes() / current);
+    }
+
+    private int limit(String location) {
+        return location.equals(SessionPool.LOCAL_LOCATION) ? localTransfers : transfersPerHost;
+    }
+
+    private void poll() {
+        if (closed) {
+            return;
+        }
+
+        List<Transfer> running = new ArrayList<Transfer>();
+        List<Transfer> queued = new ArrayList<Transfer>();
+
+        //transfers being started count as active too
+        Map<String, Integer> active = new HashMap<String, Integer>();
+
+        synchronized (this) {
+            for (Transfer transfer : transfers) {
+                if (transfer.starting) {
+                    count(active, transfer.getSourceLocation(), transfer.getTargetLocation());
+                } else if (transfer.getState() == Transfer.State.RUNNING) {
+                    running.add(transfer);
+                } else if (transfer.getState() == Transfer.State.QUEUED) {
+                    queued.add(transfer);
+                }
+            }
+        }
+
+        long copied = 0;
+
+        for (Transfer transfer : running) {
+            long before = transfer.lastBytesCopied;
+            update(transfer);
+            copied += Math.max(0, transfer.getBytesCopied() - before);
+            transfer.lastBytesCopied = transfer.getBytesCopied();
+
+            if (transfer.getState() == Transfer.State.RUNNING) {
+                count(active, transfer.getSourceLocation(), transfer.getTargetLocation());
+            }
+        }
+
+        long now = System.nanoTime();
+        double seconds = (now - lastPoll) / 1e9;
+        lastPoll = now;
+        if (seconds > 0) {
+            double current = running.isEmpty() ? 0 : copied / seconds;
+            throughput = THROUGHPUT_SMOOTHING * current + (1 - THROUGHPUT_SMOOTHING) * throughput;
+        }
+
+        for (Transfer transfer : queued) {
+            if (closed) {
+                return;
+            }
+            if (isFull(active, transfer)) {
+                continue;
+            }
+            synchronized (this) {
+                if (transfer.getState() != Transfer.State.QUEUED) {
+                    continue;
+                }
+                transfer.starting = true;
+            }
+            count(active, transfer.getSourceLocation(), transfer.getTargetLocation());
+            startInBackground(transfer);
+        }
+
+        save(true);
+    }
+
+    private static void count(Map<String, Integer> active, String sourceLocation, String targetLocation) {
+        active.put(sourceLocation, get(active, sourceLocation) + 1);
+        if (!targetLocation.equals(sourceLocation)) {
+            active.put(targetLocation, get(active, targetLocation) + 1);
+        }
+    }
+
+    private static int get(Map<String, Integer> active, String location) {
+        Integer result = active.get(location);
+        return result == null ? 0 : result;
+    }
+
+    private boolean isFull(Map<String, Integer> active, Transfer transfer) {
+        return get(active, transfer.getSourceLocation()) >= limit(transfer.getSourceLocation())
+                || get(active, transfer.getTargetLocation()) >= limit(transfer.getTargetLocation());
+    }
+
+    private void startInBackground(final Transfer transfer) {
+        BackgroundExecutor.get().execute(BackgroundExecutor.Priority.SUBMISSION, transfer.getSourceLocation(), new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!closed) {
+                        start(transfer);
+                    }
+                } finally {
+                    synchronized (TransferEngine.this) {
+                        transfer.starting = false;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts a transfer, run in the background as it may block on the source and target host.
+     */
+    private void start(Transfer transfer) {
+        Octopus octopus = sessions.getOctopus();
+
+        try {
+            transfer.sourceFileSystem = sessions.borrowFileSystem(transfer.getSourceLocation());
+            if (transfer.getTargetLocation().equals(transfer.getSourceLocation())) {
+                transfer.targetFileSystem = transfer.sourceFileSystem;
+            } else {
+                transfer.targetFileSystem = sessions.borrowFileSystem(transfer.getTargetLocation());
+            }
+
+            AbsolutePath source = octopus.files().newPath(transfer.sourceFileSystem, transfer.getSource());
+            AbsolutePath target = octopus.files().newPath(transfer.targetFileSystem, transfer.getTarget());
+
+            FileAttributes attributes = octopus.files().getAttributes(source);
+
+            if (attributes.isDirectory()) {
+                Transfer.State stopped = stoppedWhileStarting(transfer);
+                finish(transfer, stopped == null ? expand(transfer, source, target) : stopped, null);
+                return;
+            }
+
+            transfer.setBytesToCopy(attributes.size());
+
+            boolean resume = transfer.resume && octopus.files().exists(target);
+            CopyOption mode = resume ? CopyOption.RESUME : CopyOption.CREATE;
+
+            transfer.copy = octopus.files().copy(source, target, CopyOption.ASYNCHRONOUS, mode);
+            transfer.lastBytesCopied = 0;
+            transfer.resume = true;
+
+            boolean stop;
+            synchronized (this) {
+                //paused or cancelled while we were starting it
+                if (transfer.getState() == Transfer.State.PAUSED) {
+                    transfer.pauseRequested = true;
+                } else if (transfer.getState() == Transfer.State.CANCELLED) {
+                    transfer.cancelRequested = true;
+                }
+
+                //closed while we were starting it, the engine no longer stops running transfers
+                stop = closed;
+                if (stop) {
+                    transfer.pauseRequested = true;
+                } else {
+                    transfer.setState(Transfer.State.RUNNING);
+                }
+                dirty = true;
+            }
+
+            if (stop) {
+                update(transfer);
+                transfer.setState(Transfer.State.QUEUED);
+                return;
+            }
+            logger.debug("started transfer {}{}", transfer, resume ? ", resuming" : "");
+        } catch (Exception e) {
+            logger.warn("Could not start transfer " + transfer, e);
+            finish(transfer, Transfer.State.FAILED, e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the state to leave a starting transfer in if it was paused or cancelled while starting, or the engine was closed
+     * (in which case it stays queued). Returns null if it should go ahead.
+     */
+    private synchronized Transfer.State stoppedWhileStarting(Transfer transfer) {
+        if (transfer.getState() == Transfer.State.PAUSED || transfer.getState() == Transfer.State.CANCELLED) {
+            return transfer.getState();
+        }
+        if (closed) {
+            return Transfer.State.QUEUED;
+        }
+        return null;
+    }
+
+    /**
+     * Create the target directory, and queue a transfer for everything in the source directory. Returns the state to finish the
+     * transfer in: done, or the state of {@link #stoppedWhileStarting(Transfer)} if it was stopped while listing the directory,
+     * in which case nothing is queued.
+     */
+    private Transfer.State expand(Transfer transfer, AbsolutePath source, AbsolutePath target) throws Exception {
+        Octopus octopus = sessions.getOctopus();
+
+        if (!octopus.files().exists(target)) {
+            octopus.files().createDirectories(target);
+        }
+
+        List<String> names = new ArrayList<String>();
+        DirectoryStream<PathAttributesPair> stream = octopus.files().newAttributesDirectoryStream(source);
+        try {
+            for (PathAttributesPair pair : stream) {
+                if (!isSymbolicLink(pair.attributes())) {
+                    names.add(pair.path().getFileName());
+                }
+            }
+        } finally {
+            stream.close();
+        }
+
+        synchronized (this) {
+            Transfer.State stopped = stoppedWhileStarting(transfer);
+            if (stopped != null) {
+                return stopped;
+            }
+            for (String name : names) {
+                RelativePath child = new RelativePath(name);
+                transfers.add(new Transfer(transfer.getSourceLocation(), transfer.getSource().resolve(child), transfer
+                        .getTargetLocation(), transfer.getTarget().resolve(child), Transfer.State.QUEUED, transfer.resume));
+            }
+            dirty = true;
+        }
+        logger.debug("expanded directory transfer {} into {} transfers", transfer, names.size());
+        return Transfer.State.DONE;
+    }
+
+    private static boolean isSymbolicLink(FileAttributes attributes) {
+        try {
+            return attributes.isSymbolicLink();
+        } catch (AttributeNotSupportedException e) {
+            return false;
+        }
+    }
+
+    private void update(Transfer transfer) {
+        Octopus octopus = sessions.getOctopus();
+
+        try {
+            if (transfer.pauseRequested || transfer.cancelRequested) {
+                CopyStatus status = octopus.files().cancelCopy(transfer.copy);
+                transfer.setBytesCopied(status.bytesCopied());
+
+                Transfer.State state = transfer.cancelRequested ? Transfer.State.CANCELLED : Transfer.State.PAUSED;
+                finish(transfer, state, null);
+                return;
+            }
+
+            CopyStatus status = octopus.files().getCopyStatus(transfer.copy);
+
+            if (status.bytesToCopy() >= 0) {
+                transfer.setBytesToCopy(status.bytesToCopy());
+            }
+            transfer.setBytesCopied(status.bytesCopied());
+
+            if (status.isDone()) {
+                //the status of a finished copy can only be retrieved once
+                if (status.hasException()) {
+                    finish(transfer, Transfer.State.FAILED, status.getException().getMessage());
+                } else {
+                    transfer.setBytesCopied(transfer.getBytesToCopy());
+                    finish(transfer, Transfer.State.DONE, null);
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("Lost track of transfer " + transfer, e);
+            finish(transfer, Transfer.State.FAILED, e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the sessions of a transfer to the pool. A session that broke down is found out by the pool when it is borrowed
+     * again, so there is no need to invalidate it here.
+     */
+    private void finish(Transfer transfer, Transfer.State state, String error) {
+        sessions.releaseFileSystem(transfer.getSourceLocation(), transfer.sourceFileSystem);
+        if (transfer.targetFileSystem != transfer.sourceFileSystem) {
+            sessions.releaseFileSystem(transfer.getTargetLocation(), transfer.targetFileSystem);
+        }
+        transfer.sourceFileSystem = null;
+        transfer.targetFileSystem = null;
+        transfer.copy = null;
+        transfer.pauseRequested = false;
+        transfer.cancelRequested = false;
+
+        synchronized (this) {
+            transfer.setError(error);
+            transfer.setState(state);
+            dirty = true;
+        }
+        logger.debug("transfer {} finished{}", transfer, error == null ? "" : ": " + error);
+    }
+
+    private static String encode(String value) throws UnsupportedEncodingException {
+        return URLEncoder.encode(value, "UTF-8");
+    }
+
+    private static String decode(String value) throws UnsupportedEncodingException {
+        return URLDecoder.decode(value, "UTF-8");
+    }
+
+    /**
+     * Write all unfinished transfers to the queue file, optionally only if the queue changed since it was last saved. Running
+     * transfers are resumed on the next start. The queue is copied under the lock, but written outside of it, so the event
+     * dispatch thread never waits for the disk. Only called from the engine thread.
+     */
+    private void save(boolean onlyIfDirty) {
+        List<String> lines = new ArrayList<String>();
+
+        try {
+            synchronized (this) {
+                if (onlyIfDirty && !dirty) {
+                    return;
+                }
+                dirty = false;
+
+                for (Transfer transfer : transfers) {
+                    if (transfer.isFinished()) {
+                        continue;
+                    }
+                    lines.add(transfer.getState() + " " + encode(transfer.getSourceLocation()) + " "
+                            + encode(transfer.getSource().getPath()) + " " + encode(transfer.getTargetLocation()) + " "
+                            + encode(transfer.getTarget().getPath()) + " " + transfer.resume);
+                }
+            }
+        } catch (UnsupportedEncodingException e) {
+            logger.warn("Could not save transfer queue", e);
+            return;
+        }
+
+        File directory = queueFile.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            logger.warn("Cannot create {}, transfer queue not saved", directory);
+            return;
+        }
+
+        File temporary = new File(directory, queueFile.getName() + ".tmp");
+
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temporary), "UTF-8"))) {
+            for (String line : lines) {
+                writer.write(line);
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            logger.warn("Could not save transfer queue", e);
+            return;
+        }
+
+        if (!temporary.renameTo(queueFile)) {
+            //not atomic on all platforms, try again after removing the old queue
+            queueFile.delete();
+            if (!temporary.renameTo(queueFile)) {
+                logger.warn("Could not replace transfer queue {}", queueFile);
+            }
+        }
+    }
+
+    private synchronized void load() {
+        if (!queueFile.isFile()) {
+            return;
+        }
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(queueFile), "UTF-8"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(" ");
+                if (fields.length != 6) {
+                    continue;
+                }
+
+                Transfer.State state = Transfer.State.valueOf(fields[0]);
+                if (state == Transfer.State.RUNNING) {
+                    state = Transfer.State.QUEUED;
+                }
+
+                transfers.add(new Transfer(decode(fields[1]), new RelativePath(decode(fields[2])), decode(fields[3]),
+                        new RelativePath(decode(fields[4])), state, Boolean.parseBoolean(fields[5])));
+            }
+            logger.info("Loaded {} unfinished transfers", transfers.size());
+        } catch (IOException | IllegalArgumentException e) {
+            logger.warn("Could not load transfer queue " + queueFile, e);
+        }
+    }
+
+    /**
+     * Stop all running copies. They are resumed the next time the engine is started.
+     */
+    public void close() {
+        closed = true;
+        try {
+            engine.submit(new Runnable() {
+                @Override
+                public void run() {
+                    List<Transfer> running = new ArrayList<Transfer>();
+                    synchronized (TransferEngine.this) {
+                        for (Transfer transfer : transfers) {
+                            if (transfer.getState() == Transfer.State.RUNNING) {
+                                running.add(transfer);
+                            }
+                        }
+                    }
+                    for (Transfer transfer : running) {
+                        transfer.pauseRequested = true;
+                        update(transfer);
+                        //queue again, so it continues on the next start
+                        transfer.setState(Transfer.State.QUEUED);
+                    }
+                    save(false);
+                }
+            }).get(5, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            logger.warn("Could not stop transfers cleanly", e);
+        }
+        engine.shutdownNow();
+    }
+}
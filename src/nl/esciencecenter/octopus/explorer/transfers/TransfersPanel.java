@@ -0,0 +1,295 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer.transfers;
+
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.FlowLayout;
+import java.awt.Font;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.AbstractAction;
+import javax.swing.Action;
+import javax.swing.JButton;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.ScrollPaneConstants;
+import javax.swing.Timer;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.JTableHeader;
+
+import nl.esciencecenter.octopus.explorer.Utils;
+
+/**
+ * Shows all transfers of a {@link TransferEngine}, with their progress, and the throughput and estimated time left of all of
+ * them together.
+ */
+public class TransfersPanel extends JPanel {
+
+    private static final long serialVersionUID = 1L;
+
+    //how often progress is shown (in milliseconds)
+    private static final int UPDATE_INTERVAL = 500;
+
+    private static final class TransferTableModel extends AbstractTableModel {
+        private static final long serialVersionUID = 1L;
+
+        private static final String[] COLUMN_NAMES = new String[] { "Source", "Target", "State", "Progress", "Size" };
+
+        private List<Transfer> transfers = new ArrayList<Transfer>();
+
+        /**
+         * Transfers are only ever added at the end, unless finished ones are cleared, so only fire what changed to keep the
+         * selection.
+         */
+        void update(List<Transfer> updated) {
+            int before = transfers.size();
+            boolean appended = updated.size() >= before && (before == 0 || updated.get(before - 1) == transfers.get(before - 1));
+
+            transfers = updated;
+
+            if (!appended) {
+                fireTableDataChanged();
+                return;
+            }
+            if (before > 0) {
+                fireTableRowsUpdated(0, before - 1);
+            }
+            if (updated.size() > before) {
+                fireTableRowsInserted(before, updated.size() - 1);
+            }
+        }
+
+        Transfer getTransfer(int row) {
+            return transfers.get(row);
+        }
+
+        @Override
+        public int getRowCount() {
+            return transfers.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMN_NAMES.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMN_NAMES[column];
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            Transfer transfer = transfers.get(row);
+
+            switch (column) {
+            case 0:
+                return transfer.getSourceLocation() + ": " + transfer.getSource().getPath();
+            case 1:
+                return transfer.getTargetLocation() + ": " + transfer.getTarget().getPath();
+            case 2:
+                if (transfer.getError() != null) {
+                    return transfer.getState() + " (" + transfer.getError() + ")";
+                }
+                return transfer.getState().toString();
+            case 3:
+                if (transfer.getBytesToCopy() <= 0) {
+                    return "";
+                }
+                return (100 * transfer.getBytesCopied() / transfer.getBytesToCopy()) + " %";
+            case 4:
+                if (transfer.getBytesToCopy() < 0) {
+                    return "";
+                }
+                return formatBytes(transfer.getBytesToCopy());
+            default:
+                throw new IndexOutOfBoundsException("no column " + column);
+            }
+        }
+    }
+
+    private final TransferEngine engine;
+
+    private final JTable table;
+    private final TransferTableModel model = new TransferTableModel();
+    private final JLabel statusLabel = new JLabel();
+
+    public TransfersPanel(TransferEngine engine) throws Exception {
+        this.engine = engine;
+
+        setLayout(new BorderLayout(0, 0));
+
+        JPanel panel = new JPanel();
+        add(panel, BorderLayout.NORTH);
+        panel.setLayout(new FlowLayout(FlowLayout.LEFT, 5, 5));
+
+        panel.add(new JButton(new PauseAction()));
+        panel.add(new JButton(new ResumeAction()));
+        panel.add(new JButton(new CancelAction()));
+        panel.add(new JButton(new ClearAction()));
+        panel.add(statusLabel);
+
+        JScrollPane scrollPane = new JScrollPane();
+        scrollPane.setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
+        add(scrollPane);
+
+        table = new JTable(model);
+        table.setGridColor(Color.LIGHT_GRAY);
+        table.setFont(new Font("Dialog", Font.PLAIN, 12));
+        JTableHeader header = table.getTableHeader();
+        header.setFont(header.getFont().deriveFont(Font.BOLD).deriveFont(14f));
+        table.setFillsViewportHeight(true);
+        scrollPane.setViewportView(table);
+
+        table.getColumnModel().getColumn(0).setPreferredWidth(250);
+        table.getColumnModel().getColumn(1).setPreferredWidth(250);
+        table.getColumnModel().getColumn(2).setPreferredWidth(100);
+        table.getColumnModel().getColumn(3).setPreferredWidth(50);
+        table.getColumnModel().getColumn(4).setPreferredWidth(50);
+
+        new Timer(UPDATE_INTERVAL, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                update();
+            }
+        }).start();
+    }
+
+    static String formatBytes(double bytes) {
+        return String.format("%.3f Mb", (bytes / 1000000f));
+    }
+
+    private void update() {
+        List<Transfer> transfers = engine.getTransfers();
+        model.update(transfers);
+
+        int running = 0;
+        int queued = 0;
+        for (Transfer transfer : transfers) {
+            if (transfer.getState() == Transfer.State.RUNNING) {
+                running++;
+            } else if (transfer.getState() == Transfer.State.QUEUED) {
+                queued++;
+            }
+        }
+
+        String status = running + " running, " + queued + " queued";
+        if (running > 0) {
+            status += ", " + formatBytes(engine.getThroughput()) + "/s";
+            long left = engine.getEstimatedTimeLeft();
+            if (left >= 0) {
+                status += String.format(", %d:%02d left", left / 60, left % 60);
+            }
+        }
+        statusLabel.setText(status);
+    }
+
+    /**
+     * Returns the selected transfers, or all of them if nothing is selected.
+     */
+    private List<Transfer> getSelection() {
+        List<Transfer> result = new ArrayList<Transfer>();
+        int[] rows = table.getSelectedRows();
+
+        if (rows.length == 0) {
+            for (int row = 0; row < model.getRowCount(); row++) {
+                result.add(model.getTransfer(row));
+            }
+        } else {
+            for (int row : rows) {
+                result.add(model.getTransfer(table.convertRowIndexToModel(row)));
+            }
+        }
+        return result;
+    }
+
+    private class PauseAction extends AbstractAction {
+        private static final long serialVersionUID = 1L;
+
+        public PauseAction() throws Exception {
+            putValue(NAME, "Pause");
+            putValue(SHORT_DESCRIPTION, "Pause the selected transfers, or all of them if none are selected");
+
+            putValue(SMALL_ICON, Utils.loadIcon("actions/media-playback-pause.png"));
+        }
+
+        public void actionPerformed(ActionEvent e) {
+            for (Transfer transfer : getSelection()) {
+                engine.pause(transfer);
+            }
+        }
+    }
+
+    private class ResumeAction extends AbstractAction {
+        private static final long serialVersionUID = 1L;
+
+        public ResumeAction() throws Exception {
+            putValue(NAME, "Resume");
+            putValue(SHORT_DESCRIPTION, "Resume (or retry) the selected transfers, or all of them if none are selected");
+
+            putValue(SMALL_ICON, Utils.loadIcon("actions/media-playback-start.png"));
+        }
+
+        public void actionPerformed(ActionEvent e) {
+            for (Transfer transfer : getSelection()) {
+                engine.resume(transfer);
+            }
+        }
+    }
+
+    private class CancelAction extends AbstractAction {
+        private static final long serialVersionUID = 1L;
+
+        public CancelAction() throws Exception {
+            putValue(NAME, "Cancel");
+            putValue(SHORT_DESCRIPTION, "Cancel the selected transfers");
+
+            putValue(SMALL_ICON, Utils.loadIcon("actions/process-stop.png"));
+        }
+
+        public void actionPerformed(ActionEvent e) {
+            //never cancel everything by accident
+            if (table.getSelectedRowCount() == 0) {
+                return;
+            }
+            for (Transfer transfer : getSelection()) {
+                engine.cancel(transfer);
+            }
+        }
+    }
+
+    private class ClearAction extends AbstractAction {
+        private static final long serialVersionUID = 1L;
+
+        public ClearAction() throws Exception {
+            putValue(NAME, "Clear finished");
+            putValue(SHORT_DESCRIPTION, "Remove finished transfers from the list");
+
+            putValue(SMALL_ICON, Utils.loadIcon("actions/edit-clear.png"));
+        }
+
+        public void actionPerformed(ActionEvent e) {
+            engine.clearFinished();
+            update();
+        }
+    }
+}
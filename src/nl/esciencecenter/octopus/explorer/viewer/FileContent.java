@@ -0,0 +1,240 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer.viewer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import nl.esciencecenter.octopus.explorer.SessionPool;
+import nl.esciencecenter.octopus.files.FileSystem;
+import nl.esciencecenter.octopus.files.Files;
+import nl.esciencecenter.octopus.files.RelativePath;
+
+/**
+ * Random access to the bytes of a (possibly huge, possibly remote) file. Bytes are read in pages, and a bounded number of
+ * recently used pages is cached, so memory use does not depend on the size of the file.
+ *
+ * Also knows how the file is split into lines. Lines longer than {@link #MAX_LINE_LENGTH} bytes are split, so a file without
+ * any line breaks can still be shown (and indexed) a line at a time.
+ *
+ * Thread safe.
+ */
+abstract class FileContent {
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    static final int PAGE_SIZE = 64 * 1024;
+
+    //longest line, in bytes. Longer lines are split.
+    static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    //longest text shown for a single line, in characters
+    static final int MAX_LINE_TEXT = 4096;
+
+    static final long DEFAULT_CACHE_SIZE = Long.getLong("octopus.explorer.viewer.cache", 8L * 1024 * 1024);
+
+    private final Map<Long, byte[]> pages;
+
+    protected FileContent() {
+        final int maxPages = (int) Math.max(4, DEFAULT_CACHE_SIZE / PAGE_SIZE);
+
+        pages = new LinkedHashMap<Long, byte[]>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+                return size() > maxPages;
+            }
+        };
+    }
+
+    /**
+     * Opens the given file. Local files are memory mapped, remote files are read as a stream through the given file system,
+     * which is not used for local files.
+     */
+    static FileContent open(Files files, FileSystem fileSystem, String location, RelativePath path) throws Exception {
+        if (location.equals(SessionPool.LOCAL_LOCATION)) {
+            return new MappedFileContent(new File(path.getPath()));
+        }
+        return new StreamFileContent(files, fileSystem, path);
+    }
+
+    /**
+     * Size of the file, as it was when it was opened.
+     */
+    abstract long size();
+
+    /**
+     * Reads up to <code>length</code> bytes at the given position, bypassing the cache. Returns the number of bytes read,
+     * which is only less than asked for at the end of the file.
+     */
+    abstract int read(long position, byte[] buffer, int offset, int length) throws IOException;
+
+    abstract void close();
+
+    /**
+     * Returns false if reading at a position means reading everything before it.
+     */
+    boolean canSeek() {
+        return true;
+    }
+
+    /**
+     * Percentage of the way to the position currently read at, or -1 if no read is getting there.
+     */
+    int getSeekProgress() {
+        return -1;
+    }
+
+    /**
+     * Returns the (cached) page with the given number. The last page of the file may be short.
+     */
+    byte[] page(long number) throws IOException {
+        synchronized (pages) {
+            byte[] result = pages.get(number);
+            if (result != null) {
+                return result;
+            }
+        }
+
+        long position = number * PAGE_SIZE;
+        int length = (int) Math.max(0, Math.min(PAGE_SIZE, size() - position));
+        byte[] result = new byte[length];
+        int read = read(position, result, 0, length);
+        if (read < length) {
+            throw new IOException("unexpected end of file at " + (position + read));
+        }
+
+        synchronized (pages) {
+            pages.put(number, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the position of the first line break at or after <code>position</code>, looking no further than
+     * <code>limit</code>. Returns -1 if there is none.
+     */
+    long indexOfLineBreak(long position, long limit) throws IOException {
+        limit = Math.min(limit, size());
+
+        while (position < limit) {
+            byte[] page = page(position / PAGE_SIZE);
+            int start = (int) (position % PAGE_SIZE);
+            int end = (int) Math.min(page.length, start + (limit - position));
+
+            for (int i = start; i < end; i++) {
+                if (page[i] == '\n') {
+                    return position + (i - start);
+                }
+            }
+            position += end - start;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the position of the last line break before <code>position</code>, looking no further back than
+     * <code>limit</code>. Returns -1 if there is none.
+     */
+    long lastIndexOfLineBreak(long position, long limit) throws IOException {
+        limit = Math.max(limit, 0);
+
+        while (position > limit) {
+            long last = position - 1;
+            byte[] page = page(last / PAGE_SIZE);
+            int end = (int) (last % PAGE_SIZE);
+            int start = (int) Math.max(0, end - (last - limit));
+
+            for (int i = end; i >= start; i--) {
+                if (page[i] == '\n') {
+                    return last - (end - i);
+                }
+            }
+            position -= end - start + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Start of the line following the line starting at <code>start</code>, or the size of the file if that is the last line.
+     */
+    long nextLineStart(long start) throws IOException {
+        long lineBreak = indexOfLineBreak(start, start + MAX_LINE_LENGTH);
+        if (lineBreak != -1) {
+            return lineBreak + 1;
+        }
+        return Math.min(start + MAX_LINE_LENGTH, size());
+    }
+
+    /**
+     * Start of the line containing <code>position</code>. If the line is too long to find its start, the position a maximum
+     * line length back is used instead.
+     */
+    long lineStart(long position) throws IOException {
+        if (position <= 0) {
+            return 0;
+        }
+        long lineBreak = lastIndexOfLineBreak(position, position - MAX_LINE_LENGTH);
+        if (lineBreak != -1) {
+            return lineBreak + 1;
+        }
+        return Math.max(0, position - MAX_LINE_LENGTH);
+    }
+
+    /**
+     * Start of the line before the line starting at <code>start</code>.
+     */
+    long previousLineStart(long start) throws IOException {
+        if (start <= 0) {
+            return 0;
+        }
+        return lineStart(start - 1);
+    }
+
+    /**
+     * Text of the line from <code>start</code> up to <code>end</code>, without the line break, and cut off at
+     * {@link #MAX_LINE_TEXT} characters.
+     */
+    String text(long start, long end) throws IOException {
+        end = Math.min(end, start + MAX_LINE_TEXT * 4);
+
+        byte[] bytes = new byte[(int) (end - start)];
+        int length = 0;
+
+        while (length < bytes.length) {
+            long position = start + length;
+            byte[] page = page(position / PAGE_SIZE);
+            int offset = (int) (position % PAGE_SIZE);
+            int count = Math.min(page.length - offset, bytes.length - length);
+            System.arraycopy(page, offset, bytes, length, count);
+            length += count;
+        }
+
+        while (length > 0 && (bytes[length - 1] == '\n' || bytes[length - 1] == '\r')) {
+            length--;
+        }
+
+        String result = new String(bytes, 0, length, UTF8);
+        if (result.length() > MAX_LINE_TEXT) {
+            result = result.substring(0, MAX_LINE_TEXT);
+        }
+        return result;
+    }
+}
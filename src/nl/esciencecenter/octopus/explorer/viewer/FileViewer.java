@@ -0,0 +1,707 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer.viewer;
+
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Window;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.AdjustmentEvent;
+import java.awt.event.AdjustmentListener;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.event.MouseWheelListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.AbstractAction;
+import javax.swing.Action;
+import javax.swing.JButton;
+import javax.swing.JComponent;
+import javax.swing.JDialog;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollBar;
+import javax.swing.JTextField;
+import javax.swing.KeyStroke;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
+import javax.swing.border.EmptyBorder;
+
+import nl.esciencecenter.octopus.explorer.BackgroundExecutor;
+import nl.esciencecenter.octopus.explorer.SessionPool;
+import nl.esciencecenter.octopus.explorer.Utils;
+import nl.esciencecenter.octopus.files.FileSystem;
+import nl.esciencecenter.octopus.files.Files;
+import nl.esciencecenter.octopus.files.RelativePath;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shows a text file of any size, local or remote. Only the lines on screen are read, through a bounded page cache, while a
+ * sparse index of the lines is built in the background. Any position in a local file can be shown right away, a line number
+ * as soon as the index got there.
+ *
+ * Remote files can only be read from the start, so showing the tail of a remote file downloads all of it, which the status
+ * shows. Remote files are read through a single session of their own, outside the session pool, as the index reads the whole
+ * file.
+ *
+ * The scroll bar is positioned by byte offset, so it can be used before the number of lines is known.
+ */
+public class FileViewer extends JDialog {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger logger = LoggerFactory.getLogger(FileViewer.class);
+
+    //how often the indexing progress is shown, and a jump to a line not indexed yet checks the index (in milliseconds)
+    private static final int UPDATE_INTERVAL = 250;
+
+    private static final int WHEEL_LINES = 3;
+
+    //resolution of the scroll bar, which only takes ints
+    private static final long SCROLL_BAR_STEPS = 1000000;
+
+    /**
+     * Lines shown, read in the background.
+     */
+    private static final class Lines {
+        private final long[] starts;
+        private final String[] texts;
+        private final long end;
+        private final long firstLine;
+
+        Lines(long[] starts, String[] texts, long end, long firstLine) {
+            this.starts = starts;
+            this.texts = texts;
+            this.end = end;
+            this.firstLine = firstLine;
+        }
+    }
+
+    private static final Lines NO_LINES = new Lines(new long[] { 0 }, new String[0], 0, -1);
+
+    /**
+     * Where to go next. Finds the start of the new top line, given the current one.
+     */
+    private abstract static class Navigation {
+        abstract long findTop(FileContent content, LineIndex index, long top, int count) throws Exception;
+
+        /**
+         * Returns a navigation doing both this one and the given one, or null if they cannot be combined.
+         */
+        Navigation combine(Navigation next) {
+            return null;
+        }
+    }
+
+    private static final class Scroll extends Navigation {
+        private final long delta;
+
+        Scroll(long delta) {
+            this.delta = delta;
+        }
+
+        @Override
+        long findTop(FileContent content, LineIndex index, long top, int count) throws Exception {
+            for (long i = 0; i < delta; i++) {
+                long next = content.nextLineStart(top);
+                if (next >= content.size()) {
+                    //already at the last line
+                    break;
+                }
+                top = next;
+            }
+            for (long i = 0; i > delta && top > 0; i--) {
+                top = content.previousLineStart(top);
+            }
+            return top;
+        }
+
+        @Override
+        Navigation combine(Navigation next) {
+            if (next instanceof Scroll) {
+                return new Scroll(delta + ((Scroll) next).delta);
+            }
+            return null;
+        }
+    }
+
+    private static final class Page extends Navigation {
+        private final int direction;
+
+        Page(int direction) {
+            this.direction = direction;
+        }
+
+        @Override
+        long findTop(FileContent content, LineIndex index, long top, int count) throws Exception {
+            return new Scroll(direction * Math.max(1, count - 1)).findTop(content, index, top, count);
+        }
+    }
+
+    private static final class Position extends Navigation {
+        private final long position;
+
+        Position(long position) {
+            this.position = position;
+        }
+
+        @Override
+        long findTop(FileContent content, LineIndex index, long top, int count) throws Exception {
+            return content.lineStart(Math.min(position, content.size()));
+        }
+    }
+
+    private static final class Tail extends Navigation {
+        @Override
+        long findTop(FileContent content, LineIndex index, long top, int count) throws Exception {
+            top = content.size();
+            for (int i = 0; i < count && top > 0; i++) {
+                top = content.previousLineStart(top);
+            }
+            return top;
+        }
+    }
+
+    private static final class Line extends Navigation {
+        private final long line;
+
+        Line(long line) {
+            this.line = line;
+        }
+
+        /**
+         * Returns true once the index got to the line, or will not get any further.
+         */
+        boolean isReady(LineIndex index) {
+            return index.getLines() > line || index.isDone() || index.getError() != null;
+        }
+
+        @Override
+        long findTop(FileContent content, LineIndex index, long top, int count) throws Exception {
+            long[] nearest = index.nearestLine(line);
+            long current = nearest[0];
+            top = nearest[1];
+
+            while (current < line) {
+                long next = content.nextLineStart(top);
+                if (next >= content.size()) {
+                    break;
+                }
+                top = next;
+                current++;
+            }
+            return top;
+        }
+    }
+
+    private final class LoadWorker extends SwingWorker<Lines, Void> {
+        private final Navigation navigation;
+        private final long top;
+        private final int count;
+
+        LoadWorker(Navigation navigation, long top, int count) {
+            this.navigation = navigation;
+            this.top = top;
+            this.count = count;
+        }
+
+        @Override
+        protected Lines doInBackground() throws Exception {
+            long newTop = navigation.findTop(content, index, top, count);
+
+            long[] starts = new long[count + 1];
+            String[] texts = new String[count];
+            long position = newTop;
+            int lines = 0;
+
+            while (lines < count && position < content.size()) {
+                long next = content.nextLineStart(position);
+                starts[lines] = position;
+                texts[lines] = content.text(position, next);
+                position = next;
+                lines++;
+            }
+            starts[lines] = position;
+
+            if (lines < count) {
+                texts = Arrays.copyOf(texts, lines);
+            }
+
+            return new Lines(starts, texts, position, lineNumber(newTop));
+        }
+
+        /**
+         * Number of the line starting at the given position, or -1 if the index did not get there yet.
+         */
+        private long lineNumber(long position) throws Exception {
+            if (position > index.getIndexedBytes() && !index.isDone()) {
+                return -1;
+            }
+
+            long[] nearest = index.nearestPosition(position);
+            long line = nearest[0];
+            long start = nearest[1];
+
+            while (start < position) {
+                start = content.nextLineStart(start);
+                line++;
+            }
+            return line;
+        }
+
+        @Override
+        protected void done() {
+            if (worker == this) {
+                worker = null;
+            }
+
+            if (isCancelled()) {
+                return;
+            }
+
+            try {
+                show(get());
+            } catch (InterruptedException | ExecutionException e) {
+                logger.error("Could not read " + path, e);
+                error = "Could not read file: " + e.getCause();
+            }
+
+            if (pending != null) {
+                Navigation next = pending;
+                pending = null;
+                navigate(next);
+            }
+        }
+    }
+
+    /**
+     * Paints the lines, with their line numbers if known.
+     */
+    private final class TextView extends JComponent {
+        private static final long serialVersionUID = 1L;
+
+        TextView() {
+            setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+            setBackground(Color.WHITE);
+            setOpaque(true);
+            setFocusable(true);
+            setPreferredSize(new Dimension(800, 600));
+        }
+
+        int getVisibleLines() {
+            return Math.max(1, getHeight() / getFontMetrics(getFont()).getHeight());
+        }
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            g.setColor(getBackground());
+            g.fillRect(0, 0, getWidth(), getHeight());
+
+            FontMetrics metrics = g.getFontMetrics(getFont());
+            g.setFont(getFont());
+
+            int gutter = 0;
+            if (lines.firstLine >= 0) {
+                gutter = metrics.stringWidth(Long.toString(lines.firstLine + lines.texts.length)) + 10;
+            }
+
+            int y = metrics.getAscent();
+            for (int i = 0; i < lines.texts.length; i++) {
+                if (lines.firstLine >= 0) {
+                    g.setColor(Color.GRAY);
+                    g.drawString(Long.toString(lines.firstLine + i + 1), 2, y);
+                }
+                g.setColor(getForeground());
+                g.drawString(lines.texts[i], gutter + 2, y);
+                y += metrics.getHeight();
+            }
+        }
+    }
+
+    private final SessionPool sessions;
+    private final String location;
+    private final RelativePath path;
+
+    private final TextView textView;
+    private final JScrollBar scrollBar;
+    private final JTextField lineField;
+    private final JLabel statusLabel;
+    private final Timer timer;
+
+    //set once opened, the file system only for remote files
+    private FileSystem fileSystem = null;
+    private FileContent content = null;
+    private LineIndex index = null;
+
+    private Lines lines = NO_LINES;
+    private String error = null;
+
+    private LoadWorker worker = null;
+    private Navigation pending = null;
+
+    //jump to a line the index did not get to yet, done by the timer once it did
+    private Line waitingFor = null;
+
+    private long scrollBarScale = 1;
+    private boolean updatingScrollBar = false;
+
+    public FileViewer(Window owner, SessionPool sessions, String location, RelativePath path) throws Exception {
+        super(owner, path.getFileName() + " - " + location);
+
+        this.sessions = sessions;
+        this.location = location;
+        this.path = path;
+
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+
+        JPanel toolBar = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 5));
+        getContentPane().add(toolBar, BorderLayout.NORTH);
+
+        Action goToLineAction = new GoToLineAction();
+
+        toolBar.add(new JButton(new TopAction()));
+        toolBar.add(new JButton(new TailAction()));
+        toolBar.add(new JLabel("Line"));
+        lineField = new JTextField(10);
+        lineField.addActionListener(goToLineAction);
+        toolBar.add(lineField);
+        toolBar.add(new JButton(goToLineAction));
+
+        textView = new TextView();
+        getContentPane().add(textView, BorderLayout.CENTER);
+
+        scrollBar = new JScrollBar(JScrollBar.VERTICAL);
+        scrollBar.setEnabled(false);
+        getContentPane().add(scrollBar, BorderLayout.EAST);
+
+        statusLabel = new JLabel("Opening...");
+        statusLabel.setBorder(new EmptyBorder(2, 5, 2, 5));
+        getContentPane().add(statusLabel, BorderLayout.SOUTH);
+
+        scrollBar.addAdjustmentListener(new AdjustmentListener() {
+            @Override
+            public void adjustmentValueChanged(AdjustmentEvent e) {
+                if (!updatingScrollBar && content != null) {
+                    navigate(new Position(e.getValue() * scrollBarScale));
+                }
+            }
+        });
+
+        textView.addMouseWheelListener(new MouseWheelListener() {
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                navigate(new Scroll(e.getWheelRotation() * WHEEL_LINES));
+            }
+        });
+
+        textView.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                textView.requestFocusInWindow();
+            }
+        });
+
+        textView.addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                //read the lines that now fit
+                navigate(new Scroll(0));
+            }
+        });
+
+        bindKey(KeyEvent.VK_UP, new Scroll(-1));
+        bindKey(KeyEvent.VK_DOWN, new Scroll(1));
+        bindKey(KeyEvent.VK_PAGE_UP, new Page(-1));
+        bindKey(KeyEvent.VK_PAGE_DOWN, new Page(1));
+        bindKey(KeyEvent.VK_HOME, new Position(0));
+        bindKey(KeyEvent.VK_END, new Tail());
+
+        timer = new Timer(UPDATE_INTERVAL, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (waitingFor != null && waitingFor.isReady(index)) {
+                    Line line = waitingFor;
+                    waitingFor = null;
+                    navigate(line);
+                }
+                updateStatus();
+            }
+        });
+
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                close();
+            }
+        });
+
+        pack();
+        setLocationRelativeTo(owner);
+
+        BackgroundExecutor.get().execute(BackgroundExecutor.Priority.INTERACTIVE, location, new OpenWorker());
+    }
+
+    private void bindKey(int keyCode, final Navigation navigation) {
+        String name = "navigate-" + keyCode;
+        textView.getInputMap(JComponent.WHEN_FOCUSED).put(KeyStroke.getKeyStroke(keyCode, 0), name);
+        textView.getActionMap().put(name, new AbstractAction() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                navigate(navigation);
+            }
+        });
+    }
+
+    private final class OpenWorker extends SwingWorker<FileContent[], Void> {
+        //set in the background, safe to read once done
+        private FileSystem openedFileSystem = null;
+
+        @Override
+        protected FileContent[] doInBackground() throws Exception {
+            Files files = sessions.getOctopus().files();
+            if (!location.equals(SessionPool.LOCAL_LOCATION)) {
+                openedFileSystem = sessions.openUnpooledFileSystem(location);
+            }
+
+            try {
+                //separate contents, so the index reading ahead does not make the stream of the lines shown re-open
+                FileContent shown = FileContent.open(files, openedFileSystem, location, path);
+                try {
+                    return new FileContent[] { shown, FileContent.open(files, openedFileSystem, location, path) };
+                } catch (Exception e) {
+                    shown.close();
+                    throw e;
+                }
+            } catch (Exception e) {
+                closeFileSystem(openedFileSystem);
+                throw e;
+            }
+        }
+
+        @Override
+        protected void done() {
+            try {
+                FileContent[] opened = get();
+
+                if (!isDisplayable()) {
+                    //closed while opening
+                    opened[0].close();
+                    opened[1].close();
+                    closeFileSystem(openedFileSystem);
+                    return;
+                }
+
+                fileSystem = openedFileSystem;
+                content = opened[0];
+                index = new LineIndex(opened[1]);
+                index.start();
+                timer.start();
+
+                scrollBarScale = content.size() / SCROLL_BAR_STEPS + 1;
+                scrollBar.setEnabled(true);
+
+                navigate(new Position(0));
+                textView.requestFocusInWindow();
+            } catch (InterruptedException | ExecutionException e) {
+                logger.error("Could not open " + path, e);
+                error = "Could not open file: " + e.getCause();
+                updateStatus();
+            }
+        }
+    }
+
+    /**
+     * Go somewhere in the file. If lines are being read already, this is done afterwards, combined with anything else
+     * still to do if possible.
+     */
+    private void navigate(Navigation navigation) {
+        if (content == null) {
+            return;
+        }
+
+        //anything else replaces a jump still waiting for the index
+        waitingFor = null;
+        if (navigation instanceof Line && !((Line) navigation).isReady(index)) {
+            waitingFor = (Line) navigation;
+            timer.start();
+            updateStatus();
+            return;
+        }
+
+        if (worker != null) {
+            if (pending != null && pending.combine(navigation) != null) {
+                pending = pending.combine(navigation);
+            } else {
+                pending = navigation;
+            }
+            return;
+        }
+
+        worker = new LoadWorker(navigation, lines.starts[0], textView.getVisibleLines());
+        BackgroundExecutor.get().execute(BackgroundExecutor.Priority.INTERACTIVE, location, worker);
+
+        if (!content.canSeek()) {
+            //show how far the read got, it may have to download a lot
+            timer.start();
+        }
+    }
+
+    private void show(Lines lines) {
+        this.lines = lines;
+        error = null;
+
+        updatingScrollBar = true;
+        long extent = Math.max(1, (lines.end - lines.starts[0]) / scrollBarScale);
+        scrollBar.setValues((int) (lines.starts[0] / scrollBarScale), (int) extent, 0,
+                (int) (content.size() / scrollBarScale + 1));
+        scrollBar.setBlockIncrement((int) extent);
+        updatingScrollBar = false;
+
+        textView.repaint();
+        updateStatus();
+    }
+
+    private void updateStatus() {
+        if (error != null) {
+            statusLabel.setText(error);
+            return;
+        }
+        if (content == null) {
+            return;
+        }
+
+        StringBuilder status = new StringBuilder();
+        status.append(String.format("%.3f Mb", content.size() / 1000000f));
+
+        if (index.getError() != null) {
+            status.append(", could not count lines");
+        } else if (index.isDone()) {
+            status.append(String.format(", %,d lines", index.getLines()));
+        } else {
+            status.append(String.format(", counting lines: %,d so far (%d%%)", index.getLines(),
+                    (100 * index.getIndexedBytes()) / Math.max(1, content.size())));
+        }
+
+        if (lines.firstLine >= 0 && lines.texts.length > 0) {
+            status.append(String.format(", showing lines %,d - %,d", lines.firstLine + 1,
+                    lines.firstLine + lines.texts.length));
+        }
+
+        if (waitingFor != null) {
+            status.append(String.format(", waiting for line %,d to be counted", waitingFor.line + 1));
+        }
+
+        int seekProgress = content.getSeekProgress();
+        if (seekProgress >= 0) {
+            status.append(String.format(", remote files can only be read from the start, read %d%% of the way", seekProgress));
+        }
+
+        statusLabel.setText(status.toString());
+
+        boolean indexing = !index.isDone() && index.getError() == null;
+        if (!indexing && waitingFor == null && worker == null) {
+            timer.stop();
+        }
+    }
+
+    private void close() {
+        timer.stop();
+        if (worker != null) {
+            worker.cancel(true);
+        }
+        if (index != null) {
+            index.close();
+        }
+        if (content != null) {
+            content.close();
+        }
+        //stops the index too, if still reading
+        closeFileSystem(fileSystem);
+    }
+
+    private void closeFileSystem(FileSystem fileSystem) {
+        if (fileSystem != null) {
+            sessions.closeUnpooledFileSystem(fileSystem);
+        }
+    }
+
+    private class TopAction extends AbstractAction {
+        private static final long serialVersionUID = 1L;
+
+        public TopAction() throws Exception {
+            putValue(NAME, "Top");
+            putValue(SHORT_DESCRIPTION, "Show the start of the file");
+
+            putValue(SMALL_ICON, Utils.loadIcon("actions/go-top.png"));
+        }
+
+        public void actionPerformed(ActionEvent e) {
+            navigate(new Position(0));
+        }
+    }
+
+    private class TailAction extends AbstractAction {
+        private static final long serialVersionUID = 1L;
+
+        public TailAction() throws Exception {
+            putValue(NAME, "Tail");
+            putValue(SHORT_DESCRIPTION, "Show the end of the file");
+
+            putValue(SMALL_ICON, Utils.loadIcon("actions/go-bottom.png"));
+        }
+
+        public void actionPerformed(ActionEvent e) {
+            navigate(new Tail());
+        }
+    }
+
+    private class GoToLineAction extends AbstractAction {
+        private static final long serialVersionUID = 1L;
+
+        public GoToLineAction() throws Exception {
+            putValue(NAME, "Go");
+            putValue(SHORT_DESCRIPTION, "Show the given line, as soon as the lines up to it are counted");
+
+            putValue(SMALL_ICON, Utils.loadIcon("actions/go-jump.png"));
+        }
+
+        public void actionPerformed(ActionEvent e) {
+            try {
+                long line = Long.parseLong(lineField.getText().trim().replace(",", ""));
+                navigate(new Line(Math.max(0, line - 1)));
+            } catch (NumberFormatException exception) {
+                statusLabel.setText("Not a line number: " + lineField.getText());
+            }
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer.viewer;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sparse index of the lines of a file, built by reading the file once in the background. Only the start of every
+ * <code>stride</code>-th line is kept. Once the maximum number of samples is reached every other sample is dropped and the
+ * stride doubled, so the index stays bounded no matter how many lines the file has.
+ *
+ * To find a line, start at the nearest sample before it and skip at most a stride worth of lines.
+ *
+ * Thread safe.
+ */
+class LineIndex implements Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(LineIndex.class);
+
+    static final int DEFAULT_MAX_SAMPLES = Integer.getInteger("octopus.explorer.viewer.index.samples", 1024 * 1024);
+
+    private static final int INITIAL_STRIDE = 256;
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final FileContent content;
+    private final int maxSamples;
+
+    private long[] samples;
+    private int count = 0;
+    private int stride = INITIAL_STRIDE;
+
+    private volatile long indexedBytes = 0;
+    private volatile long indexedLines = 0;
+    private volatile boolean done = false;
+    private volatile boolean closed = false;
+    private volatile IOException error = null;
+
+    /**
+     * @param content
+     *            content to index, read sequentially by the index and closed once done. Should not be shared, as reads
+     *            elsewhere in a remote file make its stream re-open.
+     */
+    LineIndex(FileContent content) {
+        this(content, DEFAULT_MAX_SAMPLES);
+    }
+
+    LineIndex(FileContent content, int maxSamples) {
+        this.content = content;
+        //even, so dropping every other sample leaves a sample for every stride lines
+        this.maxSamples = Math.max(2, maxSamples & ~1);
+        this.samples = new long[Math.min(1024, this.maxSamples)];
+    }
+
+    void start() {
+        Thread thread = new Thread(this, "line indexer");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Stops indexing.
+     */
+    void close() {
+        closed = true;
+    }
+
+    @Override
+    public void run() {
+        long size = content.size();
+        byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(1, size))];
+
+        long position = 0;
+        long lineStart = 0;
+        long lines = 0;
+
+        try {
+            addSample(0);
+
+            while (position < size && !closed) {
+                int read = content.read(position, buffer, 0, (int) Math.min(buffer.length, size - position));
+                if (read <= 0) {
+                    throw new IOException("unexpected end of file at " + position);
+                }
+
+                for (int i = 0; i < read; i++) {
+                    long next = position + i + 1;
+
+                    //same rule as FileContent.nextLineStart: split at line breaks, and lines that get too long
+                    if ((buffer[i] == '\n' || next - lineStart == FileContent.MAX_LINE_LENGTH) && next < size) {
+                        lineStart = next;
+                        lines++;
+                        if (lines % stride == 0) {
+                            addSample(lineStart);
+                        }
+                    }
+                }
+
+                position += read;
+                indexedLines = lines;
+                indexedBytes = position;
+            }
+
+            done = !closed;
+            logger.debug("indexed {} lines of {} bytes, stride {}", lines + 1, size, stride);
+        } catch (IOException e) {
+            if (closed) {
+                //the file was closed underneath us
+                logger.debug("stopped indexing file", e);
+                return;
+            }
+            logger.error("could not index file", e);
+            error = e;
+        } finally {
+            content.close();
+        }
+    }
+
+    private synchronized void addSample(long start) {
+        if (count == samples.length) {
+            if (samples.length < maxSamples) {
+                samples = Arrays.copyOf(samples, Math.min(maxSamples, samples.length * 2));
+            } else {
+                for (int i = 0; i < count / 2; i++) {
+                    samples[i] = samples[i * 2];
+                }
+                count = count / 2;
+                stride = stride * 2;
+            }
+        }
+
+        //the number of samples is even, so the line of this sample is a multiple of the (possibly doubled) stride
+        samples[count++] = start;
+    }
+
+    /**
+     * Returns the number and start of the nearest known line at or before the given line.
+     */
+    synchronized long[] nearestLine(long line) {
+        int index = (int) Math.max(0, Math.min(line / stride, count - 1));
+        return new long[] { (long) index * stride, samples[index] };
+    }
+
+    /**
+     * Returns the number and start of the nearest known line starting at or before the given position.
+     */
+    synchronized long[] nearestPosition(long position) {
+        int index = Arrays.binarySearch(samples, 0, count, position);
+        if (index < 0) {
+            //insertion point minus one, the last sample before the position
+            index = Math.max(0, -index - 2);
+        }
+        return new long[] { (long) index * stride, samples[index] };
+    }
+
+    /**
+     * Number of bytes indexed so far.
+     */
+    long getIndexedBytes() {
+        return indexedBytes;
+    }
+
+    /**
+     * Number of lines found so far. Once done, this is the number of lines in the file.
+     */
+    long getLines() {
+        if (content.size() == 0) {
+            return 0;
+        }
+        return indexedLines + 1;
+    }
+
+    boolean isDone() {
+        return done;
+    }
+
+    IOException getError() {
+        return error;
+    }
+}
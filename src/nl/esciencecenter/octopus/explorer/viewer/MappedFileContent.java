@@ -0,0 +1,105 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer.viewer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Content of a local file, read through memory mapped regions. Only a few regions are mapped at any time, so even files larger
+ * than the address space can be read.
+ */
+class MappedFileContent extends FileContent {
+
+    //size of a mapped region, a multiple of the page size
+    private static final long REGION_SIZE = 256L * 1024 * 1024;
+
+    private static final int MAX_REGIONS = 4;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long size;
+
+    private final Map<Long, MappedByteBuffer> regions = new LinkedHashMap<Long, MappedByteBuffer>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, MappedByteBuffer> eldest) {
+            //unmapped once garbage collected
+            return size() > MAX_REGIONS;
+        }
+    };
+
+    MappedFileContent(File file) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        this.channel = this.file.getChannel();
+        this.size = channel.size();
+    }
+
+    @Override
+    long size() {
+        return size;
+    }
+
+    private synchronized MappedByteBuffer region(long number) throws IOException {
+        MappedByteBuffer result = regions.get(number);
+
+        if (result == null) {
+            long position = number * REGION_SIZE;
+            result = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(REGION_SIZE, size - position));
+            regions.put(number, result);
+        }
+        return result;
+    }
+
+    @Override
+    int read(long position, byte[] buffer, int offset, int length) throws IOException {
+        int read = 0;
+
+        while (read < length && position < size) {
+            MappedByteBuffer region = region(position / REGION_SIZE);
+            int regionOffset = (int) (position % REGION_SIZE);
+            int count = Math.min(length - read, region.capacity() - regionOffset);
+
+            //duplicate, as the position of a shared buffer is not thread safe
+            ByteBuffer view = region.duplicate();
+            view.position(regionOffset);
+            view.get(buffer, offset + read, count);
+
+            read += count;
+            position += count;
+        }
+        return read;
+    }
+
+    @Override
+    void close() {
+        synchronized (this) {
+            regions.clear();
+        }
+        try {
+            file.close();
+        } catch (IOException e) {
+            //IGNORE
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer.viewer;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import nl.esciencecenter.octopus.files.AbsolutePath;
+import nl.esciencecenter.octopus.files.FileSystem;
+import nl.esciencecenter.octopus.files.Files;
+import nl.esciencecenter.octopus.files.RelativePath;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Content of a remote file, read through an input stream. Octopus has no positional reads, so the stream is kept open and
+ * skipped forward to the position asked for, and only re-opened to go back. Sequential reads, as done when indexing, cost a
+ * single stream.
+ *
+ * The ssh stream does not support skipping either, so skipping downloads everything skipped. Going to the end of a remote
+ * file downloads the whole file, and going back downloads the file again from the start.
+ *
+ * The file system is owned by the caller, and should stay open until this content is closed.
+ */
+class StreamFileContent extends FileContent {
+
+    private static final Logger logger = LoggerFactory.getLogger(StreamFileContent.class);
+
+    private final Files files;
+    private final AbsolutePath path;
+    private final long size;
+
+    private InputStream stream = null;
+    private volatile long streamPosition = 0;
+
+    //position skipped to and from, -1 if not skipping
+    private volatile long skipTarget = -1;
+    private volatile long skipFrom = 0;
+
+    StreamFileContent(Files files, FileSystem fileSystem, RelativePath path) throws Exception {
+        this.files = files;
+        this.path = files.newPath(fileSystem, path);
+        this.size = files.getAttributes(this.path).size();
+    }
+
+    @Override
+    long size() {
+        return size;
+    }
+
+    @Override
+    synchronized int read(long position, byte[] buffer, int offset, int length) throws IOException {
+        try {
+            if (stream == null || position < streamPosition) {
+                closeStream();
+                logger.debug("opening {} to read at {}", path, position);
+                stream = files.newInputStream(path);
+                streamPosition = 0;
+            }
+
+            skipFrom = streamPosition;
+            skipTarget = position;
+            while (streamPosition < position) {
+                long skipped = stream.skip(position - streamPosition);
+                if (skipped <= 0) {
+                    //skip is allowed to do nothing, read a byte to make progress
+                    if (stream.read() == -1) {
+                        return 0;
+                    }
+                    skipped = 1;
+                }
+                streamPosition += skipped;
+            }
+            skipTarget = -1;
+
+            int read = 0;
+            while (read < length) {
+                int count = stream.read(buffer, offset + read, length - read);
+                if (count == -1) {
+                    break;
+                }
+                read += count;
+                streamPosition += count;
+            }
+            return read;
+        } catch (IOException e) {
+            closeStream();
+            throw e;
+        } finally {
+            skipTarget = -1;
+        }
+    }
+
+    @Override
+    boolean canSeek() {
+        return false;
+    }
+
+    @Override
+    int getSeekProgress() {
+        long target = skipTarget;
+        if (target <= skipFrom) {
+            return -1;
+        }
+        //read without the lock, close enough for showing progress
+        return (int) (100 * Math.max(0, streamPosition - skipFrom) / (target - skipFrom));
+    }
+
+    private void closeStream() {
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                //IGNORE
+            }
+            stream = null;
+        }
+    }
+
+    @Override
+    synchronized void close() {
+        closeStream();
+    }
+}
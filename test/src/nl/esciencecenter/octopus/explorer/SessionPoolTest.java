@@ -0,0 +1,138 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer;
+
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import nl.esciencecenter.octopus.Octopus;
+import nl.esciencecenter.octopus.OctopusFactory;
+import nl.esciencecenter.octopus.files.FileSystem;
+import nl.esciencecenter.octopus.jobs.Scheduler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the pool keeps count of sessions borrowed more than once at the same time. The local adaptor hands out the same file
+ * system and scheduler every time, so every concurrent borrow of the local location is one.
+ */
+public class SessionPoolTest {
+
+    private static final int MAX_SESSIONS = 2;
+
+    //borrowers give up after this long, so a leaked slot fails the test instead of hanging it (in milliseconds)
+    private static final long BORROW_TIMEOUT = 2000;
+
+    private Octopus octopus;
+
+    private SessionPool sessions;
+
+    private ExecutorService borrowers;
+
+    @Before
+    public void setUp() throws Exception {
+        octopus = OctopusFactory.newOctopus(null);
+        sessions = new SessionPool(octopus, MAX_SESSIONS, 60000, 60000, BORROW_TIMEOUT);
+        borrowers = Executors.newFixedThreadPool(MAX_SESSIONS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        borrowers.shutdownNow();
+        sessions.close();
+        OctopusFactory.endOctopus(octopus);
+    }
+
+    /**
+     * Borrows the local file system from all borrower threads at the same time, returning what each of them got.
+     */
+    private FileSystem[] borrowFileSystemsConcurrently() throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+
+        @SuppressWarnings("unchecked")
+        Future<FileSystem>[] futures = new Future[MAX_SESSIONS];
+        for (int i = 0; i < MAX_SESSIONS; i++) {
+            futures[i] = borrowers.submit(new Callable<FileSystem>() {
+                @Override
+                public FileSystem call() throws Exception {
+                    start.await();
+                    return sessions.borrowFileSystem(SessionPool.LOCAL_LOCATION);
+                }
+            });
+        }
+        start.countDown();
+
+        FileSystem[] result = new FileSystem[MAX_SESSIONS];
+        for (int i = 0; i < MAX_SESSIONS; i++) {
+            result[i] = futures[i].get(BORROW_TIMEOUT * 2, TimeUnit.MILLISECONDS);
+        }
+        return result;
+    }
+
+    @Test
+    public void releaseFileSystem_sameInstanceBorrowedConcurrently_freesAllSlots() throws Exception {
+        for (int round = 0; round < 3; round++) {
+            FileSystem[] borrowed = borrowFileSystemsConcurrently();
+            assertSame(borrowed[0], borrowed[1]);
+
+            for (FileSystem fileSystem : borrowed) {
+                sessions.releaseFileSystem(SessionPool.LOCAL_LOCATION, fileSystem);
+            }
+        }
+    }
+
+    @Test
+    public void invalidateFileSystem_sameInstanceBorrowedConcurrently_freesAllSlots() throws Exception {
+        for (int round = 0; round < 3; round++) {
+            FileSystem[] borrowed = borrowFileSystemsConcurrently();
+
+            sessions.invalidateFileSystem(SessionPool.LOCAL_LOCATION, borrowed[0]);
+            sessions.releaseFileSystem(SessionPool.LOCAL_LOCATION, borrowed[1]);
+        }
+    }
+
+    @Test
+    public void abortFileSystem_sameInstanceBorrowedConcurrently_freesAllSlots() throws Exception {
+        for (int round = 0; round < 3; round++) {
+            FileSystem[] borrowed = borrowFileSystemsConcurrently();
+
+            //handing back an aborted session does nothing, the other borrower still hands back its own
+            sessions.abortFileSystem(SessionPool.LOCAL_LOCATION, borrowed[0]);
+            sessions.releaseFileSystem(SessionPool.LOCAL_LOCATION, borrowed[0]);
+            sessions.releaseFileSystem(SessionPool.LOCAL_LOCATION, borrowed[1]);
+        }
+    }
+
+    @Test
+    public void releaseScheduler_sameInstanceBorrowedTwice_freesAllSlots() throws Exception {
+        for (int round = 0; round < 3; round++) {
+            Scheduler first = sessions.borrowScheduler(SessionPool.LOCAL_LOCATION);
+            Scheduler second = sessions.borrowScheduler(SessionPool.LOCAL_LOCATION);
+            assertSame(first, second);
+
+            sessions.releaseScheduler(SessionPool.LOCAL_LOCATION, first);
+            sessions.releaseScheduler(SessionPool.LOCAL_LOCATION, second);
+        }
+    }
+}
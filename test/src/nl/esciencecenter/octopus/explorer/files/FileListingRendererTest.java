@@ -0,0 +1,132 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer.files;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.text.DateFormat;
+
+import javax.swing.JTable;
+import javax.swing.table.TableCellRenderer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that painting cells of the file table does not allocate, by counting the bytes allocated by the current thread while
+ * rendering a large number of cells.
+ */
+public class FileListingRendererTest {
+
+    private static final int ROWS = 1000;
+
+    //rounds of rendering all cells before measuring, so everything is loaded and compiled
+    private static final int WARM_UP_ROUNDS = 20;
+
+    //rounds measured, the least allocating one counts, as the JVM may allocate now and then (when recompiling for instance)
+    private static final int MEASURED_ROUNDS = 5;
+
+    //less than a byte per cell, so any allocation per cell fails the test
+    private static final long MAX_ALLOCATED_BYTES = ROWS;
+
+    private com.sun.management.ThreadMXBean threads;
+
+    private JTable table;
+
+    private Object[][] values;
+
+    @Before
+    public void setUp() throws Exception {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        MimeTypeIcons mimeTypeIcons = new MimeTypeIcons();
+        DateFormat dateFormat = FileListing.newDateFormat();
+
+        String[] extensions = new String[] { "txt", "png", "java", "tar.gz", "pdf", "unknown" };
+
+        FileListing listing = new FileListing(null);
+        for (int i = 0; i < ROWS; i++) {
+            if (i % 10 == 0) {
+                listing.add("directory" + i, 0, i * 1000L, FileListing.DIRECTORY);
+            } else {
+                listing.add("file" + i + "." + extensions[i % extensions.length], i * 100L, i * 1000L, (byte) 0);
+            }
+            listing.materialize(i, mimeTypeIcons, dateFormat);
+        }
+
+        FileListingTableModel model = new FileListingTableModel(mimeTypeIcons);
+        model.append(listing);
+
+        table = new JTable(model);
+
+        values = new Object[ROWS][model.getColumnCount()];
+        for (int row = 0; row < ROWS; row++) {
+            for (int column = 0; column < model.getColumnCount(); column++) {
+                values[row][column] = model.getValueAt(row, column);
+            }
+        }
+    }
+
+    private long allocatedWhileRendering(TableCellRenderer renderer, int column) {
+        for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+            render(renderer, column);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long result = Long.MAX_VALUE;
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            long before = threads.getThreadAllocatedBytes(threadId);
+            render(renderer, column);
+            result = Math.min(result, threads.getThreadAllocatedBytes(threadId) - before);
+        }
+        return result;
+    }
+
+    /**
+     * Renders all cells of a column, like a paint of the table does: some rows are selected, and a single cell has the focus.
+     * Changing the border for the focused cell makes Swing compare the insets of both borders, which allocates a little, but
+     * only once per paint.
+     */
+    private void render(TableCellRenderer renderer, int column) {
+        for (int row = 0; row < ROWS; row++) {
+            renderer.getTableCellRendererComponent(table, values[row][column], row % 7 == 0, row == ROWS / 2, row, column);
+        }
+    }
+
+    @Test
+    public void labelRenderer_nameColumn_doesNotAllocate() {
+        long allocated = allocatedWhileRendering(new FileListingPanel.LabelRenderer(), FileRowModel.NAME_COLUMN);
+
+        assertTrue("rendering " + ROWS + " names allocated " + allocated + " bytes", allocated < MAX_ALLOCATED_BYTES);
+    }
+
+    @Test
+    public void plainTextRenderer_textColumns_doNotAllocate() {
+        int[] columns = new int[] { FileRowModel.SIZE_COLUMN, FileRowModel.TYPE_COLUMN, FileRowModel.MODIFIED_COLUMN };
+
+        for (int column : columns) {
+            long allocated = allocatedWhileRendering(new FileListingPanel.PlainTextRenderer(), column);
+
+            assertTrue("rendering " + ROWS + " cells of column " + column + " allocated " + allocated + " bytes",
+                    allocated < MAX_ALLOCATED_BYTES);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.octopus.explorer.files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks the extension to icon table generated by the build made it into the jar, is populated, and still gives the icon
+ * mime.types does for every extension.
+ */
+public class MimeTypeTableTest {
+
+    private static MimeTypeTable table;
+
+    @BeforeClass
+    public static void loadTable() throws Exception {
+        InputStream in = MimeTypeTableTest.class.getClassLoader().getResourceAsStream(MimeTypeTable.RESOURCE);
+        assertNotNull(MimeTypeTable.RESOURCE + " is missing from the classpath", in);
+
+        try (DataInputStream data = new DataInputStream(in)) {
+            table = MimeTypeTable.read(data);
+        }
+    }
+
+    private static byte lookup(String fileName) {
+        return table.lookup(fileName, fileName.lastIndexOf('.') + 1);
+    }
+
+    @Test
+    public void size_packagedTable_isPopulated() {
+        assertTrue(MimeTypeTable.RESOURCE + " only contains " + table.size() + " extensions",
+                table.size() >= MimeTypeTableBuilder.MIN_EXTENSIONS);
+    }
+
+    @Test
+    public void lookup_knownExtensions_givesIcon() {
+        assertEquals(MimeTypeTable.IMAGE, lookup("x.png"));
+        assertEquals(MimeTypeTable.DOCUMENT, lookup("x.pdf"));
+        assertEquals(MimeTypeTable.ARCHIVE, lookup("x.tar"));
+        assertEquals(MimeTypeTable.HTML, lookup("x.html"));
+        assertEquals(MimeTypeTable.AUDIO, lookup("x.mp3"));
+    }
+
+    @Test
+    public void lookup_extensionsAddedByBuilder_givesIcon() {
+        assertEquals(MimeTypeTable.ARCHIVE, lookup("x.tar.gz"));
+        assertEquals(MimeTypeTable.TEXT, lookup("x.wiki"));
+        assertEquals(MimeTypeTable.SCRIPT, lookup("x.f90"));
+    }
+
+    @Test
+    public void lookup_upperCase_ignoresCase() {
+        assertEquals(MimeTypeTable.DOCUMENT, lookup("X.PDF"));
+        assertEquals(MimeTypeTable.IMAGE, lookup("x.Png"));
+    }
+
+    @Test
+    public void lookup_unknownExtension_givesMinusOne() {
+        assertEquals(-1, lookup("x.no-such-extension"));
+        assertEquals(-1, lookup("x."));
+    }
+
+    @Test
+    public void lookup_everyExtensionInMimeTypes_givesSameIcon() throws Exception {
+        InputStream in = MimeTypeTableTest.class.getClassLoader().getResourceAsStream("mime.types");
+        assertNotNull("mime.types is missing from the classpath", in);
+
+        Map<String, Byte> extensions;
+        try (Reader reader = new InputStreamReader(in, "UTF-8")) {
+            extensions = MimeTypeTableBuilder.parse(reader);
+        }
+
+        assertEquals(extensions.size(), table.size());
+        for (Map.Entry<String, Byte> entry : extensions.entrySet()) {
+            assertEquals("icon of " + entry.getKey(), (byte) entry.getValue(), table.lookup(entry.getKey(), 0));
+        }
+    }
+}